@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.role.operating.DetermineFuelMixRole;
+
+/**
+ * Benchmarks the per-plant hot paths: the available capacity of all plants in all segments, and the fuel mix of the plants that can
+ * co-fire. Both are measured over the whole portfolio, so the score grows with the number of plants.
+ *
+ * @author ejlchappin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PowerPlantBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int numberOfPlants;
+
+    @Param({ "20" })
+    int numberOfSegments;
+
+    @Param({ "2" })
+    int numberOfMarkets;
+
+    SyntheticPortfolio portfolio;
+    DetermineFuelMixRole fuelMixRole;
+    GraphDatabaseService graphDb;
+    double co2Price;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        portfolio = new SyntheticPortfolio(numberOfPlants, numberOfSegments, numberOfMarkets, 42);
+        fuelMixRole = portfolio.getBean(DetermineFuelMixRole.class);
+        graphDb = portfolio.getBean(GraphDatabaseService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        portfolio.close();
+    }
+
+    @Benchmark
+    public double getAvailableCapacity() {
+        double capacity = 0d;
+        for (PowerPlant plant : portfolio.plants) {
+            for (Segment segment : portfolio.segments) {
+                capacity += plant.getAvailableCapacity(0, segment, numberOfSegments);
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Calculates the fuel mix of all co-firing plants, with a CO2 price that changes on every invocation as it does in the CO2 iteration.
+     * The shares are written in the fuel mix of the plants, hence the transaction.
+     */
+    @Benchmark
+    public int calculateFuelMix() {
+        co2Price = (co2Price + 1) % 100;
+        int shares = 0;
+        Transaction tx = graphDb.beginTx();
+        try {
+            for (PowerPlant plant : portfolio.plants) {
+                if (plant.getTechnology().getNodeId().equals(portfolio.coFiringTechnology.getNodeId())) {
+                    Map<Substance, Double> substancePriceMap = new HashMap<Substance, Double>();
+                    for (Substance substance : plant.getTechnology().getFuels()) {
+                        substancePriceMap.put(substance, portfolio.fuelPrices.get(substance));
+                    }
+                    Set<SubstanceShareInFuelMix> fuelMix = fuelMixRole.calculateFuelMix(plant, substancePriceMap, co2Price);
+                    shares += fuelMix.size();
+                }
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        return shares;
+    }
+
+}
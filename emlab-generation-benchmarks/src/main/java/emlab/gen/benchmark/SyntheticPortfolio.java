@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.market.electricity.SegmentLoad;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.trend.TimeSeriesImpl;
+
+/**
+ * A synthetic world in an embedded, in-memory Neo4j store: a number of markets with their own zone, node and load duration curve, a coal
+ * technology that can co-fire biomass, a gas technology, and power plants spread randomly over the markets. Every power plant has a
+ * submitted dispatch plan for each segment at tick 0. The same parameters and seed always give the same world.
+ *
+ * @author ejlchappin
+ *
+ */
+public class SyntheticPortfolio {
+
+    static final int PLANTS_PER_TRANSACTION = 5000;
+
+    ClassPathXmlApplicationContext context;
+
+    public List<ElectricitySpotMarket> markets = new ArrayList<ElectricitySpotMarket>();
+    public List<Segment> segments = new ArrayList<Segment>();
+    public List<PowerGeneratingTechnology> technologies = new ArrayList<PowerGeneratingTechnology>();
+    public List<EnergyProducer> producers = new ArrayList<EnergyProducer>();
+    public List<PowerPlant> plants = new ArrayList<PowerPlant>();
+    public Map<Substance, Double> fuelPrices = new HashMap<Substance, Double>();
+    public PowerGeneratingTechnology coFiringTechnology;
+    public List<PowerGridNode> nodes = new ArrayList<PowerGridNode>();
+    public Government government;
+    public DecarbonizationModel model;
+
+    private double[] capacityPerMarket;
+
+    /**
+     * Starts a new application context with an empty store and fills it.
+     *
+     * @param numberOfPlants
+     *            the number of power plants, over all markets
+     * @param numberOfSegments
+     *            the number of segments of each load duration curve
+     * @param numberOfMarkets
+     *            the number of markets
+     * @param seed
+     *            the seed of the random plant properties
+     */
+    public SyntheticPortfolio(int numberOfPlants, int numberOfSegments, int numberOfMarkets, long seed) {
+        context = new ClassPathXmlApplicationContext("emlab-gen-benchmark-context.xml");
+        GraphDatabaseService graphDb = context.getBean("graphDbService", GraphDatabaseService.class);
+        Random random = new Random(seed);
+        capacityPerMarket = new double[numberOfMarkets];
+
+        Transaction tx = graphDb.beginTx();
+        try {
+            createWorld(numberOfSegments, numberOfMarkets);
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+
+        for (int created = 0; created < numberOfPlants; created += PLANTS_PER_TRANSACTION) {
+            tx = graphDb.beginTx();
+            try {
+                for (int i = created; i < Math.min(created + PLANTS_PER_TRANSACTION, numberOfPlants); i++) {
+                    createPowerPlantWithDispatchPlans(i, random);
+                }
+                tx.success();
+            } finally {
+                tx.finish();
+            }
+        }
+
+        tx = graphDb.beginTx();
+        try {
+            setLoads();
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    /**
+     * Sets the CO2 cap of the government for all ticks.
+     */
+    public void setCo2Cap(double co2Cap) {
+        GraphDatabaseService graphDb = context.getBean("graphDbService", GraphDatabaseService.class);
+        Transaction tx = graphDb.beginTx();
+        try {
+            TimeSeriesImpl co2CapTrend = government.getCo2CapTrend();
+            double[] values = co2CapTrend.getTimeSeries();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = co2Cap;
+            }
+            co2CapTrend.setTimeSeries(values);
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public void close() {
+        context.close();
+    }
+
+    private void createWorld(int numberOfSegments, int numberOfMarkets) {
+        Substance coal = createSubstance("Coal", 0.95, 29.0, 2.6, 3.0);
+        Substance biomass = createSubstance("Biomass", 0.5, 15.0, 0, 5.0);
+        Substance gas = createSubstance("Gas", 1.0, 36.0, 2.0, 8.0);
+
+        coFiringTechnology = createTechnology("Coal PSC", 750, 0.8, coal, biomass);
+        technologies.add(coFiringTechnology);
+        technologies.add(createTechnology("CCGT", 400, 0.9, gas));
+
+        for (int s = 0; s < numberOfSegments; s++) {
+            Segment segment = new Segment();
+            segment.setSegmentID(s + 1);
+            segment.setLengthInHours(8760d / numberOfSegments);
+            segment.persist();
+            segments.add(segment);
+        }
+
+        for (int m = 0; m < numberOfMarkets; m++) {
+            Zone zone = new Zone();
+            zone.setName("Zone " + m);
+            zone.persist();
+
+            PowerGridNode node = new PowerGridNode();
+            node.setZone(zone);
+            node.setCapacityMultiplicationFactor(1);
+            node.persist();
+            nodes.add(node);
+
+            Set<SegmentLoad> loadDurationCurve = new HashSet<SegmentLoad>();
+            for (int s = 0; s < numberOfSegments; s++) {
+                SegmentLoad segmentLoad = new SegmentLoad();
+                segmentLoad.setSegment(segments.get(s));
+                segmentLoad.setBaseLoad(0);
+                segmentLoad.persist();
+                loadDurationCurve.add(segmentLoad);
+            }
+
+            ElectricitySpotMarket market = new ElectricitySpotMarket();
+            market.setName("Market " + m);
+            market.setZone(zone);
+            market.setValueOfLostLoad(2000);
+            market.setLoadDurationCurve(loadDurationCurve);
+            market.setDemandGrowthTrend(createConstantTimeSeries(1));
+            market.persist();
+            markets.add(market);
+
+            for (int p = 0; p < 5; p++) {
+                EnergyProducer producer = new EnergyProducer();
+                producer.setName("Producer " + m + "-" + p);
+                producer.setPriceMarkUp(1);
+                producer.setInvestorMarket(market);
+                producer.persist();
+                producers.add(producer);
+            }
+        }
+
+        government = new Government();
+        government.setCo2CapTrend(createConstantTimeSeries(Double.MAX_VALUE / 2));
+        government.setCo2TaxTrend(createConstantTimeSeries(0));
+        government.setMinCo2PriceTrend(createConstantTimeSeries(0));
+        government.setCo2Penalty(500);
+        government.persist();
+
+        model = new DecarbonizationModel();
+        model.setCapDeviationCriterion(0.03);
+        model.persist();
+    }
+
+    private Substance createSubstance(String name, double quality, double energyDensity, double co2Density, double price) {
+        Substance substance = new Substance();
+        substance.setName(name);
+        substance.setQuality(quality);
+        substance.setEnergyDensity(energyDensity);
+        substance.setCo2Density(co2Density);
+        substance.persist();
+        fuelPrices.put(substance, price);
+        return substance;
+    }
+
+    private PowerGeneratingTechnology createTechnology(String name, double capacity, double minimumFuelQuality, Substance... fuels) {
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology();
+        technology.setName(name);
+        technology.setCapacity(capacity);
+        technology.setMinimumFuelQuality(minimumFuelQuality);
+        technology.setBaseSegmentDependentAvailability(0.95);
+        technology.setPeakSegmentDependentAvailability(0.8);
+        technology.setExpectedLifetime(40);
+        technology.setExpectedLeadtime(4);
+        technology.setExpectedPermittime(1);
+        Set<Substance> fuelSet = new HashSet<Substance>();
+        for (Substance fuel : fuels) {
+            fuelSet.add(fuel);
+        }
+        technology.setFuels(fuelSet);
+        technology.persist();
+        return technology;
+    }
+
+    private TimeSeriesImpl createConstantTimeSeries(double value) {
+        TimeSeriesImpl timeSeries = new TimeSeriesImpl();
+        double[] values = new double[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value;
+        }
+        timeSeries.setTimeSeries(values);
+        timeSeries.persist();
+        return timeSeries;
+    }
+
+    private void createPowerPlantWithDispatchPlans(int index, Random random) {
+        int m = random.nextInt(markets.size());
+        ElectricitySpotMarket market = markets.get(m);
+        EnergyProducer producer = producers.get(m * 5 + random.nextInt(5));
+        PowerGeneratingTechnology technology = technologies.get(random.nextInt(technologies.size()));
+        PowerGridNode node = nodes.get(m);
+
+        PowerPlant plant = new PowerPlant();
+        plant.setName("Plant " + index);
+        plant.setTechnology(technology);
+        plant.setOwner(producer);
+        plant.setLocation(node);
+        long age = random.nextInt(40);
+        plant.setActualLeadtime(technology.getExpectedLeadtime());
+        plant.setActualPermittime(technology.getExpectedPermittime());
+        plant.setConstructionStartTime(-(technology.getExpectedLeadtime() + technology.getExpectedPermittime() + age));
+        plant.setActualLifetime(technology.getExpectedLifetime());
+        plant.setExpectedEndOfLife(technology.getExpectedLifetime() - age);
+        plant.setDismantleTime(1000);
+        plant.setActualNominalCapacity(technology.getCapacity());
+        plant.setActualEfficiency(0.35 + random.nextDouble() * 0.25);
+        plant.persist();
+
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        for (Substance fuel : technology.getFuels()) {
+            SubstanceShareInFuelMix share = new SubstanceShareInFuelMix();
+            share.persist();
+            share.setSubstance(fuel);
+            share.setShare(3600 / plant.getActualEfficiency() / fuel.getEnergyDensity() / technology.getFuels().size());
+            fuelMix.add(share);
+        }
+        plant.setFuelMix(fuelMix);
+        plants.add(plant);
+
+        double bid = 10 + random.nextDouble() * 60;
+        for (Segment segment : segments) {
+            PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+            plan.persist();
+            plan.specifyNotPersist(plant, producer, market, segment, 0, bid, bid, technology.getCapacity(), 0, Bid.SUBMITTED);
+        }
+        capacityPerMarket[m] += technology.getCapacity();
+    }
+
+    /**
+     * Lets the load be 60 to 90 percent of the capacity in the market, from the peak to the base segment.
+     */
+    private void setLoads() {
+        for (int m = 0; m < markets.size(); m++) {
+            for (SegmentLoad segmentLoad : markets.get(m).getLoadDurationCurve()) {
+                segmentLoad.setBaseLoad(capacityPerMarket[m]
+                        * (0.9 - 0.3 * (segmentLoad.getSegment().getSegmentID() - 1) / Math.max(1, segments.size() - 1)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.benchmark.SyntheticPortfolio;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.role.investment.ExpectedMeritOrderCache.CachedMeritOrder;
+
+/**
+ * Benchmarks the construction of the expected merit order that backs the MarketInformation of the investment role, from the query of the
+ * expected operational power plants to the expected price per segment. The cache is bypassed, so every invocation builds the merit order
+ * from the graph as the first investor of a tick does.
+ *
+ * @author JCRichstein
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarketInformationBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int numberOfPlants;
+
+    @Param({ "20" })
+    int numberOfSegments;
+
+    @Param({ "2" })
+    int numberOfMarkets;
+
+    SyntheticPortfolio portfolio;
+    InvestInPowerGenerationTechnologiesRole<EnergyProducer> role;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        portfolio = new SyntheticPortfolio(numberOfPlants, numberOfSegments, numberOfMarkets, 42);
+        role = new InvestInPowerGenerationTechnologiesRole<EnergyProducer>();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        portfolio.close();
+    }
+
+    @Benchmark
+    public Map<Segment, Double> createMarketInformation() {
+        CachedMeritOrder cached = role.createMeritOrder(portfolio.markets.get(0), 1, portfolio.fuelPrices, 10, 5);
+        return cached.meritOrder.getExpectedElectricityPricesPerSegment();
+    }
+
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import emlab.gen.benchmark.SyntheticPortfolio;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.market.AbstractClearElectricitySpotMarketRole.CO2SecantSearch;
+import emlab.gen.role.market.AbstractClearElectricitySpotMarketRole.GlobalSegmentClearingOutcome;
+import emlab.gen.util.Utils;
+
+/**
+ * Benchmarks the clearing of the electricity spot market: the global clearing of one segment on the dispatch plans in the graph, the
+ * clearing of all segments on the in-memory {@link MeritOrderClearingEngine}, and the CO2 secant search driving the latter. It lives in
+ * the package of the clearing roles to reach their package-private methods.
+ *
+ * @author ejlchappin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarketClearingBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int numberOfPlants;
+
+    @Param({ "20" })
+    int numberOfSegments;
+
+    @Param({ "2" })
+    int numberOfMarkets;
+
+    SyntheticPortfolio portfolio;
+    ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole role;
+    MeritOrderClearingEngine meritOrder;
+    Segment segment;
+    Map<ElectricitySpotMarket, Double> loads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        portfolio = new SyntheticPortfolio(numberOfPlants, numberOfSegments, numberOfMarkets, 42);
+        role = portfolio.getBean(ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole.class);
+        Reps reps = portfolio.getBean(Reps.class);
+
+        segment = portfolio.segments.get(0);
+        loads = role.determineActualDemandForSpotMarkets(segment);
+
+        List<PowerPlantDispatchPlan> plans = Utils.asList(reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(0));
+        Map<ElectricitySpotMarket, Double> nationalMinCo2Prices = new HashMap<ElectricitySpotMarket, Double>();
+        for (ElectricitySpotMarket market : portfolio.markets) {
+            nationalMinCo2Prices.put(market, 0d);
+        }
+        meritOrder = role.createMeritOrderClearingEngine(plans, new ArrayList<ElectricitySpotMarket>(portfolio.markets),
+                portfolio.segments, 0, nationalMinCo2Prices, false);
+
+        // Let the cap be 80% of the emissions without a CO2 price, so that
+        // the secant search has to work for its price.
+        meritOrder.updatePricesForCO2Price(0);
+        portfolio.setCo2Cap(0.8 * meritOrder.clear());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        portfolio.close();
+    }
+
+    @Benchmark
+    public double clearGlobalMarketWithNoCapacityConstraints() {
+        GlobalSegmentClearingOutcome globalOutcome = role.new GlobalSegmentClearingOutcome();
+        globalOutcome.loads = loads;
+        globalOutcome.globalLoad = role.determineTotalLoadFromLoadMap(loads);
+        for (ElectricitySpotMarket market : portfolio.markets) {
+            globalOutcome.supplies.put(market, 0d);
+        }
+        return role.clearGlobalMarketWithNoCapacityConstraints(segment, globalOutcome);
+    }
+
+    @Benchmark
+    public double clearMeritOrderClearingEngine() {
+        meritOrder.updatePricesForCO2Price(10);
+        return meritOrder.clear();
+    }
+
+    /**
+     * A full CO2 secant search on the in-memory merit order.
+     */
+    @Benchmark
+    public double co2PriceSecantSearchUpdate() {
+        CO2SecantSearch co2SecantSearch = role.new CO2SecantSearch();
+        co2SecantSearch.stable = false;
+        co2SecantSearch.co2Price = 10;
+        int iteration = 0;
+        while (!co2SecantSearch.stable && iteration++ < 100) {
+            meritOrder.updatePricesForCO2Price(co2SecantSearch.co2Price);
+            double co2Emissions = meritOrder.clear();
+            co2SecantSearch = role.co2PriceSecantSearchUpdate(co2SecantSearch, portfolio.model, portfolio.government, co2Emissions);
+        }
+        return co2SecantSearch.co2Price;
+    }
+
+}
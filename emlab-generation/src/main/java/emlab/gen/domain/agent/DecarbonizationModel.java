@@ -53,6 +53,42 @@ public class DecarbonizationModel extends AbstractAgent implements Agent {
     @SimulationParameter(label = "Deletion age")
     private long deletionAge;
 
+    @SimulationParameter(label = "Roll up old bids and cash flows before deletion")
+    private boolean rollUpBeforeDeletionEnabled;
+
+    @SimulationParameter(label = "Old nodes deleted per transaction (0 = default)")
+    private int deletionBatchSize;
+
+    @SimulationParameter(label = "Clear electricity spot market segments in parallel")
+    private boolean parallelSegmentClearingEnabled;
+
+    @SimulationParameter(label = "Evaluate investment candidates in parallel")
+    private boolean parallelInvestmentEvaluationEnabled;
+
+    @SimulationParameter(label = "Let producers invest in simultaneous rounds")
+    private boolean simultaneousInvestmentEnabled;
+
+    @SimulationParameter(label = "Consider all nodes of the investor's zone for investments")
+    private boolean investmentInAllNodesOfZoneEnabled;
+
+    @SimulationParameter(label = "Dispatch plans written per transaction (0 = all)")
+    private int dispatchPlanBatchSize;
+
+    @SimulationParameter(label = "Clear the CO2 market exactly by a breakpoint search")
+    private boolean exactCo2ClearingEnabled;
+
+    @SimulationParameter(label = "Write a profile of every tick")
+    private boolean tickProfilingEnabled;
+
+    @SimulationParameter(label = "Keep clearing prices in the price history only, without clearing point nodes")
+    private boolean priceHistoryOnlyEnabled;
+
+    @SimulationParameter(label = "Settle the payments of all power plants in one pass")
+    private boolean singlePassSettlementEnabled;
+
+    @SimulationParameter(label = "Write one cash flow per payer, payee and type instead of one per power plant")
+    private boolean aggregatedCashFlowsEnabled;
+
     public boolean isRealRenewableDataImplemented() {
         return realRenewableDataImplemented;
     }
@@ -167,4 +203,100 @@ public class DecarbonizationModel extends AbstractAgent implements Agent {
         this.exitSimulationAfterSimulationLength = exitSimulationAfterSimulationLength;
     }
 
+    public boolean isParallelSegmentClearingEnabled() {
+        return parallelSegmentClearingEnabled;
+    }
+
+    public void setParallelSegmentClearingEnabled(boolean parallelSegmentClearingEnabled) {
+        this.parallelSegmentClearingEnabled = parallelSegmentClearingEnabled;
+    }
+
+    public boolean isParallelInvestmentEvaluationEnabled() {
+        return parallelInvestmentEvaluationEnabled;
+    }
+
+    public void setParallelInvestmentEvaluationEnabled(boolean parallelInvestmentEvaluationEnabled) {
+        this.parallelInvestmentEvaluationEnabled = parallelInvestmentEvaluationEnabled;
+    }
+
+    public boolean isSimultaneousInvestmentEnabled() {
+        return simultaneousInvestmentEnabled;
+    }
+
+    public void setSimultaneousInvestmentEnabled(boolean simultaneousInvestmentEnabled) {
+        this.simultaneousInvestmentEnabled = simultaneousInvestmentEnabled;
+    }
+
+    public boolean isInvestmentInAllNodesOfZoneEnabled() {
+        return investmentInAllNodesOfZoneEnabled;
+    }
+
+    public void setInvestmentInAllNodesOfZoneEnabled(boolean investmentInAllNodesOfZoneEnabled) {
+        this.investmentInAllNodesOfZoneEnabled = investmentInAllNodesOfZoneEnabled;
+    }
+
+    public boolean isExactCo2ClearingEnabled() {
+        return exactCo2ClearingEnabled;
+    }
+
+    public void setExactCo2ClearingEnabled(boolean exactCo2ClearingEnabled) {
+        this.exactCo2ClearingEnabled = exactCo2ClearingEnabled;
+    }
+
+    public int getDispatchPlanBatchSize() {
+        return dispatchPlanBatchSize;
+    }
+
+    public void setDispatchPlanBatchSize(int dispatchPlanBatchSize) {
+        this.dispatchPlanBatchSize = dispatchPlanBatchSize;
+    }
+
+    public boolean isTickProfilingEnabled() {
+        return tickProfilingEnabled;
+    }
+
+    public void setTickProfilingEnabled(boolean tickProfilingEnabled) {
+        this.tickProfilingEnabled = tickProfilingEnabled;
+    }
+
+    public boolean isPriceHistoryOnlyEnabled() {
+        return priceHistoryOnlyEnabled;
+    }
+
+    public void setPriceHistoryOnlyEnabled(boolean priceHistoryOnlyEnabled) {
+        this.priceHistoryOnlyEnabled = priceHistoryOnlyEnabled;
+    }
+
+    public boolean isRollUpBeforeDeletionEnabled() {
+        return rollUpBeforeDeletionEnabled;
+    }
+
+    public void setRollUpBeforeDeletionEnabled(boolean rollUpBeforeDeletionEnabled) {
+        this.rollUpBeforeDeletionEnabled = rollUpBeforeDeletionEnabled;
+    }
+
+    public int getDeletionBatchSize() {
+        return deletionBatchSize;
+    }
+
+    public void setDeletionBatchSize(int deletionBatchSize) {
+        this.deletionBatchSize = deletionBatchSize;
+    }
+
+    public boolean isSinglePassSettlementEnabled() {
+        return singlePassSettlementEnabled;
+    }
+
+    public void setSinglePassSettlementEnabled(boolean singlePassSettlementEnabled) {
+        this.singlePassSettlementEnabled = singlePassSettlementEnabled;
+    }
+
+    public boolean isAggregatedCashFlowsEnabled() {
+        return aggregatedCashFlowsEnabled;
+    }
+
+    public void setAggregatedCashFlowsEnabled(boolean aggregatedCashFlowsEnabled) {
+        this.aggregatedCashFlowsEnabled = aggregatedCashFlowsEnabled;
+    }
+
 }
@@ -16,6 +16,7 @@
 package emlab.gen.domain.contract;
 
 import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.data.neo4j.annotation.RelatedTo;
 
@@ -48,6 +49,7 @@ public class CashFlow {
 
     private int type;
     private double money;
+    @Indexed(indexName = "cashFlowTime")
     private long time;
 
     public long getTime() {
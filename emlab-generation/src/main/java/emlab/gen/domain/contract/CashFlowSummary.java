@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.contract;
+
+import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.Indexed;
+import org.springframework.data.neo4j.annotation.NodeEntity;
+import org.springframework.data.neo4j.annotation.RelatedTo;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+
+/**
+ * The cash flows of one tick rolled up before they are deleted: one summary per paying agent, receiving agent and type of cash flow.
+ *
+ * @author ejlchappin
+ *
+ */
+@NodeEntity
+public class CashFlowSummary {
+
+    @RelatedTo(type = "SUMMARY_FROM_AGENT", elementClass = DecarbonizationAgent.class, direction = Direction.OUTGOING)
+    private DecarbonizationAgent from;
+
+    @RelatedTo(type = "SUMMARY_TO_AGENT", elementClass = DecarbonizationAgent.class, direction = Direction.OUTGOING)
+    private DecarbonizationAgent to;
+
+    @Indexed(indexName = "cashFlowSummaryTime")
+    private long time;
+    private int type;
+    private long numberOfCashFlows;
+    private double money;
+
+    public DecarbonizationAgent getFrom() {
+        return from;
+    }
+
+    public void setFrom(DecarbonizationAgent from) {
+        this.from = from;
+    }
+
+    public DecarbonizationAgent getTo() {
+        return to;
+    }
+
+    public void setTo(DecarbonizationAgent to) {
+        this.to = to;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public long getNumberOfCashFlows() {
+        return numberOfCashFlows;
+    }
+
+    public void setNumberOfCashFlows(long numberOfCashFlows) {
+        this.numberOfCashFlows = numberOfCashFlows;
+    }
+
+    public double getMoney() {
+        return money;
+    }
+
+    public void setMoney(double money) {
+        this.money = money;
+    }
+
+}
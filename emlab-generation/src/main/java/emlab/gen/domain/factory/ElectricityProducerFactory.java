@@ -32,6 +32,7 @@ import emlab.gen.domain.market.electricity.SegmentLoad;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGridNode;
 import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.DiscountFactors;
 
 public class ElectricityProducerFactory implements InitializingBean {
 
@@ -185,10 +186,7 @@ public class ElectricityProducerFactory implements InitializingBean {
 
     public double determineLoanAnnuities(double totalLoan, double payBackTime, double interestRate) {
 
-        double q = 1 + interestRate;
-        double annuity = totalLoan * (Math.pow(q, payBackTime) * (q - 1)) / (Math.pow(q, payBackTime) - 1);
-
-        return annuity;
+        return DiscountFactors.loanAnnuity(totalLoan, payBackTime, interestRate);
     }
 
 }
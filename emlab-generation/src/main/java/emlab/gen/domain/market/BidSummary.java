@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.domain.market;
+
+import org.neo4j.graphdb.Direction;
+import org.springframework.data.neo4j.annotation.Indexed;
+import org.springframework.data.neo4j.annotation.NodeEntity;
+import org.springframework.data.neo4j.annotation.RelatedTo;
+
+import emlab.gen.domain.market.electricity.Segment;
+
+/**
+ * The bids of one tick in one market rolled up before they are deleted: one summary per market, segment (for dispatch plans) and side.
+ *
+ * @author ejlchappin
+ *
+ */
+@NodeEntity
+public class BidSummary {
+
+    @RelatedTo(type = "SUMMARY_MARKET", elementClass = DecarbonizationMarket.class, direction = Direction.OUTGOING)
+    private DecarbonizationMarket market;
+
+    @RelatedTo(type = "SUMMARY_SEGMENT", elementClass = Segment.class, direction = Direction.OUTGOING)
+    private Segment segment;
+
+    @Indexed(indexName = "bidSummaryTime")
+    private long time;
+    private boolean supplyBid;
+    private boolean dispatchPlan;
+    private long numberOfBids;
+    private double amount;
+    private double acceptedAmount;
+    private double averagePrice;
+    private double minimumPrice;
+    private double maximumPrice;
+
+    public DecarbonizationMarket getMarket() {
+        return market;
+    }
+
+    public void setMarket(DecarbonizationMarket market) {
+        this.market = market;
+    }
+
+    public Segment getSegment() {
+        return segment;
+    }
+
+    public void setSegment(Segment segment) {
+        this.segment = segment;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public boolean isSupplyBid() {
+        return supplyBid;
+    }
+
+    public void setSupplyBid(boolean supplyBid) {
+        this.supplyBid = supplyBid;
+    }
+
+    public boolean isDispatchPlan() {
+        return dispatchPlan;
+    }
+
+    public void setDispatchPlan(boolean dispatchPlan) {
+        this.dispatchPlan = dispatchPlan;
+    }
+
+    public long getNumberOfBids() {
+        return numberOfBids;
+    }
+
+    public void setNumberOfBids(long numberOfBids) {
+        this.numberOfBids = numberOfBids;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public void setAmount(double amount) {
+        this.amount = amount;
+    }
+
+    public double getAcceptedAmount() {
+        return acceptedAmount;
+    }
+
+    public void setAcceptedAmount(double acceptedAmount) {
+        this.acceptedAmount = acceptedAmount;
+    }
+
+    /**
+     * @return the average price of the bids, weighted by their amount
+     */
+    public double getAveragePrice() {
+        return averagePrice;
+    }
+
+    public void setAveragePrice(double averagePrice) {
+        this.averagePrice = averagePrice;
+    }
+
+    public double getMinimumPrice() {
+        return minimumPrice;
+    }
+
+    public void setMinimumPrice(double minimumPrice) {
+        this.minimumPrice = minimumPrice;
+    }
+
+    public double getMaximumPrice() {
+        return maximumPrice;
+    }
+
+    public void setMaximumPrice(double maximumPrice) {
+        this.maximumPrice = maximumPrice;
+    }
+
+}
@@ -154,6 +154,7 @@ public class PowerPlantDispatchPlan extends Bid {
         this.setPowerPlant(plant);
         this.setSegment(segment);
         this.setTime(time);
+        this.setPpdpTime((int) time);
         this.setBidder(producer);
         this.setBiddingMarket(market);
         this.setPrice(price);
@@ -29,7 +29,10 @@ import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.repository.PowerPlantCapacityAggregateRepository;
 import emlab.gen.repository.PowerPlantDispatchPlanRepository;
+import emlab.gen.repository.PowerPlantLifecycleRepository;
+import emlab.gen.repository.ProductionLedgerRepository;
 
 /**
  * Representation of a power plant
@@ -47,6 +50,18 @@ public class PowerPlant {
     @Autowired
     private PowerPlantDispatchPlanRepository powerPlantDispatchPlanRepository;
 
+    @Transient
+    @Autowired
+    private PowerPlantCapacityAggregateRepository powerPlantCapacityAggregateRepository;
+
+    @Transient
+    @Autowired
+    private PowerPlantLifecycleRepository powerPlantLifecycleRepository;
+
+    @Transient
+    @Autowired
+    private ProductionLedgerRepository productionLedgerRepository;
+
     @RelatedTo(type = "TECHNOLOGY", elementClass = PowerGeneratingTechnology.class, direction = Direction.OUTGOING)
     private PowerGeneratingTechnology technology;
 
@@ -427,6 +442,10 @@ public class PowerPlant {
 
     public double calculateElectricityOutputAtTime(long time) {
         // TODO This is in MWh (so hours of segment included!!)
+        Double recordedOutput = productionLedgerRepository.findElectricityOutput(this, time);
+        if (recordedOutput != null) {
+            return recordedOutput;
+        }
         double amount = 0d;
         for (PowerPlantDispatchPlan plan : powerPlantDispatchPlanRepository
                 .findAllPowerPlantDispatchPlansForPowerPlantForTime(this, time)) {
@@ -438,6 +457,10 @@ public class PowerPlant {
     }
 
     public double calculateCO2EmissionsAtTime(long time) {
+        Double recordedEmissions = productionLedgerRepository.findCO2Emissions(this, time);
+        if (recordedEmissions != null) {
+            return recordedEmissions;
+        }
         return this.calculateEmissionIntensity()
                 * calculateElectricityOutputAtTime(time);
     }
@@ -445,6 +468,8 @@ public class PowerPlant {
     @Transactional
     public void dismantlePowerPlant(long time) {
         this.setDismantleTime(time);
+        powerPlantCapacityAggregateRepository.update(this);
+        powerPlantLifecycleRepository.update(this);
     }
 
     /**
@@ -466,6 +491,8 @@ public class PowerPlant {
             PowerGridNode location, PowerGeneratingTechnology technology) {
         specifyNotPersist(time, energyProducer, location, technology);
         this.persist();
+        powerPlantCapacityAggregateRepository.update(this);
+        powerPlantLifecycleRepository.update(this);
     }
 
     public void specifyNotPersist(long time, EnergyProducer energyProducer,
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Writes the {@link PowerPlantDispatchPlan}s of a tick in bulk. Offers are first collected in memory as {@link DispatchPlanOffer}s, existing
+ * plans of the tick are found with one lookup on the ppdpTime index, and the offers are then written in batches, one transaction per batch.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class BatchPowerPlantDispatchPlanRepository extends AbstractRepository<PowerPlantDispatchPlan> {
+
+    /**
+     * An offer of one power plant for one segment, not yet written to the graph.
+     */
+    public static class DispatchPlanOffer {
+        public PowerPlant plant;
+        public EnergyProducer producer;
+        public ElectricitySpotMarket market;
+        public Segment segment;
+        public double price;
+        public double bidWithoutCO2;
+        public double capacity;
+        /**
+         * The plan of this tick that already exists for this plant and segment, or null if a new one has to be made.
+         */
+        public PowerPlantDispatchPlan existingPlan;
+
+        public DispatchPlanOffer(PowerPlant plant, EnergyProducer producer, ElectricitySpotMarket market, Segment segment, double price,
+                double bidWithoutCO2, double capacity) {
+            this.plant = plant;
+            this.producer = producer;
+            this.market = market;
+            this.segment = segment;
+            this.price = price;
+            this.bidWithoutCO2 = bidWithoutCO2;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Finds all dispatch plans of a tick with a single lookup on the ppdpTime index.
+     *
+     * @param time
+     *            the tick
+     * @return the plans, keyed by {@link #key(PowerPlant, Segment)}
+     */
+    public Map<String, PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForTimeByPowerPlantAndSegment(long time) {
+        Map<String, PowerPlantDispatchPlan> plans = new HashMap<String, PowerPlantDispatchPlan>();
+        for (PowerPlantDispatchPlan plan : findAllByPropertyValue("ppdpTime", (int) time)) {
+            plans.put(key(plan.getPowerPlant(), plan.getSegment()), plan);
+        }
+        return plans;
+    }
+
+    public static String key(PowerPlant plant, Segment segment) {
+        return plant.getNodeId() + "/" + segment.getNodeId();
+    }
+
+    /**
+     * Creates or updates the dispatch plans for a batch of offers, in one transaction.
+     *
+     * @param offers
+     *            the batch
+     * @param time
+     *            the tick
+     */
+    @Transactional
+    public void createOrUpdatePowerPlantDispatchPlans(List<DispatchPlanOffer> offers, long time) {
+        for (DispatchPlanOffer offer : offers) {
+            PowerPlantDispatchPlan plan = offer.existingPlan;
+            if (plan == null) {
+                plan = new PowerPlantDispatchPlan().persist();
+                plan.specifyNotPersist(offer.plant, offer.producer, offer.market, offer.segment, time, offer.price, offer.bidWithoutCO2,
+                        offer.capacity, 0, Bid.SUBMITTED);
+            } else {
+                plan.setBidder(offer.producer);
+                plan.setBiddingMarket(offer.market);
+                plan.setPrice(offer.price);
+                plan.setBidWithoutCO2(offer.bidWithoutCO2);
+                plan.setAmount(offer.capacity);
+                plan.setCapacityLongTermContract(0d);
+                plan.setStatus(Bid.SUBMITTED);
+            }
+        }
+        logger.info("Wrote " + offers.size() + " power plant dispatch plans for tick " + time);
+    }
+
+}
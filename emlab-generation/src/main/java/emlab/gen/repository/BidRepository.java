@@ -47,8 +47,6 @@ public interface BidRepository extends GraphRepository<Bid> {
 	// public Iterable<Bid> findDemandBidsForMarketForTime(@Param("market")
 	// DecarbonizationMarket market, @Param("time") long time);
 
-	@Query("START bid=node:__types__(\"className:emlab.gen.domain.market.Bid\") WHERE (bid.time={time}) RETURN bid")
-	Iterable<Bid> findAllBidsForForTime(@Param("time") long time);
 
 	@Query("START market=node({market}) MATCH (market)<-[:BIDDINGMARKET]-(bid) WHERE (bid.time = {time}) and (bid.supplyBid=false) RETURN bid ORDER BY bid.price desc")
 	Iterable<Bid> findDemandBidsForMarketForTime(@Param("market") DecarbonizationMarket market, @Param("time") long time);
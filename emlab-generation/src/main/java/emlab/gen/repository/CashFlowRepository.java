@@ -15,14 +15,10 @@
  ******************************************************************************/
 package emlab.gen.repository;
 
-import org.springframework.data.neo4j.annotation.Query;
 import org.springframework.data.neo4j.repository.GraphRepository;
-import org.springframework.data.repository.query.Param;
 
 import emlab.gen.domain.contract.CashFlow;
 
 public interface CashFlowRepository extends GraphRepository<CashFlow> {
-    @Query("START cf=node:__types__(\"className:emlab.gen.domain.contract.CashFlow\") WHERE (cf.time={time}) RETURN cf")
-    Iterable<CashFlow> findAllCashFlowsForForTime(@Param("time") long time);
 
 }
@@ -15,9 +15,12 @@
  ******************************************************************************/
 package emlab.gen.repository;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -42,6 +45,27 @@ import emlab.gen.util.Utils;
 @Repository
 public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint> {
 
+    @Autowired
+    PriceHistoryRepository priceHistoryRepository;
+
+    /**
+     * The number of clearing points created or updated per market, by node id, for the caches of prices.
+     */
+    private final Map<Long, Long> numberOfChangesPerMarket = new HashMap<Long, Long>();
+
+    /**
+     * Registers that a clearing point of the market was created or updated outside this repository.
+     */
+    public synchronized void registerChange(DecarbonizationMarket market) {
+        Long numberOfChanges = numberOfChangesPerMarket.get(market.getNodeId());
+        numberOfChangesPerMarket.put(market.getNodeId(), numberOfChanges == null ? 1L : numberOfChanges + 1);
+    }
+
+    public synchronized long getNumberOfChanges(DecarbonizationMarket market) {
+        Long numberOfChanges = numberOfChangesPerMarket.get(market.getNodeId());
+        return numberOfChanges == null ? 0L : numberOfChanges;
+    }
+
     public ClearingPoint findClearingPointForSegmentAndTime(Segment segment, long time) {
         Iterator<ClearingPoint> i = findClearingPointsForSegmentAndTime(segment, time).iterator();
         if (i.hasNext()) {
@@ -79,8 +103,12 @@ public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint
 
     @Transactional
     public ClearingPoint createOrUpdateClearingPoint(DecarbonizationMarket abstractMarket, double price, double volume, long time) {
+        priceHistoryRepository.recordClearingPoint(abstractMarket, price, volume, time);
         ClearingPoint point = null;
-        if (findClearingPointsForMarketAndTime(abstractMarket, time).iterator().hasNext()) {
+        if (!priceHistoryRepository.isClearingPointNodesEnabled()) {
+            // only kept in the price history
+            point = new ClearingPoint();
+        } else if (findClearingPointsForMarketAndTime(abstractMarket, time).iterator().hasNext()) {
             point = findClearingPointsForMarketAndTime(abstractMarket, time).iterator().next();
         } else {
             point = new ClearingPoint().persist();
@@ -89,28 +117,36 @@ public class ClearingPointRepositoryOld extends AbstractRepository<ClearingPoint
         point.setPrice(price);
         point.setTime(time);
         point.setVolume(volume);
+        registerChange(abstractMarket);
         return point;
     }
 
     @Transactional
     public SegmentClearingPoint createOrUpdateSegmentClearingPoint(Segment segment, DecarbonizationMarket abstractMarket, double price,
             double volume, long time) {
+        priceHistoryRepository.recordSegmentClearingPoint(segment, abstractMarket, price, volume, time);
         SegmentClearingPoint point = null;
-        // TODO make this a pipe
-        List<SegmentClearingPoint> points = Utils.asCastedList(findClearingPointsForMarketAndTime(abstractMarket, time));
-        for (SegmentClearingPoint onepoint : points) {
-            if (onepoint.getSegment().equals(segment)) {
-                point = onepoint;
+        if (!priceHistoryRepository.isClearingPointNodesEnabled()) {
+            // only kept in the price history
+            point = new SegmentClearingPoint();
+        } else {
+            // TODO make this a pipe
+            List<SegmentClearingPoint> points = Utils.asCastedList(findClearingPointsForMarketAndTime(abstractMarket, time));
+            for (SegmentClearingPoint onepoint : points) {
+                if (onepoint.getSegment().equals(segment)) {
+                    point = onepoint;
+                }
+            }
+            if (point == null) {
+                point = new SegmentClearingPoint().persist();
             }
-        }
-        if (point == null) {
-            point = new SegmentClearingPoint().persist();
         }
         point.setAbstractMarket(abstractMarket);
         point.setPrice(price);
         point.setTime(time);
         point.setVolume(volume);
         point.setSegment(segment);
+        registerChange(abstractMarket);
         return point;
     }
 
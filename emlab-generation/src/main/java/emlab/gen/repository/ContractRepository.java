@@ -16,7 +16,10 @@
 package emlab.gen.repository;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,10 +28,6 @@ import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.tinkerpop.blueprints.pgm.Vertex;
-import com.tinkerpop.pipes.Pipe;
-import com.tinkerpop.pipes.util.Pipeline;
-
 import emlab.gen.domain.agent.DecarbonizationAgent;
 import emlab.gen.domain.agent.EnergyConsumer;
 import emlab.gen.domain.agent.EnergyProducer;
@@ -41,6 +40,7 @@ import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
+import emlab.gen.util.IntervalIndex;
 
 @Repository
 public class ContractRepository extends AbstractRepository<Contract> {
@@ -50,97 +50,140 @@ public class ContractRepository extends AbstractRepository<Contract> {
     @Autowired
     Neo4jTemplate template;
 
-    public Iterable<LongTermContract> findLongTermContractsForEnergyProducerActiveAtTime(EnergyProducer energyProducer, long time) {
-        Pipe<Vertex, Vertex> contractPipe = new LabeledEdgePipe("CONTRACT_FROM", LabeledEdgePipe.Step.IN_OUT);
-        // filter by time
-        Pipe<Vertex, Vertex> pipeline = new Pipeline<Vertex, Vertex>(contractPipe);
+    private static final String ALL = "a/";
+    private static final String PLANT = "p/";
+    private static final String FROM = "f/";
+    private static final String FROM_SEGMENT = "fs/";
+    private static final String TO = "t/";
+    private static final String TO_SEGMENT = "ts/";
+    private static final String TO_SEGMENT_ZONE = "tsz/";
 
-        List<LongTermContract> list = new ArrayList<LongTermContract>();
-        // Only if current time is between start and finish time
-        for (Contract contract : findAllByPipe(energyProducer, pipeline)) {
-            if (contract.getStart() <= time && contract.getFinish() >= time) {
-                list.add((LongTermContract) contract);
-            }
-        }
-        return list;
+    /**
+     * The long-term contracts by node id, in an {@link IntervalIndex} on their start and finish per plant, seller, buyer, buyer and
+     * segment, and buyer, segment and zone. It is read once and then kept up to date by
+     * {@link #submitLongTermContractForElectricity} and {@link #reassignLongTermContractToNewPowerPlant}, the only places where contracts
+     * are created or changed.
+     */
+    private Map<String, IntervalIndex> index;
+
+    private long modificationCount;
+
+    public Iterable<LongTermContract> findLongTermContractsForEnergyProducerActiveAtTime(EnergyProducer energyProducer, long time) {
+        return findInIndex(FROM + energyProducer.getNodeId(), time);
     }
 
     public Iterable<LongTermContract> findLongTermContractsForEnergyProducerForSegmentActiveAtTime(EnergyProducer energyProducer,
             Segment segment, long time) {
+        return findInIndex(FROM_SEGMENT + energyProducer.getNodeId() + "/" + segment.getNodeId(), time);
+    }
 
-        Pipe<Vertex, Vertex> contractPipe = new LabeledEdgePipe("CONTRACT_FROM", LabeledEdgePipe.Step.IN_OUT);
+    public Iterable<Contract> findLongTermContractsForEnergyConsumerActiveAtTime(EnergyConsumer energyConsumer, long time) {
+        return new ArrayList<Contract>(findInIndex(TO + energyConsumer.getNodeId(), time));
+    }
 
-        Pipe<Vertex, Vertex> pipeline = new Pipeline<Vertex, Vertex>(contractPipe);
+    public Iterable<LongTermContract> findLongTermContractsForEnergyConsumerForSegmentActiveAtTime(EnergyConsumer consumer,
+            Segment segment, long time) {
+        return findInIndex(TO_SEGMENT + consumer.getNodeId() + "/" + segment.getNodeId(), time);
+    }
 
-        List<LongTermContract> list = new ArrayList<LongTermContract>();
-        for (Contract contract : findAllByPipe(energyProducer, pipeline)) {
+    public Iterable<LongTermContract> findLongTermContractsActiveAtTime(long time) {
+        return findInIndex(ALL, time);
+    }
 
-            // filter by time
-            LongTermContract ltc = (LongTermContract) contract;
-            if (ltc.getStart() <= time && ltc.getFinish() >= time) {
-                if (ltc.getLongTermContractType().getSegments().contains(segment)) {
-                    list.add((LongTermContract) contract);
-                }
-            }
-        }
-        return list;
+    public LongTermContract findLongTermContractForPowerPlantActiveAtTime(PowerPlant plant, long time) {
+        List<LongTermContract> contracts = findInIndex(PLANT + plant.getNodeId(), time);
+        return contracts.isEmpty() ? null : contracts.get(0);
     }
 
-    public Iterable<Contract> findLongTermContractsForEnergyConsumerActiveAtTime(EnergyConsumer energyConsumer, long time) {
-        Pipe<Vertex, Vertex> contractPipe = new LabeledEdgePipe("CONTRACT_TO", LabeledEdgePipe.Step.IN_OUT);
-        // filter by time
-        Pipe<Vertex, Vertex> pipeline = new Pipeline<Vertex, Vertex>(contractPipe);
-
-        List<Contract> list = new ArrayList<Contract>();
-        // Only if current time is between start and finish time
-        for (Contract contract : findAllByPipe(energyConsumer, pipeline)) {
-            if (contract.getStart() <= time && contract.getFinish() >= time) {
-                list.add(contract);
-            }
-        }
-        return list;
+    public Iterable<LongTermContract> findLongTermContractsForEnergyConsumerForSegmentForZoneActiveAtTime(EnergyConsumer consumer,
+            Segment segment, Zone zone, long currentTick) {
+        return findInIndex(TO_SEGMENT_ZONE + consumer.getNodeId() + "/" + segment.getNodeId() + "/" + zone.getNodeId(), currentTick);
     }
 
-    public Iterable<LongTermContract> findLongTermContractsForEnergyConsumerForSegmentActiveAtTime(EnergyConsumer consumer,
-            Segment segment, long time) {
+    /**
+     * Drops the index of the contracts. The next query reads all contracts again.
+     */
+    public synchronized void invalidate() {
+        index = null;
+        modificationCount++;
+    }
 
-        List<LongTermContract> list = new ArrayList<LongTermContract>();
-        for (Contract contract : findLongTermContractsForEnergyConsumerActiveAtTime(consumer, time)) {
+    /**
+     * @return a count that changes whenever a contract is created or changed through this repository, for caches of derived data
+     */
+    public synchronized long getModificationCount() {
+        return modificationCount;
+    }
 
-            // filter by time
-            LongTermContract ltc = (LongTermContract) contract;
-            if (ltc.getStart() <= time && ltc.getFinish() >= time) {
-                if (ltc.getLongTermContractType().getSegments().contains(segment)) {
-                    list.add((LongTermContract) contract);
-                }
+    /**
+     * @return the contracts active at the time under the key, in the order in which they were created
+     */
+    private synchronized List<LongTermContract> findInIndex(String key, long time) {
+        if (index == null) {
+            index = new HashMap<String, IntervalIndex>();
+            for (Contract contract : findAll()) {
+                addToIndex((LongTermContract) contract);
+            }
+            logger.info("Indexed the long-term contracts under {} keys", index.size());
+        }
+        List<LongTermContract> list = new ArrayList<LongTermContract>();
+        IntervalIndex intervals = index.get(key);
+        if (intervals != null) {
+            for (long id : intervals.findContaining(time)) {
+                list.add((LongTermContract) findById(id));
             }
         }
         return list;
     }
 
-    public LongTermContract findLongTermContractForPowerPlantActiveAtTime(PowerPlant plant, long time) {
+    private void addToIndex(LongTermContract contract) {
+        for (String key : getIndexKeys(contract)) {
+            IntervalIndex intervals = index.get(key);
+            if (intervals == null) {
+                intervals = new IntervalIndex();
+                index.put(key, intervals);
+            }
+            intervals.add(contract.getStart(), contract.getFinish(), contract.getNodeId());
+        }
+    }
 
-        for (Contract c : findAll()) {
-            LongTermContract ltc = (LongTermContract) c;
-            // It active
-            if (ltc.getStart() <= time && ltc.getFinish() >= time) {
-                if (ltc.getUnderlyingPowerPlant().equals(plant)) {
-                    return ltc;
-                }
+    private void removeFromIndex(LongTermContract contract) {
+        for (String key : getIndexKeys(contract)) {
+            IntervalIndex intervals = index.get(key);
+            if (intervals != null) {
+                intervals.remove(contract.getNodeId());
             }
         }
-        return null;
     }
 
-    public Iterable<LongTermContract> findLongTermContractsForEnergyConsumerForSegmentForZoneActiveAtTime(EnergyConsumer consumer,
-            Segment segment, Zone zone, long currentTick) {
-        List<LongTermContract> list = new ArrayList<LongTermContract>();
-        for (LongTermContract ltc : findLongTermContractsForEnergyConsumerForSegmentActiveAtTime(consumer, segment, currentTick)) {
-            if (ltc.getZone().equals(zone)) {
-                list.add(ltc);
+    private List<String> getIndexKeys(LongTermContract contract) {
+        List<String> keys = new ArrayList<String>();
+        keys.add(ALL);
+        if (contract.getUnderlyingPowerPlant() != null) {
+            keys.add(PLANT + contract.getUnderlyingPowerPlant().getNodeId());
+        }
+        Set<Segment> segments = contract.getLongTermContractType() == null ? null : contract.getLongTermContractType().getSegments();
+        if (contract.getFrom() != null) {
+            keys.add(FROM + contract.getFrom().getNodeId());
+            if (segments != null) {
+                for (Segment segment : segments) {
+                    keys.add(FROM_SEGMENT + contract.getFrom().getNodeId() + "/" + segment.getNodeId());
+                }
             }
         }
-        return list;
+        if (contract.getTo() != null) {
+            keys.add(TO + contract.getTo().getNodeId());
+            if (segments != null) {
+                for (Segment segment : segments) {
+                    keys.add(TO_SEGMENT + contract.getTo().getNodeId() + "/" + segment.getNodeId());
+                    if (contract.getZone() != null) {
+                        keys.add(TO_SEGMENT_ZONE + contract.getTo().getNodeId() + "/" + segment.getNodeId() + "/"
+                                + contract.getZone().getNodeId());
+                    }
+                }
+            }
+        }
+        return keys;
     }
 
     /**
@@ -171,6 +214,12 @@ public class ContractRepository extends AbstractRepository<Contract> {
         contract.setCo2PassThroughFactor(co2PassThroughFactor);
         contract.setFuelPriceStart(fuelPriceStart);
         contract.setCo2PriceStart(co2PriceStart);
+        synchronized (this) {
+            if (index != null) {
+                addToIndex(contract);
+            }
+            modificationCount++;
+        }
         return contract;
     }
 
@@ -209,8 +258,15 @@ public class ContractRepository extends AbstractRepository<Contract> {
     }
 
     @Transactional
-    public void reassignLongTermContractToNewPowerPlant(LongTermContract longTermContract, PowerPlant plant) {
+    public synchronized void reassignLongTermContractToNewPowerPlant(LongTermContract longTermContract, PowerPlant plant) {
+        if (index != null) {
+            removeFromIndex(longTermContract);
+        }
         longTermContract.setUnderlyingPowerPlant(plant);
+        if (index != null) {
+            addToIndex(longTermContract);
+        }
+        modificationCount++;
     }
 
 }
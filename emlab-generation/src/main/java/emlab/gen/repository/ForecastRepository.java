@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.CommodityMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.util.SlidingWindowRegression;
+
+/**
+ * The forecasts of fuel prices, electricity demand and CO2 prices, shared by all producers. Each series keeps a
+ * {@link SlidingWindowRegression} over the years the forecasters look back. When a forecast is asked for a later tick, the window moves:
+ * only the prices of the years that entered it are read from the {@link PriceHistoryRepository}, and those that fell out of it are
+ * removed. The prices of the last year in the window are read again whenever the market has a new or updated clearing point, which the
+ * {@link ClearingPointRepositoryOld} registers; older prices are not changed anymore. The predictions are kept per future year until the
+ * window changes, so producers that look back equally far and forecast the same year share one prediction.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class ForecastRepository extends AbstractRepository<ClearingPoint> {
+
+    @Autowired
+    ClearingPointRepositoryOld clearingPointRepositoryOld;
+
+    @Autowired
+    MarketRepository marketRepository;
+
+    @Autowired
+    NationalGovernmentRepository nationalGovernmentRepository;
+
+    @Autowired
+    SubstanceRepository substanceRepository;
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    @Autowired
+    PriceHistoryRepository priceHistoryRepository;
+
+    /**
+     * The sliding window of one series, with the first and last year it covers.
+     */
+    static class Window {
+        boolean geometric;
+        SlidingWindowRegression regression;
+        long start;
+        long end;
+        long numberOfChanges;
+        final Map<Long, Double> predictions = new HashMap<Long, Double>();
+    }
+
+    private final Map<String, Window> windows = new HashMap<String, Window>();
+
+    private final Map<Long, List<CommodityMarket>> commodityMarketsBySubstance = new HashMap<Long, List<CommodityMarket>>();
+
+    private List<Substance> substancesTradedOnCommodityMarkets;
+
+    /**
+     * Drops all windows and predictions. Needed when a new run starts on a new graph.
+     */
+    public synchronized void invalidate() {
+        windows.clear();
+        commodityMarketsBySubstance.clear();
+        substancesTradedOnCommodityMarkets = null;
+    }
+
+    /**
+     * Predicts the prices of the fuels traded on commodity markets with a geometric trend regression of the clearing points of the last
+     * years, counting the current tick as one of them.
+     *
+     * @param yearsLookingBackForRegression
+     *            the number of years used for the regression, incl. the current tick
+     * @param tick
+     *            the current tick
+     * @param futureTimePoint
+     *            the year the prediction is made for
+     * @return the predicted price per fuel
+     */
+    public synchronized Map<Substance, Double> predictFuelPrices(long yearsLookingBackForRegression, long tick, long futureTimePoint) {
+        if (substancesTradedOnCommodityMarkets == null) {
+            substancesTradedOnCommodityMarkets = new ArrayList<Substance>();
+            for (Substance substance : substanceRepository.findAllSubstancesTradedOnCommodityMarkets()) {
+                substancesTradedOnCommodityMarkets.add(substance);
+            }
+        }
+        Map<Substance, Double> expectedFuelPrices = new HashMap<Substance, Double>();
+        for (Substance substance : substancesTradedOnCommodityMarkets) {
+            Window window = findWindow("f/" + substance.getNodeId() + "/" + yearsLookingBackForRegression, true);
+            long numberOfChanges = 0;
+            for (CommodityMarket market : findCommodityMarkets(substance)) {
+                numberOfChanges += clearingPointRepositoryOld.getNumberOfChanges(market);
+            }
+            if (moveWindow(window, tick - (yearsLookingBackForRegression - 1), tick, numberOfChanges)) {
+                window.regression.removeDataFrom(window.end);
+                for (CommodityMarket market : findCommodityMarkets(substance)) {
+                    addPrices(window, priceHistoryRepository.findPricesForMarketAndTimeRange(market, window.end, tick));
+                }
+                window.end = tick;
+            }
+            Double prediction = window.predictions.get(futureTimePoint);
+            if (prediction == null) {
+                prediction = window.regression.predict(futureTimePoint);
+                window.predictions.put(futureTimePoint, prediction);
+            }
+            expectedFuelPrices.put(substance, prediction);
+        }
+        return expectedFuelPrices;
+    }
+
+    /**
+     * Predicts the demand growth of a market with a geometric trend regression of its demand growth trend over the last years, counting
+     * the current tick as one of them.
+     *
+     * @param market
+     *            the electricity spot market
+     * @param yearsLookingBackForRegression
+     *            the number of years used for the regression, incl. the current tick
+     * @param tick
+     *            the current tick
+     * @param futureTimePoint
+     *            the year the prediction is made for
+     * @return the predicted demand growth
+     */
+    public synchronized double predictDemand(ElectricitySpotMarket market, long yearsLookingBackForRegression, long tick,
+            long futureTimePoint) {
+        Window window = findWindow("d/" + market.getNodeId() + "/" + yearsLookingBackForRegression, true);
+        // the trend is given, so it never changes
+        if (moveWindow(window, Math.max(0, tick - yearsLookingBackForRegression + 1), tick, 0)) {
+            window.regression.removeDataFrom(window.end);
+            for (long time = Math.max(window.end, window.start); time <= tick; time++) {
+                window.regression.addData(time, market.getDemandGrowthTrend().getValue(time));
+            }
+            window.end = tick;
+        }
+        Double prediction = window.predictions.get(futureTimePoint);
+        if (prediction == null) {
+            prediction = window.regression.predict(futureTimePoint);
+            window.predictions.put(futureTimePoint, prediction);
+        }
+        return prediction;
+    }
+
+    /**
+     * Calculates the expected CO2 price, incl. the CO2 tax, in each electricity spot market. The expected price of the CO2 auction is the
+     * average of a linear trend regression of its clearing points in the last years and of their average price, but at least the
+     * national minimum CO2 price of the market. Without clearing points in the last years, such as in the determine fuel mix role at
+     * tick 0, the expected price is the national minimum.
+     *
+     * @param futureTimePoint
+     *            the year the prediction is made for
+     * @param yearsLookingBackForRegression
+     *            the number of years used for the regression, incl. the current tick
+     * @param adjustmentForDetermineFuelMix
+     *            the number of years the window is moved back, 1 in the determine fuel mix role
+     * @param tick
+     *            the current tick
+     * @return the expected CO2 price per market
+     */
+    public synchronized HashMap<ElectricitySpotMarket, Double> determineExpectedCO2PriceInclTax(long futureTimePoint,
+            long yearsLookingBackForRegression, int adjustmentForDetermineFuelMix, long tick) {
+        CO2Auction co2Auction = marketRepository.findCO2Auction();
+        Government government = genericRepository.findFirst(Government.class);
+        Window window = findWindow("co2/" + yearsLookingBackForRegression + "/" + adjustmentForDetermineFuelMix, false);
+        long end = tick - adjustmentForDetermineFuelMix;
+        if (moveWindow(window, end - yearsLookingBackForRegression + 1, end, clearingPointRepositoryOld.getNumberOfChanges(co2Auction))) {
+            window.regression.removeDataFrom(window.end);
+            addPrices(window, priceHistoryRepository.findPricesForMarketAndTimeRange(co2Auction, window.end, end));
+            window.end = end;
+        }
+        Double expectedCO2Price = window.predictions.get(futureTimePoint);
+        if (expectedCO2Price == null) {
+            expectedCO2Price = predictCO2Price(window.regression, futureTimePoint, government.getCo2Penalty());
+            if (expectedCO2Price != null) {
+                window.predictions.put(futureTimePoint, expectedCO2Price);
+            }
+        }
+
+        HashMap<ElectricitySpotMarket, Double> co2Prices = new HashMap<ElectricitySpotMarket, Double>();
+        for (ElectricitySpotMarket esm : marketRepository.findAllElectricitySpotMarkets()) {
+            double nationalCo2MinPriceinFutureTick = nationalGovernmentRepository.findNationalGovernmentByElectricitySpotMarket(esm)
+                    .getMinNationalCo2PriceTrend().getValue(futureTimePoint);
+            double co2PriceInCountry = co2PriceInCountry(expectedCO2Price, nationalCo2MinPriceinFutureTick);
+            co2PriceInCountry += government.getCO2Tax(futureTimePoint);
+            co2Prices.put(esm, Double.valueOf(co2PriceInCountry));
+        }
+        return co2Prices;
+    }
+
+    /**
+     * The average of a linear trend regression of the CO2 auction prices in the window, limited to between 0 and the CO2 penalty, and of
+     * their average price. With one price, the trend is that price.
+     *
+     * @return the expected CO2 auction price, or null if the window holds no prices
+     */
+    static Double predictCO2Price(SlidingWindowRegression regression, long futureTimePoint, double co2Penalty) {
+        if (regression.getN() == 0) {
+            return null;
+        }
+        double expectedCO2Price;
+        if (regression.getN() > 1) {
+            expectedCO2Price = regression.predict(futureTimePoint);
+            expectedCO2Price = Math.max(0, expectedCO2Price);
+            expectedCO2Price = Math.min(expectedCO2Price, co2Penalty);
+        } else {
+            expectedCO2Price = regression.getLast();
+        }
+        // Calculate average of regression and past average:
+        return (expectedCO2Price + regression.getAverage()) / 2;
+    }
+
+    /**
+     * @return the expected CO2 auction price if it is above the national minimum CO2 price, else the national minimum, also when there
+     *         is no expected price
+     */
+    static double co2PriceInCountry(Double expectedCO2Price, double nationalCo2MinPriceinFutureTick) {
+        if (expectedCO2Price != null && expectedCO2Price > nationalCo2MinPriceinFutureTick) {
+            return expectedCO2Price;
+        } else {
+            return nationalCo2MinPriceinFutureTick;
+        }
+    }
+
+    private Window findWindow(String key, boolean geometric) {
+        Window window = windows.get(key);
+        if (window == null) {
+            window = new Window();
+            window.geometric = geometric;
+            window.end = Long.MIN_VALUE;
+            windows.put(key, window);
+        }
+        return window;
+    }
+
+    /**
+     * Moves the start of the window and removes the data that fell out of it. A window that moves back in time is started afresh.
+     *
+     * @return whether the data from the last year of the window up to the new end has to be read again
+     */
+    private boolean moveWindow(Window window, long start, long end, long numberOfChanges) {
+        if (window.end == Long.MIN_VALUE || end < window.end || start < window.start) {
+            window.regression = new SlidingWindowRegression(window.geometric);
+            window.start = start;
+            window.end = start;
+            window.numberOfChanges = numberOfChanges;
+            window.predictions.clear();
+            return true;
+        }
+        boolean reload = end > window.end || numberOfChanges != window.numberOfChanges;
+        if (start > window.start) {
+            window.regression.removeDataBefore(start);
+            window.start = start;
+            window.predictions.clear();
+        }
+        if (reload) {
+            window.numberOfChanges = numberOfChanges;
+            window.predictions.clear();
+        }
+        return reload;
+    }
+
+    private void addPrices(Window window, double[][] prices) {
+        for (double[] price : prices) {
+            if (price[0] >= window.start) {
+                window.regression.addData(price[0], price[1]);
+            }
+        }
+    }
+
+    private List<CommodityMarket> findCommodityMarkets(Substance substance) {
+        List<CommodityMarket> markets = commodityMarketsBySubstance.get(substance.getNodeId());
+        if (markets == null) {
+            markets = new ArrayList<CommodityMarket>();
+            for (CommodityMarket market : genericRepository.findAll(CommodityMarket.class)) {
+                if (substance.equals(market.getSubstance())) {
+                    markets.add(market);
+                }
+            }
+            commodityMarketsBySubstance.put(substance.getNodeId(), markets);
+        }
+        return markets;
+    }
+
+}
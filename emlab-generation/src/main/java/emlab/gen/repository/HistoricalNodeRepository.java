@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.CashFlowSummary;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.BidSummary;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+
+/**
+ * Rolls up and deletes the bids, dispatch plans and cash flows of past ticks. The roll ups are made in memory, as {@link BidRollUp}s and
+ * {@link CashFlowRollUp}s, and written as {@link BidSummary}s and {@link CashFlowSummary}s in one transaction. Deletion is done in
+ * batches, one transaction per batch.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class HistoricalNodeRepository extends AbstractRepository<Bid> {
+
+    @Autowired
+    Neo4jTemplate template;
+
+    /**
+     * The bids of a tick for one market, segment and side, not yet written to the graph.
+     */
+    public static class BidRollUp {
+        public DecarbonizationMarket market;
+        public Segment segment;
+        public boolean supplyBid;
+        public boolean dispatchPlan;
+        public long numberOfBids;
+        public double amount;
+        public double acceptedAmount;
+        public double priceTimesAmount;
+        public double minimumPrice = Double.POSITIVE_INFINITY;
+        public double maximumPrice = Double.NEGATIVE_INFINITY;
+
+        void add(Bid bid) {
+            numberOfBids++;
+            amount += bid.getAmount();
+            acceptedAmount += bid.getAcceptedAmount();
+            priceTimesAmount += bid.getPrice() * bid.getAmount();
+            minimumPrice = Math.min(minimumPrice, bid.getPrice());
+            maximumPrice = Math.max(maximumPrice, bid.getPrice());
+        }
+    }
+
+    /**
+     * The cash flows of a tick between two agents of one type, not yet written to the graph.
+     */
+    public static class CashFlowRollUp {
+        public DecarbonizationAgent from;
+        public DecarbonizationAgent to;
+        public int type;
+        public long numberOfCashFlows;
+        public double money;
+    }
+
+    /**
+     * Rolls up the bids of a tick. Dispatch plans are rolled up per segment, other bids per market and side only.
+     *
+     * @param plans
+     *            the dispatch plans of the tick
+     * @param bids
+     *            all bids of the tick, which include the dispatch plans
+     * @return the roll ups
+     */
+    public Collection<BidRollUp> rollUpBids(Iterable<PowerPlantDispatchPlan> plans, Iterable<Bid> bids) {
+        Map<String, BidRollUp> rollUps = new LinkedHashMap<String, BidRollUp>();
+        Set<Long> planIds = new HashSet<Long>();
+        for (PowerPlantDispatchPlan plan : plans) {
+            planIds.add(plan.getNodeId());
+            rollUp(rollUps, plan, plan.getSegment(), true);
+        }
+        for (Bid bid : bids) {
+            if (!planIds.contains(bid.getNodeId())) {
+                rollUp(rollUps, bid, null, false);
+            }
+        }
+        return rollUps.values();
+    }
+
+    private void rollUp(Map<String, BidRollUp> rollUps, Bid bid, Segment segment, boolean dispatchPlan) {
+        DecarbonizationMarket market = bid.getBiddingMarket();
+        String key = (market == null ? "" : market.getNodeId()) + "/" + (segment == null ? "" : segment.getNodeId()) + "/"
+                + bid.isSupplyBid() + "/" + dispatchPlan;
+        BidRollUp rollUp = rollUps.get(key);
+        if (rollUp == null) {
+            rollUp = new BidRollUp();
+            rollUp.market = market;
+            rollUp.segment = segment;
+            rollUp.supplyBid = bid.isSupplyBid();
+            rollUp.dispatchPlan = dispatchPlan;
+            rollUps.put(key, rollUp);
+        }
+        rollUp.add(bid);
+    }
+
+    public Collection<CashFlowRollUp> rollUpCashFlows(Iterable<CashFlow> cashFlows) {
+        Map<String, CashFlowRollUp> rollUps = new LinkedHashMap<String, CashFlowRollUp>();
+        for (CashFlow cashFlow : cashFlows) {
+            DecarbonizationAgent from = cashFlow.getFrom();
+            DecarbonizationAgent to = cashFlow.getTo();
+            String key = (from == null ? "" : from.getNodeId()) + "/" + (to == null ? "" : to.getNodeId()) + "/" + cashFlow.getType();
+            CashFlowRollUp rollUp = rollUps.get(key);
+            if (rollUp == null) {
+                rollUp = new CashFlowRollUp();
+                rollUp.from = from;
+                rollUp.to = to;
+                rollUp.type = cashFlow.getType();
+                rollUps.put(key, rollUp);
+            }
+            rollUp.numberOfCashFlows++;
+            rollUp.money += cashFlow.getMoney();
+        }
+        return rollUps.values();
+    }
+
+    @Transactional
+    public void createBidSummaries(Collection<BidRollUp> rollUps, long time) {
+        for (BidRollUp rollUp : rollUps) {
+            BidSummary summary = new BidSummary().persist();
+            summary.setMarket(rollUp.market);
+            summary.setSegment(rollUp.segment);
+            summary.setTime(time);
+            summary.setSupplyBid(rollUp.supplyBid);
+            summary.setDispatchPlan(rollUp.dispatchPlan);
+            summary.setNumberOfBids(rollUp.numberOfBids);
+            summary.setAmount(rollUp.amount);
+            summary.setAcceptedAmount(rollUp.acceptedAmount);
+            summary.setAveragePrice(rollUp.amount > 0 ? rollUp.priceTimesAmount / rollUp.amount : 0d);
+            summary.setMinimumPrice(rollUp.minimumPrice);
+            summary.setMaximumPrice(rollUp.maximumPrice);
+        }
+        logger.info("Wrote " + rollUps.size() + " bid summaries for tick " + time);
+    }
+
+    @Transactional
+    public void createCashFlowSummaries(Collection<CashFlowRollUp> rollUps, long time) {
+        for (CashFlowRollUp rollUp : rollUps) {
+            CashFlowSummary summary = new CashFlowSummary().persist();
+            summary.setFrom(rollUp.from);
+            summary.setTo(rollUp.to);
+            summary.setTime(time);
+            summary.setType(rollUp.type);
+            summary.setNumberOfCashFlows(rollUp.numberOfCashFlows);
+            summary.setMoney(rollUp.money);
+        }
+        logger.info("Wrote " + rollUps.size() + " cash flow summaries for tick " + time);
+    }
+
+    /**
+     * Deletes a batch of entities, with their relationships, in one transaction.
+     */
+    @Transactional
+    public void deleteBatch(List<?> entities) {
+        for (Object entity : entities) {
+            template.delete(entity);
+        }
+    }
+
+}
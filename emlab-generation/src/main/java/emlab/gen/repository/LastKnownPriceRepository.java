@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.CommoditySupplier;
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.technology.Substance;
+
+/**
+ * The last known prices on the markets, shared by all roles. A price is looked up once per market and tick and kept until a clearing point
+ * of that market is created or updated, which the {@link ClearingPointRepositoryOld} registers.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class LastKnownPriceRepository extends AbstractRepository<ClearingPoint> {
+
+    @Autowired
+    ClearingPointRepositoryOld clearingPointRepositoryOld;
+
+    @Autowired
+    PriceHistoryRepository priceHistoryRepository;
+
+    @Autowired
+    MarketRepository marketRepository;
+
+    @Autowired
+    GenericRepository genericRepository;
+
+    static class KnownPrice {
+        long numberOfChanges;
+        double price;
+    }
+
+    private final Map<String, KnownPrice> prices = new HashMap<String, KnownPrice>();
+
+    private final Map<Long, DecarbonizationMarket> marketsBySubstance = new HashMap<Long, DecarbonizationMarket>();
+
+    /**
+     * Drops all prices and markets. Needed when a new run starts on a new graph.
+     */
+    public synchronized void invalidate() {
+        prices.clear();
+        marketsBySubstance.clear();
+    }
+
+    /**
+     * Finds the last known price for a substance. We try to find the market for it and get it get the price on that market for this tick,
+     * previous tick, or from a possible supplier directly. If multiple prices are found, the average is returned. This is the case for
+     * electricity spot markets, as they may have segments.
+     *
+     * @param substance
+     *            the price we want for
+     * @param tick
+     *            the current tick
+     * @return the (average) price found
+     */
+    public double findLastKnownPriceForSubstance(Substance substance, long tick) {
+        DecarbonizationMarket market;
+        synchronized (this) {
+            if (marketsBySubstance.containsKey(substance.getNodeId())) {
+                market = marketsBySubstance.get(substance.getNodeId());
+            } else {
+                market = marketRepository.findFirstMarketBySubstance(substance);
+                marketsBySubstance.put(substance.getNodeId(), market);
+            }
+        }
+        if (market == null) {
+            logger.warn("No market found for " + substance.getName() + " so no price can be found");
+            return 0d;
+        }
+        return findLastKnownPriceOnMarket(market, tick);
+    }
+
+    /**
+     * Finds the last known price on a specific market. We try to get it for this tick, previous tick, or from a possible supplier
+     * directly. If multiple prices are found, the average is returned. This is the case for electricity spot markets, as they may have
+     * segments.
+     *
+     * @param market
+     *            the market
+     * @param tick
+     *            the current tick
+     * @return the (average) price found
+     */
+    public synchronized double findLastKnownPriceOnMarket(DecarbonizationMarket market, long tick) {
+        String key = market.getNodeId() + "/" + tick;
+        long numberOfChanges = clearingPointRepositoryOld.getNumberOfChanges(market);
+        KnownPrice knownPrice = prices.get(key);
+        if (knownPrice == null || knownPrice.numberOfChanges != numberOfChanges) {
+            knownPrice = new KnownPrice();
+            knownPrice.numberOfChanges = numberOfChanges;
+            knownPrice.price = lookUpLastKnownPriceOnMarket(market, tick);
+            prices.put(key, knownPrice);
+        }
+        return knownPrice.price;
+    }
+
+    private double lookUpLastKnownPriceOnMarket(DecarbonizationMarket market, long tick) {
+        Double average = priceHistoryRepository.findAveragePriceForMarketAndTime(market, tick);
+        Substance substance = market.getSubstance();
+
+        if (average != null) {
+            logger.info("Average price found on market for this tick for " + substance.getName());
+            return average;
+        }
+
+        average = priceHistoryRepository.findAveragePriceForMarketAndTime(market, tick - 1);
+        if (average != null) {
+            logger.info("Average price found on market for previous tick for " + substance.getName());
+            return average;
+        }
+
+        if (market.getReferencePrice() > 0) {
+            logger.info("Found a reference price found for market for " + substance.getName());
+            return market.getReferencePrice();
+        }
+
+        for (CommoditySupplier supplier : genericRepository.findAll(CommoditySupplier.class)) {
+            if (supplier.getSubstance().equals(substance)) {
+                logger.info("Price found for " + substance.getName() + " by asking the supplier " + supplier.getName() + " directly");
+                return supplier.getPriceOfCommodity().getValue(tick);
+            }
+        }
+
+        logger.info("No price has been found for " + substance.getName());
+        return 0d;
+    }
+
+}
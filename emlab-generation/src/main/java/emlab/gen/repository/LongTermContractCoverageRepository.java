@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyConsumer;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.contract.LongTermContract;
+import emlab.gen.domain.gis.Zone;
+import emlab.gen.domain.market.electricity.Segment;
+
+/**
+ * The coverage of the long-term contracts active in a tick: the contracted capacity per (producer, segment), per (consumer, zone,
+ * segment) and per (zone, segment), and the contracts per (producer, segment). The matrix is built in one pass over the active contracts
+ * the first time it is asked for in a tick, and reused by all iterations of the market clearing and by the revenue roles of that tick. It
+ * is built again when the tick changes or when the {@link ContractRepository} reports a new or changed contract.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class LongTermContractCoverageRepository extends AbstractRepository<LongTermContract> {
+
+    private static final String PRODUCER_SEGMENT = "ps/";
+    private static final String CONSUMER_ZONE_SEGMENT = "czs/";
+    private static final String ZONE_SEGMENT = "zs/";
+
+    @Autowired
+    ContractRepository contractRepository;
+
+    private long tick = Long.MIN_VALUE;
+    private long modificationCount = -1;
+    private Map<String, Double> capacities;
+    private Map<String, List<LongTermContract>> contracts;
+
+    public double calculateContractedCapacityForEnergyProducerForSegment(EnergyProducer producer, Segment segment, long tick) {
+        return getCapacity(tick, PRODUCER_SEGMENT + producer.getNodeId() + "/" + segment.getNodeId());
+    }
+
+    public double calculateContractedCapacityForEnergyConsumerForZoneForSegment(EnergyConsumer consumer, Zone zone, Segment segment,
+            long tick) {
+        return getCapacity(tick, CONSUMER_ZONE_SEGMENT + consumer.getNodeId() + "/" + zone.getNodeId() + "/" + segment.getNodeId());
+    }
+
+    /**
+     * @return the capacity contracted by all energy consumers in the zone for the segment
+     */
+    public double calculateContractedCapacityForZoneForSegment(Zone zone, Segment segment, long tick) {
+        return getCapacity(tick, ZONE_SEGMENT + zone.getNodeId() + "/" + segment.getNodeId());
+    }
+
+    public synchronized List<LongTermContract> findLongTermContractsForEnergyProducerForSegment(EnergyProducer producer, Segment segment,
+            long tick) {
+        build(tick);
+        List<LongTermContract> list = contracts.get(PRODUCER_SEGMENT + producer.getNodeId() + "/" + segment.getNodeId());
+        return list == null ? Collections.<LongTermContract> emptyList() : list;
+    }
+
+    private synchronized double getCapacity(long tick, String key) {
+        build(tick);
+        Double capacity = capacities.get(key);
+        return capacity == null ? 0d : capacity;
+    }
+
+    private void build(long tick) {
+        long currentModificationCount = contractRepository.getModificationCount();
+        if (capacities != null && this.tick == tick && modificationCount == currentModificationCount) {
+            return;
+        }
+        capacities = new HashMap<String, Double>();
+        contracts = new HashMap<String, List<LongTermContract>>();
+        int numberOfContracts = 0;
+        for (LongTermContract contract : contractRepository.findLongTermContractsActiveAtTime(tick)) {
+            if (contract.getLongTermContractType() == null) {
+                continue;
+            }
+            double capacity = contract.getCapacity();
+            for (Segment segment : contract.getLongTermContractType().getSegments()) {
+                if (contract.getFrom() instanceof EnergyProducer) {
+                    String key = PRODUCER_SEGMENT + contract.getFrom().getNodeId() + "/" + segment.getNodeId();
+                    add(key, capacity);
+                    List<LongTermContract> list = contracts.get(key);
+                    if (list == null) {
+                        list = new ArrayList<LongTermContract>();
+                        contracts.put(key, list);
+                    }
+                    list.add(contract);
+                }
+                if (contract.getTo() instanceof EnergyConsumer && contract.getZone() != null) {
+                    add(CONSUMER_ZONE_SEGMENT + contract.getTo().getNodeId() + "/" + contract.getZone().getNodeId() + "/"
+                            + segment.getNodeId(), capacity);
+                    add(ZONE_SEGMENT + contract.getZone().getNodeId() + "/" + segment.getNodeId(), capacity);
+                }
+            }
+            numberOfContracts++;
+        }
+        this.tick = tick;
+        modificationCount = currentModificationCount;
+        logger.info("Built the coverage of " + numberOfContracts + " long-term contracts in tick " + tick);
+    }
+
+    private void add(String key, double value) {
+        Double current = capacities.get(key);
+        capacities.put(key, current == null ? value : current + value);
+    }
+
+}
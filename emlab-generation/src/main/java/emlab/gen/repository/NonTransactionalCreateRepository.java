@@ -46,6 +46,24 @@ public class NonTransactionalCreateRepository extends AbstractRepository<CashFlo
 	public CashFlow createCashFlow(DecarbonizationAgent from,
 			DecarbonizationAgent to, double amount, int type, long time,
 			PowerPlant plant) {
+		CashFlow cashFlow = recordCashFlow(from, to, amount, type, time, plant);
+		from.setCash(from.getCash() - amount);
+		if (to != null) {
+			to.setCash(to.getCash() + amount);
+		}
+
+		return cashFlow;
+	}
+
+	/**
+	 * Creates a cash flow without changing the cash of the agents, for payments of which the cash is settled separately.
+	 * Note: this is not transactional, so when called, it should be transactional there!
+	 * @param plant the power plant related to this cash flow, or null for a cash flow of several plants
+	 * @return the cash flow
+	 */
+	public CashFlow recordCashFlow(DecarbonizationAgent from,
+			DecarbonizationAgent to, double amount, int type, long time,
+			PowerPlant plant) {
 		CashFlow cashFlow = new CashFlow().persist();
 		cashFlow.setFrom(from);
 		cashFlow.setTo(to);
@@ -53,11 +71,6 @@ public class NonTransactionalCreateRepository extends AbstractRepository<CashFlo
 		cashFlow.setType(type);
 		cashFlow.setTime(time);
 		cashFlow.setRegardingPowerPlant(plant);
-		from.setCash(from.getCash() - amount);
-		if (to != null) {
-			to.setCash(to.getCash() + amount);
-		}
-
 		return cashFlow;
 	}
 	
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerGridNode;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * Cached versions of the capacity aggregates of the {@link PowerPlantRepository} that are used in the investment phase. The power plants
+ * are read in one scan, after which all aggregates for a tick are computed in one pass over the plants in memory and kept per (market,
+ * technology, owner, node) key. A power plant that is created with {@link PowerPlant#specifyAndPersist} or dismantled with
+ * {@link PowerPlant#dismantlePowerPlant(long)} is updated in the cache incrementally. Any other change to the power plants requires an
+ * {@link #invalidate()}.
+ *
+ * The methods have the same semantics as the Gremlin queries of the same name. Note that the queries by owner count all expected
+ * operational plants of the owner once it has a plant in the market, as the query does. The query in addition multiplies that by the
+ * number of plants of the owner in the market, which is left out here: it cancels out in the ratio in which the two are used.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class PowerPlantCapacityAggregateRepository extends AbstractRepository<PowerPlant> {
+
+    private static final String EXPECTED_BY_ZONE_AND_TECHNOLOGY_NAME = "ezt/";
+    private static final String EXPECTED_BY_NODE_AND_TECHNOLOGY_NAME = "ent/";
+    private static final String EXPECTED_BY_OWNER = "eo/";
+    private static final String EXPECTED_BY_OWNER_AND_TECHNOLOGY = "eot/";
+    private static final String PLANTS_BY_ZONE_AND_OWNER = "zo/";
+    private static final String OPERATIONAL_BY_TECHNOLOGY = "ot/";
+    private static final String PIPELINE_BY_TECHNOLOGY = "pt/";
+    private static final String PIPELINE_BY_ZONE = "pz/";
+
+    /**
+     * The properties of a power plant that the aggregates depend on.
+     */
+    static class PlantRecord {
+        double capacity;
+        long finishedTime;
+        double expectedEndOfLife;
+        long dismantleTime;
+        Long zone;
+        Long node;
+        Long owner;
+        Long technology;
+        String technologyName;
+    }
+
+    private Map<Long, PlantRecord> plants;
+
+    private final Map<Long, Map<String, Double>> aggregatesPerTick = new HashMap<Long, Map<String, Double>>();
+
+    /**
+     * Drops all cached plants and aggregates. The next query scans the power plants again.
+     */
+    public synchronized void invalidate() {
+        plants = null;
+        aggregatesPerTick.clear();
+    }
+
+    /**
+     * Updates the cache for a power plant that was created or changed. The aggregates that are already cached are corrected by the
+     * difference between the old and the new state of the plant.
+     *
+     * @param plant
+     *            the power plant
+     */
+    public synchronized void update(PowerPlant plant) {
+        if (plants == null || plant.getNodeId() == null) {
+            return;
+        }
+        PlantRecord oldRecord = plants.remove(plant.getNodeId());
+        PlantRecord newRecord = createRecord(plant);
+        plants.put(plant.getNodeId(), newRecord);
+        for (Map.Entry<Long, Map<String, Double>> entry : aggregatesPerTick.entrySet()) {
+            if (oldRecord != null) {
+                addToAggregates(entry.getValue(), oldRecord, entry.getKey(), -1);
+            }
+            addToAggregates(entry.getValue(), newRecord, entry.getKey(), 1);
+        }
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick) {
+        return get(tick, EXPECTED_BY_ZONE_AND_TECHNOLOGY_NAME + market.getZone().getNodeId() + "/" + technology.getName());
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(PowerGridNode node,
+            PowerGeneratingTechnology technology, long tick) {
+        return get(tick, EXPECTED_BY_NODE_AND_TECHNOLOGY_NAME + node.getNodeId() + "/" + technology.getName());
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(ElectricitySpotMarket market,
+            PowerGeneratingTechnology technology, long tick, EnergyProducer owner) {
+        if (get(tick, PLANTS_BY_ZONE_AND_OWNER + market.getZone().getNodeId() + "/" + owner.getNodeId()) == 0) {
+            return 0d;
+        }
+        return get(tick, EXPECTED_BY_OWNER_AND_TECHNOLOGY + owner.getNodeId() + "/" + technology.getNodeId());
+    }
+
+    public double calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(ElectricitySpotMarket market, long tick,
+            EnergyProducer owner) {
+        if (get(tick, PLANTS_BY_ZONE_AND_OWNER + market.getZone().getNodeId() + "/" + owner.getNodeId()) == 0) {
+            return 0d;
+        }
+        return get(tick, EXPECTED_BY_OWNER + owner.getNodeId());
+    }
+
+    public double calculateCapacityOfOperationalPowerPlantsByTechnology(PowerGeneratingTechnology technology, long tick) {
+        return get(tick, OPERATIONAL_BY_TECHNOLOGY + technology.getNodeId());
+    }
+
+    public double calculateCapacityOfPowerPlantsByTechnologyInPipeline(PowerGeneratingTechnology technology, long tick) {
+        return get(tick, PIPELINE_BY_TECHNOLOGY + technology.getNodeId());
+    }
+
+    public double calculateCapacityOfPowerPlantsByMarketInPipeline(ElectricitySpotMarket market, long tick) {
+        return get(tick, PIPELINE_BY_ZONE + market.getZone().getNodeId());
+    }
+
+    private synchronized double get(long tick, String key) {
+        if (plants == null) {
+            plants = new HashMap<Long, PlantRecord>();
+            for (PowerPlant plant : findAll()) {
+                plants.put(plant.getNodeId(), createRecord(plant));
+            }
+            logger.info("Cached the capacity aggregates of " + plants.size() + " power plants");
+        }
+        Map<String, Double> aggregates = aggregatesPerTick.get(tick);
+        if (aggregates == null) {
+            aggregates = new HashMap<String, Double>();
+            for (PlantRecord record : plants.values()) {
+                addToAggregates(aggregates, record, tick, 1);
+            }
+            aggregatesPerTick.put(tick, aggregates);
+        }
+        Double value = aggregates.get(key);
+        return value == null ? 0d : value;
+    }
+
+    private PlantRecord createRecord(PowerPlant plant) {
+        PlantRecord record = new PlantRecord();
+        record.capacity = plant.getActualNominalCapacity();
+        record.finishedTime = plant.getConstructionStartTime() + plant.getActualPermittime() + plant.getActualLeadtime();
+        record.expectedEndOfLife = plant.getExpectedEndOfLife();
+        record.dismantleTime = plant.getDismantleTime();
+        record.node = plant.getLocation().getNodeId();
+        record.zone = plant.getLocation().getZone().getNodeId();
+        record.owner = plant.getOwner().getNodeId();
+        record.technology = plant.getTechnology().getNodeId();
+        record.technologyName = plant.getTechnology().getName();
+        return record;
+    }
+
+    private void addToAggregates(Map<String, Double> aggregates, PlantRecord record, long tick, int sign) {
+        double capacity = sign * record.capacity;
+        boolean finished = record.finishedTime <= tick;
+
+        // Counts the plants rather than their capacity, to know whether an
+        // owner has plants in a market at all.
+        add(aggregates, PLANTS_BY_ZONE_AND_OWNER + record.zone + "/" + record.owner, sign);
+
+        if (finished && record.expectedEndOfLife > tick) {
+            add(aggregates, EXPECTED_BY_ZONE_AND_TECHNOLOGY_NAME + record.zone + "/" + record.technologyName, capacity);
+            add(aggregates, EXPECTED_BY_NODE_AND_TECHNOLOGY_NAME + record.node + "/" + record.technologyName, capacity);
+            add(aggregates, EXPECTED_BY_OWNER + record.owner, capacity);
+            add(aggregates, EXPECTED_BY_OWNER_AND_TECHNOLOGY + record.owner + "/" + record.technology, capacity);
+        }
+        if (finished && record.dismantleTime > tick) {
+            add(aggregates, OPERATIONAL_BY_TECHNOLOGY + record.technology, capacity);
+        }
+        if (!finished && (record.dismantleTime > tick || record.dismantleTime == 0)) {
+            add(aggregates, PIPELINE_BY_TECHNOLOGY + record.technology, capacity);
+            add(aggregates, PIPELINE_BY_ZONE + record.zone, capacity);
+        }
+    }
+
+    private void add(Map<String, Double> aggregates, String key, double value) {
+        Double current = aggregates.get(key);
+        aggregates.put(key, current == null ? value : current + value);
+    }
+
+}
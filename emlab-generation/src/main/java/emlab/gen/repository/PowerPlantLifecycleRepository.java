@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.util.IntervalIndex;
+import emlab.gen.util.LifecycleIntervals;
+
+/**
+ * The power plants by the ticks in which they are operational, expected to be operational or in the pipeline, in an {@link IntervalIndex}
+ * per market, owner, technology, owner and market, and owner of plants with fuels. A query for a tick only reads the plants that are
+ * found, instead of filtering all plants of the market, owner or technology as the Gremlin queries of the {@link PowerPlantRepository}
+ * do. The methods have the same semantics as those queries, but give the plants in order of node id.
+ *
+ * The plants are read once and then kept up to date by {@link PowerPlant#specifyAndPersist} and
+ * {@link PowerPlant#dismantlePowerPlant(long)}; plants that are created otherwise are added with {@link #update(PowerPlant)}, and plants
+ * that are deleted have to be removed with {@link #remove(PowerPlant)}. Any other change to the lifecycle of the plants requires an
+ * {@link #invalidate()}. The intervals are those of {@link LifecycleIntervals}.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class PowerPlantLifecycleRepository extends AbstractRepository<PowerPlant> {
+
+    private static final String OPERATIONAL = "op/";
+    private static final String EXPECTED_OPERATIONAL = "exp/";
+    private static final String PIPELINE = "pipe/";
+
+    private Map<String, IntervalIndex> index;
+
+    /**
+     * Drops the index. The next query reads all power plants again.
+     */
+    public synchronized void invalidate() {
+        index = null;
+    }
+
+    /**
+     * Updates the index for a power plant that was created or dismantled.
+     */
+    public synchronized void update(PowerPlant plant) {
+        if (index == null || plant.getNodeId() == null) {
+            return;
+        }
+        removeFromIndex(plant);
+        addToIndex(plant);
+    }
+
+    /**
+     * Removes a power plant from the index, before it is deleted from the graph.
+     */
+    public synchronized void remove(PowerPlant plant) {
+        if (index == null || plant.getNodeId() == null) {
+            return;
+        }
+        removeFromIndex(plant);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlants(long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.ALL, tick);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlantsByOwner(EnergyProducer owner, long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.OWNER + owner.getNodeId(), tick);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlantsWithFuelsGreaterZeroByOwner(EnergyProducer owner, long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.OWNER_WITH_FUELS + owner.getNodeId(), tick);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlantsByTechnology(PowerGeneratingTechnology technology, long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.TECHNOLOGY + technology.getNodeId(), tick);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.ZONE + market.getZone().getNodeId(), tick);
+    }
+
+    public List<PowerPlant> findOperationalPowerPlantsByOwnerAndMarket(EnergyProducer owner, ElectricitySpotMarket market, long tick) {
+        return findInIndex(OPERATIONAL + LifecycleIntervals.ownerAndZone(owner.getNodeId(), market.getZone().getNodeId()), tick);
+    }
+
+    public List<PowerPlant> findExpectedOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        return findInIndex(EXPECTED_OPERATIONAL + LifecycleIntervals.ZONE + market.getZone().getNodeId(), tick);
+    }
+
+    public List<PowerPlant> findPowerPlantsByOwnerAndMarketInPipeline(EnergyProducer owner, ElectricitySpotMarket market, long tick) {
+        return findInIndex(PIPELINE + LifecycleIntervals.ownerAndZone(owner.getNodeId(), market.getZone().getNodeId()), tick);
+    }
+
+    public List<PowerPlant> findPowerPlantsByTechnologyInPipeline(PowerGeneratingTechnology technology, long tick) {
+        return findInIndex(PIPELINE + LifecycleIntervals.TECHNOLOGY + technology.getNodeId(), tick);
+    }
+
+    public double calculateCapacityOfOperationalPowerPlantsInMarket(ElectricitySpotMarket market, long tick) {
+        double capacity = 0d;
+        for (PowerPlant plant : findOperationalPowerPlantsInMarket(market, tick)) {
+            capacity += plant.getActualNominalCapacity();
+        }
+        return capacity;
+    }
+
+    private synchronized List<PowerPlant> findInIndex(String key, long tick) {
+        if (index == null) {
+            index = new HashMap<String, IntervalIndex>();
+            int n = 0;
+            for (PowerPlant plant : findAll()) {
+                addToIndex(plant);
+                n++;
+            }
+            logger.info("Indexed the lifecycle of " + n + " power plants under " + index.size() + " keys");
+        }
+        List<PowerPlant> plants = new ArrayList<PowerPlant>();
+        IntervalIndex intervals = index.get(key);
+        if (intervals != null) {
+            for (long id : intervals.findContaining(tick)) {
+                PowerPlant plant = findById(id);
+                if (plant == null) {
+                    logger.warn("Power plant " + id + " was deleted without being removed from the lifecycle index");
+                    continue;
+                }
+                plants.add(plant);
+            }
+        }
+        return plants;
+    }
+
+    private void addToIndex(PowerPlant plant) {
+        long finishedTime = LifecycleIntervals.finishedTime(plant.getConstructionStartTime(), plant.getActualPermittime(),
+                plant.getActualLeadtime());
+        long[] operational = LifecycleIntervals.operational(finishedTime, plant.getDismantleTime());
+        long[] expectedOperational = LifecycleIntervals.expectedOperational(finishedTime, plant.getExpectedEndOfLife());
+        long[] inPipeline = LifecycleIntervals.inPipeline(finishedTime, plant.getDismantleTime());
+
+        for (String partition : getPartitions(plant)) {
+            getIntervals(OPERATIONAL + partition).add(operational[0], operational[1], plant.getNodeId());
+            getIntervals(EXPECTED_OPERATIONAL + partition).add(expectedOperational[0], expectedOperational[1], plant.getNodeId());
+            getIntervals(PIPELINE + partition).add(inPipeline[0], inPipeline[1], plant.getNodeId());
+        }
+    }
+
+    private void removeFromIndex(PowerPlant plant) {
+        for (String partition : getPartitions(plant)) {
+            for (String kind : new String[] { OPERATIONAL, EXPECTED_OPERATIONAL, PIPELINE }) {
+                IntervalIndex intervals = index.get(kind + partition);
+                if (intervals != null) {
+                    intervals.remove(plant.getNodeId());
+                }
+            }
+        }
+    }
+
+    private IntervalIndex getIntervals(String key) {
+        IntervalIndex intervals = index.get(key);
+        if (intervals == null) {
+            intervals = new IntervalIndex();
+            index.put(key, intervals);
+        }
+        return intervals;
+    }
+
+    private List<String> getPartitions(PowerPlant plant) {
+        Long owner = plant.getOwner() == null ? null : plant.getOwner().getNodeId();
+        Long zone = null;
+        if (plant.getLocation() != null && plant.getLocation().getZone() != null) {
+            zone = plant.getLocation().getZone().getNodeId();
+        }
+        return LifecycleIntervals.partitions(plant.getTechnology().getNodeId(), owner, !plant.getTechnology().getFuels().isEmpty(), zone);
+    }
+
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.market.ClearingPoint;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.util.PriceHistory;
+
+/**
+ * The prices and volumes of all clearing points, per market and per segment of a market, in a columnar {@link PriceHistory}. Every
+ * clearing point is recorded here when it is created or updated, so prices can be looked up per tick and over ranges of ticks without
+ * walking all clearing points of a market in the graph. The clearing point nodes themselves are optional, see
+ * {@link #setClearingPointNodesEnabled(boolean)}.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class PriceHistoryRepository extends AbstractRepository<ClearingPoint> {
+
+    private final PriceHistory history = new PriceHistory();
+
+    // the segments with prices per market, and the markets with prices per segment, in the order they were recorded
+    private final Map<Long, List<Long>> segmentsByMarket = new HashMap<Long, List<Long>>();
+    private final Map<Long, List<Long>> marketsBySegment = new HashMap<Long, List<Long>>();
+
+    private volatile boolean clearingPointNodesEnabled = true;
+
+    /**
+     * Drops all prices. Needed when a new run starts on a new graph.
+     */
+    public synchronized void invalidate() {
+        history.clear();
+        segmentsByMarket.clear();
+        marketsBySegment.clear();
+    }
+
+    public boolean isClearingPointNodesEnabled() {
+        return clearingPointNodesEnabled;
+    }
+
+    /**
+     * Whether clearing points are also created as nodes in the graph. Without them, only the roles that look up prices in this repository
+     * work.
+     */
+    public void setClearingPointNodesEnabled(boolean clearingPointNodesEnabled) {
+        this.clearingPointNodesEnabled = clearingPointNodesEnabled;
+    }
+
+    public void recordClearingPoint(DecarbonizationMarket market, double price, double volume, long time) {
+        history.record(getSeries(market), time, price, volume);
+    }
+
+    public synchronized void recordSegmentClearingPoint(Segment segment, DecarbonizationMarket market, double price, double volume,
+            long time) {
+        history.record(getSeries(market, segment), time, price, volume);
+        register(segmentsByMarket, market.getNodeId(), segment.getNodeId());
+        register(marketsBySegment, segment.getNodeId(), market.getNodeId());
+    }
+
+    /**
+     * @return the price of the market at the time, or null if it did not clear
+     */
+    public Double findPriceForMarketAndTime(DecarbonizationMarket market, long time) {
+        return toDouble(history.getPrice(getSeries(market), time));
+    }
+
+    /**
+     * @return the volume of the market at the time, or null if it did not clear
+     */
+    public Double findVolumeForMarketAndTime(DecarbonizationMarket market, long time) {
+        return toDouble(history.getVolume(getSeries(market), time));
+    }
+
+    /**
+     * @return the price of the segment of the market at the time, or null if it did not clear
+     */
+    public Double findPriceForMarketSegmentAndTime(DecarbonizationMarket market, Segment segment, long time) {
+        return toDouble(history.getPrice(getSeries(market, segment), time));
+    }
+
+    /**
+     * Finds the price of a segment at a time in the first market that recorded one, for models with one electricity spot market.
+     *
+     * @return the price, or null if no market cleared the segment at the time
+     */
+    public synchronized Double findPriceForSegmentAndTime(Segment segment, long time) {
+        List<Long> markets = marketsBySegment.get(segment.getNodeId());
+        if (markets != null) {
+            for (Long market : markets) {
+                double price = history.getPrice(getSeries(market, segment.getNodeId()), time);
+                if (!Double.isNaN(price)) {
+                    return price;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the volume-weighted average price of a market at a time, over the clearing point of the market and those of its
+     * segments.
+     *
+     * @return the average price, or null if no volume cleared
+     */
+    public synchronized Double findAveragePriceForMarketAndTime(DecarbonizationMarket market, long time) {
+        double priceTimesVolume = 0d;
+        double volume = 0d;
+        String series = getSeries(market);
+        if (history.contains(series, time)) {
+            priceTimesVolume += history.getPrice(series, time) * history.getVolume(series, time);
+            volume += history.getVolume(series, time);
+        }
+        List<Long> segments = segmentsByMarket.get(market.getNodeId());
+        if (segments != null) {
+            for (Long segment : segments) {
+                series = getSeries(market.getNodeId(), segment);
+                if (history.contains(series, time)) {
+                    priceTimesVolume += history.getPrice(series, time) * history.getVolume(series, time);
+                    volume += history.getVolume(series, time);
+                }
+            }
+        }
+        if (volume > 0) {
+            return priceTimesVolume / volume;
+        }
+        return null;
+    }
+
+    /**
+     * @return the times and prices of the market from (inclusive) to (inclusive), as pairs of time and price
+     */
+    public double[][] findPricesForMarketAndTimeRange(DecarbonizationMarket market, long timeFrom, long timeTo) {
+        return history.findPrices(getSeries(market), timeFrom, timeTo);
+    }
+
+    /**
+     * @return the average price of the market from (inclusive) to (inclusive), or NaN if it did not clear in that range
+     */
+    public double findAveragePriceForMarketAndTimeRange(DecarbonizationMarket market, long timeFrom, long timeTo) {
+        return history.averagePrice(getSeries(market), timeFrom, timeTo);
+    }
+
+    private String getSeries(DecarbonizationMarket market) {
+        return String.valueOf(market.getNodeId());
+    }
+
+    private String getSeries(DecarbonizationMarket market, Segment segment) {
+        return getSeries(market.getNodeId(), segment.getNodeId());
+    }
+
+    private String getSeries(Long market, Long segment) {
+        return market + "/" + segment;
+    }
+
+    private void register(Map<Long, List<Long>> map, Long key, Long value) {
+        List<Long> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<Long>();
+            map.put(key, values);
+        }
+        if (!values.contains(value)) {
+            values.add(value);
+        }
+    }
+
+    private Double toDouble(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.util.ProductionLedger;
+
+/**
+ * The electricity produced, fuel burned and CO2 emitted per power plant, in a {@link ProductionLedger} per tick. The ledger of a tick is
+ * recorded once, after the electricity spot market is cleared, in one pass over the dispatch plans of the tick. After that
+ * {@link PowerPlant#calculateElectricityOutputAtTime(long)} and {@link PowerPlant#calculateCO2EmissionsAtTime(long)} read it instead of
+ * the dispatch plans of the plant. Ticks that are not recorded are not in the ledger.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class ProductionLedgerRepository extends AbstractRepository<PowerPlant> {
+
+    @Autowired
+    TimeIndexRepository timeIndexRepository;
+
+    private final Map<Long, ProductionLedger> ledgers = new HashMap<Long, ProductionLedger>();
+
+    /**
+     * Drops all ledgers. Needed when a new run starts on a new graph.
+     */
+    public synchronized void invalidate() {
+        ledgers.clear();
+    }
+
+    /**
+     * Records the production of all power plants in a tick from the accepted amounts of their dispatch plans, replacing an earlier ledger
+     * of the tick. The fuel burned is the electricity produced times the share of each substance in the fuel mix of the plant. The fuel
+     * mix and emission intensity of the plants are those of the moment of recording.
+     */
+    public ProductionLedger recordProduction(long time) {
+        ProductionLedger ledger = new ProductionLedger();
+        Map<Long, PowerPlant> plants = new LinkedHashMap<Long, PowerPlant>();
+        Map<Long, Double> segmentLengths = new HashMap<Long, Double>();
+        for (PowerPlantDispatchPlan plan : timeIndexRepository.findAllPowerPlantDispatchPlansForTime(time)) {
+            PowerPlant plant = plan.getPowerPlant();
+            Double lengthInHours = segmentLengths.get(plan.getSegment().getNodeId());
+            if (lengthInHours == null) {
+                lengthInHours = plan.getSegment().getLengthInHours();
+                segmentLengths.put(plan.getSegment().getNodeId(), lengthInHours);
+            }
+            ledger.add(plant.getNodeId(), lengthInHours * (plan.getCapacityLongTermContract() + plan.getAcceptedAmount()), 0d);
+            plants.put(plant.getNodeId(), plant);
+        }
+        for (PowerPlant plant : plants.values()) {
+            double electricityOutput = ledger.getElectricityOutput(plant.getNodeId());
+            for (SubstanceShareInFuelMix share : plant.getFuelMix()) {
+                ledger.addFuelUse(plant.getNodeId(), share.getSubstance().getNodeId(), share.getShare() * electricityOutput);
+            }
+            ledger.add(plant.getNodeId(), 0d, plant.calculateEmissionIntensity() * electricityOutput);
+        }
+        synchronized (this) {
+            ledgers.put(time, ledger);
+        }
+        logger.info("Recorded the production of " + ledger.size() + " power plants in tick " + time + ": "
+                + ledger.getTotalElectricityOutput() + " MWh, " + ledger.getTotalEmissions() + " t CO2");
+        return ledger;
+    }
+
+    /**
+     * @return the ledger of the tick, or null if it is not recorded
+     */
+    public synchronized ProductionLedger findLedger(long time) {
+        return ledgers.get(time);
+    }
+
+    /**
+     * @return the electricity produced by the plant in MWh, or null if the tick is not recorded
+     */
+    public Double findElectricityOutput(PowerPlant plant, long time) {
+        ProductionLedger ledger = findLedger(time);
+        return ledger == null ? null : ledger.getElectricityOutput(plant.getNodeId());
+    }
+
+    /**
+     * @return the amount of the substance burned by the plant, or null if the tick is not recorded
+     */
+    public Double findFuelUse(PowerPlant plant, Substance substance, long time) {
+        ProductionLedger ledger = findLedger(time);
+        return ledger == null ? null : ledger.getFuelUse(plant.getNodeId(), substance.getNodeId());
+    }
+
+    /**
+     * @return the CO2 emitted by the plant, or null if the tick is not recorded
+     */
+    public Double findCO2Emissions(PowerPlant plant, long time) {
+        ProductionLedger ledger = findLedger(time);
+        return ledger == null ? null : ledger.getEmissions(plant.getNodeId());
+    }
+
+}
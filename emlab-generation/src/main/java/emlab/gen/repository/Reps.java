@@ -20,6 +20,12 @@ public class Reps {
     @Autowired
     public PowerPlantRepository powerPlantRepository;
 
+    @Autowired
+    public PowerPlantCapacityAggregateRepository powerPlantCapacityAggregateRepository;
+
+    @Autowired
+    public PowerPlantLifecycleRepository powerPlantLifecycleRepository;
+
     @Autowired
     public NonTransactionalCreateRepository nonTransactionalCreateRepository;
 
@@ -38,18 +44,42 @@ public class Reps {
     @Autowired
     public ClearingPointRepository clearingPointRepository;
 
+    @Autowired
+    public LastKnownPriceRepository lastKnownPriceRepository;
+
+    @Autowired
+    public PriceHistoryRepository priceHistoryRepository;
+
+    @Autowired
+    public ForecastRepository forecastRepository;
+
     @Autowired
     public LoanRepository loanRepository;
 
     @Autowired
     public PowerPlantDispatchPlanRepository powerPlantDispatchPlanRepository;
 
+    @Autowired
+    public BatchPowerPlantDispatchPlanRepository batchPowerPlantDispatchPlanRepository;
+
     @Autowired
     public ContractRepository contractRepository;
 
+    @Autowired
+    public LongTermContractCoverageRepository longTermContractCoverageRepository;
+
     @Autowired
     public CashFlowRepository cashFlowRepository;
 
+    @Autowired
+    public HistoricalNodeRepository historicalNodeRepository;
+
+    @Autowired
+    public TimeIndexRepository timeIndexRepository;
+
+    @Autowired
+    public ProductionLedgerRepository productionLedgerRepository;
+
     @Autowired
     public SegmentLoadRepository segmentLoadRepository;
 
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.stereotype.Repository;
+
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+
+/**
+ * Finds the nodes that are made anew every tick, the bids, power plant dispatch plans and cash flows, with a lookup of the tick on their
+ * time index: bidTime, ppdpTime and cashFlowTime. A lookup only reads the nodes of that tick, where a query on the type index reads the
+ * nodes of all ticks that are kept, so its cost does not grow during a run. Deleted nodes are removed from the indexes with them.
+ *
+ * @author ejlchappin
+ *
+ */
+@Repository
+public class TimeIndexRepository extends AbstractRepository<Bid> {
+
+    @Autowired
+    Neo4jTemplate template;
+
+    /**
+     * @return the bids of the tick, including the power plant dispatch plans
+     */
+    public Iterable<Bid> findAllBidsForTime(long time) {
+        return template.repositoryFor(Bid.class).findAllByPropertyValue("time", time);
+    }
+
+    public Iterable<PowerPlantDispatchPlan> findAllPowerPlantDispatchPlansForTime(long time) {
+        return template.repositoryFor(PowerPlantDispatchPlan.class).findAllByPropertyValue("ppdpTime", (int) time);
+    }
+
+    public Iterable<CashFlow> findAllCashFlowsForTime(long time) {
+        return template.repositoryFor(CashFlow.class).findAllByPropertyValue("time", time);
+    }
+
+}
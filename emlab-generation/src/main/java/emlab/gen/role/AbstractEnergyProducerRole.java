@@ -15,31 +15,19 @@
  ******************************************************************************/
 package emlab.gen.role;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.math.optimization.GoalType;
-import org.apache.commons.math.optimization.OptimizationException;
-import org.apache.commons.math.optimization.RealPointValuePair;
-import org.apache.commons.math.optimization.linear.LinearConstraint;
-import org.apache.commons.math.optimization.linear.LinearObjectiveFunction;
-import org.apache.commons.math.optimization.linear.Relationship;
-import org.apache.commons.math.optimization.linear.SimplexSolver;
-import org.apache.commons.math.stat.regression.SimpleRegression;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import agentspring.role.AbstractRole;
 import agentspring.trend.GeometricTrend;
-import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.market.CO2Auction;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.technology.PowerGeneratingTechnology;
@@ -47,6 +35,8 @@ import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.DiscountFactors;
+import emlab.gen.util.FuelMixSolver;
 
 public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> extends AbstractRole<T> {
 
@@ -55,7 +45,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double calculateMarketCapacity(PowerGeneratingTechnology technology, long time) {
         double capacity = 0d;
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
             capacity += plant.getAvailableCapacity(getCurrentTick());
         }
         logger.info("Capacity for technology {} is {}", technology.getName(), capacity);
@@ -64,7 +54,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double calculateMarketCapacity(ElectricitySpotMarket market, PowerGeneratingTechnology technology, long time) {
         double capacity = 0d;
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
             if (plant.getLocation().getZone().equals(market.getZone())) {
                 capacity += plant.getAvailableCapacity(time);
             }
@@ -76,7 +66,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     public double calculateOwnerCapacityOfType(ElectricitySpotMarket market, PowerGeneratingTechnology technology, long time,
             T owner) {
         double capacity = 0d;
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByTechnology(technology, time)) {
             if (plant.getLocation().getZone().equals(market.getZone()) && plant.getOwner().equals(owner)) {
                 capacity += plant.getAvailableCapacity(time);
             }
@@ -87,9 +77,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double calculateTotalOwnerCapacity(ElectricitySpotMarket market, long time, T owner) {
         double capacity = 0d;
-        reps.powerPlantRepository.findOperationalPowerPlantsByOwnerAndMarket(
-                owner, market, time);
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwnerAndMarket(owner, market,
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwnerAndMarket(owner, market,
                 time)) {
             capacity += plant.getAvailableCapacity(time);
         }
@@ -99,7 +87,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double calculateTotalOwnerCapacityInPipeline(ElectricitySpotMarket market, long time, T owner) {
         double capacity = 0d;
-        for (PowerPlant plant : reps.powerPlantRepository.findPowerPlantsByOwnerAndMarketInPipeline(owner, market,
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findPowerPlantsByOwnerAndMarketInPipeline(owner, market,
                 getCurrentTick())) {
             capacity += plant.getAvailableCapacity(time);
         }
@@ -162,85 +150,17 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     }
 
     /**
-     * Finds the last known price on a specific market. We try to get it for this tick, previous tick, or from a possible supplier directly. If multiple prices are found, the average is returned. This
-     * is the case for electricity spot markets, as they may have segments.
-     * 
-     * @param substance
-     *            the price we want for
-     * @return the (average) price found
+     * Finds the last known price on a specific market, see {@link emlab.gen.repository.LastKnownPriceRepository}.
      */
     public double findLastKnownPriceOnMarket(DecarbonizationMarket market) {
-        Double average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(market, getCurrentTick()));
-        Substance substance = market.getSubstance();
-
-        if (average != null) {
-            logger.info("Average price found on market for this tick for {}", substance.getName());
-            return average;
-        }
-
-        average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(
-                        market, getCurrentTick() - 1));
-        if (average != null) {
-            logger.info("Average price found on market for previous tick for {}", substance.getName());
-            return average;
-        }
-
-        if (market.getReferencePrice() > 0) {
-            logger.info("Found a reference price found for market for {}", substance.getName());
-            return market.getReferencePrice();
-        }
-
-        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
-            if (supplier.getSubstance().equals(substance)) {
-
-                return supplier.getPriceOfCommodity().getValue(getCurrentTick());
-            }
-        }
-
-        logger.info("No price has been found for {}", substance.getName());
-        return 0d;
+        return reps.lastKnownPriceRepository.findLastKnownPriceOnMarket(market, getCurrentTick());
     }
 
     /**
-     * Finds the last known price for a substance. We try to find the market for it and get it get the price on that market for this tick, previous tick, or from a possible supplier directly. If
-     * multiple prices are found, the average is returned. This is the case for electricity spot markets, as they may have segments.
-     * 
-     * @param substance
-     *            the price we want for
-     * @return the (average) price found
+     * Finds the last known price for a substance, see {@link emlab.gen.repository.LastKnownPriceRepository}.
      */
     public double findLastKnownPriceForSubstance(Substance substance) {
-
-        DecarbonizationMarket market = reps.marketRepository.findFirstMarketBySubstance(substance);
-        if (market == null) {
-            logger.warn("No market found for {} so no price can be found", substance.getName());
-            return 0d;
-        } else {
-            return findLastKnownPriceOnMarket(market);
-        }
-    }
-
-    /**
-     * Calculates the volume-weighted average price on a market based on a set of clearingPoints.
-     * 
-     * @param clearingPoints
-     *            the clearingPoints with the volumes and prices
-     * @return the weighted average
-     */
-    private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
-        double priceTimesVolume = 0d;
-        double volume = 0d;
-
-        for (ClearingPoint point : clearingPoints) {
-            priceTimesVolume += point.getPrice() * point.getVolume();
-            volume += point.getVolume();
-        }
-        if (volume > 0) {
-            return priceTimesVolume / volume;
-        }
-        return null;
+        return reps.lastKnownPriceRepository.findLastKnownPriceForSubstance(substance, getCurrentTick());
     }
 
     public double calculateCO2MarketMarginalCost(PowerPlant powerPlant) {
@@ -251,11 +171,10 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     }
 
     public double calculateCO2MarketCost(PowerPlant powerPlant) {
-        double co2Intensity = powerPlant.calculateEmissionIntensity();
         CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
-        double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
-        return co2Intensity * co2Price * electricityOutput;
+        double emissions = powerPlant.calculateCO2EmissionsAtTime(getCurrentTick());
+        return co2Price * emissions;
     }
 
     /**
@@ -265,10 +184,9 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      * @return
      */
     public double calculatePaymentEffictiveCO2NationalMinimumPriceCost(PowerPlant powerPlant) {
-        double co2Intensity = powerPlant.calculateEmissionIntensity();
         CO2Auction auction = reps.genericRepository.findFirst(CO2Auction.class);
         double co2Price = findLastKnownPriceOnMarket(auction);
-        double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
+        double emissions = powerPlant.calculateCO2EmissionsAtTime(getCurrentTick());
         double nationalMinCo2price = reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(powerPlant)
                 .getMinNationalCo2PriceTrend().getValue(getCurrentTick());
         double paymentEffectivePartOfNationalCO2;
@@ -276,7 +194,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
             paymentEffectivePartOfNationalCO2 = nationalMinCo2price - co2Price;
         else
             paymentEffectivePartOfNationalCO2 = 0;
-        return co2Intensity * paymentEffectivePartOfNationalCO2 * electricityOutput;
+        return paymentEffectivePartOfNationalCO2 * emissions;
     }
 
     public double calculateCO2TaxMarginalCost(PowerPlant powerPlant) {
@@ -295,11 +213,10 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
     }
 
     public double calculateCO2Tax(PowerPlant powerPlant) {
-        double co2Intensity = powerPlant.calculateEmissionIntensity();
-        double electricityOutput = powerPlant.calculateElectricityOutputAtTime(getCurrentTick());
+        double emissions = powerPlant.calculateCO2EmissionsAtTime(getCurrentTick());
         Government government = reps.genericRepository.findFirst(Government.class);
         double co2Tax = government.getCO2Tax(getCurrentTick());
-        double taxToPay = (co2Intensity * electricityOutput) * co2Tax;
+        double taxToPay = emissions * co2Tax;
         return taxToPay;
     }
 
@@ -346,9 +263,9 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
         return pastOP;
     }
 
-
     /**
-     * The fuel mix is calculated with a linear optimization model of the possible fuels and the requirements.
+     * The fuel mix is calculated with a linear optimization model of the possible fuels and the requirements, which is solved by the
+     * {@link FuelMixSolver}. Solutions are shared between plants with the same technology, efficiency, fuel prices and CO2 price.
      * 
      * @param substancePriceMap
      *            contains the possible fuels and their market prices
@@ -383,8 +300,7 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
             Substance substance = substancePriceMap.keySet().iterator().next();
 
-            ssifm.setShare(calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
-            ssifm.setSubstance(substance);
+            updateSubstanceShareInFuelMix(ssifm, substance, calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
             logger.info("Setting fuel consumption for {} to {}", ssifm.getSubstance().getName(), ssifm.getShare());
 
             return fuelMix;
@@ -411,30 +327,23 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
             // Objective function = minimize fuel cost (fuel
             // consumption*fuelprices
             // + CO2 intensity*co2 price/tax)
-            LinearObjectiveFunction function = new LinearObjectiveFunction(fuelAndCO2Costs, 0d);
-
-            List<LinearConstraint> constraints = new ArrayList<LinearConstraint>();
-
             // Constraint 1: total fuel density * fuel consumption should match
             // required energy input
-            constraints.add(new LinearConstraint(fuelDensities, Relationship.EQ, (1 / efficiency)));
-
             // Constraint 2&3: minimum fuel quality (times fuel consumption)
             // required
             // The equation is derived from (example for 2 fuels): q1 * x1 / (x1+x2) + q2 * x2 / (x1+x2) >= qmin
             // so that the fuelquality weighted by the mass percentages is greater than the minimum fuel quality.
-            constraints.add(new LinearConstraint(fuelQuality, Relationship.GEQ, 0));
+            double[] solution = FuelMixSolver.solveShared(determineFuelMixKey(plant, substancePriceMap, co2Price), fuelAndCO2Costs,
+                    fuelDensities, fuelQuality, (1 / efficiency));
 
-            try {
-                SimplexSolver solver = new SimplexSolver();
-                RealPointValuePair solution = solver.optimize(function, constraints, GoalType.MINIMIZE, true);
+            if (solution != null) {
 
                 logger.info("Succesfully solved a linear optimization for fuel mix");
 
                 int f = 0;
-                Iterator<SubstanceShareInFuelMix> iterator = plant.getFuelMix().iterator();
+                Iterator<SubstanceShareInFuelMix> iterator = fuelMix.iterator();
                 for (Substance substance : substancePriceMap.keySet()) {
-                    double share = solution.getPoint()[f];
+                    double share = solution[f];
 
                     SubstanceShareInFuelMix ssifm;
                     if (iterator.hasNext()) {
@@ -446,34 +355,61 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
                     double fuelConsumptionPerMWhElectricityProduced = convertFuelShareToMassVolume(share);
                     logger.info("Setting fuel consumption for {} to {}", substance.getName(), fuelConsumptionPerMWhElectricityProduced);
-                    ssifm.setShare(fuelConsumptionPerMWhElectricityProduced);
-                    ssifm.setSubstance(substance);
+                    updateSubstanceShareInFuelMix(ssifm, substance, fuelConsumptionPerMWhElectricityProduced);
                     f++;
                 }
 
                 logger.info("If single fired, it would have been: {}",
                         calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substancePriceMap.keySet().iterator().next(), efficiency));
                 return fuelMix;
-            } catch (OptimizationException e) {
+            } else {
                 logger.warn(
                         "Failed to determine the correct fuel mix. Adding only fuel number 1 in fuel mix out of {} substances and minimum quality of {}",
                         substancePriceMap.size(), minimumFuelMixQuality);
                 logger.info("The fuel added is: {}", substancePriceMap.keySet().iterator().next().getName());
 
-                // Override the old one
-                fuelMix = new HashSet<SubstanceShareInFuelMix>();
-                SubstanceShareInFuelMix ssifm = new SubstanceShareInFuelMix().persist();
+                // Override the old one, reusing its node if it only had one
+                SubstanceShareInFuelMix ssifm;
+                if (fuelMix.size() == 1) {
+                    ssifm = fuelMix.iterator().next();
+                } else {
+                    fuelMix = new HashSet<SubstanceShareInFuelMix>();
+                    ssifm = new SubstanceShareInFuelMix().persist();
+                    fuelMix.add(ssifm);
+                }
                 Substance substance = substancePriceMap.keySet().iterator().next();
 
-                ssifm.setShare(calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
-                ssifm.setSubstance(substance);
+                updateSubstanceShareInFuelMix(ssifm, substance, calculateFuelConsumptionWhenOnlyOneFuelIsUsed(substance, efficiency));
                 logger.info("Setting fuel consumption for {} to {}", ssifm.getSubstance().getName(), ssifm.getShare());
-                fuelMix.add(ssifm);
                 return fuelMix;
             }
         }
     }
 
+    /**
+     * @return the key under which the {@link FuelMixSolver} shares the fuel mix of the plant at these prices
+     */
+    protected String determineFuelMixKey(PowerPlant plant, Map<Substance, Double> substancePriceMap, double co2Price) {
+        StringBuilder key = new StringBuilder();
+        key.append(plant.getTechnology().getNodeId()).append('/').append(plant.getActualEfficiency()).append('/').append(co2Price);
+        for (Substance substance : substancePriceMap.keySet()) {
+            key.append('/').append(substance.getNodeId()).append('=').append(substancePriceMap.get(substance));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Only writes the share and substance if they changed, so that an unchanged fuel mix is not written again.
+     */
+    private void updateSubstanceShareInFuelMix(SubstanceShareInFuelMix ssifm, Substance substance, double share) {
+        if (ssifm.getShare() != share) {
+            ssifm.setShare(share);
+        }
+        if (ssifm.getSubstance() == null || !ssifm.getSubstance().getNodeId().equals(substance.getNodeId())) {
+            ssifm.setSubstance(substance);
+        }
+    }
+
     public double convertFuelShareToMassVolume(double share) {
         return share * 3600;
     }
@@ -503,13 +439,9 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
 
     public double determineLoanAnnuities(double totalLoan, double payBackTime, double interestRate) {
 
-        double q = 1 + interestRate;
-        double annuity = totalLoan * (Math.pow(q, payBackTime) * (q - 1)) / (Math.pow(q, payBackTime) - 1);
-
-        return annuity;
+        return DiscountFactors.loanAnnuity(totalLoan, payBackTime, interestRate);
     }
 
-
     /**
      * Calculates expected CO2 price based on a geometric trend estimation, of the past years
      * @param futureTimePoint
@@ -529,46 +461,8 @@ public abstract class AbstractEnergyProducerRole<T extends EnergyProducer> exten
      * @return
      */
     protected HashMap<ElectricitySpotMarket, Double> determineExpectedCO2PriceInclTax(long futureTimePoint, long yearsLookingBackForRegression, int adjustmentForDetermineFuelMix) {
-        HashMap<ElectricitySpotMarket, Double> co2Prices = new HashMap<ElectricitySpotMarket, Double>();
-        CO2Auction co2Auction = reps.marketRepository.findCO2Auction();
-        //Find Clearing Points for the last 5 years (counting current year as one of the last 5 years).
-        Iterable<ClearingPoint> cps = reps.clearingPointRepository.findAllClearingPointsForMarketAndTimeRange(co2Auction, getCurrentTick()-yearsLookingBackForRegression+1-adjustmentForDetermineFuelMix, getCurrentTick()-adjustmentForDetermineFuelMix);
-        // Create regression object and calculate average
-        SimpleRegression sr = new SimpleRegression();
-        Government government = reps.template.findAll(Government.class).iterator().next();
-        double lastPrice = 0;
-        double averagePrice = 0;
-        int i = 0;
-        for (ClearingPoint clearingPoint : cps) {
-            sr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
-            lastPrice = clearingPoint.getPrice();
-            averagePrice += lastPrice;
-            i++;
-        }
-        averagePrice = averagePrice / i;
-        double expectedCO2Price;
-        if(i>1){
-            expectedCO2Price = sr.predict(futureTimePoint);
-            expectedCO2Price = Math.max(0, expectedCO2Price);
-            expectedCO2Price = Math.min(expectedCO2Price, government.getCo2Penalty());
-        }else{
-            expectedCO2Price = lastPrice;
-        }
-        // Calculate average of regression and past average:
-        expectedCO2Price = (expectedCO2Price + averagePrice) / 2;
-        for (ElectricitySpotMarket esm : reps.marketRepository.findAllElectricitySpotMarkets()) {
-            double nationalCo2MinPriceinFutureTick = reps.nationalGovernmentRepository.findNationalGovernmentByElectricitySpotMarket(esm)
-                    .getMinNationalCo2PriceTrend().getValue(futureTimePoint);
-            double co2PriceInCountry = 0d;
-            if (expectedCO2Price > nationalCo2MinPriceinFutureTick) {
-                co2PriceInCountry = expectedCO2Price;
-            } else {
-                co2PriceInCountry = nationalCo2MinPriceinFutureTick;
-            }
-            co2PriceInCountry += reps.genericRepository.findFirst(Government.class).getCO2Tax(futureTimePoint);
-            co2Prices.put(esm, Double.valueOf(co2PriceInCountry));
-        }
-        return co2Prices;
+        return reps.forecastRepository.determineExpectedCO2PriceInclTax(futureTimePoint, yearsLookingBackForRegression,
+                adjustmentForDetermineFuelMix, getCurrentTick());
     }
 
 }
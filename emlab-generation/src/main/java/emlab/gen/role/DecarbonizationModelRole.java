@@ -15,6 +15,8 @@
  ******************************************************************************/
 package emlab.gen.role;
 
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -31,11 +33,13 @@ import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.agent.TargetInvestor;
 import emlab.gen.domain.market.CommodityMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.capacitymechanisms.ProcessAcceptedPowerPlantDispatchRoleinSR;
 import emlab.gen.role.capacitymechanisms.StrategicReserveOperatorRole;
 import emlab.gen.role.investment.DismantlePowerPlantPastTechnicalLifetimeRole;
 import emlab.gen.role.investment.GenericInvestmentRole;
+import emlab.gen.role.investment.SimultaneousInvestmentRole;
 import emlab.gen.role.market.ClearCommodityMarketRole;
 import emlab.gen.role.market.ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole;
 import emlab.gen.role.market.ProcessAcceptedBidsRole;
@@ -52,6 +56,8 @@ import emlab.gen.role.operating.PayCO2AuctionRole;
 import emlab.gen.role.operating.PayCO2TaxRole;
 import emlab.gen.role.operating.PayForLoansRole;
 import emlab.gen.role.operating.PayOperatingAndMaintainanceCostsRole;
+import emlab.gen.role.operating.SettlePaymentsRole;
+import emlab.gen.util.Utils;
 
 /**
  * Main model role.
@@ -69,6 +75,8 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
     @Autowired
     private GenericInvestmentRole<EnergyProducer> genericInvestmentRole;
     @Autowired
+    private SimultaneousInvestmentRole simultaneousInvestmentRole;
+    @Autowired
     private SubmitOffersToElectricitySpotMarketRole submitOffersToElectricitySpotMarketRole;
     @Autowired
     private ClearCommodityMarketRole clearCommodityMarketRole;
@@ -97,6 +105,8 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
     @Autowired
     private PayForLoansRole payForLoansRole;
     @Autowired
+    private SettlePaymentsRole settlePaymentsRole;
+    @Autowired
     private PayOperatingAndMaintainanceCostsRole payOperatingAndMaintainanceCostsRole;
     @Autowired
     private StrategicReserveOperatorRole strategicReserveOperatorRole;
@@ -108,6 +118,12 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
 
     @Autowired Neo4jTemplate template;
 
+    @Autowired
+    TickProfiler profiler;
+
+    @Autowired
+    HistoricalNodeCompactor historicalNodeCompactor;
+
     /**
      * Main model script. Executes other roles in the right sequence.
      */
@@ -127,14 +143,39 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         logger.warn("***** STARTING TICK {} *****", getCurrentTick());
         Timer timer = new Timer();
         timer.start();
+        profiler.startTick(getCurrentTick(), model.isTickProfilingEnabled(), template.getGraphDatabaseService());
+
+        // A new run starts from a new graph.
+        if (getCurrentTick() == 0) {
+            reps.contractRepository.invalidate();
+            reps.lastKnownPriceRepository.invalidate();
+            reps.forecastRepository.invalidate();
+            reps.priceHistoryRepository.invalidate();
+            reps.powerPlantLifecycleRepository.invalidate();
+            reps.productionLedgerRepository.invalidate();
+        }
+        reps.priceHistoryRepository.setClearingPointNodesEnabled(!model.isPriceHistoryOnlyEnabled());
 
         logger.warn("  0. Dismantling & paying loans");
+        profiler.startPhase("0. Dismantling & paying loans");
         for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+            profiler.startRole(DismantlePowerPlantPastTechnicalLifetimeRole.class);
             dismantlePowerPlantRole.act(producer);
-            payForLoansRole.act(producer);
+            profiler.endRole();
+            if (!model.isSinglePassSettlementEnabled()) {
+                profiler.startRole(PayForLoansRole.class);
+                payForLoansRole.act(producer);
+                profiler.endRole();
+            }
             //            producer.act(dismantlePowerPlantRole);
             //            producer.act(payForLoansRole);
         }
+        if (model.isSinglePassSettlementEnabled()) {
+            profiler.startRole(SettlePaymentsRole.class);
+            settlePaymentsRole.settleLoans(reps.genericRepository.findAll(EnergyProducer.class), model.isAggregatedCashFlowsEnabled());
+            profiler.endRole();
+        }
+        profiler.endPhase();
 
         /*
          * Determine fuel mix of power plants
@@ -142,10 +183,14 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         Timer timerMarket = new Timer();
         timerMarket.start();
         logger.warn("  1. Determining fuel mix");
+        profiler.startPhase("1. Determining fuel mix");
         for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+            profiler.startRole(DetermineFuelMixRole.class);
             determineFuelMixRole.act(producer);
+            profiler.endRole();
             //            producer.act(determineFuelMixRole);
         }
+        profiler.endPhase();
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
@@ -157,15 +202,21 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             timerMarket.reset();
             timerMarket.start();
             logger.warn("  2. Submit and select long-term electricity contracts");
+            profiler.startPhase("2. Submit and select long-term electricity contracts");
             for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+                profiler.startRole(SubmitLongTermElectricityContractsRole.class);
                 submitLongTermElectricityContractsRole.act(producer);
+                profiler.endRole();
                 //                producer.act(submitLongTermElectricityContractsRole);
             }
 
             for (EnergyConsumer consumer : reps.genericRepository.findAllAtRandom(EnergyConsumer.class)) {
+                profiler.startRole(SelectLongTermElectricityContractsRole.class);
                 selectLongTermElectricityContractsRole.act(consumer);
+                profiler.endRole();
                 //                consumer.act(selectLongTermElectricityContractsRole);
             }
+            profiler.endPhase();
             timerMarket.stop();
             logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
@@ -176,10 +227,13 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         timerMarket.reset();
         timerMarket.start();
         logger.warn("  3. Submitting offers to market");
-        for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
-            submitOffersToElectricitySpotMarketRole.act(producer);
-            //            producer.act(submitOffersToElectricitySpotMarketRole);
-        }
+        profiler.startPhase("3. Submitting offers to market");
+        submitOffersToElectricitySpotMarketRole.submitOffersOfAllProducers(
+                reps.genericRepository.findAllAtRandom(EnergyProducer.class), model.getDispatchPlanBatchSize());
+        profiler.endPhase();
+        //        for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+        //            producer.act(submitOffersToElectricitySpotMarketRole);
+        //        }
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
@@ -187,32 +241,48 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
          * Contract strategic reserve volume and set strategic reserve dispatch
          * price
          */
+        profiler.startPhase("3a. Contracting Strategic Reserve");
         for (StrategicReserveOperator strategicReserveOperator : reps.strategicReserveOperatorRepository.findAll()) {
             logger.warn("  3a. Contracting Strategic Reserve in " + strategicReserveOperator.getZone().getName());
+            profiler.startRole(StrategicReserveOperatorRole.class);
             strategicReserveOperatorRole.act(strategicReserveOperator);
+            profiler.endRole();
         }
+        profiler.endPhase();
 
         timerMarket.reset();
         timerMarket.start();
         logger.warn("  4. Clearing electricity spot and CO2 markets");
+        profiler.startPhase("4. Clearing electricity spot and CO2 markets");
         clearIterativeCO2AndElectricitySpotMarketTwoCountryRole.act(model);
+        // The dispatch is final; the roles that follow read the production of the plants from the ledger
+        reps.productionLedgerRepository.recordProduction(getCurrentTick());
+        profiler.endPhase();
         //        model.act(clearIterativeCO2AndElectricitySpotMarketTwoCountryRole);
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
         timerMarket.reset();
         timerMarket.start();
+        profiler.startPhase("4b. Paying for dispatch");
         for (EnergyProducer producer : reps.genericRepository.findAll(EnergyProducer.class)) {
+            profiler.startRole(ReceiveLongTermContractPowerRevenuesRole.class);
             receiveLongTermContractPowerRevenuesRole.act(producer);
+            profiler.endRole();
             //            producer.act(receiveLongTermContractPowerRevenuesRole);
         }
         for (ElectricitySpotMarket electricitySpotMarket : reps.marketRepository.findAllElectricitySpotMarkets()) {
+            profiler.startRole(ProcessAcceptedPowerPlantDispatchRole.class);
             processAcceptedPowerPlantDispatchRole.act(electricitySpotMarket);
+            profiler.endRole();
             //            electricitySpotMarket.act(processAcceptedPowerPlantDispatchRole);
         }
         for (StrategicReserveOperator strategicReserveOperator : reps.strategicReserveOperatorRepository.findAll()) {
+            profiler.startRole(ProcessAcceptedPowerPlantDispatchRoleinSR.class);
             acceptedPowerPlantDispatchRoleinSR.act(strategicReserveOperator);
+            profiler.endRole();
         }
+        profiler.endPhase();
         // logger.warn(" 4. Processing Strategic Reserve Payment ");
         timerMarket.stop();
         logger.warn("        paying took: {} seconds.", timerMarket.seconds());
@@ -222,19 +292,34 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         logger.warn("  5. Paying for maintenance & co2");
         timerMarket.reset();
         timerMarket.start();
-        for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
-            // do accounting
-            payOperatingAndMaintainanceCostsRole.act(producer);
-            //            producer.act(payOperatingAndMaintainanceCostsRole);
-            // pay tax
-            payCO2TaxRole.act(producer);
-            //            producer.act(payCO2TaxRole);
-            // pay for CO2 auction only if CO2 trading
-            if (model.isCo2TradingImplemented()) {
-                payCO2AuctionRole.act(producer);
-                //                producer.act(payCO2AuctionRole);
+        profiler.startPhase("5. Paying for maintenance & co2");
+        if (model.isSinglePassSettlementEnabled()) {
+            profiler.startRole(SettlePaymentsRole.class);
+            settlePaymentsRole.settleOperatingPayments(reps.genericRepository.findAll(EnergyProducer.class),
+                    model.isCo2TradingImplemented(), model.isAggregatedCashFlowsEnabled());
+            profiler.endRole();
+        } else {
+            for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+                // do accounting
+                profiler.startRole(PayOperatingAndMaintainanceCostsRole.class);
+                payOperatingAndMaintainanceCostsRole.act(producer);
+                profiler.endRole();
+                //            producer.act(payOperatingAndMaintainanceCostsRole);
+                // pay tax
+                profiler.startRole(PayCO2TaxRole.class);
+                payCO2TaxRole.act(producer);
+                profiler.endRole();
+                //            producer.act(payCO2TaxRole);
+                // pay for CO2 auction only if CO2 trading
+                if (model.isCo2TradingImplemented()) {
+                    profiler.startRole(PayCO2AuctionRole.class);
+                    payCO2AuctionRole.act(producer);
+                    profiler.endRole();
+                    //                producer.act(payCO2AuctionRole);
+                }
             }
         }
+        profiler.endPhase();
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
@@ -244,41 +329,60 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
         logger.warn("  6. Purchasing commodities");
         timerMarket.reset();
         timerMarket.start();
+        profiler.startPhase("6. Purchasing commodities");
 
         // SUPPLIER (supply for commodity markets)
         for (CommoditySupplier supplier : reps.genericRepository.findAllAtRandom(CommoditySupplier.class)) {
             // 1) first submit the offers
+            profiler.startRole(SubmitOffersToCommodityMarketRole.class);
             submitOffersToCommodityMarketRole.act(supplier);
+            profiler.endRole();
             //            supplier.act(submitOffersToCommodityMarketRole);
         }
 
         // PRODUCER (demand for commodity markets)
         for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
             // 2) submit bids
+            profiler.startRole(SubmitBidsToCommodityMarketRole.class);
             submitBidsToCommodityMarketRole.act(producer);
+            profiler.endRole();
             //            producer.act(submitBidsToCommodityMarketRole);
         }
 
         for (CommodityMarket market : reps.genericRepository.findAllAtRandom(CommodityMarket.class)) {
+            profiler.startRole(ClearCommodityMarketRole.class);
             clearCommodityMarketRole.act(market);
+            profiler.endRole();
+            profiler.startRole(ProcessAcceptedBidsRole.class);
             processAcceptedBidsRole.act(market);
+            profiler.endRole();
             //            market.act(clearCommodityMarketRole);
             //            market.act(processAcceptedBidsRole);
         }
+        profiler.endPhase();
         timerMarket.stop();
         logger.warn("        took: {} seconds.", timerMarket.seconds());
 
         logger.warn("  7. Investing");
         Timer timerInvest = new Timer();
         timerInvest.start();
-        if (getCurrentTick() > 1) {
+        profiler.startPhase("7. Investing");
+        reps.powerPlantCapacityAggregateRepository.invalidate();
+        if (getCurrentTick() > 1 && model.isSimultaneousInvestmentEnabled()) {
+            profiler.startRole(SimultaneousInvestmentRole.class);
+            simultaneousInvestmentRole.act(model);
+            profiler.endRole();
+            resetWillingnessToInvest();
+        } else if (getCurrentTick() > 1) {
             boolean someOneStillWillingToInvest = true;
             while (someOneStillWillingToInvest) {
                 someOneStillWillingToInvest = false;
                 for (EnergyProducer producer : reps.energyProducerRepository.findAllEnergyProducersExceptForRenewableTargetInvestorsAtRandom()){
                     // invest in new plants
                     if (producer.isWillingToInvest()) {
+                        profiler.startRole(GenericInvestmentRole.class);
                         genericInvestmentRole.act(producer);
+                        profiler.endRole();
                         //                        producer.act(investInPowerGenerationTechnologiesRole);
                         someOneStillWillingToInvest = true;
                     }
@@ -287,8 +391,11 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             resetWillingnessToInvest();
         }
         for(TargetInvestor targetInvestor : template.findAll(TargetInvestor.class)){
+            profiler.startRole(GenericInvestmentRole.class);
             genericInvestmentRole.act(targetInvestor);
+            profiler.endRole();
         }
+        profiler.endPhase();
         timerInvest.stop();
         logger.warn("        took: {} seconds.", timerInvest.seconds());
 
@@ -301,10 +408,14 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             logger.warn("  7.5. Reassign LTCs");
             timerMarket.reset();
             timerMarket.start();
+            profiler.startPhase("7.5. Reassign LTCs");
             for (EnergyProducer producer : reps.genericRepository.findAllAtRandom(EnergyProducer.class)) {
+                profiler.startRole(ReassignPowerPlantsToLongTermElectricityContractsRole.class);
                 reassignPowerPlantsToLongTermElectricityContractsRole.act(producer);
+                profiler.endRole();
                 //                producer.act(reassignPowerPlantsToLongTermElectricityContractsRole);
             }
+            profiler.endPhase();
             timerMarket.stop();
             logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
@@ -317,15 +428,22 @@ public class DecarbonizationModelRole extends AbstractRole<DecarbonizationModel>
             timerMarket.reset();
             timerMarket.start();
             logger.warn("  8. Delete old nodes in year {}.", (getCurrentTick() - model.getDeletionAge()));
-            reps.bidRepository.delete(reps.bidRepository.findAllBidsForForTime(getCurrentTick() - model.getDeletionAge()));
-            reps.cashFlowRepository.delete(reps.cashFlowRepository.findAllCashFlowsForForTime(getCurrentTick() - model.getDeletionAge()));
-            reps.powerPlantRepository.delete(reps.powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(getCurrentTick()
+            profiler.startPhase("8. Delete old nodes");
+            historicalNodeCompactor.compact(getCurrentTick() - model.getDeletionAge(), model.isRollUpBeforeDeletionEnabled(),
+                    model.getDeletionBatchSize());
+            List<PowerPlant> dismantledPlants = Utils.asList(reps.powerPlantRepository.findAllPowerPlantsDismantledBeforeTick(getCurrentTick()
                     - model.getDeletionAge()));
+            for (PowerPlant plant : dismantledPlants) {
+                reps.powerPlantLifecycleRepository.remove(plant);
+            }
+            reps.powerPlantRepository.delete(dismantledPlants);
+            profiler.endPhase();
             timerMarket.stop();
             logger.warn("        took: {} seconds.", timerMarket.seconds());
         }
 
         timer.stop();
+        profiler.endTick();
         logger.warn("Tick {} took {} seconds.", getCurrentTick(), timer.seconds());
     }
 
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import cern.colt.Timer;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
+
+/**
+ * Deletes the bids, power plant dispatch plans and cash flows of a past tick in bounded batches, optionally after rolling them up into
+ * summary nodes. The compaction runs on the thread of the tick: the deleted nodes are related to agents, markets and power plants that
+ * the roles of a tick write to, so deleting them concurrently would contend for the same locks.
+ *
+ * @author ejlchappin
+ *
+ */
+@Component
+public class HistoricalNodeCompactor {
+
+    static final Logger logger = LoggerFactory.getLogger(HistoricalNodeCompactor.class);
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    @Autowired
+    Reps reps;
+
+    /**
+     * Compacts the nodes of a tick. Failures are not caught, so they end the tick.
+     *
+     * @param time
+     *            the tick of which the nodes are deleted
+     * @param rollUp
+     *            whether to write summaries of the bids and cash flows first
+     * @param batchSize
+     *            the number of nodes deleted per transaction, 0 for the default
+     */
+    public void compact(long time, boolean rollUp, int batchSize) {
+        compactTick(time, rollUp, batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE);
+    }
+
+    void compactTick(long time, boolean rollUp, int batchSize) {
+        Timer timer = new Timer();
+        timer.start();
+        List<Bid> bids = Utils.asList(reps.timeIndexRepository.findAllBidsForTime(time));
+        List<CashFlow> cashFlows = Utils.asList(reps.timeIndexRepository.findAllCashFlowsForTime(time));
+
+        if (rollUp) {
+            List<PowerPlantDispatchPlan> plans = Utils.asList(reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(time));
+            reps.historicalNodeRepository.createBidSummaries(reps.historicalNodeRepository.rollUpBids(plans, bids), time);
+            reps.historicalNodeRepository.createCashFlowSummaries(reps.historicalNodeRepository.rollUpCashFlows(cashFlows), time);
+        }
+
+        // The bids include the dispatch plans
+        deleteInBatches(bids, batchSize);
+        deleteInBatches(cashFlows, batchSize);
+        timer.stop();
+        logger.warn("Deleted {} bids and {} cash flows of tick {} in {} seconds.",
+                new Object[] { bids.size(), cashFlows.size(), time, timer.seconds() });
+    }
+
+    void deleteInBatches(List<?> entities, int batchSize) {
+        for (int start = 0; start < entities.size(); start += batchSize) {
+            reps.historicalNodeRepository.deleteBatch(new ArrayList<Object>(entities.subList(start,
+                    Math.min(start + batchSize, entities.size()))));
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.neo4j.repository.GraphRepository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records, per tick, the wall time, CPU time, allocated bytes, graph queries and graph writes of each phase of the
+ * {@link DecarbonizationModelRole} and of the roles acting within it, and appends them to a CSV or JSON lines file next to the query
+ * results: <code>${results.path}/${run.id}-profile.csv</code>, or <code>.jsonl</code> when the system property
+ * <code>profile.format</code> is <code>jsonl</code>.
+ *
+ * Graph queries are the invocations of the graph repositories, graph writes are counted from the committed transactions. CPU time and
+ * allocated bytes are those of the simulation thread, so the work of the parallel segment clearing only shows in the wall time. When
+ * profiling is disabled every call returns immediately.
+ *
+ * @author ejlchappin
+ *
+ */
+@Component
+public class TickProfiler implements BeanPostProcessor {
+
+    static final Logger logger = LoggerFactory.getLogger(TickProfiler.class);
+
+    static final String[] COLUMNS = { "tick", "phase", "role", "calls", "wallMillis", "cpuMillis", "allocatedBytes", "graphQueries",
+            "nodesCreated", "nodesDeleted", "relationshipsCreated", "relationshipsDeleted", "propertiesWritten" };
+
+    // Indices of the measures in a sample, in the order of the columns
+    static final int WALL = 0;
+    static final int CPU = 1;
+    static final int ALLOCATED = 2;
+    static final int QUERIES = 3;
+    static final int NODES_CREATED = 4;
+    static final int NODES_DELETED = 5;
+    static final int RELATIONSHIPS_CREATED = 6;
+    static final int RELATIONSHIPS_DELETED = 7;
+    static final int PROPERTIES_WRITTEN = 8;
+    static final int NUMBER_OF_MEASURES = 9;
+
+    private volatile boolean enabled;
+
+    private final AtomicLong graphQueries = new AtomicLong();
+    private final AtomicLong nodesCreated = new AtomicLong();
+    private final AtomicLong nodesDeleted = new AtomicLong();
+    private final AtomicLong relationshipsCreated = new AtomicLong();
+    private final AtomicLong relationshipsDeleted = new AtomicLong();
+    private final AtomicLong propertiesWritten = new AtomicLong();
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private GraphDatabaseService graphDatabaseService;
+
+    private long tick;
+    private long[] tickStart;
+    private String phase;
+    private long[] phaseStart;
+    private String role;
+    private long[] roleStart;
+
+    /**
+     * The records of the current tick, keyed by phase and role. The record of a phase as a whole has an empty role.
+     */
+    private final Map<String, Record> records = new LinkedHashMap<String, Record>();
+
+    static class Record {
+        String phase;
+        String role;
+        long calls;
+        long[] measures = new long[NUMBER_OF_MEASURES];
+    }
+
+    /**
+     * Starts profiling a tick. Profiling is enabled or disabled for the whole tick.
+     */
+    public void startTick(long tick, boolean enabled, GraphDatabaseService graphDatabaseService) {
+        this.enabled = enabled;
+        if (!enabled) {
+            return;
+        }
+        if (this.graphDatabaseService != graphDatabaseService) {
+            graphDatabaseService.registerTransactionEventHandler(new WriteCounter());
+            this.graphDatabaseService = graphDatabaseService;
+        }
+        this.tick = tick;
+        records.clear();
+        phase = null;
+        role = null;
+        tickStart = sample();
+    }
+
+    public void startPhase(String phase) {
+        if (!enabled) {
+            return;
+        }
+        this.phase = phase;
+        phaseStart = sample();
+    }
+
+    public void endPhase() {
+        if (!enabled || phase == null) {
+            return;
+        }
+        record(phase, "", phaseStart);
+        phase = null;
+    }
+
+    /**
+     * Starts profiling an act of a role within the current phase. The acts of the same role in a phase are summed.
+     */
+    public void startRole(Class<?> roleClass) {
+        if (!enabled) {
+            return;
+        }
+        role = roleClass.getSimpleName();
+        roleStart = sample();
+    }
+
+    public void endRole() {
+        if (!enabled || role == null) {
+            return;
+        }
+        record(phase == null ? "" : phase, role, roleStart);
+        role = null;
+    }
+
+    /**
+     * Ends the tick and appends its records to the profile file, followed by the record of the tick as a whole.
+     */
+    public void endTick() {
+        if (!enabled) {
+            return;
+        }
+        record("tick", "", tickStart);
+        boolean jsonLines = "jsonl".equalsIgnoreCase(System.getProperty("profile.format"));
+        File file = new File(System.getProperty("results.path", "."), System.getProperty("run.id", "emlab") + "-profile"
+                + (jsonLines ? ".jsonl" : ".csv"));
+        boolean writeHeader = !jsonLines && (!file.exists() || file.length() == 0);
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            if (writeHeader) {
+                writer.write(join(COLUMNS));
+                writer.write('\n');
+            }
+            for (Record record : records.values()) {
+                writer.write(jsonLines ? toJson(record) : toCsv(record));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            logger.warn("Could not write the profile of tick {} to {}: {}", new Object[] { tick, file, e.getMessage() });
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    logger.warn("Could not close {}", file);
+                }
+            }
+        }
+    }
+
+    private long[] sample() {
+        long[] sample = new long[NUMBER_OF_MEASURES];
+        sample[WALL] = System.nanoTime();
+        sample[CPU] = threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : 0;
+        sample[ALLOCATED] = currentThreadAllocatedBytes();
+        sample[QUERIES] = graphQueries.get();
+        sample[NODES_CREATED] = nodesCreated.get();
+        sample[NODES_DELETED] = nodesDeleted.get();
+        sample[RELATIONSHIPS_CREATED] = relationshipsCreated.get();
+        sample[RELATIONSHIPS_DELETED] = relationshipsDeleted.get();
+        sample[PROPERTIES_WRITTEN] = propertiesWritten.get();
+        return sample;
+    }
+
+    private long currentThreadAllocatedBytes() {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported()) {
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    private void record(String phase, String role, long[] start) {
+        long[] end = sample();
+        String key = phase + '\u0000' + role;
+        Record record = records.get(key);
+        if (record == null) {
+            record = new Record();
+            record.phase = phase;
+            record.role = role;
+            records.put(key, record);
+        }
+        record.calls++;
+        for (int i = 0; i < NUMBER_OF_MEASURES; i++) {
+            record.measures[i] += end[i] - start[i];
+        }
+    }
+
+    private List<Object> values(Record record) {
+        List<Object> values = new ArrayList<Object>();
+        values.add(tick);
+        values.add(record.phase);
+        values.add(record.role);
+        values.add(record.calls);
+        values.add(record.measures[WALL] / 1e6);
+        values.add(record.measures[CPU] / 1e6);
+        for (int i = ALLOCATED; i < NUMBER_OF_MEASURES; i++) {
+            values.add(record.measures[i]);
+        }
+        return values;
+    }
+
+    private String toCsv(Record record) {
+        List<Object> values = values(record);
+        String[] fields = new String[values.size()];
+        for (int i = 0; i < fields.length; i++) {
+            Object value = values.get(i);
+            fields[i] = value instanceof String ? "\"" + ((String) value).replace("\"", "\"\"") + "\"" : String.valueOf(value);
+        }
+        return join(fields);
+    }
+
+    private String toJson(Record record) {
+        List<Object> values = values(record);
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(COLUMNS[i]).append("\":");
+            Object value = values.get(i);
+            if (value instanceof String) {
+                json.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else {
+                json.append(value);
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static String join(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(fields[i]);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Counts the invocations of the graph repositories while profiling is enabled.
+     */
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof GraphRepository<?>)) {
+            return bean;
+        }
+        MethodInterceptor queryCounter = new MethodInterceptor() {
+            @Override
+            public Object invoke(MethodInvocation invocation) throws Throwable {
+                if (enabled) {
+                    graphQueries.incrementAndGet();
+                }
+                return invocation.proceed();
+            }
+        };
+        if (bean instanceof Advised && !((Advised) bean).isFrozen()) {
+            ((Advised) bean).addAdvice(0, queryCounter);
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(queryCounter);
+        return proxyFactory.getProxy();
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    /**
+     * Counts the nodes, relationships and properties written by the committed transactions while profiling is enabled.
+     */
+    class WriteCounter implements TransactionEventHandler<Object> {
+
+        @Override
+        public Object beforeCommit(TransactionData data) throws Exception {
+            if (enabled) {
+                nodesCreated.addAndGet(count(data.createdNodes()));
+                nodesDeleted.addAndGet(count(data.deletedNodes()));
+                relationshipsCreated.addAndGet(count(data.createdRelationships()));
+                relationshipsDeleted.addAndGet(count(data.deletedRelationships()));
+                propertiesWritten.addAndGet(count(data.assignedNodeProperties()) + count(data.assignedRelationshipProperties()));
+            }
+            return null;
+        }
+
+        @Override
+        public void afterCommit(TransactionData data, Object state) {
+        }
+
+        @Override
+        public void afterRollback(TransactionData data, Object state) {
+        }
+
+        private long count(Iterable<?> iterable) {
+            long count = 0;
+            for (@SuppressWarnings("unused")
+            Object o : iterable) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+}
@@ -12,7 +12,6 @@ import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
-import emlab.gen.domain.market.electricity.SegmentClearingPoint;
 import emlab.gen.repository.BidRepository;
 import emlab.gen.repository.MarketRepository;
 import emlab.gen.repository.PowerPlantDispatchPlanRepository;
@@ -55,9 +54,8 @@ public class ProcessAcceptedPowerPlantDispatchRoleinSR extends AbstractRole<Stra
 		//logger.warn(market.getName());
 		for (Segment segment : reps.segmentRepository.findAll()) {
 			//logger.warn("Entering Segment Loop" + segment.getLengthInHours());
-			SegmentClearingPoint scp = reps.segmentClearingPointRepository.findOneSegmentClearingPointForMarketSegmentAndTime(
-					getCurrentTick(), segment, market);
-			//logger.warn("Clearing Price " + scp.getPrice());
+			Double price = reps.priceHistoryRepository.findPriceForMarketSegmentAndTime(market, segment, getCurrentTick());
+			//logger.warn("Clearing Price " + price);
 			for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForSegmentForTime(segment, getCurrentTick())) {
 				//logger.warn("Entering PPDP LOOP Successfully" +plan.getOldPrice());
 				if (plan.getBiddingMarket().getNodeId().intValue()== market.getNodeId().intValue()){
@@ -66,9 +64,9 @@ public class ProcessAcceptedPowerPlantDispatchRoleinSR extends AbstractRole<Stra
 						//logger.warn("Checking Accepted Bids finding accepted bids " +plan.getStatus());
 						if (plan.getSRstatus() <= -10){
 							//logger.warn("Checking SR Status Contracted " + plan.getSRstatus());
-							double moneyReturned = ((plan.getAcceptedAmount()*scp.getPrice()*segment.getLengthInHours())- ((plan.getAcceptedAmount()*plan.getOldPrice()*segment.getLengthInHours())));
+							double moneyReturned = ((plan.getAcceptedAmount()*price*segment.getLengthInHours())- ((plan.getAcceptedAmount()*plan.getOldPrice()*segment.getLengthInHours())));
 							// Price mark up /(plan.getPowerPlant().getOwner().getPriceMarkUp())
-							//logger.warn("Money Earned " +(plan.getAcceptedAmount()*scp.getPrice()*segment.getLengthInHours()));
+							//logger.warn("Money Earned " +(plan.getAcceptedAmount()*price*segment.getLengthInHours()));
 							//logger.warn("Money Kept "+ (plan.getAcceptedAmount()*plan.getOldPrice()*segment.getLengthInHours()));								
 							//logger.warn("money Returned " +moneyReturned);
 
@@ -47,7 +47,7 @@ public class DismantlePowerPlantOperationalLossRole extends AbstractEnergyProduc
         logger.info("Dismantling plants if out of merit");
 
         // dis-mantle plants when passed technical lifetime.
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             long horizon = producer.getPastTimeHorizon();
 
             double requiredProfit = producer.getDismantlingRequiredOperatingProfit();
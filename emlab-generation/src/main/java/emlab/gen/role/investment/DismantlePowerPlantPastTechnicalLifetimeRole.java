@@ -45,7 +45,7 @@ public class DismantlePowerPlantPastTechnicalLifetimeRole extends AbstractRole<E
         logger.info("Dismantling plants if passed technical lifetime");
 
         // dismantle plants when passed technical lifetime
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
 
             int prolongYearsOfDismantlng = producer.getDismantlingProlongingYearsAfterTechnicalLifetime();
             if (!plant.isWithinTechnicalLifetime(getCurrentTick() + prolongYearsOfDismantlng)) {
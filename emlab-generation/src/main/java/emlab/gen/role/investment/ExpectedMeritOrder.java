@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerPlant;
+
+/**
+ * The expected merit order of one market at a future time point, as used by investors to forecast electricity prices. The power plants are
+ * kept sorted by expected marginal cost together with their expected available capacity per segment, so that a power plant can be added
+ * or removed without rebuilding the merit order. Plants with equal marginal cost are kept in the order in which they were added.
+ *
+ * @author JCRichstein
+ *
+ */
+public class ExpectedMeritOrder {
+
+    private static class Entry {
+        PowerPlant plant;
+        double marginalCost;
+        double nominalCapacity;
+        double[] capacityPerSegment;
+    }
+
+    private final Segment[] segments;
+    private final double[] expectedLoad;
+    private final double valueOfLostLoad;
+    private final double reservePrice;
+    private final double reserveVolume;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private double capacitySum;
+    private double maxExpectedLoad;
+    private Map<Segment, Double> expectedElectricityPricesPerSegment;
+
+    /**
+     * @param segments
+     *            the segments, in the order of the load duration curve
+     * @param expectedLoad
+     *            the expected load per segment
+     * @param valueOfLostLoad
+     *            the price if the load cannot be met
+     * @param reservePrice
+     *            the price of the strategic reserve in the market, 0 if there is none
+     * @param reserveVolume
+     *            the volume of the strategic reserve in the market, 0 if there is none
+     */
+    public ExpectedMeritOrder(Segment[] segments, double[] expectedLoad, double valueOfLostLoad, double reservePrice,
+            double reserveVolume) {
+        this.segments = segments;
+        this.expectedLoad = expectedLoad;
+        this.valueOfLostLoad = valueOfLostLoad;
+        this.reservePrice = reservePrice;
+        this.reserveVolume = reserveVolume;
+        maxExpectedLoad = 0d;
+        for (double load : expectedLoad) {
+            if (load > maxExpectedLoad) {
+                maxExpectedLoad = load;
+            }
+        }
+    }
+
+    /**
+     * Adds a power plant behind all plants with the same or a lower marginal cost.
+     *
+     * @param plant
+     *            the plant
+     * @param marginalCost
+     *            the expected marginal cost
+     * @param nominalCapacity
+     *            the capacity counted in the capacity sum
+     * @param capacityPerSegment
+     *            the expected available capacity per segment
+     */
+    public void addPowerPlant(PowerPlant plant, double marginalCost, double nominalCapacity, double[] capacityPerSegment) {
+        Entry entry = new Entry();
+        entry.plant = plant;
+        entry.marginalCost = marginalCost;
+        entry.nominalCapacity = nominalCapacity;
+        entry.capacityPerSegment = capacityPerSegment;
+
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle).marginalCost <= marginalCost) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        entries.add(low, entry);
+        capacitySum += nominalCapacity;
+        expectedElectricityPricesPerSegment = null;
+    }
+
+    /**
+     * Removes a power plant, if it is in the merit order.
+     *
+     * @param plant
+     *            the plant
+     * @return whether the plant was in the merit order
+     */
+    public boolean removePowerPlant(PowerPlant plant) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).plant == plant) {
+                capacitySum -= entries.remove(i).nominalCapacity;
+                expectedElectricityPricesPerSegment = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsPowerPlant(PowerPlant plant) {
+        for (Entry entry : entries) {
+            if (entry.plant == plant) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines the expected price per segment: the marginal cost of the plant that meets the load, the reserve price if the spare
+     * capacity is within the strategic reserve, or the value of lost load if the load cannot be met.
+     *
+     * @return the expected price per segment
+     */
+    public Map<Segment, Double> getExpectedElectricityPricesPerSegment() {
+        if (expectedElectricityPricesPerSegment == null) {
+            expectedElectricityPricesPerSegment = new HashMap<Segment, Double>();
+            for (int s = 0; s < segments.length; s++) {
+                double segmentSupply = 0d;
+                double segmentPrice = 0d;
+                double totalCapacityAvailable = 0d;
+                for (Entry entry : entries) {
+                    double plantCapacity = entry.capacityPerSegment[s];
+                    totalCapacityAvailable += plantCapacity;
+                    if (segmentSupply < expectedLoad[s]) {
+                        segmentSupply += plantCapacity;
+                        segmentPrice = entry.marginalCost;
+                    }
+                }
+
+                if (segmentSupply >= expectedLoad[s] && ((totalCapacityAvailable - expectedLoad[s]) <= (reserveVolume))) {
+                    expectedElectricityPricesPerSegment.put(segments[s], reservePrice);
+                } else if (segmentSupply >= expectedLoad[s] && ((totalCapacityAvailable - expectedLoad[s]) > (reserveVolume))) {
+                    expectedElectricityPricesPerSegment.put(segments[s], segmentPrice);
+                } else {
+                    expectedElectricityPricesPerSegment.put(segments[s], valueOfLostLoad);
+                }
+            }
+        }
+        return expectedElectricityPricesPerSegment;
+    }
+
+    public Segment[] getSegments() {
+        return segments;
+    }
+
+    public double getMaxExpectedLoad() {
+        return maxExpectedLoad;
+    }
+
+    public double getCapacitySum() {
+        return capacitySum;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.stereotype.Component;
+
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+
+/**
+ * Shares the {@link ExpectedMeritOrder}s of the investment phase between all investors that have the same expectations for a market. The
+ * cache is versioned by tick: the first lookup in a new tick drops all merit orders of the previous tick. Within a tick, investments are
+ * applied to the cached merit orders as deltas by the investment role.
+ *
+ * @author JCRichstein
+ *
+ */
+@Component
+public class ExpectedMeritOrderCache {
+
+    /**
+     * A merit order together with the expectations it was made with, which are needed to add new power plants to it.
+     */
+    public static class CachedMeritOrder {
+        ElectricitySpotMarket market;
+        long time;
+        Map<Substance, Double> fuelPrices;
+        double co2Price;
+        ExpectedMeritOrder meritOrder;
+        /**
+         * The virtual power plants that fill the gap to a technology target, by technology name.
+         */
+        Map<String, PowerPlant> targetPowerPlants = new HashMap<String, PowerPlant>();
+    }
+
+    private long tick = Long.MIN_VALUE;
+
+    private final Map<String, CachedMeritOrder> meritOrders = new HashMap<String, CachedMeritOrder>();
+
+    public synchronized CachedMeritOrder find(long currentTick, String key) {
+        if (currentTick != tick) {
+            meritOrders.clear();
+            tick = currentTick;
+        }
+        return meritOrders.get(key);
+    }
+
+    public synchronized void put(String key, CachedMeritOrder meritOrder) {
+        meritOrders.put(key, meritOrder);
+    }
+
+    public synchronized List<CachedMeritOrder> findAllForMarket(long currentTick, ElectricitySpotMarket market) {
+        List<CachedMeritOrder> result = new ArrayList<CachedMeritOrder>();
+        if (currentTick != tick) {
+            return result;
+        }
+        for (CachedMeritOrder cached : meritOrders.values()) {
+            if (cached.market.getNodeId().equals(market.getNodeId())) {
+                result.add(cached);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void invalidate() {
+        meritOrders.clear();
+    }
+
+    /**
+     * Makes the key of a merit order out of all expectations that it depends on.
+     */
+    public static String key(ElectricitySpotMarket market, long time, double demandFactor, Map<Substance, Double> fuelPrices,
+            double co2Price) {
+        TreeMap<Long, Double> pricesBySubstance = new TreeMap<Long, Double>();
+        for (Map.Entry<Substance, Double> entry : fuelPrices.entrySet()) {
+            pricesBySubstance.put(entry.getKey().getNodeId(), entry.getValue());
+        }
+        return market.getNodeId() + "/" + time + "/" + demandFactor + "/" + co2Price + "/" + pricesBySubstance;
+    }
+
+}
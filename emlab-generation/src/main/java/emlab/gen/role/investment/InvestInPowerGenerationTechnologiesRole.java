@@ -15,11 +15,13 @@
  ******************************************************************************/
 package emlab.gen.role.investment;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
@@ -31,13 +33,13 @@ import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.Role;
 import emlab.gen.domain.agent.BigBank;
+import emlab.gen.domain.agent.DecarbonizationModel;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.PowerPlantManufacturer;
 import emlab.gen.domain.agent.StrategicReserveOperator;
 import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.contract.Loan;
 import emlab.gen.domain.gis.Zone;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.market.electricity.SegmentLoad;
@@ -50,8 +52,7 @@ import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
 import emlab.gen.repository.Reps;
 import emlab.gen.repository.StrategicReserveOperatorRepository;
-import emlab.gen.util.GeometricTrendRegression;
-import emlab.gen.util.MapValueComparator;
+import emlab.gen.role.investment.ExpectedMeritOrderCache.CachedMeritOrder;
 
 /**
  * {@link EnergyProducer}s decide to invest in new {@link PowerPlant}
@@ -78,12 +79,44 @@ NodeBacked {
     @Autowired
     StrategicReserveOperatorRepository strategicReserveOperatorRepository;
 
+    @Transient
+    @Autowired
+    ExpectedMeritOrderCache expectedMeritOrderCache;
+
+    private static ExecutorService candidateEvaluationExecutor;
+
     // market expectations
 	@Transient
     Map<ElectricitySpotMarket, MarketInformation> marketInfoMap = new HashMap<ElectricitySpotMarket, MarketInformation>();
 
     @Override
     public void act(T agent) {
+        InvestmentOptions options = findInvestmentOptions(agent);
+        DecarbonizationModel model = reps.genericRepository.findFirst(DecarbonizationModel.class);
+        if (model.isParallelInvestmentEvaluationEnabled()) {
+            options.evaluator.evaluate(getCandidateEvaluationExecutor());
+        } else {
+            options.evaluator.evaluate();
+        }
+        int bestCandidate = options.evaluator.findBestCandidate();
+
+        if (bestCandidate >= 0) {
+            invest(options, bestCandidate);
+        } else {
+            // logger.warn("{} found no suitable technology anymore to invest in at tick "
+            // + getCurrentTick(), agent);
+            // agent will not participate in the next round of investment if
+            // he does not invest now
+            setNotWillingToInvest(agent);
+        }
+    }
+
+    /**
+     * Takes the investment options of the agent over from the graph: its expectations and, for each technology at each candidate node
+     * that is within the limits, the values that the evaluation needs. The options are not evaluated yet, and nothing is written to the
+     * graph.
+     */
+    InvestmentOptions findInvestmentOptions(T agent) {
 
         long futureTimePoint = getCurrentTick() + agent.getInvestmentFutureTimeHorizon();
         // logger.warn(agent + " is looking at timepoint " + futureTimePoint);
@@ -101,11 +134,8 @@ NodeBacked {
         //Demand
         Map<ElectricitySpotMarket, Double> expectedDemand = new HashMap<ElectricitySpotMarket, Double>();
         for(ElectricitySpotMarket elm : reps.template.findAll(ElectricitySpotMarket.class)){
-            GeometricTrendRegression gtr = new GeometricTrendRegression();
-            for(long time = getCurrentTick(); time>getCurrentTick()-agent.getNumberOfYearsBacklookingForForecasting() && time>=0; time=time-1){
-                gtr.addData(time, elm.getDemandGrowthTrend().getValue(time));
-            }
-            expectedDemand.put(elm, gtr.predict(futureTimePoint));
+            expectedDemand.put(elm, reps.forecastRepository.predictDemand(elm, agent.getNumberOfYearsBacklookingForForecasting(),
+                    getCurrentTick(), futureTimePoint));
         }
 
 
@@ -134,205 +164,224 @@ NodeBacked {
         // "and expectde maximum demand to be "
         // + marketInformation.maxExpectedLoad, agent, market);
 
-        double highestValue = Double.MIN_VALUE;
-        PowerGeneratingTechnology bestTechnology = null;
-
-        for (PowerGeneratingTechnology technology : reps.genericRepository.findAll(PowerGeneratingTechnology.class)) {
+        DecarbonizationModel model = reps.genericRepository.findFirst(DecarbonizationModel.class);
+        double co2Price = expectedCO2Price.get(market);
 
-            PowerPlant plant = new PowerPlant();
-            plant.specifyNotPersist(getCurrentTick(), agent, getNodeForZone(market.getZone()), technology);
-            // if too much capacity of this technology in the pipeline (not
-            // limited to the 5 years)
-            double expectedInstalledCapacityOfTechnology = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology, futureTimePoint);
-            PowerGeneratingTechnologyTarget technologyTarget = reps.powerGenerationTechnologyTargetRepository.findOneByTechnologyAndMarket(technology, market);
-            if(technologyTarget!=null){
-                double technologyTargetCapacity = technologyTarget.getTrend().getValue(futureTimePoint);
-                expectedInstalledCapacityOfTechnology =  (technologyTargetCapacity > expectedInstalledCapacityOfTechnology) ? technologyTargetCapacity : expectedInstalledCapacityOfTechnology;
-            }
-            double pgtNodeLimit = Double.MAX_VALUE;
-            PowerGeneratingTechnologyNodeLimit pgtLimit = reps.powerGeneratingTechnologyNodeLimitRepository
-                    .findOneByTechnologyAndNode(technology, plant.getLocation());
-            if (pgtLimit != null) {
-                pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
-            }
-            double expectedInstalledCapacityOfTechnologyInNode = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(plant.getLocation(),
-                            technology, futureTimePoint);
-            double expectedOwnedTotalCapacityInMarket = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, futureTimePoint, agent);
-            double expectedOwnedCapacityInMarketOfThisTechnology = reps.powerPlantRepository
-                    .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, futureTimePoint,
-                            agent);
-            double capacityOfTechnologyInPipeline = reps.powerPlantRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(
-                    technology, getCurrentTick());
-            double operationalCapacityOfTechnology = reps.powerPlantRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(
-                    technology, getCurrentTick());
-            double capacityInPipelineInMarket = reps.powerPlantRepository
-                    .calculateCapacityOfPowerPlantsByMarketInPipeline(market, getCurrentTick());
-
-            if ((expectedInstalledCapacityOfTechnology + plant.getActualNominalCapacity())
-                    / (marketInformation.maxExpectedLoad + plant.getActualNominalCapacity()) > technology
-                    .getMaximumInstalledCapacityFractionInCountry()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much of this type in the market",
-                // technology);
-            } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getActualNominalCapacity()) > pgtNodeLimit) {
-
-            } else if (expectedOwnedCapacityInMarketOfThisTechnology > expectedOwnedTotalCapacityInMarket
-                    * technology.getMaximumInstalledCapacityFractionPerAgent()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much capacity planned by him",
-                // technology);
-            } else if (capacityInPipelineInMarket > 0.2 * marketInformation.maxExpectedLoad) {
-                // logger.warn("Not investing because more than 20% of demand in pipeline.");
-
-            } else if ((capacityOfTechnologyInPipeline > 2.0 * operationalCapacityOfTechnology)
-                    && capacityOfTechnologyInPipeline > 9000) { // TODO:
-                // reflects that you cannot expand a technology out of zero.
-                // logger.warn(agent +
-                // " will not invest in {} technology because there's too much capacity in the pipeline",
-                // technology);
-            } else if (plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent
-                    .getDownpaymentFractionOfCash() * agent.getCash()) {
-                // logger.warn(agent +
-                // " will not invest in {} technology as he does not have enough money for downpayment",
-                // technology);
-            } else {
-
-                Map<Substance, Double> myFuelPrices = new HashMap<Substance, Double>();
-                for (Substance fuel : technology.getFuels()) {
-                    myFuelPrices.put(fuel, expectedFuelPrices.get(fuel));
-                }
-                Set<SubstanceShareInFuelMix> fuelMix = calculateFuelMix(plant, myFuelPrices, expectedCO2Price.get(market));
-                plant.setFuelMix(fuelMix);
-
-                double expectedMarginalCost = determineExpectedMarginalCost(plant, expectedFuelPrices, expectedCO2Price.get(market));
-                double runningHours = 0d;
-                double expectedGrossProfit = 0d;
-
-                long numberOfSegments = reps.segmentRepository.count();
-
-                // TODO somehow the prices of long-term contracts could also
-                // be used here to determine the expected profit. Maybe not
-                // though...
-                for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
-                    double expectedElectricityPrice = marketInformation.expectedElectricityPricesPerSegment.get(segmentLoad
-                            .getSegment());
-                    double hours = segmentLoad.getSegment().getLengthInHours();
-                    if (expectedMarginalCost <= expectedElectricityPrice) {
-                        runningHours += hours;
-                        expectedGrossProfit += (expectedElectricityPrice - expectedMarginalCost) * hours
-                                * plant.getAvailableCapacity(futureTimePoint, segmentLoad.getSegment(), numberOfSegments);
-                    }
-                }
+        // Calculation of weighted average cost of capital,
+        // based on the companies debt-ratio
+        double wacc = (1 - agent.getDebtRatioOfInvestments()) * agent.getEquityInterestRate() + agent.getDebtRatioOfInvestments()
+                * agent.getLoanInterestRate();
 
-                // logger.warn(agent +
-                // "expects technology {} to have {} running", technology,
-                // runningHours);
-                // expect to meet minimum running hours?
-                if (runningHours < plant.getTechnology().getMinimumRunningHours()) {
-                    // logger.warn(agent+
-                    // " will not invest in {} technology as he expect to have {} running, which is lower then required",
-                    // technology, runningHours);
-                } else {
-
-                    double fixedOMCost = calculateFixedOperatingCost(plant);// /
-                    // plant.getActualNominalCapacity();
-
-                    double operatingProfit = expectedGrossProfit - fixedOMCost;
-
-                    // TODO Alter discount rate on the basis of the amount
-                    // in long-term contracts?
-                    // TODO Alter discount rate on the basis of other stuff,
-                    // such as amount of money, market share, portfolio
-                    // size.
-
-                    // Calculation of weighted average cost of capital,
-                    // based on the companies debt-ratio
-                    double wacc = (1 - agent.getDebtRatioOfInvestments()) * agent.getEquityInterestRate()
-                            + agent.getDebtRatioOfInvestments() * agent.getLoanInterestRate();
-
-                    // Creation of out cash-flow during power plant building
-                    // phase (note that the cash-flow is negative!)
-                    TreeMap<Integer, Double> discountedProjectCapitalOutflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(),
-                            plant.getActualInvestedCapital(), 0);
-                    // Creation of in cashflow during operation
-                    TreeMap<Integer, Double> discountedProjectCashInflow = calculateSimplePowerPlantInvestmentCashFlow(
-                            technology.getDepreciationTime(), (int) plant.getActualLeadtime(), 0, operatingProfit);
-
-                    double discountedCapitalCosts = npv(discountedProjectCapitalOutflow, wacc);// are
-                    // defined
-                    // negative!!
-                    // plant.getActualNominalCapacity();
-
-                    // logger.warn("Agent {}  found that the discounted capital for technology {} to be "
-                    // + discountedCapitalCosts, agent,
-                    // technology);
-
-                    double discountedOpProfit = npv(discountedProjectCashInflow, wacc);
-
-                        // logger.warn("Agent {}  found that the projected discounted inflows for technology {} to be "
-                        // + discountedOpProfit,
-                        // agent, technology);
-
-                        double projectValue = discountedOpProfit + discountedCapitalCosts;
-
-                        // logger.warn(
-                        // "Agent {}  found the project value for technology {} to be "
-                        // + Math.round(projectValue /
-						// plant.getActualNominalCapacity()) +
-                        // " EUR/kW (running hours: "
-                        // + runningHours + "", agent, technology);
-
-                        // double projectTotalValue = projectValuePerMW *
-						// plant.getActualNominalCapacity();
-
-                        // double projectReturnOnInvestment = discountedOpProfit
-                        // / (-discountedCapitalCosts);
-
-                        /*
-                         * Divide by capacity, in order not to favour large power plants (which have the single largest NPV
-                         */
-
-						if (projectValue > 0 && projectValue / plant.getActualNominalCapacity() > highestValue) {
-							highestValue = projectValue / plant.getActualNominalCapacity();
-                            bestTechnology = plant.getTechnology();
-                        }
-                    }
+        // TODO somehow the prices of long-term contracts could also
+        // be used here to determine the expected profit. Maybe not
+        // though...
+        List<Segment> segments = new ArrayList<Segment>();
+        for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+            segments.add(segmentLoad.getSegment());
+        }
+        double[] expectedPricePerSegment = new double[segments.size()];
+        double[] hoursPerSegment = new double[segments.size()];
+        for (int s = 0; s < segments.size(); s++) {
+            expectedPricePerSegment[s] = marketInformation.expectedElectricityPricesPerSegment.get(segments.get(s));
+            hoursPerSegment[s] = segments.get(s).getLengthInHours();
+        }
+        InvestmentCandidateEvaluator evaluator = new InvestmentCandidateEvaluator(expectedPricePerSegment, hoursPerSegment, co2Price, wacc);
 
+        InvestmentOptions options = new InvestmentOptions(agent, market, evaluator);
+        List<PowerGridNode> nodes = findCandidateNodes(market.getZone(), model.isInvestmentInAllNodesOfZoneEnabled());
+        for (PowerGeneratingTechnology technology : reps.genericRepository.findAll(PowerGeneratingTechnology.class)) {
+            for (PowerGridNode node : nodes) {
+                PowerPlant plant = new PowerPlant();
+                plant.specifyNotPersist(getCurrentTick(), agent, node, technology);
+                InvestmentConflictResolver.Project project = checkInvestmentLimits(agent, market, marketInformation, plant,
+                        futureTimePoint);
+                if (project != null) {
+                    evaluator.addCandidate(createCandidate(plant, segments, expectedFuelPrices, co2Price, futureTimePoint));
+                    options.technologies.add(technology);
+                    options.nodes.add(node);
+                    options.projects.add(project);
                 }
             }
+        }
+        return options;
+    }
 
-        if (bestTechnology != null) {
-            // logger.warn("Agent {} invested in technology {} at tick " + getCurrentTick(), agent, bestTechnology);
+    /**
+     * Builds the power plant of an evaluated candidate, with its down payments and loan.
+     */
+    void invest(InvestmentOptions options, int candidate) {
+        EnergyProducer agent = options.agent;
+        ElectricitySpotMarket market = options.market;
+        PowerGeneratingTechnology bestTechnology = options.technologies.get(candidate);
+        // logger.warn("Agent {} invested in technology {} at tick " + getCurrentTick(), agent, bestTechnology);
+
+        PowerPlant plant = new PowerPlant();
+        plant.specifyAndPersist(getCurrentTick(), agent, options.nodes.get(candidate), bestTechnology);
+        addInvestmentToCachedMeritOrders(plant, market);
+        PowerPlantManufacturer manufacturer = reps.genericRepository.findFirst(PowerPlantManufacturer.class);
+        BigBank bigbank = reps.genericRepository.findFirst(BigBank.class);
+
+        double investmentCostPayedByEquity = plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments());
+        double investmentCostPayedByDebt = plant.getActualInvestedCapital() * agent.getDebtRatioOfInvestments();
+        double downPayment = investmentCostPayedByEquity;
+        createSpreadOutDownPayments(agent, manufacturer, downPayment, plant);
+
+        double amount = determineLoanAnnuities(investmentCostPayedByDebt, plant.getTechnology().getDepreciationTime(),
+                agent.getLoanInterestRate());
+        // logger.warn("Loan amount is: " + amount);
+        Loan loan = reps.loanRepository.createLoan(agent, bigbank, amount, plant.getTechnology().getDepreciationTime(),
+                getCurrentTick(), plant);
+        // Create the loan
+        plant.createOrUpdateLoan(loan);
+    }
 
-            PowerPlant plant = new PowerPlant();
-            plant.specifyAndPersist(getCurrentTick(), agent, getNodeForZone(market.getZone()), bestTechnology);
-            PowerPlantManufacturer manufacturer = reps.genericRepository.findFirst(PowerPlantManufacturer.class);
-            BigBank bigbank = reps.genericRepository.findFirst(BigBank.class);
-
-            double investmentCostPayedByEquity = plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments());
-            double investmentCostPayedByDebt = plant.getActualInvestedCapital() * agent.getDebtRatioOfInvestments();
-            double downPayment = investmentCostPayedByEquity;
-            createSpreadOutDownPayments(agent, manufacturer, downPayment, plant);
-
-            double amount = determineLoanAnnuities(investmentCostPayedByDebt, plant.getTechnology().getDepreciationTime(),
-                    agent.getLoanInterestRate());
-            // logger.warn("Loan amount is: " + amount);
-            Loan loan = reps.loanRepository.createLoan(agent, bigbank, amount, plant.getTechnology().getDepreciationTime(),
-                    getCurrentTick(), plant);
-            // Create the loan
-            plant.createOrUpdateLoan(loan);
+    /**
+     * Checks the limits to the investment in the plant: the share of the technology in the market, at the node and in the investor's
+     * portfolio, the capacity in the pipeline and the cash for the down payment.
+     *
+     * @return the project with the market-wide limits it was checked against, or null if the investment is not allowed
+     */
+    private InvestmentConflictResolver.Project checkInvestmentLimits(T agent, ElectricitySpotMarket market,
+            MarketInformation marketInformation, PowerPlant plant, long futureTimePoint) {
+        PowerGeneratingTechnology technology = plant.getTechnology();
+        // if too much capacity of this technology in the pipeline (not
+        // limited to the 5 years)
+        double expectedInstalledCapacityOfTechnology = reps.powerPlantCapacityAggregateRepository
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, technology, futureTimePoint);
+        PowerGeneratingTechnologyTarget technologyTarget = reps.powerGenerationTechnologyTargetRepository.findOneByTechnologyAndMarket(
+                technology, market);
+        if (technologyTarget != null) {
+            double technologyTargetCapacity = technologyTarget.getTrend().getValue(futureTimePoint);
+            expectedInstalledCapacityOfTechnology = (technologyTargetCapacity > expectedInstalledCapacityOfTechnology) ? technologyTargetCapacity
+                    : expectedInstalledCapacityOfTechnology;
+        }
+        double pgtNodeLimit = Double.MAX_VALUE;
+        PowerGeneratingTechnologyNodeLimit pgtLimit = reps.powerGeneratingTechnologyNodeLimitRepository.findOneByTechnologyAndNode(
+                technology, plant.getLocation());
+        if (pgtLimit != null) {
+            pgtNodeLimit = pgtLimit.getUpperCapacityLimit(futureTimePoint);
+        }
+        double expectedInstalledCapacityOfTechnologyInNode = reps.powerPlantCapacityAggregateRepository
+                .calculateCapacityOfExpectedOperationalPowerPlantsByNodeAndTechnology(plant.getLocation(), technology, futureTimePoint);
+        double expectedOwnedTotalCapacityInMarket = reps.powerPlantCapacityAggregateRepository
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwner(market, futureTimePoint, agent);
+        double expectedOwnedCapacityInMarketOfThisTechnology = reps.powerPlantCapacityAggregateRepository
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketByOwnerAndTechnology(market, technology, futureTimePoint, agent);
+        double capacityOfTechnologyInPipeline = reps.powerPlantCapacityAggregateRepository.calculateCapacityOfPowerPlantsByTechnologyInPipeline(
+                technology, getCurrentTick());
+        double operationalCapacityOfTechnology = reps.powerPlantCapacityAggregateRepository.calculateCapacityOfOperationalPowerPlantsByTechnology(
+                technology, getCurrentTick());
+        double capacityInPipelineInMarket = reps.powerPlantCapacityAggregateRepository.calculateCapacityOfPowerPlantsByMarketInPipeline(
+                market, getCurrentTick());
+
+        if ((expectedInstalledCapacityOfTechnology + plant.getActualNominalCapacity())
+                / (marketInformation.maxExpectedLoad + plant.getActualNominalCapacity()) > technology
+                .getMaximumInstalledCapacityFractionInCountry()) {
+            // too much of this type in the market
+            return null;
+        } else if ((expectedInstalledCapacityOfTechnologyInNode + plant.getActualNominalCapacity()) > pgtNodeLimit) {
+            return null;
+        } else if (expectedOwnedCapacityInMarketOfThisTechnology > expectedOwnedTotalCapacityInMarket
+                * technology.getMaximumInstalledCapacityFractionPerAgent()) {
+            // too much capacity planned by the agent
+            return null;
+        } else if (capacityInPipelineInMarket > 0.2 * marketInformation.maxExpectedLoad) {
+            // more than 20% of demand in pipeline
+            return null;
+        } else if ((capacityOfTechnologyInPipeline > 2.0 * operationalCapacityOfTechnology) && capacityOfTechnologyInPipeline > 9000) {
+            // TODO: reflects that you cannot expand a technology out of
+            // zero.
+            return null;
+        } else if (plant.getActualInvestedCapital() * (1 - agent.getDebtRatioOfInvestments()) > agent.getDownpaymentFractionOfCash()
+                * agent.getCash()) {
+            // not enough money for downpayment
+            return null;
+        }
+        InvestmentConflictResolver.Project project = new InvestmentConflictResolver.Project(plant.getActualNominalCapacity(),
+                market.getNodeId(), technology.getNodeId(), plant.getLocation() == null ? -1 : plant.getLocation().getNodeId());
+        project.setMarketLimits(marketInformation.maxExpectedLoad, expectedInstalledCapacityOfTechnology,
+                technology.getMaximumInstalledCapacityFractionInCountry(), capacityInPipelineInMarket);
+        project.setNodeLimit(expectedInstalledCapacityOfTechnologyInNode, pgtNodeLimit);
+        return project;
+    }
 
-        } else {
-            // logger.warn("{} found no suitable technology anymore to invest in at tick "
-            // + getCurrentTick(), agent);
-            // agent will not participate in the next round of investment if
-            // he does not invest now
-            setNotWillingToInvest(agent);
+    /**
+     * Takes the values the evaluation of an investment in the plant needs over from the graph.
+     */
+    private InvestmentCandidateEvaluator.Candidate createCandidate(PowerPlant plant, List<Segment> segments,
+            Map<Substance, Double> expectedFuelPrices, double co2Price, long futureTimePoint) {
+        PowerGeneratingTechnology technology = plant.getTechnology();
+        long numberOfSegments = reps.segmentRepository.count();
+        double[] availableCapacityPerSegment = new double[segments.size()];
+        for (int s = 0; s < availableCapacityPerSegment.length; s++) {
+            availableCapacityPerSegment[s] = plant.getAvailableCapacity(futureTimePoint, segments.get(s), numberOfSegments);
         }
+        InvestmentCandidateEvaluator.Candidate candidate = new InvestmentCandidateEvaluator.Candidate(plant.getActualNominalCapacity(),
+                plant.getActualInvestedCapital(), (int) plant.getActualLeadtime(), technology.getDepreciationTime(),
+                calculateFixedOperatingCost(plant), technology.getMinimumRunningHours(), availableCapacityPerSegment);
+
+        Map<Substance, Double> myFuelPrices = new HashMap<Substance, Double>();
+        for (Substance fuel : technology.getFuels()) {
+            myFuelPrices.put(fuel, expectedFuelPrices.get(fuel));
+        }
+        int numberOfFuels = myFuelPrices.size();
+        double[] fuelPrices = new double[numberOfFuels];
+        double[] fuelAndCO2Costs = new double[numberOfFuels];
+        double[] fuelDensities = new double[numberOfFuels];
+        double[] fuelQuality = new double[numberOfFuels];
+        double[] fuelEmissionIntensities = new double[numberOfFuels];
+        int f = 0;
+        for (Substance substance : myFuelPrices.keySet()) {
+            fuelPrices[f] = myFuelPrices.get(substance);
+            fuelAndCO2Costs[f] = fuelPrices[f] + substance.getCo2Density() * co2Price;
+            fuelDensities[f] = substance.getEnergyDensity();
+            fuelQuality[f] = (substance.getQuality() - technology.getMinimumFuelQuality()) * fuelDensities[f];
+            fuelEmissionIntensities[f] = substance.getCo2Density() * (1 - technology.getCo2CaptureEffciency());
+            f++;
+        }
+        candidate.setFuels(plant.getActualEfficiency(), fuelPrices, fuelAndCO2Costs, fuelDensities, fuelQuality, fuelEmissionIntensities,
+                determineFuelMixKey(plant, myFuelPrices, co2Price));
+        return candidate;
+    }
+
+    /**
+     * @return the first node in the zone, or all nodes in the zone if the model says so
+     */
+    private List<PowerGridNode> findCandidateNodes(Zone zone, boolean allNodesOfZone) {
+        List<PowerGridNode> nodes = new ArrayList<PowerGridNode>();
+        for (PowerGridNode node : reps.genericRepository.findAll(PowerGridNode.class)) {
+            if (node.getZone().equals(zone)) {
+                nodes.add(node);
+                if (!allNodesOfZone) {
+                    break;
+                }
+            }
+        }
+        if (nodes.isEmpty()) {
+            // as before, the plant is then specified without a location
+            nodes.add(null);
+        }
+        return nodes;
+    }
+
+    /**
+     * The pool for the parallel evaluation of investment candidates is created on first use and shared by all investors for the rest of
+     * the simulation. Its threads are daemons, so they do not keep the simulation from exiting.
+     */
+    static synchronized ExecutorService getCandidateEvaluationExecutor() {
+        if (candidateEvaluationExecutor == null) {
+            candidateEvaluationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "investment-evaluation-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return candidateEvaluationExecutor;
     }
 
     // }
@@ -363,47 +412,8 @@ NodeBacked {
      * @return Map<Substance, Double> of predicted prices.
      */
     public Map<Substance, Double> predictFuelPrices(EnergyProducer agent, long futureTimePoint){
-        // Fuel Prices
-        Map<Substance, Double> expectedFuelPrices = new HashMap<Substance, Double>();
-        for (Substance substance : reps.substanceRepository.findAllSubstancesTradedOnCommodityMarkets()) {
-            //Find Clearing Points for the last 5 years (counting current year as one of the last 5 years).
-            Iterable<ClearingPoint> cps = reps.clearingPointRepository.findAllClearingPointsForSubstanceTradedOnCommodityMarkesAndTimeRange(substance, getCurrentTick()-(agent.getNumberOfYearsBacklookingForForecasting()-1), getCurrentTick());
-            //logger.warn("{}, {}", getCurrentTick()-(agent.getNumberOfYearsBacklookingForForecasting()-1), getCurrentTick());
-            //Create regression object
-            GeometricTrendRegression gtr = new GeometricTrendRegression();
-            for (ClearingPoint clearingPoint : cps) {
-                //logger.warn("CP {}: {} , in" + clearingPoint.getTime(), substance.getName(), clearingPoint.getPrice());
-                gtr.addData(clearingPoint.getTime(), clearingPoint.getPrice());
-            }
-            expectedFuelPrices.put(substance, gtr.predict(futureTimePoint));
-            //logger.warn("Forecast {}: {}, in Step " +  futureTimePoint, substance, expectedFuelPrices.get(substance));
-        }
-        return expectedFuelPrices;
-    }
-
-    // Create a powerplant investment and operation cash-flow in the form of a
-    // map. If only investment, or operation costs should be considered set
-    // totalInvestment or operatingProfit to 0
-    private TreeMap<Integer, Double> calculateSimplePowerPlantInvestmentCashFlow(int depriacationTime, int buildingTime,
-            double totalInvestment, double operatingProfit) {
-        TreeMap<Integer, Double> investmentCashFlow = new TreeMap<Integer, Double>();
-        double equalTotalDownPaymentInstallement = totalInvestment / buildingTime;
-        for (int i = 0; i < buildingTime; i++) {
-            investmentCashFlow.put(new Integer(i), -equalTotalDownPaymentInstallement);
-        }
-        for (int i = buildingTime; i < depriacationTime + buildingTime; i++) {
-            investmentCashFlow.put(new Integer(i), operatingProfit);
-        }
-
-        return investmentCashFlow;
-    }
-
-    private double npv(TreeMap<Integer, Double> netCashFlow, double wacc) {
-        double npv = 0;
-        for (Integer iterator : netCashFlow.keySet()) {
-            npv += netCashFlow.get(iterator).doubleValue() / Math.pow(1 + wacc, iterator.intValue());
-        }
-        return npv;
+        return reps.forecastRepository.predictFuelPrices(agent.getNumberOfYearsBacklookingForForecasting(), getCurrentTick(),
+                futureTimePoint);
     }
 
     public double determineExpectedMarginalCost(PowerPlant plant, Map<Substance, Double> expectedFuelPrices, double expectedCO2Price) {
@@ -423,120 +433,149 @@ NodeBacked {
         return fc;
     }
 
-    private PowerGridNode getNodeForZone(Zone zone) {
-        for (PowerGridNode node : reps.genericRepository.findAll(PowerGridNode.class)) {
-            if (node.getZone().equals(zone)) {
-                return node;
+    /**
+     * Builds the expected merit order of a market, including the virtual power plants that fill the gap to the technology targets.
+     */
+    CachedMeritOrder createMeritOrder(ElectricitySpotMarket market, double demandFactor, Map<Substance, Double> fuelPrices,
+            double co2price, long time) {
+
+        List<Segment> segments = new ArrayList<Segment>();
+        List<Double> expectedLoad = new ArrayList<Double>();
+        for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
+            segments.add(segmentLoad.getSegment());
+            expectedLoad.add(segmentLoad.getBaseLoad() * demandFactor);
+        }
+        double[] expectedLoadPerSegment = new double[expectedLoad.size()];
+        for (int s = 0; s < expectedLoadPerSegment.length; s++) {
+            expectedLoadPerSegment[s] = expectedLoad.get(s);
+        }
+
+        // Find strategic reserve operator for the market.
+        double reservePrice = 0;
+        double reserveVolume = 0;
+        for (StrategicReserveOperator operator : strategicReserveOperatorRepository.findAll()) {
+            ElectricitySpotMarket market1 = reps.marketRepository.findElectricitySpotMarketForZone(operator.getZone());
+            if (market.getNodeId().intValue() == market1.getNodeId().intValue()) {
+                reservePrice = operator.getReservePriceSR();
+                reserveVolume = operator.getReserveVolume();
             }
         }
-        return null;
-    }
 
-    private class MarketInformation {
+        CachedMeritOrder cached = new CachedMeritOrder();
+        cached.market = market;
+        cached.time = time;
+        cached.fuelPrices = fuelPrices;
+        cached.co2Price = co2price;
+        cached.meritOrder = new ExpectedMeritOrder(segments.toArray(new Segment[segments.size()]), expectedLoadPerSegment,
+                market.getValueOfLostLoad(), reservePrice, reserveVolume);
+
+        // get merit order for this market
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
+            addToMeritOrder(cached, plant);
+        }
 
-        Map<Segment, Double> expectedElectricityPricesPerSegment;
-        double maxExpectedLoad = 0d;
-        Map<PowerPlant, Double> meritOrder;
-        double capacitySum;
+        //get difference between technology target and expected operational capacity
+        for (PowerGeneratingTechnologyTarget pggt : reps.powerGenerationTechnologyTargetRepository.findAllByMarket(market)) {
+            updateTargetPowerPlant(cached, pggt);
+        }
+        return cached;
+    }
 
-        MarketInformation(ElectricitySpotMarket market, Map<ElectricitySpotMarket, Double> expectedDemand, Map<Substance, Double> fuelPrices, double co2price, long time) {
-            // determine expected power prices
-            expectedElectricityPricesPerSegment = new HashMap<Segment, Double>();
-            Map<PowerPlant, Double> marginalCostMap = new HashMap<PowerPlant, Double>();
-            capacitySum = 0d;
+    private void addToMeritOrder(CachedMeritOrder cached, PowerPlant plant) {
+        long numberOfSegments = reps.segmentRepository.count();
+        Segment[] segments = cached.meritOrder.getSegments();
+        double[] capacityPerSegment = new double[segments.length];
+        for (int s = 0; s < segments.length; s++) {
+            // Determine available capacity in the future in this segment
+            capacityPerSegment[s] = plant.getExpectedAvailableCapacity(cached.time, segments[s], numberOfSegments);
+        }
+        double plantMarginalCost = determineExpectedMarginalCost(plant, cached.fuelPrices, cached.co2Price);
+        cached.meritOrder.addPowerPlant(plant, plantMarginalCost, plant.getActualNominalCapacity(), capacityPerSegment);
+    }
 
-            // get merit order for this market
-            for (PowerPlant plant : reps.powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
+    /**
+     * Replaces the virtual power plant that fills the gap between a technology target and the expected operational capacity of that
+     * technology.
+     */
+    private void updateTargetPowerPlant(CachedMeritOrder cached, PowerGeneratingTechnologyTarget pggt) {
+        PowerPlant oldPlant = cached.targetPowerPlants.remove(pggt.getPowerGeneratingTechnology().getName());
+        if (oldPlant != null) {
+            cached.meritOrder.removePowerPlant(oldPlant);
+        }
+        double expectedTechnologyCapacity = reps.powerPlantCapacityAggregateRepository
+                .calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(cached.market, pggt.getPowerGeneratingTechnology(),
+                        cached.time);
+        double targetDifference = pggt.getTrend().getValue(cached.time) - expectedTechnologyCapacity;
+        if (targetDifference > 0) {
+            PowerPlant plant = new PowerPlant();
+            plant.specifyNotPersist(getCurrentTick(), new EnergyProducer(),
+                    reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(cached.market),
+                    pggt.getPowerGeneratingTechnology());
+            plant.setActualNominalCapacity(targetDifference);
+            addToMeritOrder(cached, plant);
+            cached.targetPowerPlants.put(pggt.getPowerGeneratingTechnology().getName(), plant);
+        }
+    }
 
-                double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
-                marginalCostMap.put(plant, plantMarginalCost);
-                capacitySum += plant.getActualNominalCapacity();
+    /**
+     * Applies a new power plant to the merit orders of its market that are cached for this tick, instead of rebuilding them.
+     */
+    private void addInvestmentToCachedMeritOrders(PowerPlant plant, ElectricitySpotMarket market) {
+        long finishedTime = plant.getConstructionStartTime() + plant.getActualPermittime() + plant.getActualLeadtime();
+        for (CachedMeritOrder cached : expectedMeritOrderCache.findAllForMarket(getCurrentTick(), market)) {
+            if (finishedTime <= cached.time && plant.getExpectedEndOfLife() > cached.time) {
+                addToMeritOrder(cached, plant);
             }
-
-            //get difference between technology target and expected operational capacity
-            for(PowerGeneratingTechnologyTarget pggt : reps.powerGenerationTechnologyTargetRepository.findAllByMarket(market)){
-                double expectedTechnologyCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(market, pggt.getPowerGeneratingTechnology(), time);
-                double targetDifference = pggt.getTrend().getValue(time) - expectedTechnologyCapacity;
-                if(targetDifference > 0){
-                    PowerPlant plant = new PowerPlant();
-                    plant.specifyNotPersist(getCurrentTick(), new EnergyProducer(), reps.powerGridNodeRepository.findFirstPowerGridNodeByElectricitySpotMarket(market), pggt.getPowerGeneratingTechnology());
-                    plant.setActualNominalCapacity(targetDifference);
-                    double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
-                    marginalCostMap.put(plant, plantMarginalCost);
-                    capacitySum += targetDifference;
+            for (PowerGeneratingTechnologyTarget pggt : reps.powerGenerationTechnologyTargetRepository.findAllByMarket(market)) {
+                if (pggt.getPowerGeneratingTechnology().getName().equals(plant.getTechnology().getName())) {
+                    updateTargetPowerPlant(cached, pggt);
                 }
             }
+        }
+    }
 
-            MapValueComparator comp = new MapValueComparator(marginalCostMap);
-            meritOrder = new TreeMap<PowerPlant, Double>(comp);
-            meritOrder.putAll(marginalCostMap);
-
-            long numberOfSegments = reps.segmentRepository.count();
-
-            double demandFactor = expectedDemand.get(market).doubleValue();
-
-            // find expected prices per segment given merit order
-            for (SegmentLoad segmentLoad : market.getLoadDurationCurve()) {
-
-                double expectedSegmentLoad = segmentLoad.getBaseLoad() * demandFactor;
-
-                if (expectedSegmentLoad > maxExpectedLoad) {
-                    maxExpectedLoad = expectedSegmentLoad;
-                }
-
-                double segmentSupply = 0d;
-                double segmentPrice = 0d;
-                double totalCapacityAvailable = 0d;
-
-                for (Entry<PowerPlant, Double> plantCost : meritOrder.entrySet()) {
-                    PowerPlant plant = plantCost.getKey();
-                    double plantCapacity = 0d;
-                    // Determine available capacity in the future in this
-                    // segment
-                    plantCapacity = plant.getExpectedAvailableCapacity(time, segmentLoad.getSegment(), numberOfSegments);
-                    totalCapacityAvailable += plantCapacity;
-                    // logger.warn("Capacity of plant " + plant.toString() +
-                    // " is " +
-                    // plantCapacity/plant.getActualNominalCapacity());
-                    if (segmentSupply < expectedSegmentLoad) {
-                        segmentSupply += plantCapacity;
-                        segmentPrice = plantCost.getValue();
-                    }
+    /**
+     * The investment options of an agent in one round: the candidates of the evaluator, with their technology, node and the project that
+     * the {@link InvestmentConflictResolver} checks, at the same index.
+     */
+    static class InvestmentOptions {
+
+        final EnergyProducer agent;
+        final ElectricitySpotMarket market;
+        final InvestmentCandidateEvaluator evaluator;
+        final List<PowerGeneratingTechnology> technologies = new ArrayList<PowerGeneratingTechnology>();
+        final List<PowerGridNode> nodes = new ArrayList<PowerGridNode>();
+        final List<InvestmentConflictResolver.Project> projects = new ArrayList<InvestmentConflictResolver.Project>();
+
+        InvestmentOptions(EnergyProducer agent, ElectricitySpotMarket market, InvestmentCandidateEvaluator evaluator) {
+            this.agent = agent;
+            this.market = market;
+            this.evaluator = evaluator;
+        }
+    }
 
-                }
+    private class MarketInformation {
 
-                // logger.warn("Segment " +
-                // segmentLoad.getSegment().getSegmentID() + " supply equals " +
-                // segmentSupply + " and segment demand equals " +
-                // expectedSegmentLoad);
-
-                // Find strategic reserve operator for the market.
-                double reservePrice = 0;
-                double reserveVolume = 0;
-                for (StrategicReserveOperator operator : strategicReserveOperatorRepository.findAll()) {
-                    ElectricitySpotMarket market1 = reps.marketRepository.findElectricitySpotMarketForZone(operator
-                            .getZone());
-                    if (market.getNodeId().intValue() == market1.getNodeId().intValue()) {
-                        reservePrice = operator.getReservePriceSR();
-                        reserveVolume = operator.getReserveVolume();
-                    }
-                }
+        Map<Segment, Double> expectedElectricityPricesPerSegment;
+        double maxExpectedLoad = 0d;
+        ExpectedMeritOrder meritOrder;
+        double capacitySum;
 
-                if (segmentSupply >= expectedSegmentLoad
-                        && ((totalCapacityAvailable - expectedSegmentLoad) <= (reserveVolume))) {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), reservePrice);
-                    // logger.warn("Price: "+
-                    // expectedElectricityPricesPerSegment);
-                } else if (segmentSupply >= expectedSegmentLoad
-                        && ((totalCapacityAvailable - expectedSegmentLoad) > (reserveVolume))) {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), segmentPrice);
-                    // logger.warn("Price: "+
-                    // expectedElectricityPricesPerSegment);
-                } else {
-                    expectedElectricityPricesPerSegment.put(segmentLoad.getSegment(), market.getValueOfLostLoad());
-                }
+        MarketInformation(ElectricitySpotMarket market, Map<ElectricitySpotMarket, Double> expectedDemand, Map<Substance, Double> fuelPrices, double co2price, long time) {
+            double demandFactor = expectedDemand.get(market).doubleValue();
 
+            // investors with the same expectations share the merit order
+            String key = ExpectedMeritOrderCache.key(market, time, demandFactor, fuelPrices, co2price);
+            CachedMeritOrder cached = expectedMeritOrderCache.find(getCurrentTick(), key);
+            if (cached == null) {
+                cached = createMeritOrder(market, demandFactor, fuelPrices, co2price, time);
+                expectedMeritOrderCache.put(key, cached);
             }
+
+            meritOrder = cached.meritOrder;
+            expectedElectricityPricesPerSegment = meritOrder.getExpectedElectricityPricesPerSegment();
+            maxExpectedLoad = meritOrder.getMaxExpectedLoad();
+            capacitySum = meritOrder.getCapacitySum();
         }
     }
 
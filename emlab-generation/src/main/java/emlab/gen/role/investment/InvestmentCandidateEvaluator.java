@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import emlab.gen.util.DiscountFactors;
+import emlab.gen.util.FuelMixSolver;
+
+/**
+ * Scores the investment candidates of one investor against a snapshot of its expectations: the expected electricity price and length of
+ * each segment, the expected CO2 price and the investor's weighted average cost of capital. A candidate is a technology at a node, taken
+ * over from the graph by {@link InvestInPowerGenerationTechnologiesRole} as primitive values, so the evaluation does not touch the graph and
+ * the candidates can be scored concurrently with {@link #evaluate(ExecutorService)}.
+ *
+ * The score follows the investment decision of {@link InvestInPowerGenerationTechnologiesRole}: the cheapest fuel mix determines the
+ * expected marginal cost, the plant runs in the segments in which the expected price covers that cost, and the net present value of the
+ * investment and the operating profit over the depreciation time is divided by the capacity, in order not to favour large power plants.
+ * The best candidate is the first one with the highest positive value per MW, so the choice does not depend on the order in which the
+ * candidates are scored.
+ *
+ * @author ejlchappin
+ *
+ */
+public class InvestmentCandidateEvaluator {
+
+    private final double[] expectedPricePerSegment;
+    private final double[] hoursPerSegment;
+    private final double co2Price;
+    private final double wacc;
+
+    private final List<Candidate> candidates = new ArrayList<Candidate>();
+    private double[] values;
+    private DiscountFactors discountFactors;
+
+    public static class Candidate {
+
+        private final double capacity;
+        private final double investedCapital;
+        private final int leadTime;
+        private final int depreciationTime;
+        private final double fixedOperatingCost;
+        private final double minimumRunningHours;
+        private final double[] availableCapacityPerSegment;
+
+        private double efficiency;
+        private double[] fuelPrices = new double[0];
+        private double[] fuelAndCO2Costs;
+        private double[] fuelDensities;
+        private double[] fuelQuality;
+        private double[] fuelEmissionIntensities;
+        private String fuelMixKey;
+
+        public Candidate(double capacity, double investedCapital, int leadTime, int depreciationTime, double fixedOperatingCost,
+                double minimumRunningHours, double[] availableCapacityPerSegment) {
+            this.capacity = capacity;
+            this.investedCapital = investedCapital;
+            this.leadTime = leadTime;
+            this.depreciationTime = depreciationTime;
+            this.fixedOperatingCost = fixedOperatingCost;
+            this.minimumRunningHours = minimumRunningHours;
+            this.availableCapacityPerSegment = availableCapacityPerSegment;
+        }
+
+        /**
+         * Sets the fuels the candidate can use, in the same order in all arrays.
+         *
+         * @param efficiency
+         *            the efficiency of the plant
+         * @param fuelPrices
+         *            the expected price of each fuel
+         * @param fuelAndCO2Costs
+         *            the expected price of each fuel, including its CO2 cost
+         * @param fuelDensities
+         *            the energy per unit of each fuel
+         * @param fuelQuality
+         *            the quality of each fuel minus the minimum quality of the technology, times its energy density
+         * @param fuelEmissionIntensities
+         *            the CO2 emitted per unit of each fuel, after capture
+         * @param fuelMixKey
+         *            the key under which the {@link FuelMixSolver} shares the fuel mix
+         */
+        public void setFuels(double efficiency, double[] fuelPrices, double[] fuelAndCO2Costs, double[] fuelDensities,
+                double[] fuelQuality, double[] fuelEmissionIntensities, String fuelMixKey) {
+            this.efficiency = efficiency;
+            this.fuelPrices = fuelPrices;
+            this.fuelAndCO2Costs = fuelAndCO2Costs;
+            this.fuelDensities = fuelDensities;
+            this.fuelQuality = fuelQuality;
+            this.fuelEmissionIntensities = fuelEmissionIntensities;
+            this.fuelMixKey = fuelMixKey;
+        }
+
+    }
+
+    public InvestmentCandidateEvaluator(double[] expectedPricePerSegment, double[] hoursPerSegment, double co2Price, double wacc) {
+        this.expectedPricePerSegment = expectedPricePerSegment;
+        this.hoursPerSegment = hoursPerSegment;
+        this.co2Price = co2Price;
+        this.wacc = wacc;
+    }
+
+    /**
+     * @return the index of the candidate
+     */
+    public int addCandidate(Candidate candidate) {
+        candidates.add(candidate);
+        values = null;
+        return candidates.size() - 1;
+    }
+
+    public int getNumberOfCandidates() {
+        return candidates.size();
+    }
+
+    /**
+     * Scores all candidates one by one.
+     */
+    public void evaluate() {
+        createDiscountFactors();
+        values = new double[candidates.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluate(candidates.get(i));
+        }
+    }
+
+    /**
+     * Scores all candidates, one task per candidate on the given executor. Blocks until all candidates are scored.
+     */
+    public void evaluate(ExecutorService executor) {
+        createDiscountFactors();
+        final double[] scores = new double[candidates.size()];
+        List<Future<?>> futures = new ArrayList<Future<?>>(scores.length);
+        for (int i = 0; i < scores.length; i++) {
+            final int index = i;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scores[index] = evaluate(candidates.get(index));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while evaluating investment candidates", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Evaluation of an investment candidate failed", e.getCause());
+            }
+        }
+        values = scores;
+    }
+
+    /**
+     * @return the value per MW of the candidate, or NaN if it does not run enough hours or has no positive value
+     */
+    public double getValue(int candidate) {
+        return values[candidate];
+    }
+
+    /**
+     * @return the index of the first candidate with the highest value per MW, or -1 if no candidate has a positive value
+     */
+    public int findBestCandidate() {
+        double highestValue = Double.MIN_VALUE;
+        int best = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] > highestValue) {
+                highestValue = values[i];
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Discount factors for the longest construction and depreciation time of the candidates, computed once for all candidates.
+     */
+    private void createDiscountFactors() {
+        int horizon = 0;
+        for (Candidate candidate : candidates) {
+            horizon = Math.max(horizon, candidate.leadTime + candidate.depreciationTime);
+        }
+        if (discountFactors == null || horizon > discountFactors.getHorizon()) {
+            discountFactors = new DiscountFactors(wacc, horizon);
+        }
+    }
+
+    private double evaluate(Candidate candidate) {
+        double expectedMarginalCost = determineExpectedMarginalCost(candidate);
+        double runningHours = 0d;
+        double expectedGrossProfit = 0d;
+        for (int s = 0; s < expectedPricePerSegment.length; s++) {
+            if (expectedMarginalCost <= expectedPricePerSegment[s]) {
+                runningHours += hoursPerSegment[s];
+                expectedGrossProfit += (expectedPricePerSegment[s] - expectedMarginalCost) * hoursPerSegment[s]
+                        * candidate.availableCapacityPerSegment[s];
+            }
+        }
+        if (runningHours < candidate.minimumRunningHours) {
+            return Double.NaN;
+        }
+
+        double operatingProfit = expectedGrossProfit - candidate.fixedOperatingCost;
+        // the down payments during the building phase are negative
+        double discountedCapitalCosts = discountFactors.presentValue(-candidate.investedCapital / candidate.leadTime, 0,
+                candidate.leadTime);
+        double discountedOpProfit = discountFactors.presentValue(operatingProfit, candidate.leadTime, candidate.leadTime
+                + candidate.depreciationTime);
+        double projectValue = discountedOpProfit + discountedCapitalCosts;
+        if (projectValue > 0) {
+            return projectValue / candidate.capacity;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Determines the cheapest fuel mix the way {@link emlab.gen.role.AbstractEnergyProducerRole#calculateFuelMix} does, without creating
+     * the fuel mix in the graph, and the marginal cost of the fuels and of the CO2 emitted.
+     */
+    double determineExpectedMarginalCost(Candidate candidate) {
+        int numberOfFuels = candidate.fuelPrices.length;
+        if (numberOfFuels == 0) {
+            return 0d;
+        }
+        double[] fuelConsumption = new double[numberOfFuels];
+        double[] solution = null;
+        if (numberOfFuels > 1) {
+            solution = FuelMixSolver.solveShared(candidate.fuelMixKey, candidate.fuelAndCO2Costs, candidate.fuelDensities,
+                    candidate.fuelQuality, 1 / candidate.efficiency);
+        }
+        if (solution != null) {
+            for (int f = 0; f < numberOfFuels; f++) {
+                fuelConsumption[f] = solution[f] * 3600;
+            }
+        } else {
+            // only the first fuel
+            fuelConsumption[0] = 3600 * (1 / (candidate.efficiency * candidate.fuelDensities[0]));
+        }
+
+        double fuelCost = 0d;
+        double co2Intensity = 0d;
+        for (int f = 0; f < numberOfFuels; f++) {
+            fuelCost += fuelConsumption[f] * candidate.fuelPrices[f];
+            co2Intensity += fuelConsumption[f] * candidate.fuelEmissionIntensities[f];
+        }
+        return fuelCost + co2Intensity * co2Price;
+    }
+
+}
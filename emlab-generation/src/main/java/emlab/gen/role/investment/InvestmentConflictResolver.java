@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the conflicts between the projects that several investors chose in the same round, each against the same snapshot of the
+ * market. Every project passed the market-wide limits of {@link InvestInPowerGenerationTechnologiesRole} on its own, but together they may
+ * not. The projects are accepted in order of priority, the highest value per MW first and the earliest added project first among equal
+ * values, and a project is only accepted if it still meets the limits after the capacity of the projects accepted before it:
+ * <ul>
+ * <li>the share of the technology in the market, compared to the expected maximum load,</li>
+ * <li>the upper limit of the technology at the node,</li>
+ * <li>at most 20% of the expected maximum load in the pipeline of the market.</li>
+ * </ul>
+ * An accepted project counts as expected operational capacity of its technology in the market and at the node, and as capacity in the
+ * pipeline of the market.
+ *
+ * @author ejlchappin
+ *
+ */
+public class InvestmentConflictResolver {
+
+    private static final double MAXIMUM_FRACTION_IN_PIPELINE = 0.2;
+
+    /**
+     * A project and the limits it was checked against, as seen by its investor.
+     */
+    public static class Project {
+
+        private final double capacity;
+        private final long market;
+        private final long technology;
+        private final long node;
+
+        private double expectedCapacityOfTechnologyInMarket;
+        private double maximumFractionOfTechnologyInMarket = Double.POSITIVE_INFINITY;
+        private double maxExpectedLoad = Double.POSITIVE_INFINITY;
+        private double expectedCapacityOfTechnologyInNode;
+        private double nodeLimit = Double.POSITIVE_INFINITY;
+        private double capacityInPipelineInMarket;
+
+        public Project(double capacity, long market, long technology, long node) {
+            this.capacity = capacity;
+            this.market = market;
+            this.technology = technology;
+            this.node = node;
+        }
+
+        public void setMarketLimits(double maxExpectedLoad, double expectedCapacityOfTechnologyInMarket,
+                double maximumFractionOfTechnologyInMarket, double capacityInPipelineInMarket) {
+            this.maxExpectedLoad = maxExpectedLoad;
+            this.expectedCapacityOfTechnologyInMarket = expectedCapacityOfTechnologyInMarket;
+            this.maximumFractionOfTechnologyInMarket = maximumFractionOfTechnologyInMarket;
+            this.capacityInPipelineInMarket = capacityInPipelineInMarket;
+        }
+
+        public void setNodeLimit(double expectedCapacityOfTechnologyInNode, double nodeLimit) {
+            this.expectedCapacityOfTechnologyInNode = expectedCapacityOfTechnologyInNode;
+            this.nodeLimit = nodeLimit;
+        }
+
+    }
+
+    private final List<Project> projects = new ArrayList<Project>();
+    private final List<Double> values = new ArrayList<Double>();
+
+    /**
+     * @return the index of the project
+     */
+    public int addProject(Project project, double valuePerMW) {
+        projects.add(project);
+        values.add(valuePerMW);
+        return projects.size() - 1;
+    }
+
+    /**
+     * @return per project whether it is accepted
+     */
+    public boolean[] resolve() {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < projects.size(); i++) {
+            order.add(i);
+        }
+        // stable, so equal values keep the order in which they were added
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(values.get(b), values.get(a));
+            }
+        });
+
+        Map<String, Double> acceptedCapacity = new HashMap<String, Double>();
+        boolean[] accepted = new boolean[projects.size()];
+        for (int i : order) {
+            Project project = projects.get(i);
+            String technologyInMarket = "mt/" + project.market + "/" + project.technology;
+            String technologyInNode = "nt/" + project.node + "/" + project.technology;
+            String pipelineInMarket = "pm/" + project.market;
+
+            double capacityOfTechnologyInMarket = project.expectedCapacityOfTechnologyInMarket + get(acceptedCapacity, technologyInMarket)
+                    + project.capacity;
+            double capacityOfTechnologyInNode = project.expectedCapacityOfTechnologyInNode + get(acceptedCapacity, technologyInNode)
+                    + project.capacity;
+            double capacityInPipeline = project.capacityInPipelineInMarket + get(acceptedCapacity, pipelineInMarket);
+
+            if (capacityOfTechnologyInMarket / (project.maxExpectedLoad + project.capacity) > project.maximumFractionOfTechnologyInMarket) {
+                continue;
+            } else if (capacityOfTechnologyInNode > project.nodeLimit) {
+                continue;
+            } else if (capacityInPipeline > MAXIMUM_FRACTION_IN_PIPELINE * project.maxExpectedLoad) {
+                continue;
+            }
+            accepted[i] = true;
+            add(acceptedCapacity, technologyInMarket, project.capacity);
+            add(acceptedCapacity, technologyInNode, project.capacity);
+            add(acceptedCapacity, pipelineInMarket, project.capacity);
+        }
+        return accepted;
+    }
+
+    private double get(Map<String, Double> capacities, String key) {
+        Double capacity = capacities.get(key);
+        return capacity == null ? 0d : capacity;
+    }
+
+    private void add(Map<String, Double> capacities, String key, double capacity) {
+        capacities.put(key, get(capacities, key) + capacity);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.investment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import agentspring.role.AbstractRole;
+import agentspring.role.Role;
+import agentspring.role.RoleComponent;
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.investment.InvestInPowerGenerationTechnologiesRole.InvestmentOptions;
+
+/**
+ * Lets the {@link EnergyProducer}s invest in rounds in which they move simultaneously. In each round every producer that is still willing
+ * to invest finds its options against the same state of the market, before anyone invests; the options of all producers are then
+ * evaluated, in parallel if the model says so, and the {@link InvestmentConflictResolver} decides which of the best projects are built
+ * together. A producer without a project is no longer willing to invest; a producer whose project was turned down tries again in the next
+ * round. The rounds repeat until nobody is willing to invest anymore. Every round builds at least the project with the highest value, so
+ * the number of rounds depends on the number of investments per producer rather than on the number of producers.
+ *
+ * Producers with another investment role than {@link InvestInPowerGenerationTechnologiesRole} act one by one at the end of each round, as
+ * in the sequential investment phase.
+ *
+ * @author ejlchappin
+ *
+ */
+@RoleComponent
+public class SimultaneousInvestmentRole extends AbstractRole<DecarbonizationModel> implements Role<DecarbonizationModel> {
+
+    @Autowired
+    Reps reps;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void act(DecarbonizationModel model) {
+        int rounds = 0;
+        int investments = 0;
+        boolean someOneStillWillingToInvest = true;
+        while (someOneStillWillingToInvest) {
+            someOneStillWillingToInvest = false;
+            rounds++;
+
+            // all decisions of the round are taken against the same state
+            List<InvestInPowerGenerationTechnologiesRole<EnergyProducer>> roles;
+            roles = new ArrayList<InvestInPowerGenerationTechnologiesRole<EnergyProducer>>();
+            List<InvestmentOptions> options = new ArrayList<InvestmentOptions>();
+            List<EnergyProducer> otherProducers = new ArrayList<EnergyProducer>();
+            for (EnergyProducer producer : reps.energyProducerRepository.findAllEnergyProducersExceptForRenewableTargetInvestorsAtRandom()) {
+                if (!producer.isWillingToInvest()) {
+                    continue;
+                }
+                someOneStillWillingToInvest = true;
+                GenericInvestmentRole<EnergyProducer> role = producer.getInvestmentRole();
+                if (role instanceof InvestInPowerGenerationTechnologiesRole) {
+                    InvestInPowerGenerationTechnologiesRole<EnergyProducer> investmentRole;
+                    investmentRole = (InvestInPowerGenerationTechnologiesRole<EnergyProducer>) role;
+                    roles.add(investmentRole);
+                    options.add(investmentRole.findInvestmentOptions(producer));
+                } else {
+                    otherProducers.add(producer);
+                }
+            }
+
+            evaluate(options, model.isParallelInvestmentEvaluationEnabled());
+
+            InvestmentConflictResolver resolver = new InvestmentConflictResolver();
+            int[] bestCandidates = new int[options.size()];
+            int[] projects = new int[options.size()];
+            for (int i = 0; i < options.size(); i++) {
+                InvestmentCandidateEvaluator evaluator = options.get(i).evaluator;
+                bestCandidates[i] = evaluator.findBestCandidate();
+                if (bestCandidates[i] >= 0) {
+                    projects[i] = resolver.addProject(options.get(i).projects.get(bestCandidates[i]),
+                            evaluator.getValue(bestCandidates[i]));
+                } else {
+                    setNotWillingToInvest(options.get(i).agent);
+                }
+            }
+            boolean[] accepted = resolver.resolve();
+            for (int i = 0; i < options.size(); i++) {
+                if (bestCandidates[i] >= 0 && accepted[projects[i]]) {
+                    roles.get(i).invest(options.get(i), bestCandidates[i]);
+                    investments++;
+                }
+            }
+
+            for (EnergyProducer producer : otherProducers) {
+                producer.getInvestmentRole().act(producer);
+            }
+        }
+        logger.warn("        {} investments in {} simultaneous rounds", investments, rounds);
+    }
+
+    private void evaluate(List<InvestmentOptions> options, boolean parallel) {
+        if (!parallel) {
+            for (InvestmentOptions option : options) {
+                option.evaluator.evaluate();
+            }
+            return;
+        }
+        ExecutorService executor = InvestInPowerGenerationTechnologiesRole.getCandidateEvaluationExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(options.size());
+        for (final InvestmentOptions option : options) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    option.evaluator.evaluate();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while evaluating investment options", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Evaluation of investment options failed", e.getCause());
+            }
+        }
+    }
+
+    @Transactional
+    private void setNotWillingToInvest(EnergyProducer agent) {
+        agent.setWillingToInvest(false);
+    }
+
+}
@@ -49,7 +49,7 @@ public class SingleElectricityMarketInformation {
         capacitySum = 0d;
 
         // get merit order for this market
-        for (PowerPlant plant : reps.powerPlantRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findExpectedOperationalPowerPlantsInMarket(market, time)) {
 
             double plantMarginalCost = determineExpectedMarginalCost(plant, fuelPrices, co2price);
             marginalCostMap.put(plant, plantMarginalCost);
@@ -32,6 +32,7 @@ import emlab.gen.domain.technology.PowerGeneratingTechnology;
 import emlab.gen.domain.technology.PowerGeneratingTechnologyNodeLimit;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.DiscountFactors;
 
 /**
  * @author JCRichstein
@@ -51,7 +52,7 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
 		for(PowerGeneratingTechnologyTarget target : targetInvestor.getPowerGenerationTechnologyTargets()){
 			PowerGeneratingTechnology pgt = target.getPowerGeneratingTechnology();
 			long futureTimePoint = getCurrentTick()+pgt.getExpectedLeadtime()+pgt.getExpectedPermittime();
-			double expectedInstalledCapacity = reps.powerPlantRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(targetInvestor.getInvestorMarket(), pgt, futureTimePoint);
+			double expectedInstalledCapacity = reps.powerPlantCapacityAggregateRepository.calculateCapacityOfExpectedOperationalPowerPlantsInMarketAndTechnology(targetInvestor.getInvestorMarket(), pgt, futureTimePoint);
 			double pgtNodeLimit = Double.MAX_VALUE;
 			// For simplicity using the market, instead of the node here. Needs
 			// to be changed, if more than one node per market exists.
@@ -90,6 +91,8 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
                         getCurrentTick(), plant);
                 // Create the loan
                 plant.createOrUpdateLoan(loan);
+                reps.powerPlantCapacityAggregateRepository.update(plant);
+                reps.powerPlantLifecycleRepository.update(plant);
 				
 			}
 		}
@@ -107,10 +110,7 @@ public class TargetInvestmentRole extends GenericInvestmentRole<TargetInvestor>
     
     public double determineLoanAnnuities(double totalLoan, double payBackTime, double interestRate) {
 
-        double q = 1 + interestRate;
-        double annuity = totalLoan * (Math.pow(q, payBackTime) * (q - 1)) / (Math.pow(q, payBackTime) - 1);
-
-        return annuity;
+        return DiscountFactors.loanAnnuity(totalLoan, payBackTime, interestRate);
     }
 
 }
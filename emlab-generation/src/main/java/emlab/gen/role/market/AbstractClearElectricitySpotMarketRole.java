@@ -24,15 +24,11 @@ import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
 
 import agentspring.role.AbstractRole;
-import emlab.gen.domain.agent.CommoditySupplier;
 import emlab.gen.domain.agent.DecarbonizationModel;
-import emlab.gen.domain.agent.EnergyConsumer;
 import emlab.gen.domain.agent.EnergyProducer;
 import emlab.gen.domain.agent.Government;
-import emlab.gen.domain.contract.LongTermContract;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.Bid;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
@@ -118,11 +114,29 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
     }
 
     CO2SecantSearch co2PriceSecantSearchUpdate(CO2SecantSearch co2SecantSearch, DecarbonizationModel model, Government government) {
+        return co2PriceSecantSearchUpdate(co2SecantSearch, model, government, determineTotalEmissionsBasedOnPowerPlantDispatchPlan());
+    }
+
+    /**
+     * Updates the secant search on the basis of emissions that have already been determined, e.g. by a {@link MeritOrderClearingEngine}.
+     * 
+     * @param co2SecantSearch
+     *            the search so far
+     * @param model
+     *            the model for the cap deviation criterion
+     * @param government
+     *            the government for the cap, minimum price and penalty
+     * @param co2Emissions
+     *            the total emissions at the current CO2 price
+     * @return the updated search
+     */
+    CO2SecantSearch co2PriceSecantSearchUpdate(CO2SecantSearch co2SecantSearch, DecarbonizationModel model, Government government,
+            double co2Emissions) {
 
         co2SecantSearch.stable = false;
         double capDeviationCriterion = model.getCapDeviationCriterion();
         double co2Cap = government.getCo2Cap(getCurrentTick());
-        co2SecantSearch.co2Emissions = determineTotalEmissionsBasedOnPowerPlantDispatchPlan();
+        co2SecantSearch.co2Emissions = co2Emissions;
 
         double deviation = (co2SecantSearch.co2Emissions - co2Cap) / co2Cap;
 
@@ -295,12 +309,8 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
                 // How much capacity is contracted by long term contracts in
                 // this segment?
-                double contractedCapacityInSegment = 0;
-
-                for (LongTermContract ltc : reps.contractRepository.findLongTermContractsForEnergyProducerForSegmentActiveAtTime(producer,
-                        segment, getCurrentTick())) {
-                    contractedCapacityInSegment += ltc.getCapacity();
-                }
+                double contractedCapacityInSegment = reps.longTermContractCoverageRepository
+                        .calculateContractedCapacityForEnergyProducerForSegment(producer, segment, getCurrentTick());
 
                 // for all power plants in the sorted marginal cost map
                 for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository
@@ -356,18 +366,10 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
             double load = baseLoad * market.getDemandGrowthTrend().getValue(getCurrentTick());
 
-            // Load may be covered by long term contracts.
-            double loadCoveredByLTC = 0d;
-
-            // for each energy consumer
-            for (EnergyConsumer consumer : reps.genericRepository.findAll(EnergyConsumer.class)) {
-                // for each active LTC
-                for (LongTermContract ltc : reps.contractRepository.findLongTermContractsForEnergyConsumerForSegmentForZoneActiveAtTime(
-                        consumer, segment, market.getZone(), getCurrentTick())) {
-                    // add tot the total
-                    loadCoveredByLTC += ltc.getCapacity();
-                }
-            }
+            // Load may be covered by long term contracts of the energy
+            // consumers.
+            double loadCoveredByLTC = reps.longTermContractCoverageRepository.calculateContractedCapacityForZoneForSegment(
+                    market.getZone(), segment, getCurrentTick());
 
             // Part of the load may be covered by long term contracts. We
             // subtract that.
@@ -438,7 +440,7 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
     double determineTotalEmissionsBasedOnPowerPlantDispatchPlan() {
         double totalEmissions = 0d;
         //int counter = 0;
-        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
+        for (PowerPlantDispatchPlan plan : reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
             double operationalCapacity = plan.getCapacityLongTermContract() + plan.getAcceptedAmount();
             double emissionIntensity = plan.getPowerPlant().calculateEmissionIntensity();
             double hours = plan.getSegment().getLengthInHours();
@@ -534,85 +536,17 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
     }
 
     /**
-     * Finds the last known price for a substance. We try to find the market for it and get it get the price on that market for this tick, previous tick, or from a possible supplier directly. If
-     * multiple prices are found, the average is returned. This is the case for electricity spot markets, as they may have segments.
-     * 
-     * @param substance
-     *            the price we want for
-     * @return the (average) price found
+     * Finds the last known price for a substance, see {@link emlab.gen.repository.LastKnownPriceRepository}.
      */
     double findLastKnownPriceForSubstance(Substance substance) {
-
-        DecarbonizationMarket market = reps.marketRepository.findFirstMarketBySubstance(substance);
-        if (market == null) {
-            logger.warn("No market found for {} so no price can be found", substance.getName());
-            return 0d;
-        } else {
-            return findLastKnownPriceOnMarket(market);
-        }
+        return reps.lastKnownPriceRepository.findLastKnownPriceForSubstance(substance, getCurrentTick());
     }
 
     /**
-     * Finds the last known price on a specific market. We try to get it for this tick, previous tick, or from a possible supplier directly. If multiple prices are found, the average is returned. This
-     * is the case for electricity spot markets, as they may have segments.
-     * 
-     * @param substance
-     *            the price we want for
-     * @return the (average) price found
+     * Finds the last known price on a specific market, see {@link emlab.gen.repository.LastKnownPriceRepository}.
      */
     double findLastKnownPriceOnMarket(DecarbonizationMarket market) {
-        Double average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld
-                .findClearingPointsForMarketAndTime(market, getCurrentTick()));
-        Substance substance = market.getSubstance();
-
-        if (average != null) {
-            logger.info("Average price found on market for this tick for {}", substance.getName());
-            return average;
-        }
-
-        average = calculateAverageMarketPriceBasedOnClearingPoints(reps.clearingPointRepositoryOld.findClearingPointsForMarketAndTime(
-                market, getCurrentTick() - 1));
-        if (average != null) {
-            logger.info("Average price found on market for previous tick for {}", substance.getName());
-            return average;
-        }
-
-        if (market.getReferencePrice() > 0) {
-            logger.info("Found a reference price found for market for {}", substance.getName());
-            return market.getReferencePrice();
-        }
-
-        for (CommoditySupplier supplier : reps.genericRepository.findAll(CommoditySupplier.class)) {
-            if (supplier.getSubstance().equals(substance)) {
-
-                logger.info("Price found for {} by asking the supplier {} directly", substance.getName(), supplier.getName());
-                return supplier.getPriceOfCommodity().getValue(getCurrentTick());
-            }
-        }
-
-        logger.info("No price has been found for {}", substance.getName());
-        return 0d;
-    }
-
-    /**
-     * Calculates the volume-weighted average price on a market based on a set of clearingPoints.
-     * 
-     * @param clearingPoints
-     *            the clearingPoints with the volumes and prices
-     * @return the weighted average
-     */
-    private Double calculateAverageMarketPriceBasedOnClearingPoints(Iterable<ClearingPoint> clearingPoints) {
-        double priceTimesVolume = 0d;
-        double volume = 0d;
-
-        for (ClearingPoint point : clearingPoints) {
-            priceTimesVolume += point.getPrice() * point.getVolume();
-            volume += point.getVolume();
-        }
-        if (volume > 0) {
-            return priceTimesVolume / volume;
-        }
-        return null;
+        return reps.lastKnownPriceRepository.findLastKnownPriceOnMarket(market, getCurrentTick());
     }
 
     public Reps getReps() {
@@ -621,7 +555,7 @@ public abstract class AbstractClearElectricitySpotMarketRole<T extends Decarboni
 
     @Transactional
     void updatePowerPlanDispatchPlansWithNewCO2Prices(double co2Price, Map<ElectricitySpotMarket, Double> nationalMinCo2Prices) {
-        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
+        for (PowerPlantDispatchPlan plan : reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
             if (nationalMinCo2Prices.get(plan.getBiddingMarket()) > co2Price) {
                 plan.setPrice(plan.getBidWithoutCO2()
                         + (nationalMinCo2Prices.get(plan.getBiddingMarket()) * plan.getPowerPlant().calculateEmissionIntensity()));
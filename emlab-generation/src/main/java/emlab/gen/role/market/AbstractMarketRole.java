@@ -15,6 +15,8 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.transaction.annotation.Transactional;
@@ -25,6 +27,7 @@ import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.repository.Reps;
+import emlab.gen.util.Utils;
 
 /**
  * Calculates {@link ClearingPoint} for any {@link Market}. If demand is smaller
@@ -42,155 +45,61 @@ public abstract class AbstractMarketRole<T extends DecarbonizationMarket> extend
     @Autowired
     Reps reps;
 
+    /**
+     * Clears the market on an {@link OrderBookClearingEngine} filled with its bids, and writes the statuses of the accepted bids back.
+     */
     @Transactional
     public ClearingPoint calculateClearingPoint(DecarbonizationMarket market, long time) {
-        double clearedVolume = 0d;
-        double clearedPrice = 0d;
-        double totalSupplyPrice = calculateTotalSupplyPriceForMarketForTime(market, time);
-        double totalSupply = calculateTotalSupplyForMarketForTime(market, time);
-        logger.info("total supply {} total price {}", totalSupply, totalSupplyPrice);
-        double totalDemandForPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-        logger.info("total demand {} for price {}", totalDemandForPrice, totalSupplyPrice);
-
-		double minimumSupplyPrice = calculateMinimumSupplyPriceForMarketForTime(market, time);
-		double demandAtMinimumSupplyPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, totalSupplyPrice);
-
-		if (demandAtMinimumSupplyPrice <= 0) {
-			clearedPrice = minimumSupplyPrice;
-			clearedVolume = 0;
-		} else if (totalDemandForPrice > totalSupply) {
-			// Not enough to meet demand
-            clearedVolume = totalSupply;
-            if (market.isAuction()) {
-                clearedPrice = calculateTotalDemandForMarketForTimeForPrice(market, time, 0d);
-            } else {
-                clearedPrice = market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market).getValueOfLostLoad()
-                        : totalSupplyPrice;
-            }
-        } else { // Supply exceeds demand
-            double totalOfferAmount = 0d;
-            double previousPrice = 0d;
-            for (Bid offer : reps.bidRepository.findOffersForMarketForTime(market, time)) {
-                double price = offer.getPrice();
-                double amount = offer.getAmount();
-                double demand = calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-                if (demand < totalOfferAmount + amount) {
-                    if (demand == 0) {
-                        if (getCurrentTick() > 0) {
-                            ClearingPoint cp = reps.clearingPointRepository.findClearingPointForMarketAndTime(market, getCurrentTick() - 1);
-                            if (cp != null)
-                                previousPrice = cp.getPrice();
-                        }
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else if (totalOfferAmount >= demand) {
-                        clearedPrice = previousPrice;
-                        clearedVolume = totalOfferAmount;
-                    } else {
-                        clearedPrice = price;
-                        clearedVolume = demand;
-                    }
-                    break;
-                }
-                totalOfferAmount += amount;
+        List<Bid> offers = Utils.asList(reps.bidRepository.findOffersForMarketForTime(market, time));
+        List<Bid> demandBids = Utils.asList(reps.bidRepository.findDemandBidsForMarketForTime(market, time));
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(offers.size(), demandBids.size());
+        for (Bid offer : offers) {
+            orderBook.addOffer(offer.getPrice(), offer.getAmount());
+        }
+        for (Bid bid : demandBids) {
+            orderBook.addDemandBid(bid.getPrice(), bid.getAmount());
+        }
+        double totalSupplyPrice = orderBook.getMaximumSupplyPrice();
+        logger.info("total supply {} total price {}", orderBook.getTotalSupply(), totalSupplyPrice);
+        logger.info("total demand {} for price {}", market.isAuction() ? orderBook.getTotalDemand()
+                : orderBook.getDemandAtOrAbovePrice(totalSupplyPrice), totalSupplyPrice);
+
+        double previousPrice = 0d;
+        if (getCurrentTick() > 0) {
+            Double price = reps.priceHistoryRepository.findPriceForMarketAndTime(market, getCurrentTick() - 1);
+            if (price != null)
                 previousPrice = price;
-            }
         }
-        ClearingPoint point = new ClearingPoint().persist();
+        double shortagePrice = market instanceof ElectricitySpotMarket ? ((ElectricitySpotMarket) market).getValueOfLostLoad()
+                : totalSupplyPrice;
+        orderBook.clear(market.isAuction(), shortagePrice, previousPrice);
+
+        reps.priceHistoryRepository.recordClearingPoint(market, orderBook.getClearingPrice(), orderBook.getClearingVolume(), time);
+        ClearingPoint point = new ClearingPoint();
+        if (reps.priceHistoryRepository.isClearingPointNodesEnabled()) {
+            point.persist();
+        }
         point.setAbstractMarket(market);
         point.setTime(time);
-        point.setPrice(Math.max(0, clearedPrice));
-        point.setVolume(clearedVolume);
-
-        // set bids to accepted and check for partial acceptance
-        // DEMAND
-        double previousPrice = markAcceptedBids(point, false);
-        // if auction - last accepted demand bid sets the price
-        if (market.isAuction()) {
-            point.setPrice(Math.max(0, previousPrice));
-        }
-        // SUPPLY
-        markAcceptedBids(point, true);
-        return point;
-    }
-
-    private double markAcceptedBids(ClearingPoint point, boolean isSupply) {
-        long time = point.getTime();
-        DecarbonizationMarket market = point.getAbstractMarket();
-        double clearedPrice = point.getPrice();
-        double clearedVolume = point.getVolume();
-        double totalBidVolume = 0d;
-        double previousPrice = Double.NEGATIVE_INFINITY;
-        double accpetedSamePriceVolume = 0d;
-
-        Iterable<Bid> bids = isSupply ? reps.bidRepository.findOffersForMarketForTimeBelowPrice(market, time, clearedPrice) : market
-                .isAuction() ? reps.bidRepository.findDemandBidsForMarketForTime(market, time) : reps.bidRepository
-                .findDemandBidsForMarketForTimeAbovePrice(market, time, clearedPrice);
-
-        for (Bid bid : bids) {
-            double amount = bid.getAmount();
-            totalBidVolume += amount;
-            accpetedSamePriceVolume = bid.getPrice() == previousPrice ? accpetedSamePriceVolume + amount : amount;
-            if (totalBidVolume < clearedVolume) {
-                bid.setStatus(Bid.ACCEPTED);
-                bid.setAcceptedAmount(bid.getAmount());
-            } else {
-                double lastAvailableBidSize = clearedVolume - (totalBidVolume - accpetedSamePriceVolume);
-                double samePriceVolume = calculateBidsForMarketForTimeForPrice(market, time, bid.getPrice(), isSupply);
-                double adjustRatio = lastAvailableBidSize / samePriceVolume;
-                for (Bid partBid : isSupply ? reps.bidRepository.findOffersForMarketForTimeForPrice(market, time, bid.getPrice())
-                        : reps.bidRepository.findDemandBidsForMarketForTimeForPrice(market, time, bid.getPrice())) {
-                    partBid.setStatus(Bid.PARTLY_ACCEPTED);
-                    partBid.setAcceptedAmount(partBid.getAmount() * adjustRatio);
-                }
-                break;
+        point.setPrice(orderBook.getClearingPrice());
+        point.setVolume(orderBook.getClearingVolume());
+        reps.clearingPointRepositoryOld.registerChange(market);
+
+        // set bids to accepted, in one go
+        for (int i = 0; i < demandBids.size(); i++) {
+            if (orderBook.getDemandBidStatus(i) >= Bid.PARTLY_ACCEPTED) {
+                demandBids.get(i).setStatus(orderBook.getDemandBidStatus(i));
+                demandBids.get(i).setAcceptedAmount(orderBook.getDemandBidAcceptedAmount(i));
             }
-            previousPrice = bid.getPrice();
         }
-        return previousPrice;
-    }
-
-    private double calculateBidsForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price, boolean isSupply) {
-        try {
-            return isSupply ? reps.bidRepository.calculateOffersForMarketForTimeForPrice(market, time, price) : reps.bidRepository
-                    .calculateDemandBidsForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
-        }
-        return 0d;
-    }
-
-    private double calculateTotalDemandForMarketForTimeForPrice(DecarbonizationMarket market, long time, double price) {
-        try {
-            return market.isAuction() ? reps.bidRepository.calculateTotalDemandForMarketForTime(market, time) : reps.bidRepository
-                    .calculateTotalDemandForMarketForTimeForPrice(market, time, price);
-        } catch (NullPointerException npe) {
-        }
-        return 0d;
-    }
-
-    private double calculateTotalSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyPriceForMarketForTime(market, time);
-        } catch (NullPointerException e) {
-        }
-        return 0d;
-    }
-
-    private double calculateTotalSupplyForMarketForTime(DecarbonizationMarket market, long time) {
-        try {
-            return reps.bidRepository.calculateTotalSupplyForMarketForTime(market, time);
-        } catch (NullPointerException e) {
+        for (int i = 0; i < offers.size(); i++) {
+            if (orderBook.getOfferStatus(i) >= Bid.PARTLY_ACCEPTED) {
+                offers.get(i).setStatus(orderBook.getOfferStatus(i));
+                offers.get(i).setAcceptedAmount(orderBook.getOfferAcceptedAmount(i));
+            }
         }
-        return 0d;
+        return point;
     }
 
-	private double calculateMinimumSupplyPriceForMarketForTime(DecarbonizationMarket market, long time) {
-		try {
-			return reps.bidRepository.calculateMinimumSupplyPriceForMarketForTime(market, time);
-		} catch (NullPointerException e) {
-		}
-		return 0d;
-	}
-
     public abstract Reps getReps();
 }
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Finds the CO2 price at which the emissions of a {@link MeritOrderClearingEngine} meet the cap. With fixed bids the dispatch, and thus the
+ * emissions, only depends on the order of the plans within each segment, so the emissions are a step function of the CO2 price that can
+ * only change where the prices of two plans of the same segment cross. The search narrows the price interval until few enough pairs of
+ * plans swap places within it, collects the prices at which they cross, and does a binary search over these breakpoints. The result is the
+ * breakpoint at which the emissions drop to or below the cap.
+ *
+ * The price of a plan in a market with a national minimum CO2 price is flat below that minimum. These kinks are made interval ends first,
+ * so that within the interval every plan price is linear and two plans cross at most once. Bids that depend on the CO2 price, such as
+ * those of plants that can switch fuels, are updated while the interval is narrowed and kept fixed during the breakpoint search.
+ *
+ * @author <a href="mailto:E.J.L.Chappin@tudelft.nl">Emile Chappin</a>
+ *
+ */
+public class CO2BreakpointSearch {
+
+    /**
+     * Bids that have to be recalculated when the CO2 price changes.
+     */
+    public interface PriceDependentBids {
+        void updateBids(double co2Price);
+    }
+
+    /**
+     * The interval is halved until fewer pairs of plans than this cross within it.
+     */
+    static final long MAXIMUM_NUMBER_OF_CROSSINGS = 100000;
+
+    static final int MAXIMUM_NUMBER_OF_HALVINGS = 60;
+
+    private final MeritOrderClearingEngine meritOrder;
+    private final PriceDependentBids priceDependentBids;
+    private final ExecutorService executor;
+
+    private int[][] plansPerSegment;
+    private double co2Emissions;
+    private int numberOfClearings;
+
+    /**
+     * @param meritOrder
+     *            the merit order, with loads and bids filled
+     * @param priceDependentBids
+     *            the bids to update for every CO2 price tried while narrowing, or null
+     * @param executor
+     *            the executor to clear the segments in parallel, or null to clear them one by one
+     */
+    public CO2BreakpointSearch(MeritOrderClearingEngine meritOrder, PriceDependentBids priceDependentBids, ExecutorService executor) {
+        this.meritOrder = meritOrder;
+        this.priceDependentBids = priceDependentBids;
+        this.executor = executor;
+    }
+
+    /**
+     * Finds the clearing price. Afterwards the merit order is cleared at that price and {@link #getCo2Emissions()} gives the emissions.
+     *
+     * @param co2Cap
+     *            the cap
+     * @param minCo2Price
+     *            the minimum CO2 price, returned if the emissions are at or below the cap at this price
+     * @param maxCo2Price
+     *            the maximum CO2 price (the penalty), returned if the emissions are still above the cap at this price
+     * @return the CO2 price
+     */
+    public double findClearingPrice(double co2Cap, double minCo2Price, double maxCo2Price) {
+        double lo = minCo2Price;
+        if (clearAt(lo, true) <= co2Cap || maxCo2Price <= minCo2Price) {
+            return lo;
+        }
+        double hi = maxCo2Price;
+        if (clearAt(hi, true) > co2Cap) {
+            return hi;
+        }
+
+        // Make the national minimum prices interval ends.
+        double[] kinks = new double[meritOrder.getNumberOfMarkets()];
+        for (int m = 0; m < kinks.length; m++) {
+            kinks[m] = meritOrder.getNationalMinCo2Price(m);
+        }
+        Arrays.sort(kinks);
+        for (double kink : kinks) {
+            if (kink > lo && kink < hi) {
+                if (clearAt(kink, true) > co2Cap) {
+                    lo = kink;
+                } else {
+                    hi = kink;
+                }
+            }
+        }
+
+        for (int halving = 0; halving < MAXIMUM_NUMBER_OF_HALVINGS && findCrossings(lo, hi, null) > MAXIMUM_NUMBER_OF_CROSSINGS; halving++) {
+            double middle = (lo + hi) / 2;
+            if (clearAt(middle, true) > co2Cap) {
+                lo = middle;
+            } else {
+                hi = middle;
+            }
+        }
+
+        List<Double> crossings = new ArrayList<Double>();
+        findCrossings(lo, hi, crossings);
+        double[] breakpoints = sortAndRemoveDuplicates(crossings);
+
+        // Interval j runs from breakpoint j - 1 to breakpoint j, with lo and
+        // hi as the outer ends; the order of the plans, and thus the
+        // emissions, are the same throughout an interval. Find the first
+        // interval with emissions at or below the cap.
+        int above = -1;
+        int atOrBelow = breakpoints.length + 1;
+        while (atOrBelow - above > 1) {
+            int j = (above + atOrBelow) >>> 1;
+            if (clearAt(pointInInterval(breakpoints, j, lo, hi), false) > co2Cap) {
+                above = j;
+            } else {
+                atOrBelow = j;
+            }
+        }
+        if (atOrBelow > breakpoints.length) {
+            clearAt(hi, false);
+            return hi;
+        }
+
+        // Clearing inside the interval first puts the plans that tie at its
+        // start in the order they have within it, as ties keep their order.
+        double inside = pointInInterval(breakpoints, atOrBelow, lo, hi);
+        clearAt(inside, false);
+        double breakpoint = atOrBelow == 0 ? lo : breakpoints[atOrBelow - 1];
+        if (clearAt(breakpoint, false) <= co2Cap) {
+            return breakpoint;
+        }
+        // Rounding made the plans at the breakpoint tie or cross the other
+        // way: move up by doubling steps from the smallest one until the
+        // order of the interval is reached.
+        for (double step = Math.ulp(breakpoint); breakpoint + step < inside; step *= 2) {
+            if (clearAt(breakpoint + step, false) <= co2Cap) {
+                return breakpoint + step;
+            }
+        }
+        clearAt(inside, false);
+        return inside;
+    }
+
+    public double getCo2Emissions() {
+        return co2Emissions;
+    }
+
+    public int getNumberOfClearings() {
+        return numberOfClearings;
+    }
+
+    private double clearAt(double co2Price, boolean updateBids) {
+        if (updateBids && priceDependentBids != null) {
+            priceDependentBids.updateBids(co2Price);
+        }
+        meritOrder.updatePricesForCO2Price(co2Price);
+        co2Emissions = executor == null ? meritOrder.clear() : meritOrder.clear(executor);
+        numberOfClearings++;
+        return co2Emissions;
+    }
+
+    private double pointInInterval(double[] breakpoints, int j, double lo, double hi) {
+        double from = j == 0 ? lo : breakpoints[j - 1];
+        double to = j == breakpoints.length ? hi : breakpoints[j];
+        return (from + to) / 2;
+    }
+
+    private int[][] getPlansPerSegment() {
+        if (plansPerSegment == null) {
+            int[] count = new int[meritOrder.getNumberOfSegments()];
+            for (int i = 0; i < meritOrder.size(); i++) {
+                count[meritOrder.getSegment(i)]++;
+            }
+            plansPerSegment = new int[count.length][];
+            for (int s = 0; s < count.length; s++) {
+                plansPerSegment[s] = new int[count[s]];
+                count[s] = 0;
+            }
+            for (int i = 0; i < meritOrder.size(); i++) {
+                int s = meritOrder.getSegment(i);
+                plansPerSegment[s][count[s]++] = i;
+            }
+        }
+        return plansPerSegment;
+    }
+
+    /**
+     * Finds the pairs of plans of the same segment that swap places between lo and hi, i.e. the inversions between the order at lo and the
+     * order at hi, with a merge sort per segment. No national minimum price may lie strictly between lo and hi.
+     *
+     * @param crossings
+     *            receives the prices at which the pairs cross, or null to only count them
+     * @return the number of pairs
+     */
+    long findCrossings(double lo, double hi, List<Double> crossings) {
+        double middle = (lo + hi) / 2;
+        long count = 0;
+        for (int[] plans : getPlansPerSegment()) {
+            int n = plans.length;
+            final double[] priceAtLo = new double[n];
+            final double[] priceAtHi = new double[n];
+            double[] intercept = new double[n];
+            double[] slope = new double[n];
+            for (int k = 0; k < n; k++) {
+                int i = plans[k];
+                double intensity = meritOrder.getEmissionIntensity(i);
+                double min = meritOrder.getNationalMinCo2Price(meritOrder.getMarket(i));
+                if (middle >= min) {
+                    slope[k] = intensity;
+                    intercept[k] = meritOrder.getBidWithoutCO2(i);
+                } else {
+                    intercept[k] = meritOrder.getBidWithoutCO2(i) + min * intensity;
+                }
+                priceAtLo[k] = intercept[k] + slope[k] * lo;
+                priceAtHi[k] = intercept[k] + slope[k] * hi;
+            }
+
+            // Plans that tie at one end are ordered as at the other end, so
+            // that only pairs crossing strictly in between count.
+            Integer[] byHi = sortedIndices(n, priceAtHi, priceAtLo);
+            int[] rankAtHi = new int[n];
+            for (int r = 0; r < n; r++) {
+                rankAtHi[byHi[r]] = r;
+            }
+            Integer[] byLo = sortedIndices(n, priceAtLo, priceAtHi);
+            int[] sequence = new int[n];
+            for (int r = 0; r < n; r++) {
+                sequence[r] = byLo[r];
+            }
+            count += mergeAndCollect(sequence, new int[n], 0, n, rankAtHi, intercept, slope, lo, hi, crossings);
+        }
+        return count;
+    }
+
+    private Integer[] sortedIndices(int n, final double[] key, final double[] tieBreaker) {
+        Integer[] indices = new Integer[n];
+        for (int k = 0; k < n; k++) {
+            indices[k] = k;
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(key[a], key[b]);
+                return c != 0 ? c : Double.compare(tieBreaker[a], tieBreaker[b]);
+            }
+        });
+        return indices;
+    }
+
+    /**
+     * Merge sorts [from, to) of the sequence on rank at hi, counting, and if asked collecting, the inversions.
+     */
+    private long mergeAndCollect(int[] sequence, int[] buffer, int from, int to, int[] rankAtHi, double[] intercept, double[] slope,
+            double lo, double hi, List<Double> crossings) {
+        if (to - from < 2) {
+            return 0;
+        }
+        int middle = (from + to) >>> 1;
+        long count = mergeAndCollect(sequence, buffer, from, middle, rankAtHi, intercept, slope, lo, hi, crossings)
+                + mergeAndCollect(sequence, buffer, middle, to, rankAtHi, intercept, slope, lo, hi, crossings);
+        System.arraycopy(sequence, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle && rankAtHi[buffer[left]] < rankAtHi[buffer[right]])) {
+                sequence[k] = buffer[left++];
+            } else {
+                int b = buffer[right++];
+                sequence[k] = b;
+                count += middle - left;
+                if (crossings != null) {
+                    for (int l = left; l < middle; l++) {
+                        int a = buffer[l];
+                        double crossing = (intercept[b] - intercept[a]) / (slope[a] - slope[b]);
+                        if (crossing > lo && crossing < hi) {
+                            crossings.add(crossing);
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private double[] sortAndRemoveDuplicates(List<Double> values) {
+        double[] sorted = new double[values.size()];
+        for (int k = 0; k < sorted.length; k++) {
+            sorted[k] = values.get(k);
+        }
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int k = 0; k < sorted.length; k++) {
+            if (unique == 0 || sorted[k] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[k];
+            }
+        }
+        return Arrays.copyOf(sorted, unique);
+    }
+
+}
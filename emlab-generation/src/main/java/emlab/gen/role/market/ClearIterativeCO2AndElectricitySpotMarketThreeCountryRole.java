@@ -31,7 +31,6 @@ import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.agent.NationalGovernment;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.CO2Auction;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
@@ -110,10 +109,9 @@ public class ClearIterativeCO2AndElectricitySpotMarketThreeCountryRole extends A
             co2PriceStability.positive = false;
             co2PriceStability.iterationSpeedFactor = model.getIterationSpeedFactor();
             co2PriceStability.co2Price = findLastKnownPriceOnMarket(co2Auction);
-            ClearingPoint lastClearingPointOfCo2Market = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(co2Auction,
-                    getCurrentTick() - 1);
-            if (lastClearingPointOfCo2Market != null) {
-                co2PriceStability.co2Emissions = lastClearingPointOfCo2Market.getVolume();
+            Double lastCo2Emissions = reps.priceHistoryRepository.findVolumeForMarketAndTime(co2Auction, getCurrentTick() - 1);
+            if (lastCo2Emissions != null) {
+                co2PriceStability.co2Emissions = lastCo2Emissions;
             } else {
                 co2PriceStability.co2Emissions = 0d;
             }
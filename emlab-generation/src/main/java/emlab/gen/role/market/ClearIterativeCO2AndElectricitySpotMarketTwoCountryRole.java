@@ -15,9 +15,14 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
@@ -30,7 +35,6 @@ import emlab.gen.domain.agent.Government;
 import emlab.gen.domain.agent.NationalGovernment;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.CO2Auction;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
@@ -64,6 +68,8 @@ public class ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole extends Abs
     @Autowired
     Neo4jTemplate template;
 
+    private ExecutorService segmentClearingExecutor;
+
     @Transactional
     public void act(DecarbonizationModel model) {
 
@@ -102,7 +108,21 @@ public class ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole extends Abs
 
         CO2Auction co2Auction = template.findAll(CO2Auction.class).iterator().next();
 
-        if (model.isCo2TradingImplemented()) {
+        // The commitment to long-term contracts does not depend on the CO2
+        // price, so it is determined once, before loading the merit order.
+        if (model.isLongTermContractsImplemented())
+            determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
+
+        List<ElectricitySpotMarket> markets = Utils.asList(reps.marketRepository.findAllElectricitySpotMarkets());
+        List<PowerPlantDispatchPlan> plans = Utils.asList(reps.timeIndexRepository
+                .findAllPowerPlantDispatchPlansForTime(getCurrentTick()));
+        MeritOrderClearingEngine meritOrder = createMeritOrderClearingEngine(plans, markets, segments, interconnector.getCapacity(),
+                nationalMinCo2Prices, model.isLongTermContractsImplemented());
+
+        if (model.isCo2TradingImplemented() && model.isExactCo2ClearingEnabled()) {
+            clearCo2AndElectricitySpotMarketsByBreakpointSearch(meritOrder, plans, markets, segments, fuelPriceMap, nationalMinCo2Prices,
+                    government, co2Auction, model);
+        } else if (model.isCo2TradingImplemented()) {
             // Old Iteration
             // CO2PriceStability co2PriceStability = new CO2PriceStability();
             // co2PriceStability.stable = false;
@@ -119,14 +139,17 @@ public class ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole extends Abs
 
             // Change Iteration algorithm here, and a few lines below...
 
-            ClearingPoint lastClearingPointOfCo2Market = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(co2Auction,
-                    getCurrentTick() - 1);
-            if (lastClearingPointOfCo2Market != null) {
-                co2SecantSearch.co2Emissions = lastClearingPointOfCo2Market.getVolume();
+            Double lastCo2Emissions = reps.priceHistoryRepository.findVolumeForMarketAndTime(co2Auction, getCurrentTick() - 1);
+            if (lastCo2Emissions != null) {
+                co2SecantSearch.co2Emissions = lastCo2Emissions;
             } else {
                 co2SecantSearch.co2Emissions = 0d;
             }
 
+            // Power plants that can switch fuels get a new fuel mix, and thus
+            // a new bid, for every CO2 price.
+            Map<PowerPlant, List<Integer>> multiFuelPlans = findPlansOfMultiFuelPowerPlants(plans);
+
             int breakOffIterator = 0;
             while (!co2SecantSearch.stable) {
 
@@ -135,56 +158,223 @@ public class ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole extends Abs
                     break;
                 }
 
-                // Clear the electricity markets with the expected co2Price
-
-                //updatePowerPlanDispatchPlansWithNewCO2Prices(co2SecantSearch.co2Price, nationalMinCo2Prices);
-                submitOffersToElectricitySpotMarketRole.updateMarginalCostInclCO2AfterFuelMixChange(co2SecantSearch.co2Price, nationalMinCo2Prices);
-                
-                if (model.isLongTermContractsImplemented())
-                    determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
-
-                for (Segment segment : segments) {
-                    clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment, government);
-                }
+                // Clear the electricity markets with the expected co2Price, in
+                // memory.
+                updateBidsOfMultiFuelPowerPlants(meritOrder, multiFuelPlans, markets, fuelPriceMap, co2SecantSearch.co2Price,
+                        nationalMinCo2Prices, government);
+                meritOrder.updatePricesForCO2Price(co2SecantSearch.co2Price);
+                double co2Emissions = clearMeritOrder(meritOrder, model);
 
                 // Change Iteration algorithm here
                 // co2PriceStability = determineStabilityOfCO2andElectricityPricesAndAdjustIfNecessary(co2PriceStability, model, government);
-                co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government);
+                co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government, co2Emissions);
                 breakOffIterator++;
 
             }
 
-            // Check if iteration is stable if fuel mix change is considered.
-            // co2SecantSearch.stable = false;
-            // co2SecantSearch.twoPricesExistWithBelowAboveEmissions = false;
-            // co2SecantSearch.tooHighEmissionsPair = null;
-            // co2SecantSearch.tooLowEmissionsPair = null;
-            //
-            // while (!co2SecantSearch.stable && co2SecantSearch.co2Price != findLastKnownPriceOnMarket(co2Auction)) {
-            //
-            // submitOffersToElectricitySpotMarketRole.updateMarginalCostInclCO2AfterFuelMixChange(co2SecantSearch.co2Price,
-            // nationalMinCo2Prices);
-            // if (model.isLongTermContractsImplemented())
-            // determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
-            //
-            // for (Segment segment : segments) {
-            // clearTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment, government);
-            // }
-            //
-            // co2SecantSearch = co2PriceSecantSearchUpdate(co2SecantSearch, model, government);
-            // }
+            storeMeritOrderClearingOutcome(meritOrder, plans, markets, segments);
 
             // Save the resulting CO2 price to the CO2 auction
             reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(co2Auction, co2SecantSearch.co2Price, co2SecantSearch.co2Emissions,
                     getCurrentTick());
         } else {
-            if (model.isLongTermContractsImplemented())
-                determineCommitmentOfPowerPlantsOnTheBasisOfLongTermContracts(segments);
-            for (Segment segment : segments) {
-                clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment(interconnector.getCapacity(), segment, government);
+            clearMeritOrder(meritOrder, model);
+            storeMeritOrderClearingOutcome(meritOrder, plans, markets, segments);
+        }
+
+    }
+
+    /**
+     * Clears the CO2 market at the lowest CO2 price at which the emissions are at or below the cap, found by a
+     * {@link CO2BreakpointSearch} on the merit order instead of the secant iteration.
+     */
+    void clearCo2AndElectricitySpotMarketsByBreakpointSearch(final MeritOrderClearingEngine meritOrder,
+            List<PowerPlantDispatchPlan> plans, final List<ElectricitySpotMarket> markets, List<Segment> segments,
+            final Map<Substance, Double> fuelPriceMap, final Map<ElectricitySpotMarket, Double> nationalMinCo2Prices,
+            final Government government, CO2Auction co2Auction, DecarbonizationModel model) {
+        final Map<PowerPlant, List<Integer>> multiFuelPlans = findPlansOfMultiFuelPowerPlants(plans);
+        CO2BreakpointSearch.PriceDependentBids priceDependentBids = null;
+        if (!multiFuelPlans.isEmpty()) {
+            priceDependentBids = new CO2BreakpointSearch.PriceDependentBids() {
+                @Override
+                public void updateBids(double co2Price) {
+                    updateBidsOfMultiFuelPowerPlants(meritOrder, multiFuelPlans, markets, fuelPriceMap, co2Price, nationalMinCo2Prices,
+                            government);
+                }
+            };
+        }
+        CO2BreakpointSearch search = new CO2BreakpointSearch(meritOrder, priceDependentBids,
+                model.isParallelSegmentClearingEnabled() ? getSegmentClearingExecutor() : null);
+        double co2Price = search.findClearingPrice(government.getCo2Cap(getCurrentTick()), government.getMinCo2Price(getCurrentTick()),
+                government.getCo2Penalty());
+        logger.info("CO2 price {} found after {} clearings of the merit order", co2Price, search.getNumberOfClearings());
+
+        storeMeritOrderClearingOutcome(meritOrder, plans, markets, segments);
+        reps.clearingPointRepositoryOld.createOrUpdateClearingPoint(co2Auction, co2Price, search.getCo2Emissions(), getCurrentTick());
+    }
+
+    /**
+     * Loads the dispatch plans of this tick, the loads per segment and the market data into a {@link MeritOrderClearingEngine}. Plan i in
+     * the engine is element i of the list of plans.
+     * 
+     * @param plans
+     *            the dispatch plans of this tick
+     * @param markets
+     *            the markets, market 0 is the first market found
+     * @param segments
+     *            the segments
+     * @param interconnectorCapacity
+     *            the capacity of the interconnector between the markets
+     * @param nationalMinCo2Prices
+     *            the national minimum CO2 prices per market
+     * @param longTermContractsImplemented
+     *            whether the capacity committed to long-term contracts should be used
+     * @return the merit order
+     */
+    MeritOrderClearingEngine createMeritOrderClearingEngine(List<PowerPlantDispatchPlan> plans, List<ElectricitySpotMarket> markets,
+            List<Segment> segments, double interconnectorCapacity, Map<ElectricitySpotMarket, Double> nationalMinCo2Prices,
+            boolean longTermContractsImplemented) {
+
+        MeritOrderClearingEngine meritOrder = new MeritOrderClearingEngine(markets.size(), segments.size(), plans.size());
+        meritOrder.setInterconnectorCapacity(interconnectorCapacity);
+
+        Map<ElectricitySpotMarket, Integer> marketIndices = new HashMap<ElectricitySpotMarket, Integer>();
+        for (int m = 0; m < markets.size(); m++) {
+            ElectricitySpotMarket market = markets.get(m);
+            marketIndices.put(market, m);
+            meritOrder.setValueOfLostLoad(m, market.getValueOfLostLoad());
+            Double nationalMinCo2Price = nationalMinCo2Prices.get(market);
+            meritOrder.setNationalMinCo2Price(m, nationalMinCo2Price == null ? 0d : nationalMinCo2Price);
+        }
+
+        Map<Segment, Integer> segmentIndices = new HashMap<Segment, Integer>();
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            segmentIndices.put(segment, s);
+            Map<ElectricitySpotMarket, Double> loads = determineActualDemandForSpotMarkets(segment);
+            for (int m = 0; m < markets.size(); m++) {
+                meritOrder.setLoad(s, m, loads.get(markets.get(m)));
+            }
+        }
+
+        Map<PowerPlant, Double> emissionIntensities = new HashMap<PowerPlant, Double>();
+        for (PowerPlantDispatchPlan plan : plans) {
+            PowerPlant plant = plan.getPowerPlant();
+            Double emissionIntensity = emissionIntensities.get(plant);
+            if (emissionIntensity == null) {
+                emissionIntensity = plant.calculateEmissionIntensity();
+                emissionIntensities.put(plant, emissionIntensity);
             }
+            Segment segment = plan.getSegment();
+            int i = meritOrder.addPlan(marketIndices.get(plan.getBiddingMarket()), segmentIndices.get(segment), segment.getLengthInHours(),
+                    plan.getBidWithoutCO2(), emissionIntensity, plan.getAmount(),
+                    longTermContractsImplemented ? plan.getCapacityLongTermContract() : 0d);
+            meritOrder.setPrice(i, plan.getPrice());
         }
 
+        return meritOrder;
+    }
+
+    /**
+     * Clears all segments of the merit order, in parallel if the model says so. Both ways give the same outcome; nothing is written to the
+     * graph.
+     * 
+     * @return the total CO2 emissions
+     */
+    double clearMeritOrder(MeritOrderClearingEngine meritOrder, DecarbonizationModel model) {
+        if (model.isParallelSegmentClearingEnabled()) {
+            return meritOrder.clear(getSegmentClearingExecutor());
+        }
+        return meritOrder.clear();
+    }
+
+    /**
+     * The pool for parallel segment clearing is created on first use and kept for the rest of the simulation. Its threads are daemons, so
+     * they do not keep the simulation from exiting.
+     */
+    synchronized ExecutorService getSegmentClearingExecutor() {
+        if (segmentClearingExecutor == null) {
+            segmentClearingExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "segment-clearing-" + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return segmentClearingExecutor;
+    }
+
+    /**
+     * Finds the dispatch plans of power plants that use more than one fuel, per power plant.
+     * 
+     * @param plans
+     *            the dispatch plans, in the order of the merit order engine
+     * @return the indices of the plans, per power plant
+     */
+    Map<PowerPlant, List<Integer>> findPlansOfMultiFuelPowerPlants(List<PowerPlantDispatchPlan> plans) {
+        Map<PowerPlant, List<Integer>> multiFuelPlans = new LinkedHashMap<PowerPlant, List<Integer>>();
+        for (int i = 0; i < plans.size(); i++) {
+            PowerPlant plant = plans.get(i).getPowerPlant();
+            if (plant.getFuelMix().size() > 1) {
+                List<Integer> indices = multiFuelPlans.get(plant);
+                if (indices == null) {
+                    indices = new ArrayList<Integer>();
+                    multiFuelPlans.put(plant, indices);
+                }
+                indices.add(i);
+            }
+        }
+        return multiFuelPlans;
+    }
+
+    /**
+     * Determines the fuel mix of the multi-fuel power plants for a CO2 price and updates their bids in the merit order. The fuel mix is
+     * determined once per power plant rather than once per dispatch plan.
+     */
+    void updateBidsOfMultiFuelPowerPlants(MeritOrderClearingEngine meritOrder, Map<PowerPlant, List<Integer>> multiFuelPlans,
+            List<ElectricitySpotMarket> markets, Map<Substance, Double> fuelPriceMap, double co2Price,
+            Map<ElectricitySpotMarket, Double> nationalMinCo2Prices, Government government) {
+        double co2Tax = government.getCO2Tax(getCurrentTick());
+        for (Map.Entry<PowerPlant, List<Integer>> entry : multiFuelPlans.entrySet()) {
+            PowerPlant plant = entry.getKey();
+            List<Integer> indices = entry.getValue();
+            Double nationalMinCo2Price = nationalMinCo2Prices.get(markets.get(meritOrder.getMarket(indices.get(0))));
+            double effectiveCo2Price = (nationalMinCo2Price != null && nationalMinCo2Price > co2Price) ? nationalMinCo2Price : co2Price;
+            double mc = submitOffersToElectricitySpotMarketRole.updateFuelMixAndDetermineMarginalCostExclCO2(plant, fuelPriceMap, co2Tax
+                    + effectiveCo2Price);
+            double emissionIntensity = plant.calculateEmissionIntensity();
+            for (int i : indices) {
+                meritOrder.updateBid(i, mc, emissionIntensity);
+            }
+        }
+    }
+
+    /**
+     * Writes the outcome of the last clearing of the merit order back to the dispatch plans, and stores the segment clearing points.
+     */
+    @Transactional
+    void storeMeritOrderClearingOutcome(MeritOrderClearingEngine meritOrder, List<PowerPlantDispatchPlan> plans,
+            List<ElectricitySpotMarket> markets, List<Segment> segments) {
+        for (int i = 0; i < plans.size(); i++) {
+            PowerPlantDispatchPlan plan = plans.get(i);
+            plan.setBidWithoutCO2(meritOrder.getBidWithoutCO2(i));
+            plan.setPrice(meritOrder.getPrice(i));
+            plan.setAmount(meritOrder.getAmount(i));
+            plan.setCapacityLongTermContract(meritOrder.getCapacityLongTermContract(i));
+            plan.setStatus(meritOrder.getStatus(i));
+            plan.setAcceptedAmount(meritOrder.getAcceptedAmount(i));
+        }
+
+        for (int s = 0; s < segments.size(); s++) {
+            for (int m = 0; m < markets.size(); m++) {
+                reps.clearingPointRepositoryOld.createOrUpdateSegmentClearingPoint(segments.get(s), markets.get(m),
+                        meritOrder.getSegmentPrice(s, m), meritOrder.getSegmentSupply(s, m), getCurrentTick());
+            }
+        }
     }
 
     /**
@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+
+/**
+ * In-memory merit order of all {@link PowerPlantDispatchPlan}s of one tick. The plans are loaded once into primitive arrays, after which the
+ * markets can be cleared for as many CO2 prices as the iteration needs without touching the graph. Markets, segments and plans are referred
+ * to by their index; the role that fills the engine keeps track of which index belongs to which node and writes the final outcome back.
+ *
+ * The clearing itself follows
+ * {@link ClearIterativeCO2AndElectricitySpotMarketTwoCountryRole#clearOneOrTwoConnectedElectricityMarketsAtAGivenCO2PriceForOneSegment}: a
+ * global clearing without interconnector constraints first, and, if the resulting flow exceeds the interconnector capacity, a clearing per
+ * market with the load adjusted by the full interconnector capacity. Market 0 is the first market as returned by the market repository.
+ *
+ * Segments only share read-only data, so they can also be cleared concurrently with {@link #clear(ExecutorService)}. The outcome is the
+ * same as that of {@link #clear()}.
+ *
+ * @author <a href="mailto:E.J.L.Chappin@tudelft.nl">Emile Chappin</a>
+ *
+ */
+public class MeritOrderClearingEngine {
+
+    private final int numberOfMarkets;
+    private final int numberOfSegments;
+
+    private int size;
+
+    // Per plan
+    private int[] market;
+    private int[] segment;
+    private double[] hours;
+    private double[] bidWithoutCO2;
+    private double[] emissionIntensity;
+    private double[] amount;
+    private double[] capacityLongTermContract;
+    private double[] price;
+    private double[] acceptedAmount;
+    private int[] status;
+
+    // Per market
+    private final double[] valueOfLostLoad;
+    private final double[] nationalMinCo2Price;
+    private double interconnectorCapacity;
+
+    // Per segment and market
+    private final double[][] loads;
+    private final double[][] segmentPrices;
+    private final double[][] segmentSupplies;
+
+    // Plan indices grouped per segment, each group sorted by price after clearing.
+    private int[] order;
+    private int[] segmentStart;
+    private int[] sortBuffer;
+    private boolean grouped;
+
+    public MeritOrderClearingEngine(int numberOfMarkets, int numberOfSegments, int expectedNumberOfPlans) {
+        this.numberOfMarkets = numberOfMarkets;
+        this.numberOfSegments = numberOfSegments;
+        int capacity = Math.max(expectedNumberOfPlans, 16);
+        market = new int[capacity];
+        segment = new int[capacity];
+        hours = new double[capacity];
+        bidWithoutCO2 = new double[capacity];
+        emissionIntensity = new double[capacity];
+        amount = new double[capacity];
+        capacityLongTermContract = new double[capacity];
+        price = new double[capacity];
+        acceptedAmount = new double[capacity];
+        status = new int[capacity];
+        valueOfLostLoad = new double[numberOfMarkets];
+        nationalMinCo2Price = new double[numberOfMarkets];
+        loads = new double[numberOfSegments][numberOfMarkets];
+        segmentPrices = new double[numberOfSegments][numberOfMarkets];
+        segmentSupplies = new double[numberOfSegments][numberOfMarkets];
+    }
+
+    /**
+     * Adds a dispatch plan to the merit order. The price of the plan is initialised to its bid without CO2 cost.
+     *
+     * @return the index of the plan in this engine
+     */
+    public int addPlan(int marketIndex, int segmentIndex, double lengthInHours, double bidWithoutCO2, double emissionIntensity,
+            double amount, double capacityLongTermContract) {
+        if (size == market.length) {
+            grow();
+        }
+        int i = size++;
+        this.market[i] = marketIndex;
+        this.segment[i] = segmentIndex;
+        this.hours[i] = lengthInHours;
+        this.bidWithoutCO2[i] = bidWithoutCO2;
+        this.emissionIntensity[i] = emissionIntensity;
+        this.amount[i] = amount;
+        this.capacityLongTermContract[i] = capacityLongTermContract;
+        this.price[i] = bidWithoutCO2;
+        this.status[i] = Bid.SUBMITTED;
+        grouped = false;
+        return i;
+    }
+
+    private void grow() {
+        int capacity = market.length * 2;
+        market = Arrays.copyOf(market, capacity);
+        segment = Arrays.copyOf(segment, capacity);
+        hours = Arrays.copyOf(hours, capacity);
+        bidWithoutCO2 = Arrays.copyOf(bidWithoutCO2, capacity);
+        emissionIntensity = Arrays.copyOf(emissionIntensity, capacity);
+        amount = Arrays.copyOf(amount, capacity);
+        capacityLongTermContract = Arrays.copyOf(capacityLongTermContract, capacity);
+        price = Arrays.copyOf(price, capacity);
+        acceptedAmount = Arrays.copyOf(acceptedAmount, capacity);
+        status = Arrays.copyOf(status, capacity);
+    }
+
+    public void setLoad(int segmentIndex, int marketIndex, double load) {
+        loads[segmentIndex][marketIndex] = load;
+    }
+
+    public void setValueOfLostLoad(int marketIndex, double valueOfLostLoad) {
+        this.valueOfLostLoad[marketIndex] = valueOfLostLoad;
+    }
+
+    public void setNationalMinCo2Price(int marketIndex, double nationalMinCo2Price) {
+        this.nationalMinCo2Price[marketIndex] = nationalMinCo2Price;
+    }
+
+    public void setInterconnectorCapacity(double interconnectorCapacity) {
+        this.interconnectorCapacity = interconnectorCapacity;
+    }
+
+    /**
+     * Replaces the bid without CO2 cost and the emission intensity of a plan, e.g. after the fuel mix of its power plant has changed.
+     */
+    public void updateBid(int plan, double bidWithoutCO2, double emissionIntensity) {
+        this.bidWithoutCO2[plan] = bidWithoutCO2;
+        this.emissionIntensity[plan] = emissionIntensity;
+    }
+
+    /**
+     * Sets the price of every plan to its bid without CO2 cost plus the CO2 cost, using the national minimum CO2 price of the bidding market
+     * if that is higher than the given CO2 price.
+     */
+    public void updatePricesForCO2Price(double co2Price) {
+        for (int i = 0; i < size; i++) {
+            double effectiveCo2Price = Math.max(co2Price, nationalMinCo2Price[market[i]]);
+            price[i] = bidWithoutCO2[i] + effectiveCo2Price * emissionIntensity[i];
+        }
+    }
+
+    public void setPrice(int plan, double price) {
+        this.price[plan] = price;
+    }
+
+    /**
+     * Clears all segments at the current prices.
+     *
+     * @return the total CO2 emissions of the resulting dispatch, including the production under long-term contracts.
+     */
+    public double clear() {
+        groupPlansBySegment();
+        for (int s = 0; s < numberOfSegments; s++) {
+            clearSegment(s);
+        }
+        return determineTotalEmissions();
+    }
+
+    /**
+     * Clears all segments at the current prices, one task per segment on the given executor. Blocks until all segments are cleared.
+     *
+     * @return the total CO2 emissions of the resulting dispatch, including the production under long-term contracts.
+     */
+    public double clear(ExecutorService executor) {
+        groupPlansBySegment();
+        List<Future<?>> futures = new ArrayList<Future<?>>(numberOfSegments);
+        for (int s = 0; s < numberOfSegments; s++) {
+            final int segmentIndex = s;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    clearSegment(segmentIndex);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while clearing segments", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Clearing of a segment failed", e.getCause());
+            }
+        }
+        return determineTotalEmissions();
+    }
+
+    public double determineTotalEmissions() {
+        double totalEmissions = 0d;
+        for (int i = 0; i < size; i++) {
+            totalEmissions += (capacityLongTermContract[i] + acceptedAmount[i]) * emissionIntensity[i] * hours[i];
+        }
+        return totalEmissions;
+    }
+
+    /**
+     * Clears one segment. Only touches the plans of this segment and the outcome arrays of this segment, so different segments may be
+     * cleared at the same time.
+     */
+    void clearSegment(int s) {
+        int from = segmentStart[s];
+        int to = segmentStart[s + 1];
+        sortByPrice(from, to);
+
+        double[] segmentLoads = loads[s];
+        double[] supplies = segmentSupplies[s];
+        double[] prices = segmentPrices[s];
+        Arrays.fill(supplies, 0d);
+
+        double globalLoad = 0d;
+        for (int m = 0; m < numberOfMarkets; m++) {
+            globalLoad += segmentLoads[m];
+        }
+
+        // Global clearing, without capacity constraints on the
+        // interconnector.
+        double globalSupply = 0d;
+        double marginalPlantMarginalCost = Double.MAX_VALUE;
+        for (int k = from; k < to; k++) {
+            int i = order[k];
+            double plantSupply = determineProduction(i, globalSupply, globalLoad);
+            if (plantSupply > 0) {
+                marginalPlantMarginalCost = price[i];
+                supplies[market[i]] += plantSupply;
+                globalSupply += plantSupply;
+            }
+        }
+
+        double interconnectorFlow = supplies[0] - segmentLoads[0];
+
+        if (numberOfMarkets < 2 || Math.abs(interconnectorFlow) <= interconnectorCapacity) {
+            for (int m = 0; m < numberOfMarkets; m++) {
+                prices[m] = (globalLoad <= globalSupply) ? marginalPlantMarginalCost : valueOfLostLoad[m];
+            }
+            return;
+        }
+
+        // Market coupling: the interconnector is congested, so each market
+        // is cleared with its load adjusted by the full interconnector
+        // capacity.
+        boolean firstImporting = interconnectorFlow <= 0;
+        double[] adjustedLoads = new double[numberOfMarkets];
+        for (int m = 0; m < numberOfMarkets; m++) {
+            boolean first = m == 0;
+            if ((first && firstImporting) || (!first && !firstImporting)) {
+                adjustedLoads[m] = segmentLoads[m] - interconnectorCapacity;
+            } else {
+                adjustedLoads[m] = segmentLoads[m] + interconnectorCapacity;
+            }
+            supplies[m] = 0d;
+            prices[m] = valueOfLostLoad[m];
+        }
+
+        for (int k = from; k < to; k++) {
+            int i = order[k];
+            int m = market[i];
+            double plantSupply = determineProduction(i, supplies[m], adjustedLoads[m]);
+            if (plantSupply > 0) {
+                supplies[m] += plantSupply;
+                prices[m] = price[i];
+            }
+        }
+
+        for (int m = 0; m < numberOfMarkets; m++) {
+            if (supplies[m] < adjustedLoads[m]) {
+                prices[m] = valueOfLostLoad[m];
+            }
+        }
+    }
+
+    /**
+     * Same rules as {@link AbstractClearElectricitySpotMarketRole#determineProductionOnSpotMarket}, but on the arrays.
+     */
+    private double determineProduction(int i, double supplySoFar, double load) {
+        double plantSupply;
+        if ((supplySoFar + amount[i]) < load) {
+            plantSupply = amount[i];
+            status[i] = Bid.ACCEPTED;
+        } else {
+            plantSupply = load - supplySoFar;
+            if (plantSupply > 0) {
+                status[i] = Bid.PARTLY_ACCEPTED;
+            } else {
+                status[i] = Bid.FAILED;
+            }
+        }
+        acceptedAmount[i] = plantSupply;
+        return plantSupply;
+    }
+
+    private void groupPlansBySegment() {
+        if (grouped) {
+            return;
+        }
+        segmentStart = new int[numberOfSegments + 1];
+        for (int i = 0; i < size; i++) {
+            segmentStart[segment[i] + 1]++;
+        }
+        for (int s = 0; s < numberOfSegments; s++) {
+            segmentStart[s + 1] += segmentStart[s];
+        }
+        order = new int[size];
+        sortBuffer = new int[size];
+        int[] next = Arrays.copyOf(segmentStart, numberOfSegments);
+        for (int i = 0; i < size; i++) {
+            order[next[segment[i]]++] = i;
+        }
+        grouped = true;
+    }
+
+    /**
+     * Stable merge sort of the plan indices in [from, to) on price. Ties keep the order of the previous clearing, so that the outcome does
+     * not depend on the sort implementation. Runs that are already in order are not merged, which makes re-sorting after a small change
+     * in the CO2 price close to linear.
+     */
+    private void sortByPrice(int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByPrice(from, middle);
+        sortByPrice(middle, to);
+        if (price[order[middle - 1]] <= price[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, sortBuffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle && price[sortBuffer[left]] <= price[sortBuffer[right]])) {
+                order[k] = sortBuffer[left++];
+            } else {
+                order[k] = sortBuffer[right++];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNumberOfMarkets() {
+        return numberOfMarkets;
+    }
+
+    public int getNumberOfSegments() {
+        return numberOfSegments;
+    }
+
+    public int getMarket(int plan) {
+        return market[plan];
+    }
+
+    public int getSegment(int plan) {
+        return segment[plan];
+    }
+
+    public double getPrice(int plan) {
+        return price[plan];
+    }
+
+    public double getBidWithoutCO2(int plan) {
+        return bidWithoutCO2[plan];
+    }
+
+    public double getEmissionIntensity(int plan) {
+        return emissionIntensity[plan];
+    }
+
+    public double getNationalMinCo2Price(int marketIndex) {
+        return nationalMinCo2Price[marketIndex];
+    }
+
+    public double getAmount(int plan) {
+        return amount[plan];
+    }
+
+    public double getCapacityLongTermContract(int plan) {
+        return capacityLongTermContract[plan];
+    }
+
+    public double getAcceptedAmount(int plan) {
+        return acceptedAmount[plan];
+    }
+
+    public int getStatus(int plan) {
+        return status[plan];
+    }
+
+    public double getSegmentPrice(int segmentIndex, int marketIndex) {
+        return segmentPrices[segmentIndex][marketIndex];
+    }
+
+    public double getSegmentSupply(int segmentIndex, int marketIndex) {
+        return segmentSupplies[segmentIndex][marketIndex];
+    }
+
+}
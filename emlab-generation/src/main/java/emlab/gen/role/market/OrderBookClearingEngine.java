@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.market;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import emlab.gen.domain.market.Bid;
+
+/**
+ * In-memory order book of the {@link Bid}s of one market for one tick. The offers and demand bids are loaded once into primitive arrays,
+ * sorted by price, after which the supply and demand at any price follow from prefix sums instead of a query over all bids. Bids are
+ * referred to by the index returned when they are added; the role that fills the order book writes the outcome back to the bids.
+ *
+ * The clearing follows the rules of {@link AbstractMarketRole#calculateClearingPoint}: the price and volume are where the cumulative supply
+ * meets the demand at the price of the offer, the bids are accepted in price order, and the bids at the marginal price are accepted
+ * partly, in proportion to their amount.
+ *
+ * @author <a href="mailto:E.J.L.Chappin@tudelft.nl">Emile Chappin</a>
+ *
+ */
+public class OrderBookClearingEngine {
+
+    // Per offer and per demand bid, in the order they were added
+    private final double[] offerPrice;
+    private final double[] offerAmount;
+    private final int[] offerStatus;
+    private final double[] offerAcceptedAmount;
+    private final double[] demandPrice;
+    private final double[] demandAmount;
+    private final int[] demandStatus;
+    private final double[] demandAcceptedAmount;
+    private int numberOfOffers;
+    private int numberOfDemandBids;
+
+    // Offers sorted by ascending and demand bids by descending price, with
+    // the amounts summed in that order; cumulative[k] is the amount of the
+    // first k bids.
+    private int[] offerOrder;
+    private double[] sortedOfferPrice;
+    private double[] cumulativeOfferAmount;
+    private int[] demandOrder;
+    private double[] sortedDemandPrice;
+    private double[] cumulativeDemandAmount;
+
+    private double clearingPrice;
+    private double clearingVolume;
+
+    public OrderBookClearingEngine(int numberOfOffers, int numberOfDemandBids) {
+        offerPrice = new double[numberOfOffers];
+        offerAmount = new double[numberOfOffers];
+        offerStatus = new int[numberOfOffers];
+        offerAcceptedAmount = new double[numberOfOffers];
+        demandPrice = new double[numberOfDemandBids];
+        demandAmount = new double[numberOfDemandBids];
+        demandStatus = new int[numberOfDemandBids];
+        demandAcceptedAmount = new double[numberOfDemandBids];
+    }
+
+    /**
+     * @return the index of the offer in this order book
+     */
+    public int addOffer(double price, double amount) {
+        int i = numberOfOffers++;
+        offerPrice[i] = price;
+        offerAmount[i] = amount;
+        offerStatus[i] = Bid.SUBMITTED;
+        offerOrder = null;
+        return i;
+    }
+
+    /**
+     * @return the index of the demand bid in this order book
+     */
+    public int addDemandBid(double price, double amount) {
+        int i = numberOfDemandBids++;
+        demandPrice[i] = price;
+        demandAmount[i] = amount;
+        demandStatus[i] = Bid.SUBMITTED;
+        demandOrder = null;
+        return i;
+    }
+
+    public double getTotalSupply() {
+        sort();
+        return cumulativeOfferAmount[numberOfOffers];
+    }
+
+    public double getTotalDemand() {
+        sort();
+        return cumulativeDemandAmount[numberOfDemandBids];
+    }
+
+    /**
+     * @return the price of the most expensive offer, 0 without offers
+     */
+    public double getMaximumSupplyPrice() {
+        sort();
+        return numberOfOffers == 0 ? 0d : sortedOfferPrice[numberOfOffers - 1];
+    }
+
+    /**
+     * @return the price of the cheapest offer, 0 without offers
+     */
+    public double getMinimumSupplyPrice() {
+        sort();
+        return numberOfOffers == 0 ? 0d : sortedOfferPrice[0];
+    }
+
+    /**
+     * @return the amount of the demand bids at or above the price
+     */
+    public double getDemandAtOrAbovePrice(double price) {
+        sort();
+        return cumulativeDemandAmount[countDemandBidsAtOrAbove(price)];
+    }
+
+    /**
+     * Clears the market and marks the accepted bids.
+     *
+     * @param auction
+     *            whether the market is an auction, in which all demand is bid regardless of price and the last accepted demand bid sets the
+     *            price
+     * @param shortagePrice
+     *            the price if the supply does not meet the demand, unless the market is an auction
+     * @param previousClearingPrice
+     *            the price of the previous tick, used if there is no demand at the price of the marginal offer
+     */
+    public void clear(boolean auction, double shortagePrice, double previousClearingPrice) {
+        sort();
+        double maximumSupplyPrice = getMaximumSupplyPrice();
+        double totalSupply = getTotalSupply();
+        double demandAtMaximumSupplyPrice = demandForPrice(auction, maximumSupplyPrice);
+
+        double price = 0d;
+        double volume = 0d;
+        if (demandAtMaximumSupplyPrice <= 0) {
+            price = getMinimumSupplyPrice();
+            volume = 0;
+        } else if (demandAtMaximumSupplyPrice > totalSupply) {
+            // Not enough to meet demand
+            volume = totalSupply;
+            price = auction ? getTotalDemand() : shortagePrice;
+        } else {
+            // Supply exceeds demand
+            double previousPrice = 0d;
+            for (int k = 0; k < numberOfOffers; k++) {
+                double offerPrice = sortedOfferPrice[k];
+                double totalOfferAmount = cumulativeOfferAmount[k];
+                double demand = demandForPrice(auction, offerPrice);
+                if (demand < cumulativeOfferAmount[k + 1]) {
+                    if (demand == 0) {
+                        price = previousClearingPrice;
+                        volume = totalOfferAmount;
+                    } else if (totalOfferAmount >= demand) {
+                        price = previousPrice;
+                        volume = totalOfferAmount;
+                    } else {
+                        price = offerPrice;
+                        volume = demand;
+                    }
+                    break;
+                }
+                previousPrice = offerPrice;
+            }
+        }
+        clearingPrice = Math.max(0, price);
+        clearingVolume = volume;
+
+        for (int i = 0; i < numberOfOffers; i++) {
+            offerStatus[i] = Bid.SUBMITTED;
+            offerAcceptedAmount[i] = 0d;
+        }
+        for (int i = 0; i < numberOfDemandBids; i++) {
+            demandStatus[i] = Bid.SUBMITTED;
+            demandAcceptedAmount[i] = 0d;
+        }
+
+        int acceptableDemandBids = auction ? numberOfDemandBids : countDemandBidsAtOrAbove(clearingPrice);
+        double lastAcceptedDemandPrice = markAcceptedBids(demandOrder, sortedDemandPrice, acceptableDemandBids, demandAmount,
+                demandStatus, demandAcceptedAmount, false);
+        if (auction) {
+            clearingPrice = Math.max(0, lastAcceptedDemandPrice);
+        }
+        markAcceptedBids(offerOrder, sortedOfferPrice, countOffersAtOrBelow(clearingPrice), offerAmount, offerStatus,
+                offerAcceptedAmount, true);
+    }
+
+    /**
+     * Accepts the first bids in price order until the clearing volume is reached. The bids at the price of the bid that reaches it are
+     * accepted partly.
+     *
+     * @return the price of the last bid accepted before the marginal price
+     */
+    private double markAcceptedBids(int[] order, double[] sortedPrice, int numberOfAcceptableBids, double[] amount, int[] status,
+            double[] acceptedAmount, boolean isSupply) {
+        double totalBidVolume = 0d;
+        double previousPrice = Double.NEGATIVE_INFINITY;
+        double acceptedSamePriceVolume = 0d;
+        for (int k = 0; k < numberOfAcceptableBids; k++) {
+            int i = order[k];
+            double price = sortedPrice[k];
+            totalBidVolume += amount[i];
+            acceptedSamePriceVolume = price == previousPrice ? acceptedSamePriceVolume + amount[i] : amount[i];
+            if (totalBidVolume < clearingVolume) {
+                status[i] = Bid.ACCEPTED;
+                acceptedAmount[i] = amount[i];
+            } else {
+                double lastAvailableBidSize = clearingVolume - (totalBidVolume - acceptedSamePriceVolume);
+                int from = k;
+                while (from > 0 && sortedPrice[from - 1] == price) {
+                    from--;
+                }
+                int to = k + 1;
+                while (to < sortedPrice.length && sortedPrice[to] == price) {
+                    to++;
+                }
+                // The demand is summed over all bids at or above the price.
+                double samePriceVolume = isSupply ? cumulativeOfferAmount[to] - cumulativeOfferAmount[from]
+                        : cumulativeDemandAmount[to];
+                double adjustRatio = lastAvailableBidSize / samePriceVolume;
+                for (int l = from; l < to; l++) {
+                    status[order[l]] = Bid.PARTLY_ACCEPTED;
+                    acceptedAmount[order[l]] = amount[order[l]] * adjustRatio;
+                }
+                break;
+            }
+            previousPrice = price;
+        }
+        return previousPrice;
+    }
+
+    private double demandForPrice(boolean auction, double price) {
+        return auction ? getTotalDemand() : getDemandAtOrAbovePrice(price);
+    }
+
+    private int countDemandBidsAtOrAbove(double price) {
+        int lo = 0;
+        int hi = numberOfDemandBids;
+        while (lo < hi) {
+            int middle = (lo + hi) >>> 1;
+            if (sortedDemandPrice[middle] >= price) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private int countOffersAtOrBelow(double price) {
+        int lo = 0;
+        int hi = numberOfOffers;
+        while (lo < hi) {
+            int middle = (lo + hi) >>> 1;
+            if (sortedOfferPrice[middle] <= price) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private void sort() {
+        if (offerOrder == null) {
+            offerOrder = sortedIndices(offerPrice, numberOfOffers, false);
+            sortedOfferPrice = new double[numberOfOffers];
+            cumulativeOfferAmount = new double[numberOfOffers + 1];
+            for (int k = 0; k < numberOfOffers; k++) {
+                sortedOfferPrice[k] = offerPrice[offerOrder[k]];
+                cumulativeOfferAmount[k + 1] = cumulativeOfferAmount[k] + offerAmount[offerOrder[k]];
+            }
+        }
+        if (demandOrder == null) {
+            demandOrder = sortedIndices(demandPrice, numberOfDemandBids, true);
+            sortedDemandPrice = new double[numberOfDemandBids];
+            cumulativeDemandAmount = new double[numberOfDemandBids + 1];
+            for (int k = 0; k < numberOfDemandBids; k++) {
+                sortedDemandPrice[k] = demandPrice[demandOrder[k]];
+                cumulativeDemandAmount[k + 1] = cumulativeDemandAmount[k] + demandAmount[demandOrder[k]];
+            }
+        }
+    }
+
+    private static int[] sortedIndices(final double[] price, int size, final boolean descending) {
+        Integer[] indices = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return descending ? Double.compare(price[b], price[a]) : Double.compare(price[a], price[b]);
+            }
+        });
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = indices[k];
+        }
+        return order;
+    }
+
+    public double getClearingPrice() {
+        return clearingPrice;
+    }
+
+    public double getClearingVolume() {
+        return clearingVolume;
+    }
+
+    public int getOfferStatus(int i) {
+        return offerStatus[i];
+    }
+
+    public double getOfferAcceptedAmount(int i) {
+        return offerAcceptedAmount[i];
+    }
+
+    public int getDemandBidStatus(int i) {
+        return demandStatus[i];
+    }
+
+    public double getDemandBidAcceptedAmount(int i) {
+        return demandAcceptedAmount[i];
+    }
+
+}
@@ -26,7 +26,6 @@ import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.CO2Auction;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.CommodityMarket;
 import emlab.gen.domain.market.DecarbonizationMarket;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
@@ -74,12 +73,12 @@ public class ProcessAcceptedBidsRole extends AbstractMarketRole<DecarbonizationM
 
         // Assuming only one price on this market for this time step and
         // iteration.
-        ClearingPoint clearingPoint = reps.clearingPointRepositoryOld.findClearingPointForMarketAndTime(market, getCurrentTick());
+        Double price = reps.priceHistoryRepository.findPriceForMarketAndTime(market, getCurrentTick());
 
         for (Bid bid : acceptedSupplyBids) {
             // if (bid.getStatus() >= Bid.PARTLY_ACCEPTED) {
             reps.nonTransactionalCreateRepository.createCashFlow(market, bid.getBidder(),
-                    bid.getAcceptedAmount() * clearingPoint.getPrice(), cashFlowType, getCurrentTick(), null);
+                    bid.getAcceptedAmount() * price, cashFlowType, getCurrentTick(), null);
             if (isCO2Traded) {
                 bid.getBidder().setCo2Allowances(bid.getBidder().getCo2Allowances() - bid.getAcceptedAmount());
             }
@@ -88,7 +87,7 @@ public class ProcessAcceptedBidsRole extends AbstractMarketRole<DecarbonizationM
         for (Bid bid : acceptedDemandBids) {
             // if (bid.getStatus() >= Bid.PARTLY_ACCEPTED) {
             reps.nonTransactionalCreateRepository.createCashFlow(bid.getBidder(), market,
-                    bid.getAcceptedAmount() * clearingPoint.getPrice(), cashFlowType, getCurrentTick(), null);
+                    bid.getAcceptedAmount() * price, cashFlowType, getCurrentTick(), null);
             if (isCO2Traded) {
                 bid.getBidder().setCo2Allowances(bid.getBidder().getCo2Allowances() + bid.getAcceptedAmount());
             }
@@ -24,7 +24,6 @@ import emlab.gen.domain.contract.CashFlow;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
 import emlab.gen.domain.market.electricity.Segment;
-import emlab.gen.domain.market.electricity.SegmentClearingPoint;
 import emlab.gen.repository.Reps;
 
 @RoleComponent
@@ -37,12 +36,11 @@ public class ProcessAcceptedPowerPlantDispatchRole extends AbstractMarketRole<El
     public void act(ElectricitySpotMarket esm) {
 
         for (Segment segment : reps.segmentRepository.findAll()) {
-            SegmentClearingPoint scp = reps.segmentClearingPointRepository.findOneSegmentClearingPointForMarketSegmentAndTime(
-                    getCurrentTick(), segment, esm);
+            Double price = reps.priceHistoryRepository.findPriceForMarketSegmentAndTime(esm, segment, getCurrentTick());
             for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository
                     .findAllAcceptedPowerPlantDispatchPlansForMarketSegmentAndTime(esm, segment, getCurrentTick())) {
 
-                reps.nonTransactionalCreateRepository.createCashFlow(esm, plan.getBidder(), plan.getAcceptedAmount() * scp.getPrice()
+                reps.nonTransactionalCreateRepository.createCashFlow(esm, plan.getBidder(), plan.getAcceptedAmount() * price
                         * segment.getLengthInHours(), CashFlow.ELECTRICITY_SPOT, getCurrentTick(), plan.getPowerPlant());
             }
 
@@ -53,8 +53,8 @@ public class ReceiveLongTermContractPowerRevenuesRole extends AbstractEnergyProd
 
         // Receive revenues for all long term contracts
         for (Segment segment : reps.genericRepository.findAll(Segment.class)) {
-            for (LongTermContract longTermContract : reps.contractRepository.findLongTermContractsForEnergyProducerForSegmentActiveAtTime(
-                    producer, segment, getCurrentTick())) {
+            for (LongTermContract longTermContract : reps.longTermContractCoverageRepository
+                    .findLongTermContractsForEnergyProducerForSegment(producer, segment, getCurrentTick())) {
 
                 // Update the price with pass through factors.
                 double basePrice = longTermContract.getCapacity() * longTermContract.getPricePerUnit() * segment.getLengthInHours();
@@ -37,7 +37,6 @@ import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
-import emlab.gen.domain.market.electricity.SegmentClearingPoint;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.repository.Reps;
 import emlab.gen.util.MapValueComparator;
@@ -138,13 +137,13 @@ public class SelectLongTermElectricityContractsRole extends
 				for (Segment s : offer.getLongTermContractType().getSegments()) {
 					hours += s.getLengthInHours();
 
-					SegmentClearingPoint point = (SegmentClearingPoint) reps.clearingPointRepositoryOld
-							.findClearingPointForSegmentAndTime(s,
+					Double price = reps.priceHistoryRepository
+							.findPriceForSegmentAndTime(s,
 									getCurrentTick() - 1);
-					weightedElectricitySpotPrices += point.getPrice()
+					weightedElectricitySpotPrices += price
 							* s.getLengthInHours();
-					logger.info("Found a clearing point {} for segment {}",
-							point, s);
+					logger.info("Found a clearing price {} for segment {}",
+							price, s);
 				}
 
 				double averageElectricityPrice = weightedElectricitySpotPrices
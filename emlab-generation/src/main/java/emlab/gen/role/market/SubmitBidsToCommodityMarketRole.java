@@ -50,7 +50,7 @@ public class SubmitBidsToCommodityMarketRole extends AbstractEnergyProducerRole
 
         HashMap<Substance, Double> fuelAmounts = new HashMap<Substance, Double>();
 
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
 
             double totalSupply = plant.calculateElectricityOutputAtTime(getCurrentTick());
 
@@ -28,7 +28,6 @@ import emlab.gen.domain.gis.Zone;
 import emlab.gen.domain.market.Bid;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
-import emlab.gen.domain.market.electricity.SegmentClearingPoint;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.repository.Reps;
@@ -182,13 +181,13 @@ public class SubmitLongTermElectricityContractsRole extends
 			for (Segment s : type.getSegments()) {
 
 				// Try to find a price for this year
-				SegmentClearingPoint point = (SegmentClearingPoint) reps.clearingPointRepositoryOld
-						.findClearingPointForSegmentAndTime(s,
+				Double price = reps.priceHistoryRepository
+						.findPriceForSegmentAndTime(s,
 								getCurrentTick() + i);
 				
 				// If there is a price, add it multiplied to the number of hours to the total. 
-				if(point != null){
-					weightedElectricitySpotPrices += point.getPrice()
+				if(price != null){
+					weightedElectricitySpotPrices += price
 							* s.getLengthInHours();
 				} else {
 					// Otherwise, no valid price is found for this year
@@ -15,7 +15,9 @@
  ******************************************************************************/
 package emlab.gen.role.market;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -34,6 +36,8 @@ import emlab.gen.domain.market.electricity.SegmentLoad;
 import emlab.gen.domain.technology.PowerPlant;
 import emlab.gen.domain.technology.Substance;
 import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.repository.BatchPowerPlantDispatchPlanRepository;
+import emlab.gen.repository.BatchPowerPlantDispatchPlanRepository.DispatchPlanOffer;
 import emlab.gen.repository.Reps;
 import emlab.gen.role.AbstractEnergyProducerRole;
 
@@ -52,12 +56,59 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
     @Override
     @Transactional
     public void act(EnergyProducer producer) {
+        Map<String, PowerPlantDispatchPlan> existingPlans = reps.batchPowerPlantDispatchPlanRepository
+                .findAllPowerPlantDispatchPlansForTimeByPowerPlantAndSegment(getCurrentTick());
+        reps.batchPowerPlantDispatchPlanRepository.createOrUpdatePowerPlantDispatchPlans(determineOffers(producer, existingPlans),
+                getCurrentTick());
+    }
+
+    /**
+     * Submits the offers of all producers for this tick. The offers are determined in memory first, with one lookup of the plans that
+     * already exist for this tick, and are then written in batches. This method is deliberately not transactional, so that each batch is
+     * committed in a transaction of its own.
+     * 
+     * @param producers
+     *            the producers, in the order in which they submit
+     * @param batchSize
+     *            the number of dispatch plans written per transaction; 0 or less writes all plans in one transaction
+     */
+    public void submitOffersOfAllProducers(Iterable<EnergyProducer> producers, int batchSize) {
+        Map<String, PowerPlantDispatchPlan> existingPlans = reps.batchPowerPlantDispatchPlanRepository
+                .findAllPowerPlantDispatchPlansForTimeByPowerPlantAndSegment(getCurrentTick());
+
+        List<DispatchPlanOffer> offers = new ArrayList<DispatchPlanOffer>();
+        for (EnergyProducer producer : producers) {
+            offers.addAll(determineOffers(producer, existingPlans));
+        }
+
+        if (batchSize <= 0) {
+            batchSize = offers.size();
+        }
+        for (int from = 0; from < offers.size(); from += batchSize) {
+            reps.batchPowerPlantDispatchPlanRepository.createOrUpdatePowerPlantDispatchPlans(
+                    offers.subList(from, Math.min(from + batchSize, offers.size())), getCurrentTick());
+        }
+        logger.info("Submitted {} offers to the electricity spot market", offers.size());
+    }
 
+    /**
+     * Determines the offers of one producer for all segments, without writing anything.
+     * 
+     * @param producer
+     *            the producer
+     * @param existingPlans
+     *            the dispatch plans that already exist for this tick, as found by the
+     *            {@link emlab.gen.repository.BatchPowerPlantDispatchPlanRepository}
+     * @return an offer per operational power plant and segment
+     */
+    List<DispatchPlanOffer> determineOffers(EnergyProducer producer, Map<String, PowerPlantDispatchPlan> existingPlans) {
+
+        List<DispatchPlanOffer> offers = new ArrayList<DispatchPlanOffer>();
         long numberOfSegments = reps.segmentRepository.count();
         ElectricitySpotMarket market = producer.getInvestorMarket();
 
         // find all my operating power plants
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
 
             // get market for the plant by zone
             // ElectricitySpotMarket market =
@@ -74,38 +125,21 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
                 double capacity = plant.getAvailableCapacity(getCurrentTick(), segment, numberOfSegments);
                 logger.info("I bid capacity: {} and price: {}", capacity, mc);
 
-                PowerPlantDispatchPlan plan = reps.powerPlantDispatchPlanRepository
-                        .findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant, segment, getCurrentTick());
-                // TODO: handle exception
-
-                // plan =
-                // reps.powerPlantDispatchPlanRepository.findOnePowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant,
-                // segment,
-                // getCurrentTick());
-                // Iterable<PowerPlantDispatchPlan> plans =
-                // reps.powerPlantDispatchPlanRepository
-                // .findAllPowerPlantDispatchPlanForPowerPlantForSegmentForTime(plant,
-                // segment, getCurrentTick());
+                PowerPlantDispatchPlan plan = existingPlans.get(BatchPowerPlantDispatchPlanRepository.key(plant, segment));
 
+                DispatchPlanOffer offer;
                 if (plan == null) {
-                    plan = new PowerPlantDispatchPlan().persist();
                     // plan.specifyNotPersist(plant, producer, market, segment, time, price, bidWithoutCO2, spotMarketCapacity, longTermContractCapacity, status);
-                    plan.specifyNotPersist(plant, producer, market, segment, getCurrentTick(), price, price, capacity, 0, Bid.SUBMITTED);
+                    offer = new DispatchPlanOffer(plant, producer, market, segment, price, price, capacity);
                 } else {
-                    // plan = plans.iterator().next();
-                    plan.setBidder(producer);
-                    plan.setBiddingMarket(market);
-                    plan.setPrice(mc);
-                    plan.setBidWithoutCO2(mc);
-                    plan.setAmount(capacity);
-                    plan.setCapacityLongTermContract(0d);
-                    plan.setStatus(Bid.SUBMITTED);
+                    offer = new DispatchPlanOffer(plant, producer, market, segment, mc, mc, capacity);
+                    offer.existingPlan = plan;
                 }
-
-                logger.info("Submitted {} for iteration {} to electricity spot market", plan);
+                offers.add(offer);
 
             }
         }
+        return offers;
     }
 
     @Transactional
@@ -115,7 +149,7 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
         int j = 0;
 
         Government government = reps.template.findAll(Government.class).iterator().next();
-        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
+        for (PowerPlantDispatchPlan plan : reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
             j++;
 
             double capacity = plan.getAmount();
@@ -156,4 +190,26 @@ public class SubmitOffersToElectricitySpotMarketRole extends AbstractEnergyProdu
 
     }
 
+    /**
+     * Recalculates the fuel mix of a power plant that can use several fuels, for the CO2 price (incl. tax) given. Only the power plant is
+     * updated, the dispatch plans are left to the caller.
+     *
+     * @param plant
+     *            the multi-fuel power plant
+     * @param fuelPriceMap
+     *            prices of (at least) all fuels of the plant's technology
+     * @param co2PriceInclTax
+     *            the CO2 price used to determine the fuel mix
+     * @return the marginal cost excluding CO2 market cost with the new fuel mix
+     */
+    @Transactional
+    double updateFuelMixAndDetermineMarginalCostExclCO2(PowerPlant plant, Map<Substance, Double> fuelPriceMap, double co2PriceInclTax) {
+        Map<Substance, Double> substancePriceMap = new HashMap<Substance, Double>();
+        for (Substance substance : plant.getTechnology().getFuels()) {
+            substancePriceMap.put(substance, fuelPriceMap.get(substance));
+        }
+        plant.setFuelMix(calculateFuelMix(plant, substancePriceMap, co2PriceInclTax));
+        return calculateMarginalCostExclCO2MarketCost(plant);
+    }
+
 }
@@ -77,7 +77,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
         // double co2TaxLevel = government.getCO2Tax(getCurrentTick());
         // logger.warn("Expected CO2 price: " + expectedCO2Prices.toString());
 
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsWithFuelsGreaterZeroByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsWithFuelsGreaterZeroByOwner(producer, getCurrentTick())) {
             logger.info("Found operational power plant {} ", plant.getTechnology());
 
             // Fuels
@@ -102,7 +102,7 @@ public class DetermineFuelMixRole extends AbstractEnergyProducerRole implements
         int i = 0;
         int j = 0;
 
-        for (PowerPlantDispatchPlan plan : reps.powerPlantDispatchPlanRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
+        for (PowerPlantDispatchPlan plan : reps.timeIndexRepository.findAllPowerPlantDispatchPlansForTime(getCurrentTick())) {
             j++;
 
             if (plan.getPowerPlant().getTechnology().getFuels().size() > 1) {
@@ -49,7 +49,7 @@ public class PayCO2AuctionRole extends AbstractEnergyProducerRole implements Rol
 
         Government government = reps.genericRepository.findFirst(Government.class);
 
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             double money = calculateCO2MarketCost(plant);
             CashFlow cf = reps.nonTransactionalCreateRepository.createCashFlow(producer, government, money, CashFlow.CO2AUCTION,
                     getCurrentTick(), plant);
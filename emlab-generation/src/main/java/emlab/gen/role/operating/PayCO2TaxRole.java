@@ -50,7 +50,7 @@ public class PayCO2TaxRole extends AbstractEnergyProducerRole implements Role<En
 
         Government government = reps.genericRepository.findFirst(Government.class);
 
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             double money = calculateCO2Tax(plant);
             CashFlow cf = reps.nonTransactionalCreateRepository.createCashFlow(producer, government, money, CashFlow.CO2TAX, getCurrentTick(), plant);
             logger.info("Cash flow created: {}", cf);
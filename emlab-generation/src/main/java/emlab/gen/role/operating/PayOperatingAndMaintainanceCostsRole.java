@@ -51,7 +51,7 @@ public class PayOperatingAndMaintainanceCostsRole extends AbstractEnergyProducer
 
         PowerPlantMaintainer maintainer = reps.genericRepository.findFirst(PowerPlantMaintainer.class);
         int i = 0;
-        for (PowerPlant plant : reps.powerPlantRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlantsByOwner(producer, getCurrentTick())) {
             i++;
 			double money = plant.getActualFixedOperatingCost();
             // TODO calculate actual based on modifier.
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role.operating;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+import agentspring.role.Role;
+import agentspring.role.RoleComponent;
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.agent.DecarbonizationModel;
+import emlab.gen.domain.agent.EnergyProducer;
+import emlab.gen.domain.agent.Government;
+import emlab.gen.domain.agent.NationalGovernment;
+import emlab.gen.domain.agent.PowerPlantMaintainer;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.contract.Loan;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.repository.Reps;
+import emlab.gen.role.AbstractEnergyProducerRole;
+import emlab.gen.util.Settlement;
+import emlab.gen.util.Settlement.Payment;
+
+/**
+ * Settles the payments of {@link EnergyProducer}s for their power plants in one pass, instead of one pass per type of payment as the
+ * {@link PayOperatingAndMaintainanceCostsRole}, {@link PayCO2TaxRole}, {@link PayCO2AuctionRole} and {@link PayForLoansRole} do. The
+ * obligations of all plants are netted per payer, payee and type in a {@link Settlement}, and the cash of every agent is changed once.
+ * The cash flows are written either one per plant and type, as the other roles do, or aggregated, one per payer, payee and type.
+ *
+ * @author ejlchappin
+ */
+@RoleComponent
+public class SettlePaymentsRole extends AbstractEnergyProducerRole implements Role<EnergyProducer> {
+
+    @Autowired
+    Reps reps;
+
+    /**
+     * Settles the operating payments of one producer, as set in the {@link DecarbonizationModel}.
+     */
+    @Override
+    @Transactional
+    public void act(EnergyProducer producer) {
+        DecarbonizationModel model = reps.genericRepository.findFirst(DecarbonizationModel.class);
+        settleOperatingPayments(Collections.singleton(producer), model.isCo2TradingImplemented(), model.isAggregatedCashFlowsEnabled());
+    }
+
+    /**
+     * Settles the fixed operating and maintenance costs, the CO2 tax and, with CO2 trading, the CO2 auction and national minimum CO2
+     * price payments of all operational plants of the producers.
+     *
+     * @param co2TradingImplemented
+     *            whether the CO2 auction and national minimum CO2 prices are paid
+     * @param aggregated
+     *            whether to write one cash flow per payer, payee and type instead of one per plant and type
+     */
+    @Transactional
+    public void settleOperatingPayments(Iterable<EnergyProducer> producers, boolean co2TradingImplemented, boolean aggregated) {
+        Set<EnergyProducer> payers = asSet(producers);
+        PowerPlantMaintainer maintainer = reps.genericRepository.findFirst(PowerPlantMaintainer.class);
+        Government government = reps.genericRepository.findFirst(Government.class);
+        double co2Tax = government.getCO2Tax(getCurrentTick());
+        double co2Price = 0d;
+        if (co2TradingImplemented) {
+            co2Price = findLastKnownPriceOnMarket(reps.genericRepository.findFirst(CO2Auction.class));
+        }
+        Map<Long, NationalGovernment> nationalGovernments = new HashMap<Long, NationalGovernment>();
+
+        Settlement<DecarbonizationAgent> settlement = new Settlement<DecarbonizationAgent>();
+        for (PowerPlant plant : reps.powerPlantLifecycleRepository.findOperationalPowerPlants(getCurrentTick())) {
+            EnergyProducer producer = plant.getOwner();
+            if (!payers.contains(producer)) {
+                continue;
+            }
+            double emissions = plant.calculateCO2EmissionsAtTime(getCurrentTick());
+            pay(settlement, producer, maintainer, CashFlow.FIXEDOMCOST, plant.getActualFixedOperatingCost(), plant, aggregated);
+            pay(settlement, producer, government, CashFlow.CO2TAX, emissions * co2Tax, plant, aggregated);
+            if (co2TradingImplemented) {
+                pay(settlement, producer, government, CashFlow.CO2AUCTION, emissions * co2Price, plant, aggregated);
+                Long location = plant.getLocation().getNodeId();
+                NationalGovernment nationalGovernment = nationalGovernments.get(location);
+                if (nationalGovernment == null) {
+                    nationalGovernment = reps.nationalGovernmentRepository.findNationalGovernmentByPowerPlant(plant);
+                    nationalGovernments.put(location, nationalGovernment);
+                }
+                double nationalMinCo2Price = nationalGovernment.getMinNationalCo2PriceTrend().getValue(getCurrentTick());
+                double paymentEffectivePartOfNationalCO2 = nationalMinCo2Price > co2Price ? nationalMinCo2Price - co2Price : 0d;
+                pay(settlement, producer, nationalGovernment, CashFlow.NATIONALMINCO2, emissions * paymentEffectivePartOfNationalCO2, plant,
+                        aggregated);
+            }
+        }
+        apply(settlement, aggregated);
+    }
+
+    /**
+     * Settles the payments for the loans and downpayments of all plants of the producers, and counts the payments on the loans.
+     *
+     * @param aggregated
+     *            whether to write one cash flow per payer, payee and type instead of one per plant and type
+     */
+    @Transactional
+    public void settleLoans(Iterable<EnergyProducer> producers, boolean aggregated) {
+        Set<EnergyProducer> payers = asSet(producers);
+        Settlement<DecarbonizationAgent> settlement = new Settlement<DecarbonizationAgent>();
+        for (PowerPlant plant : reps.powerPlantRepository.findAll()) {
+            EnergyProducer producer = plant.getOwner();
+            if (!payers.contains(producer)) {
+                continue;
+            }
+            payInstallment(settlement, producer, plant.getLoan(), CashFlow.LOAN, aggregated);
+            payInstallment(settlement, producer, plant.getDownpayment(), CashFlow.DOWNPAYMENT, aggregated);
+        }
+        apply(settlement, aggregated);
+    }
+
+    private void payInstallment(Settlement<DecarbonizationAgent> settlement, EnergyProducer producer, Loan loan, int type,
+            boolean aggregated) {
+        if (loan == null || loan.getNumberOfPaymentsDone() >= loan.getTotalNumberOfPayments()) {
+            return;
+        }
+        pay(settlement, producer, loan.getTo(), type, loan.getAmountPerPayment(), loan.getRegardingPowerPlant(), aggregated);
+        loan.setNumberOfPaymentsDone(loan.getNumberOfPaymentsDone() + 1);
+    }
+
+    private void pay(Settlement<DecarbonizationAgent> settlement, DecarbonizationAgent from, DecarbonizationAgent to, int type,
+            double money, PowerPlant plant, boolean aggregated) {
+        settlement.add(from, to, type, money);
+        if (!aggregated) {
+            reps.nonTransactionalCreateRepository.recordCashFlow(from, to, money, type, getCurrentTick(), plant);
+        }
+    }
+
+    private void apply(Settlement<DecarbonizationAgent> settlement, boolean aggregated) {
+        if (aggregated) {
+            for (Payment<DecarbonizationAgent> payment : settlement.getPayments()) {
+                reps.nonTransactionalCreateRepository.recordCashFlow(payment.from, payment.to, payment.money, payment.type,
+                        getCurrentTick(), null);
+            }
+        }
+        for (Map.Entry<DecarbonizationAgent, Double> change : settlement.getCashChanges().entrySet()) {
+            DecarbonizationAgent agent = change.getKey();
+            agent.setCash(agent.getCash() + change.getValue());
+        }
+        logger.info("Settled {} obligations in {} payments", settlement.getNumberOfObligations(), settlement.getPayments().size());
+    }
+
+    private Set<EnergyProducer> asSet(Iterable<EnergyProducer> producers) {
+        Set<EnergyProducer> set = new HashSet<EnergyProducer>();
+        for (EnergyProducer producer : producers) {
+            set.add(producer);
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact binary format for long time series, such as hourly load and renewable profiles: a header of four little-endian ints (the
+ * magic number, the version, the number of values and a reserved int) followed by the values as little-endian doubles. A file is read
+ * by memory-mapping it, once, and all time series that refer to the same file share the mapped buffer without copying it. Resources that
+ * are not plain files, such as entries of a jar, are read once into a direct buffer instead.
+ *
+ * Run {@link #main(String[])} to convert an existing CSV file, with one or more values per line separated by commas.
+ *
+ * @author JCRichstein
+ *
+ */
+public class BinaryTimeSeriesFile {
+
+    public static final String EXTENSION = ".bin";
+
+    static final int MAGIC = 0x53544d45;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+
+    private static final Map<String, DoubleBuffer> buffers = new HashMap<String, DoubleBuffer>();
+
+    private BinaryTimeSeriesFile() {
+    }
+
+    public static boolean isBinary(String filename) {
+        return filename != null && filename.endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads the time series of a resource on the class path. The buffer is shared with all other readers of the resource, so it is read
+     * only; each reader gets its own position.
+     */
+    public static DoubleBuffer read(String resource) throws IOException {
+        synchronized (buffers) {
+            DoubleBuffer buffer = buffers.get(resource);
+            if (buffer == null) {
+                buffer = load(resource);
+                buffers.put(resource, buffer);
+            }
+            return buffer.duplicate();
+        }
+    }
+
+    public static double[] toArray(DoubleBuffer buffer) {
+        double[] values = new double[buffer.remaining()];
+        buffer.duplicate().get(values);
+        return values;
+    }
+
+    private static DoubleBuffer load(String resource) throws IOException {
+        URL url = BinaryTimeSeriesFile.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("Resource not found: " + resource);
+        }
+        ByteBuffer bytes;
+        if ("file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid resource location: " + url);
+            }
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                // the mapping stays valid after the channel is closed
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                randomAccessFile.close();
+            }
+        } else {
+            InputStream inputStream = url.openStream();
+            try {
+                byte[] content = readFully(inputStream);
+                bytes = ByteBuffer.allocateDirect(content.length);
+                bytes.put(content);
+                bytes.flip();
+            } finally {
+                inputStream.close();
+            }
+        }
+        return toDoubleBuffer(bytes, resource);
+    }
+
+    static DoubleBuffer toDoubleBuffer(ByteBuffer bytes, String name) throws IOException {
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.remaining() < HEADER_LENGTH || bytes.getInt(0) != MAGIC) {
+            throw new IOException(name + " is not a binary time series");
+        }
+        if (bytes.getInt(4) != VERSION) {
+            throw new IOException(name + " has unknown version " + bytes.getInt(4));
+        }
+        int length = bytes.getInt(8);
+        if (bytes.remaining() < HEADER_LENGTH + 8L * length) {
+            throw new IOException(name + " is shorter than its " + length + " values");
+        }
+        bytes.position(HEADER_LENGTH);
+        bytes.limit(HEADER_LENGTH + 8 * length);
+        return bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().asReadOnlyBuffer();
+    }
+
+    static ByteBuffer toByteBuffer(double[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_LENGTH + 8 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(MAGIC).putInt(VERSION).putInt(values.length).putInt(0);
+        for (double value : values) {
+            bytes.putDouble(value);
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    public static void write(File file, double[] values) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            ByteBuffer bytes = toByteBuffer(values);
+            FileChannel channel = outputStream.getChannel();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Parses the values of a CSV file, with one or more values per line separated by commas, line by line.
+     */
+    public static double[] parseCsv(Reader reader) throws IOException {
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        double[] values = new double[8760];
+        int length = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            for (String value : line.split(",")) {
+                value = value.trim();
+                if (value.length() == 0) {
+                    continue;
+                }
+                if (length == values.length) {
+                    double[] larger = new double[values.length * 2];
+                    System.arraycopy(values, 0, larger, 0, length);
+                    values = larger;
+                }
+                values[length++] = Double.parseDouble(value);
+            }
+        }
+        double[] result = new double[length];
+        System.arraycopy(values, 0, result, 0, length);
+        return result;
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] chunk = new byte[65536];
+        int n;
+        while ((n = inputStream.read(chunk)) > 0) {
+            outputStream.write(chunk, 0, n);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Converts a CSV file to the binary format.
+     *
+     * @param args
+     *            the CSV file and, optionally, the binary file; by default the CSV file with the extension {@value #EXTENSION}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BinaryTimeSeriesFile <csv file> [<binary file>]");
+            System.exit(1);
+        }
+        File csvFile = new File(args[0]);
+        File binaryFile = new File(args.length > 1 ? args[1] : args[0].replaceFirst("\\.csv$", "") + EXTENSION);
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(csvFile));
+        double[] values;
+        try {
+            values = parseCsv(reader);
+        } finally {
+            reader.close();
+        }
+        write(binaryFile, values);
+        System.out.println("Wrote " + values.length + " values to " + binaryFile);
+    }
+
+}
@@ -15,15 +15,20 @@
  ******************************************************************************/
 package emlab.gen.trend;
 
-import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.nio.DoubleBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
+ * An hourly time series read from a CSV file, or from a {@link BinaryTimeSeriesFile} if the file name ends with
+ * {@value BinaryTimeSeriesFile#EXTENSION}. The values of a binary file are not stored in the graph; they are read from the memory-mapped
+ * file, which is shared by all time series that refer to it.
+ *
  * @author J.C. Richstein
  * 
  */
@@ -36,29 +41,32 @@ public class HourlyCSVTimeSeries implements HourlyTimeSeries {
 
     private double[] hourlyArray;
 
+    @Transient
+    private DoubleBuffer hourlyBuffer;
+
     @Transactional
     private void readData() {
 
         this.persist();
         logger.warn("Trying to read CSV file: " + filename);
 
-        String data = new String();
-
-        // Save the data in a long String
         try {
+            if (BinaryTimeSeriesFile.isBinary(filename)) {
+                DoubleBuffer buffer = BinaryTimeSeriesFile.read(filename);
+                checkLength(buffer.remaining());
+                hourlyBuffer = buffer;
+                return;
+            }
 
             InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(filename));
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String line;
-
-            while ((line = bufferedReader.readLine()) != null) {
-                data = data.concat(line + ",");
+            double[] values;
+            try {
+                values = BinaryTimeSeriesFile.parseCsv(inputStreamReader);
+            } finally {
+                inputStreamReader.close();
             }
-            bufferedReader.close();
-
-            String[] vals = data.split(",");
-            setHourlyArray(parseString(vals), 0);
+            checkLength(values.length);
+            setHourlyArray(values, 0);
 
         } catch (Exception e) {
             logger.error("Couldn't read CSV file: " + filename);
@@ -75,35 +83,35 @@ public class HourlyCSVTimeSeries implements HourlyTimeSeries {
      * @return
      */
     public double[] getHourlyArray(long time) {
-        if (hourlyArray != null)
-            try {
-                return hourlyArray;
-            } catch (Exception e) {
-                logger.error("CSV File has wrong length (!= 8760 hours");
-                e.printStackTrace();
-            }
-        else {
+        if (hourlyArray == null && hourlyBuffer == null) {
             readData();
-            return hourlyArray;
         }
-        return null;
+        if (hourlyBuffer != null) {
+            return BinaryTimeSeriesFile.toArray(hourlyBuffer);
+        }
+        return hourlyArray;
+    }
 
+    /**
+     * The value of one hour, read without copying the time series.
+     */
+    public double getHourlyValue(long time, int hour) {
+        if (hourlyArray == null && hourlyBuffer == null) {
+            readData();
+        }
+        if (hourlyBuffer != null) {
+            return hourlyBuffer.get(hour);
+        }
+        return hourlyArray[hour];
     }
 
     public void setHourlyArray(double[] hourlyArray, long time) {
         this.hourlyArray = hourlyArray;
     }
 
-    private double[] parseString(String[] vals) throws Exception {
-
-        if (vals.length == 8760) {
-            double[] doubleArrayData = new double[vals.length];
-            for (int i = 0; i <= vals.length - 1; i++) {
-                doubleArrayData[i] = Double.parseDouble(vals[i]);
-            }
-            return doubleArrayData;
-        } else {
-            throw new Exception();
+    private void checkLength(int length) throws Exception {
+        if (length != 8760) {
+            throw new Exception("CSV File has wrong length (!= 8760 hours)");
         }
     }
 
@@ -17,7 +17,8 @@ import org.springframework.transaction.annotation.Transactional;
  * variable names.
  * 
  * Alternatively, if no {@link variableName} is given, it reads a CSV file with
- * a single column, in which each row contains a single value.
+ * a single column, in which each row contains a single value, or a
+ * {@link BinaryTimeSeriesFile}.
  * 
  * @author JCRichstein
  * 
@@ -37,28 +38,17 @@ public class TimeSeriesCSVReader extends TimeSeriesImpl {
 
 		logger.warn("Trying to read single column CSV file: " + filename);
 
-		String data = new String();
-
-        // Save the data in a long String
         try {
-
-            InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(filename));
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
-
-            String line;
-			int lineCounter = 0;
-            while ((line = bufferedReader.readLine()) != null) {
-                data = data.concat(line + ",");
-				lineCounter++;
+            if (BinaryTimeSeriesFile.isBinary(filename)) {
+                setTimeSeries(BinaryTimeSeriesFile.toArray(BinaryTimeSeriesFile.read(filename)));
+            } else {
+                InputStreamReader inputStreamReader = new InputStreamReader(this.getClass().getResourceAsStream(filename));
+                try {
+                    setTimeSeries(BinaryTimeSeriesFile.parseCsv(inputStreamReader));
+                } finally {
+                    inputStreamReader.close();
+                }
             }
-            bufferedReader.close();
-			double[] timeSeries = new double[lineCounter];
-			int i = 0;
-			for (String s : data.split("[,]")) {
-				timeSeries[i] = Double.parseDouble(s);
-				i++;
-			}
-			setTimeSeries(timeSeries);
 
         } catch (Exception e) {
             logger.error("Couldn't read CSV file: " + filename);
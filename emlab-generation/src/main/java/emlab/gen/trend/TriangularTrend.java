@@ -15,8 +15,11 @@
  ******************************************************************************/
 package emlab.gen.trend;
 
+import java.util.Arrays;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -39,44 +42,57 @@ public class TriangularTrend extends TimeSeriesImpl implements Trend {
     @SimulationParameter(label = "Expected growth factor per time step")
     private double top;
 
-    private String previousValues;
+    /**
+     * The values generated so far, index is the tick. Stored as an array property and only written when new values are generated.
+     */
+    private double[] previousValues;
     private double start;
 
+    /**
+     * In-memory copy of the values, with spare capacity so that it can grow without copying on every new tick.
+     */
+    @Transient
+    private double[] values;
+
+    @Transient
+    private int numberOfValues;
+
 	@Override
     @Transactional
     public double getValue(long time) {
 
         int timeToCheck = (int) time;
-        // If previous values not existing, make it and put starting value in.
-        if (previousValues == null) {
-            // Empty
-            previousValues = "";
-            previousValues += getStart();
-            this.persist();
-        }
-
-        // Map existing
-        String[] vals = previousValues.split(",");
-        int lastFilled = vals.length - 1;
-        double[] values = null;
-
-        // Check what is bigger: what we already have or what we have to
-        // generate?
-        if (timeToCheck < lastFilled) {
-            values = new double[lastFilled + 1];
-        } else {
-            values = new double[timeToCheck + 1];
+        if (values == null) {
+            double[] storedValues = previousValues;
+            // If previous values not existing, make it and put starting value in.
+            if (storedValues == null || storedValues.length == 0) {
+                values = new double[Math.max(16, timeToCheck + 1)];
+                values[0] = getStart();
+                numberOfValues = 1;
+                previousValues = Arrays.copyOf(values, numberOfValues);
+                this.persist();
+            } else {
+                numberOfValues = storedValues.length;
+                values = Arrays.copyOf(storedValues, Math.max(2 * numberOfValues, timeToCheck + 1));
+            }
         }
 
-        for (int i = 0; i <= lastFilled; i++) {
-            values[i] = Double.parseDouble(vals[i]);
+        // Another instance of this trend may have generated values since
+        // they were read.
+        if (timeToCheck >= numberOfValues && previousValues.length > numberOfValues) {
+            double[] storedValues = previousValues;
+            numberOfValues = storedValues.length;
+            values = Arrays.copyOf(storedValues, Math.max(2 * numberOfValues, timeToCheck + 1));
         }
 
         // If value is not already existing
-        if (timeToCheck >= lastFilled) {
+        if (timeToCheck >= numberOfValues) {
+            if (timeToCheck >= values.length) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, timeToCheck + 1));
+            }
 
             // Add new values
-            for (int i = lastFilled + 1; i <= timeToCheck; i++) {
+            for (int i = numberOfValues; i <= timeToCheck; i++) {
                 double lastValue = 0;
                 // don't try for element -1...
                 if (i > 0) {
@@ -91,8 +107,9 @@ public class TriangularTrend extends TimeSeriesImpl implements Trend {
                 }
                 double newValue = lastValue * translatedValue;
                 values[i] = newValue;
-                previousValues += "," + newValue;
             }
+            numberOfValues = timeToCheck + 1;
+            previousValues = Arrays.copyOf(values, numberOfValues);
             this.persist();
         }
         return values[timeToCheck];
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+/**
+ * Discounting of equal yearly cash flows, such as the down payments during the construction of a power plant and the operating profit
+ * during its depreciation time. Year 0 is not discounted. An instance keeps a table of the cumulative discount factors for one rate up to a
+ * horizon, so that the present value of any series of equal cash flows within the horizon takes two lookups. The table is filled when the
+ * instance is created and never changed, so an instance can be shared between threads.
+ *
+ * @author ejlchappin
+ *
+ */
+public class DiscountFactors {
+
+    private final double rate;
+
+    // cumulative[n] is the sum of the discount factors of years 0 to n - 1
+    private final double[] cumulative;
+
+    /**
+     * @param rate
+     *            the discount rate, such as a weighted average cost of capital
+     * @param horizon
+     *            the number of years for which the factors are kept
+     */
+    public DiscountFactors(double rate, int horizon) {
+        this.rate = rate;
+        cumulative = new double[Math.max(0, horizon) + 1];
+        double factor = 1d;
+        for (int i = 0; i < horizon; i++) {
+            cumulative[i + 1] = cumulative[i] + factor;
+            factor /= 1 + rate;
+        }
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getHorizon() {
+        return cumulative.length - 1;
+    }
+
+    /**
+     * @return the present value of an equal cash flow in each year from (inclusive) to (exclusive)
+     */
+    public double presentValue(double cashFlow, int from, int to) {
+        if (to <= from) {
+            return 0d;
+        }
+        if (from < 0 || to >= cumulative.length) {
+            return presentValue(cashFlow, from, to, rate);
+        }
+        return cashFlow * (cumulative[to] - cumulative[from]);
+    }
+
+    /**
+     * The present value of an equal cash flow in each year from (inclusive) to (exclusive), as the sum of a geometric series.
+     */
+    public static double presentValue(double cashFlow, int from, int to, double rate) {
+        if (to <= from) {
+            return 0d;
+        }
+        if (rate == 0) {
+            return cashFlow * (to - from);
+        }
+        double v = 1 / (1 + rate);
+        return cashFlow * Math.pow(v, from) * (1 - Math.pow(v, to - from)) / (1 - v);
+    }
+
+    /**
+     * The equal yearly payment that pays back a loan with interest.
+     *
+     * @param totalLoan
+     *            the amount borrowed
+     * @param payBackTime
+     *            the number of yearly payments
+     * @param interestRate
+     *            the interest rate
+     * @return the yearly payment
+     */
+    public static double loanAnnuity(double totalLoan, double payBackTime, double interestRate) {
+        if (interestRate == 0) {
+            return totalLoan / payBackTime;
+        }
+        double q = 1 + interestRate;
+        double qn = Math.pow(q, payBackTime);
+        return totalLoan * (qn * (q - 1)) / (qn - 1);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solves the fuel mix problem of a power plant: minimise the fuel and CO2 cost, given that the fuels deliver the required energy input
+ * (equality) and that the mix meets the minimum fuel quality (inequality), with non-negative amounts of fuel. With only these two
+ * constraints an optimal solution uses at most two fuels, so instead of a simplex it is enough to compare all single fuels that meet the
+ * quality and all pairs of a fuel above and a fuel below the minimum quality that are mixed to exactly the minimum quality.
+ *
+ * @author ejlchappin
+ *
+ */
+public class FuelMixSolver {
+
+    private static final int MAXIMUM_NUMBER_OF_SOLUTIONS = 10000;
+
+    private static final double[] NO_SOLUTION = new double[0];
+
+    /**
+     * Solutions by technology, efficiency, CO2 price and fuel prices, shared by all roles. The least recently used solution is dropped
+     * when the cache is full.
+     */
+    private static final Map<String, double[]> solutions = Collections.synchronizedMap(new LinkedHashMap<String, double[]>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+            return size() > MAXIMUM_NUMBER_OF_SOLUTIONS;
+        }
+    });
+
+    /**
+     * Like {@link #solve(double[], double[], double[], double)}, but shares the solution with all earlier and later calls with the same
+     * key. May be called from several threads at once.
+     *
+     * @param key
+     *            identifies the technology, efficiency, CO2 price and fuel prices of the problem
+     * @return the cheapest amount of each fuel, or null if no mix meets the minimum quality
+     */
+    public static double[] solveShared(String key, double[] fuelAndCO2Costs, double[] fuelDensities, double[] fuelQuality,
+            double requiredEnergy) {
+        double[] solution = solutions.get(key);
+        if (solution == null) {
+            solution = solve(fuelAndCO2Costs, fuelDensities, fuelQuality, requiredEnergy);
+            solutions.put(key, solution == null ? NO_SOLUTION : solution);
+        } else if (solution == NO_SOLUTION) {
+            solution = null;
+        }
+        return solution;
+    }
+
+    /**
+     * @param fuelAndCO2Costs
+     *            the cost per unit of each fuel, including its CO2 cost
+     * @param fuelDensities
+     *            the energy per unit of each fuel
+     * @param fuelQuality
+     *            the quality of each fuel minus the minimum quality, times its energy density
+     * @param requiredEnergy
+     *            the energy input required per MWh electricity
+     * @return the cheapest amount of each fuel, or null if no mix meets the minimum quality
+     */
+    public static double[] solve(double[] fuelAndCO2Costs, double[] fuelDensities, double[] fuelQuality, double requiredEnergy) {
+        int numberOfFuels = fuelAndCO2Costs.length;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestFirst = -1;
+        int bestSecond = -1;
+        double bestFirstEnergy = 0d;
+
+        for (int i = 0; i < numberOfFuels; i++) {
+            if (fuelDensities[i] <= 0) {
+                continue;
+            }
+            double qualityI = fuelQuality[i] / fuelDensities[i];
+            if (qualityI >= 0) {
+                double cost = fuelAndCO2Costs[i] * requiredEnergy / fuelDensities[i];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestFirst = i;
+                    bestSecond = -1;
+                    bestFirstEnergy = requiredEnergy;
+                }
+                continue;
+            }
+            // fuel i is below the minimum quality, mix it with each fuel above
+            for (int j = 0; j < numberOfFuels; j++) {
+                if (fuelDensities[j] <= 0) {
+                    continue;
+                }
+                double qualityJ = fuelQuality[j] / fuelDensities[j];
+                if (qualityJ <= 0) {
+                    continue;
+                }
+                double energyJ = requiredEnergy * -qualityI / (qualityJ - qualityI);
+                double energyI = requiredEnergy - energyJ;
+                double cost = fuelAndCO2Costs[i] * energyI / fuelDensities[i] + fuelAndCO2Costs[j] * energyJ / fuelDensities[j];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestFirst = j;
+                    bestSecond = i;
+                    bestFirstEnergy = energyJ;
+                }
+            }
+        }
+
+        if (bestFirst < 0) {
+            return null;
+        }
+        double[] amounts = new double[numberOfFuels];
+        amounts[bestFirst] = bestFirstEnergy / fuelDensities[bestFirst];
+        if (bestSecond >= 0) {
+            amounts[bestSecond] = (requiredEnergy - bestFirstEnergy) / fuelDensities[bestSecond];
+        }
+        return amounts;
+    }
+
+}
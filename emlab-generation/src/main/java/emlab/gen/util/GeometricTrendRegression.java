@@ -43,7 +43,7 @@ public class GeometricTrendRegression extends SimpleRegression {
 
 	public void removeData(double[][] data) {
 		for (int i = 0; i < data.length && super.getN() > 0; i++) {
-			removeData(data[i][0], Math.log(data[i][1]));
+			removeData(data[i][0], data[i][1]);
 		}
 	}
 
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index of closed intervals [start, finish] of ticks, each with a value, such as the id of a node that is active during the interval. The
+ * intervals are kept sorted by start in a static interval tree: a balanced tree over the sorted intervals in which every subtree knows its
+ * latest finish. Finding the k intervals that contain a tick takes O((1 + k) log n). Intervals that are added or removed are applied by
+ * rebuilding the tree at the next query, so a batch of changes costs one sort.
+ *
+ * @author ejlchappin
+ *
+ */
+public class IntervalIndex {
+
+    private long[] start = new long[4];
+    private long[] finish = new long[4];
+    private long[] value = new long[4];
+    private int size;
+
+    // The intervals sorted by start, and the latest finish per subtree,
+    // with the children of subtree t at 2t + 1 and 2t + 2.
+    private long[] sortedStart;
+    private long[] sortedFinish;
+    private long[] sortedValue;
+    private long[] latestFinish;
+    private boolean built;
+
+    public void add(long start, long finish, long value) {
+        if (size == this.start.length) {
+            this.start = Arrays.copyOf(this.start, 2 * size);
+            this.finish = Arrays.copyOf(this.finish, 2 * size);
+            this.value = Arrays.copyOf(this.value, 2 * size);
+        }
+        this.start[size] = start;
+        this.finish[size] = finish;
+        this.value[size] = value;
+        size++;
+        built = false;
+    }
+
+    /**
+     * Removes all intervals with the value.
+     *
+     * @return whether any interval was removed
+     */
+    public boolean remove(long value) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (this.value[i] != value) {
+                start[kept] = start[i];
+                finish[kept] = finish[i];
+                this.value[kept] = this.value[i];
+                kept++;
+            }
+        }
+        boolean removed = kept < size;
+        size = kept;
+        built = built && !removed;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the values of the intervals that contain the tick, in ascending order
+     */
+    public List<Long> findContaining(long tick) {
+        build();
+        List<Long> values = new ArrayList<Long>();
+        int startedIntervals = countStartedIntervals(tick);
+        if (startedIntervals > 0) {
+            collect(0, 0, size, startedIntervals, tick, values);
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    private void collect(int tree, int from, int to, int startedIntervals, long tick, List<Long> values) {
+        if (from >= startedIntervals || latestFinish[tree] < tick) {
+            return;
+        }
+        if (to - from == 1) {
+            values.add(sortedValue[from]);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        collect(2 * tree + 1, from, middle, startedIntervals, tick, values);
+        collect(2 * tree + 2, middle, to, startedIntervals, tick, values);
+    }
+
+    /**
+     * @return the number of intervals that start at or before the tick
+     */
+    private int countStartedIntervals(long tick) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int middle = (lo + hi) >>> 1;
+            if (sortedStart[middle] <= tick) {
+                lo = middle + 1;
+            } else {
+                hi = middle;
+            }
+        }
+        return lo;
+    }
+
+    private void build() {
+        if (built) {
+            return;
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return start[a] < start[b] ? -1 : start[a] > start[b] ? 1 : 0;
+            }
+        });
+        sortedStart = new long[size];
+        sortedFinish = new long[size];
+        sortedValue = new long[size];
+        for (int k = 0; k < size; k++) {
+            sortedStart[k] = start[order[k]];
+            sortedFinish[k] = finish[order[k]];
+            sortedValue[k] = value[order[k]];
+        }
+        latestFinish = new long[Math.max(1, 4 * size)];
+        if (size > 0) {
+            buildTree(0, 0, size);
+        }
+        built = true;
+    }
+
+    private long buildTree(int tree, int from, int to) {
+        if (to - from == 1) {
+            latestFinish[tree] = sortedFinish[from];
+        } else {
+            int middle = (from + to) >>> 1;
+            latestFinish[tree] = Math.max(buildTree(2 * tree + 1, from, middle), buildTree(2 * tree + 2, middle, to));
+        }
+        return latestFinish[tree];
+    }
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The closed intervals of ticks in which a power plant is operational, expected to be operational or in the pipeline, for an
+ * {@link IntervalIndex}, and the partitions of plants the intervals are kept in. The intervals hold exactly the ticks for which the Gremlin
+ * queries of the PowerPlantRepository find the plant:
+ * <ul>
+ * <li>operational: finished &lt;= tick &amp;&amp; dismantleTime &gt; tick</li>
+ * <li>expected to be operational: finished &lt;= tick &amp;&amp; expectedEndOfLife &gt; tick</li>
+ * <li>in the pipeline: finished &gt; tick &amp;&amp; (dismantleTime &gt; tick || dismantleTime == 0)</li>
+ * </ul>
+ * where finished is constructionStartTime + actualPermittime + actualLeadtime.
+ *
+ * @author ejlchappin
+ *
+ */
+public class LifecycleIntervals {
+
+    public static final String ALL = "all";
+    public static final String OWNER = "o/";
+    public static final String OWNER_WITH_FUELS = "of/";
+    public static final String TECHNOLOGY = "t/";
+    public static final String ZONE = "z/";
+    public static final String OWNER_AND_ZONE = "oz/";
+
+    private LifecycleIntervals() {
+    }
+
+    public static long finishedTime(long constructionStartTime, long actualPermittime, long actualLeadtime) {
+        return constructionStartTime + actualPermittime + actualLeadtime;
+    }
+
+    /**
+     * @return the first and last tick in which the plant is operational
+     */
+    public static long[] operational(long finishedTime, long dismantleTime) {
+        return new long[] { finishedTime, dismantleTime - 1 };
+    }
+
+    /**
+     * @return the first and last tick in which the plant is expected to be operational
+     */
+    public static long[] expectedOperational(long finishedTime, double expectedEndOfLife) {
+        return new long[] { finishedTime, (long) Math.ceil(expectedEndOfLife) - 1 };
+    }
+
+    /**
+     * @return the first and last tick in which the plant is in the pipeline; a dismantle time of 0 means it is not dismantled
+     */
+    public static long[] inPipeline(long finishedTime, long dismantleTime) {
+        return new long[] { Long.MIN_VALUE, (dismantleTime == 0 ? finishedTime : Math.min(finishedTime, dismantleTime)) - 1 };
+    }
+
+    /**
+     * @param owner
+     *            the node id of the owner, or null
+     * @param technologyHasFuels
+     *            whether the technology of the plant has at least one fuel
+     * @param zone
+     *            the node id of the zone of the location of the plant, or null
+     * @return the partitions that contain the plant
+     */
+    public static List<String> partitions(long technology, Long owner, boolean technologyHasFuels, Long zone) {
+        List<String> partitions = new ArrayList<String>();
+        partitions.add(ALL);
+        partitions.add(TECHNOLOGY + technology);
+        if (owner != null) {
+            partitions.add(OWNER + owner);
+            if (technologyHasFuels) {
+                partitions.add(OWNER_WITH_FUELS + owner);
+            }
+        }
+        if (zone != null) {
+            partitions.add(ZONE + zone);
+            if (owner != null) {
+                partitions.add(ownerAndZone(owner, zone));
+            }
+        }
+        return partitions;
+    }
+
+    public static String ownerAndZone(long owner, long zone) {
+        return OWNER_AND_ZONE + owner + "/" + zone;
+    }
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A columnar store of prices and volumes per tick. Each series, such as a market or a segment of a market, has an array of prices and an
+ * array of volumes indexed by tick, so the price at a tick is one lookup and a query over a range of ticks reads only that range. A tick
+ * without a price has NaN as price. Negative ticks are never recorded.
+ *
+ * @author ejlchappin
+ *
+ */
+public class PriceHistory {
+
+    private static final int INITIAL_LENGTH = 64;
+
+    static class Column {
+        double[] prices;
+        double[] volumes;
+
+        Column(int length) {
+            prices = new double[length];
+            volumes = new double[length];
+            Arrays.fill(prices, Double.NaN);
+        }
+
+        void ensureLength(int length) {
+            if (length > prices.length) {
+                int newLength = Math.max(length, prices.length * 2);
+                int oldLength = prices.length;
+                prices = Arrays.copyOf(prices, newLength);
+                volumes = Arrays.copyOf(volumes, newLength);
+                Arrays.fill(prices, oldLength, newLength, Double.NaN);
+            }
+        }
+    }
+
+    private final Map<String, Column> columns = new HashMap<String, Column>();
+
+    /**
+     * Records the price and volume of a series at a tick, replacing an earlier record of that tick.
+     */
+    public synchronized void record(String series, long tick, double price, double volume) {
+        if (tick < 0) {
+            return;
+        }
+        Column column = columns.get(series);
+        if (column == null) {
+            column = new Column(Math.max(INITIAL_LENGTH, (int) tick + 1));
+            columns.put(series, column);
+        }
+        column.ensureLength((int) tick + 1);
+        column.prices[(int) tick] = price;
+        column.volumes[(int) tick] = volume;
+    }
+
+    public synchronized boolean contains(String series, long tick) {
+        return !Double.isNaN(getPrice(series, tick));
+    }
+
+    /**
+     * @return the price of the series at the tick, or NaN if there is none
+     */
+    public synchronized double getPrice(String series, long tick) {
+        Column column = columns.get(series);
+        if (column == null || tick < 0 || tick >= column.prices.length) {
+            return Double.NaN;
+        }
+        return column.prices[(int) tick];
+    }
+
+    /**
+     * @return the volume of the series at the tick, or NaN if there is no price
+     */
+    public synchronized double getVolume(String series, long tick) {
+        if (!contains(series, tick)) {
+            return Double.NaN;
+        }
+        return columns.get(series).volumes[(int) tick];
+    }
+
+    /**
+     * @return the ticks and prices of the series from (inclusive) to (inclusive), in order of time, as pairs of tick and price
+     */
+    public synchronized double[][] findPrices(String series, long from, long to) {
+        Column column = columns.get(series);
+        if (column == null) {
+            return new double[0][];
+        }
+        int first = (int) Math.max(0, from);
+        int last = (int) Math.min(to, column.prices.length - 1);
+        int n = 0;
+        for (int tick = first; tick <= last; tick++) {
+            if (!Double.isNaN(column.prices[tick])) {
+                n++;
+            }
+        }
+        double[][] prices = new double[n][];
+        n = 0;
+        for (int tick = first; tick <= last; tick++) {
+            if (!Double.isNaN(column.prices[tick])) {
+                prices[n++] = new double[] { tick, column.prices[tick] };
+            }
+        }
+        return prices;
+    }
+
+    /**
+     * @return the average of the prices of the series from (inclusive) to (inclusive), or NaN if there are none
+     */
+    public synchronized double averagePrice(String series, long from, long to) {
+        Column column = columns.get(series);
+        if (column == null) {
+            return Double.NaN;
+        }
+        int last = (int) Math.min(to, column.prices.length - 1);
+        double sum = 0d;
+        int n = 0;
+        for (int tick = (int) Math.max(0, from); tick <= last; tick++) {
+            if (!Double.isNaN(column.prices[tick])) {
+                sum += column.prices[tick];
+                n++;
+            }
+        }
+        return n > 0 ? sum / n : Double.NaN;
+    }
+
+    public synchronized void clear() {
+        columns.clear();
+    }
+
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The production of the power plants in one tick: the electricity produced in MWh, the fuel burned per substance and the CO2 emitted, in
+ * dense columns with one row per plant and one fuel column per substance. Plants without a row produced nothing.
+ *
+ * @author ejlchappin
+ *
+ */
+public class ProductionLedger {
+
+    private final Map<Long, Integer> rows = new HashMap<Long, Integer>();
+    private double[] electricityOutput = new double[16];
+    private double[] emissions = new double[16];
+    private final Map<Long, double[]> fuelUse = new HashMap<Long, double[]>();
+
+    /**
+     * Adds production of a plant to its row.
+     */
+    public void add(long plant, double electricityOutput, double emissions) {
+        int row = row(plant);
+        this.electricityOutput[row] += electricityOutput;
+        this.emissions[row] += emissions;
+    }
+
+    /**
+     * Adds fuel burned by a plant to its row in the column of the substance.
+     */
+    public void addFuelUse(long plant, long substance, double amount) {
+        int row = row(plant);
+        double[] column = fuelUse.get(substance);
+        if (column == null) {
+            column = new double[electricityOutput.length];
+            fuelUse.put(substance, column);
+        }
+        column[row] += amount;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * @return the electricity produced, in MWh
+     */
+    public double getElectricityOutput(long plant) {
+        Integer row = rows.get(plant);
+        return row == null ? 0d : electricityOutput[row];
+    }
+
+    /**
+     * @return the amount of the substance burned, in the unit of its share in the fuel mix times MWh
+     */
+    public double getFuelUse(long plant, long substance) {
+        Integer row = rows.get(plant);
+        double[] column = fuelUse.get(substance);
+        return row == null || column == null ? 0d : column[row];
+    }
+
+    public double getEmissions(long plant) {
+        Integer row = rows.get(plant);
+        return row == null ? 0d : emissions[row];
+    }
+
+    public double getTotalElectricityOutput() {
+        return sum(electricityOutput);
+    }
+
+    public double getTotalEmissions() {
+        return sum(emissions);
+    }
+
+    private double sum(double[] column) {
+        double total = 0d;
+        for (int row = 0; row < rows.size(); row++) {
+            total += column[row];
+        }
+        return total;
+    }
+
+    private int row(long plant) {
+        Integer row = rows.get(plant);
+        if (row == null) {
+            row = rows.size();
+            if (row == electricityOutput.length) {
+                electricityOutput = Arrays.copyOf(electricityOutput, 2 * row);
+                emissions = Arrays.copyOf(emissions, 2 * row);
+                for (Map.Entry<Long, double[]> column : fuelUse.entrySet()) {
+                    column.setValue(Arrays.copyOf(column.getValue(), 2 * row));
+                }
+            }
+            rows.put(plant, row);
+        }
+        return row;
+    }
+
+}
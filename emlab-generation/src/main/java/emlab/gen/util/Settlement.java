@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The payments of a tick between agents, netted per payer, payee and type of payment. Obligations are added one by one, for instance one
+ * per power plant, and are summed into one {@link Payment} per payer, payee and type. The change in cash of every agent is the sum of all
+ * its payments, so it can be applied once per agent. The payee may be null, in which case only the payer's cash changes.
+ *
+ * @author ejlchappin
+ *
+ * @param <A>
+ *            the type of the agents
+ */
+public class Settlement<A> {
+
+    /**
+     * The sum of the obligations of a payer to a payee of one type.
+     */
+    public static class Payment<A> {
+        public final A from;
+        public final A to;
+        public final int type;
+        public double money;
+        public int numberOfObligations;
+
+        Payment(A from, A to, int type) {
+            this.from = from;
+            this.to = to;
+            this.type = type;
+        }
+    }
+
+    private final Map<Key, Payment<A>> payments = new LinkedHashMap<Key, Payment<A>>();
+
+    /**
+     * Adds an obligation of the payer to pay the payee.
+     */
+    public void add(A from, A to, int type, double money) {
+        Key key = new Key(from, to, type);
+        Payment<A> payment = payments.get(key);
+        if (payment == null) {
+            payment = new Payment<A>(from, to, type);
+            payments.put(key, payment);
+        }
+        payment.money += money;
+        payment.numberOfObligations++;
+    }
+
+    /**
+     * @return the payments, in the order in which their first obligation was added
+     */
+    public Collection<Payment<A>> getPayments() {
+        return payments.values();
+    }
+
+    /**
+     * @return the net change in cash per agent, in the order in which the agents first appear
+     */
+    public Map<A, Double> getCashChanges() {
+        Map<A, Double> changes = new LinkedHashMap<A, Double>();
+        for (Payment<A> payment : payments.values()) {
+            addCashChange(changes, payment.from, -payment.money);
+            if (payment.to != null) {
+                addCashChange(changes, payment.to, payment.money);
+            }
+        }
+        return changes;
+    }
+
+    public int getNumberOfObligations() {
+        int n = 0;
+        for (Payment<A> payment : payments.values()) {
+            n += payment.numberOfObligations;
+        }
+        return n;
+    }
+
+    private void addCashChange(Map<A, Double> changes, A agent, double money) {
+        Double change = changes.get(agent);
+        changes.put(agent, change == null ? money : change + money);
+    }
+
+    private static class Key {
+        private final Object from;
+        private final Object to;
+        private final int type;
+
+        Key(Object from, Object to, int type) {
+            this.from = from;
+            this.to = to;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && from.equals(other.from) && (to == null ? other.to == null : to.equals(other.to));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * from.hashCode() + (to == null ? 0 : to.hashCode())) + type;
+        }
+    }
+
+}
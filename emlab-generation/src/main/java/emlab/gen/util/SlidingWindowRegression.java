@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.apache.commons.math.stat.regression.SimpleRegression;
+
+/**
+ * A regression over the data of a sliding window of time, such as the clearing prices of the last years. The window moves by adding the
+ * data of new times and removing the data of times that fell out of it, both incrementally with addData and removeData of the
+ * regression, so the data that stays in the window is not read again. The data is kept in order of time for the average and the last
+ * value.
+ *
+ * @author ejlchappin
+ *
+ */
+public class SlidingWindowRegression {
+
+    private final SimpleRegression regression;
+    private final LinkedList<double[]> data = new LinkedList<double[]>();
+
+    /**
+     * @param geometric
+     *            whether the trend is geometric, see {@link GeometricTrendRegression}, or linear
+     */
+    public SlidingWindowRegression(boolean geometric) {
+        regression = geometric ? new GeometricTrendRegression() : new SimpleRegression();
+    }
+
+    public void addData(double time, double y) {
+        regression.addData(time, y);
+        int i = data.size();
+        while (i > 0 && data.get(i - 1)[0] > time) {
+            i--;
+        }
+        data.add(i, new double[] { time, y });
+    }
+
+    /**
+     * Removes the data of the times before the start of the window.
+     */
+    public void removeDataBefore(double start) {
+        while (!data.isEmpty() && data.getFirst()[0] < start) {
+            double[] point = data.removeFirst();
+            regression.removeData(point[0], point[1]);
+        }
+        clearIfEmpty();
+    }
+
+    /**
+     * Removes the data of the time and later times, so that they can be added again.
+     */
+    public void removeDataFrom(double time) {
+        Iterator<double[]> iterator = data.descendingIterator();
+        while (iterator.hasNext()) {
+            double[] point = iterator.next();
+            if (point[0] < time) {
+                break;
+            }
+            iterator.remove();
+            regression.removeData(point[0], point[1]);
+        }
+        clearIfEmpty();
+    }
+
+    /**
+     * Starts the regression afresh once the window is empty, so that rounding errors of the removals do not build up.
+     */
+    private void clearIfEmpty() {
+        if (data.isEmpty()) {
+            regression.clear();
+        }
+    }
+
+    public long getN() {
+        return data.size();
+    }
+
+    public double predict(double time) {
+        return regression.predict(time);
+    }
+
+    /**
+     * @return the average of the data, or NaN without data
+     */
+    public double getAverage() {
+        double sum = 0d;
+        for (double[] point : data) {
+            sum += point[1];
+        }
+        return sum / data.size();
+    }
+
+    /**
+     * @return the data of the latest time, or 0 without data
+     */
+    public double getLast() {
+        return data.isEmpty() ? 0d : data.getLast()[1];
+    }
+
+}
@@ -21,15 +21,14 @@ import org.springframework.data.neo4j.support.Neo4jTemplate;
 import agentspring.validation.AbstractValidationRule;
 import agentspring.validation.ValidationException;
 import agentspring.validation.ValidationRule;
-import emlab.gen.domain.market.ClearingPoint;
 import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
 import emlab.gen.domain.market.electricity.Segment;
 import emlab.gen.domain.market.electricity.SegmentLoad;
-import emlab.gen.repository.ClearingPointRepositoryOld;
+import emlab.gen.repository.PriceHistoryRepository;
 
 public class ElectricitySpotMarketClearingRule extends AbstractValidationRule implements ValidationRule {
     @Autowired
-    ClearingPointRepositoryOld clearingPointRepositoryOld;
+    PriceHistoryRepository priceHistoryRepository;
 
     @Autowired
     Neo4jTemplate template;
@@ -39,9 +38,9 @@ public class ElectricitySpotMarketClearingRule extends AbstractValidationRule im
         for (ElectricitySpotMarket market : template.findAll(ElectricitySpotMarket.class)) {
             for (SegmentLoad segmentload : market.getLoadDurationCurve()) {
                 Segment segment = segmentload.getSegment();
-                ClearingPoint point = clearingPointRepositoryOld.findClearingPointForSegmentAndTime(segment, getCurrentTick());
+                Double price = priceHistoryRepository.findPriceForMarketSegmentAndTime(market, segment, getCurrentTick());
 
-                if (point == null) {
+                if (price == null) {
                     throw new ValidationException(market.toString() + " " + segment.toString() + " failed to clear");
                 }
             }
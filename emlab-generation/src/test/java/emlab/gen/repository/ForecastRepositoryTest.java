@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.commons.math.stat.regression.SimpleRegression;
+import org.junit.Test;
+
+import emlab.gen.util.SlidingWindowRegression;
+
+public class ForecastRepositoryTest {
+
+    private static final double CO2_PENALTY = 100;
+
+    /**
+     * The CO2 price in a country as the determine fuel mix and investment roles calculated it before the forecasts were shared, without
+     * the CO2 tax.
+     */
+    private static double baselineCO2PriceInCountry(double[][] clearingPoints, long futureTimePoint, double nationalMin) {
+        SimpleRegression sr = new SimpleRegression();
+        double lastPrice = 0;
+        double averagePrice = 0;
+        int i = 0;
+        for (double[] clearingPoint : clearingPoints) {
+            sr.addData(clearingPoint[0], clearingPoint[1]);
+            lastPrice = clearingPoint[1];
+            averagePrice += lastPrice;
+            i++;
+        }
+        averagePrice = averagePrice / i;
+        double expectedCO2Price;
+        if (i > 1) {
+            expectedCO2Price = sr.predict(futureTimePoint);
+            expectedCO2Price = Math.max(0, expectedCO2Price);
+            expectedCO2Price = Math.min(expectedCO2Price, CO2_PENALTY);
+        } else {
+            expectedCO2Price = lastPrice;
+        }
+        expectedCO2Price = (expectedCO2Price + averagePrice) / 2;
+        if (expectedCO2Price > nationalMin) {
+            return expectedCO2Price;
+        } else {
+            return nationalMin;
+        }
+    }
+
+    private static double co2PriceInCountry(double[][] clearingPoints, long futureTimePoint, double nationalMin) {
+        SlidingWindowRegression regression = new SlidingWindowRegression(false);
+        for (double[] clearingPoint : clearingPoints) {
+            regression.addData(clearingPoint[0], clearingPoint[1]);
+        }
+        return ForecastRepository.co2PriceInCountry(ForecastRepository.predictCO2Price(regression, futureTimePoint, CO2_PENALTY),
+                nationalMin);
+    }
+
+    private static void assertMatchesBaseline(double[][] clearingPoints, long futureTimePoint, double nationalMin) {
+        assertEquals(baselineCO2PriceInCountry(clearingPoints, futureTimePoint, nationalMin),
+                co2PriceInCountry(clearingPoints, futureTimePoint, nationalMin), 1e-9);
+    }
+
+    @Test
+    public void testEmptyWindowGivesTheNationalMinimum() {
+        double[][] none = new double[0][];
+        assertNull(ForecastRepository.predictCO2Price(new SlidingWindowRegression(false), 1, CO2_PENALTY));
+        assertEquals(5, co2PriceInCountry(none, 1, 5), 0);
+        assertEquals(0, co2PriceInCountry(none, 1, 0), 0);
+        assertMatchesBaseline(none, 1, 5);
+        assertMatchesBaseline(none, 1, 0);
+    }
+
+    @Test
+    public void testOnePointWindow() {
+        double[][] one = { { 0, 12 } };
+        assertEquals(12, co2PriceInCountry(one, 1, 5), 1e-9);
+        assertEquals(20, co2PriceInCountry(one, 1, 20), 1e-9);
+        assertMatchesBaseline(one, 1, 5);
+        assertMatchesBaseline(one, 1, 20);
+    }
+
+    @Test
+    public void testTwoPointWindow() {
+        double[][] rising = { { 0, 10 }, { 1, 20 } };
+        // trend 30 in tick 2, average 15
+        assertEquals(22.5, co2PriceInCountry(rising, 2, 0), 1e-9);
+        assertMatchesBaseline(rising, 2, 0);
+        assertMatchesBaseline(rising, 2, 25);
+        // the trend is limited to the penalty and to 0
+        assertMatchesBaseline(rising, 50, 0);
+        assertMatchesBaseline(new double[][] { { 0, 20 }, { 1, 5 } }, 5, 0);
+    }
+
+}
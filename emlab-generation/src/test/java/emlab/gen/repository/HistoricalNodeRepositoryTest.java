@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.agent.DecarbonizationAgent;
+import emlab.gen.domain.contract.CashFlow;
+import emlab.gen.domain.market.Bid;
+import emlab.gen.domain.market.CO2Auction;
+import emlab.gen.domain.market.DecarbonizationMarket;
+import emlab.gen.domain.market.electricity.ElectricitySpotMarket;
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.repository.HistoricalNodeRepository.BidRollUp;
+import emlab.gen.repository.HistoricalNodeRepository.CashFlowRollUp;
+
+/**
+ * @author ejlchappin
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class HistoricalNodeRepositoryTest {
+
+    @Autowired
+    HistoricalNodeRepository historicalNodeRepository;
+
+    @Test
+    public void testRollUpBidsPerSegmentAndPerMarket() {
+        ElectricitySpotMarket spotMarket = new ElectricitySpotMarket();
+        spotMarket.persist();
+        CO2Auction co2Auction = new CO2Auction();
+        co2Auction.persist();
+        Segment peak = new Segment();
+        peak.persist();
+        Segment base = new Segment();
+        base.persist();
+
+        List<PowerPlantDispatchPlan> plans = new ArrayList<PowerPlantDispatchPlan>();
+        plans.add(createPlan(spotMarket, peak, 100, 60, 10));
+        plans.add(createPlan(spotMarket, peak, 300, 300, 30));
+        plans.add(createPlan(spotMarket, base, 50, 50, 20));
+        List<Bid> bids = new ArrayList<Bid>(plans);
+        bids.add(createBid(co2Auction, false, 10, 10, 5));
+        bids.add(createBid(co2Auction, false, 30, 0, 15));
+        bids.add(createBid(co2Auction, true, 40, 10, 8));
+
+        Collection<BidRollUp> rollUps = historicalNodeRepository.rollUpBids(plans, bids);
+        assertEquals(4, rollUps.size());
+        Iterator<BidRollUp> iterator = rollUps.iterator();
+
+        BidRollUp peakPlans = iterator.next();
+        assertEquals(spotMarket.getNodeId(), peakPlans.market.getNodeId());
+        assertEquals(peak.getNodeId(), peakPlans.segment.getNodeId());
+        assertTrue(peakPlans.dispatchPlan);
+        assertTrue(peakPlans.supplyBid);
+        assertEquals(2, peakPlans.numberOfBids);
+        assertEquals(400, peakPlans.amount, 1e-9);
+        assertEquals(360, peakPlans.acceptedAmount, 1e-9);
+        assertEquals(100 * 10 + 300 * 30, peakPlans.priceTimesAmount, 1e-9);
+        assertEquals(10, peakPlans.minimumPrice, 1e-9);
+        assertEquals(30, peakPlans.maximumPrice, 1e-9);
+
+        BidRollUp basePlans = iterator.next();
+        assertEquals(base.getNodeId(), basePlans.segment.getNodeId());
+        assertEquals(1, basePlans.numberOfBids);
+
+        // The dispatch plans among the bids are not counted twice
+        BidRollUp demandBids = iterator.next();
+        assertEquals(co2Auction.getNodeId(), demandBids.market.getNodeId());
+        assertNull(demandBids.segment);
+        assertFalse(demandBids.dispatchPlan);
+        assertFalse(demandBids.supplyBid);
+        assertEquals(2, demandBids.numberOfBids);
+        assertEquals(40, demandBids.amount, 1e-9);
+        assertEquals(10, demandBids.acceptedAmount, 1e-9);
+        assertEquals(5, demandBids.minimumPrice, 1e-9);
+        assertEquals(15, demandBids.maximumPrice, 1e-9);
+
+        BidRollUp supplyBids = iterator.next();
+        assertTrue(supplyBids.supplyBid);
+        assertEquals(1, supplyBids.numberOfBids);
+    }
+
+    @Test
+    public void testRollUpCashFlowsPerPayerPayeeAndType() {
+        DecarbonizationAgent producer = new DecarbonizationAgent();
+        producer.persist();
+        DecarbonizationAgent government = new DecarbonizationAgent();
+        government.persist();
+
+        List<CashFlow> cashFlows = new ArrayList<CashFlow>();
+        cashFlows.add(createCashFlow(producer, government, CashFlow.CO2TAX, 10));
+        cashFlows.add(createCashFlow(producer, government, CashFlow.CO2TAX, 15));
+        cashFlows.add(createCashFlow(producer, government, CashFlow.CO2AUCTION, 7));
+        cashFlows.add(createCashFlow(government, producer, CashFlow.CO2TAX, 3));
+        cashFlows.add(createCashFlow(producer, null, CashFlow.CO2TAX, 1));
+
+        Collection<CashFlowRollUp> rollUps = historicalNodeRepository.rollUpCashFlows(cashFlows);
+        assertEquals(4, rollUps.size());
+        Iterator<CashFlowRollUp> iterator = rollUps.iterator();
+
+        CashFlowRollUp tax = iterator.next();
+        assertEquals(producer.getNodeId(), tax.from.getNodeId());
+        assertEquals(government.getNodeId(), tax.to.getNodeId());
+        assertEquals(CashFlow.CO2TAX, tax.type);
+        assertEquals(2, tax.numberOfCashFlows);
+        assertEquals(25, tax.money, 1e-9);
+
+        assertEquals(CashFlow.CO2AUCTION, iterator.next().type);
+        assertEquals(government.getNodeId(), iterator.next().from.getNodeId());
+
+        CashFlowRollUp withoutPayee = iterator.next();
+        assertNull(withoutPayee.to);
+        assertEquals(1, withoutPayee.money, 1e-9);
+    }
+
+    private PowerPlantDispatchPlan createPlan(DecarbonizationMarket market, Segment segment, double amount, double acceptedAmount,
+            double price) {
+        PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+        plan.persist();
+        plan.setBiddingMarket(market);
+        plan.setSegment(segment);
+        plan.setSupplyBid(true);
+        plan.setAmount(amount);
+        plan.setAcceptedAmount(acceptedAmount);
+        plan.setPrice(price);
+        return plan;
+    }
+
+    private Bid createBid(DecarbonizationMarket market, boolean supplyBid, double amount, double acceptedAmount, double price) {
+        Bid bid = new Bid();
+        bid.persist();
+        bid.setBiddingMarket(market);
+        bid.setSupplyBid(supplyBid);
+        bid.setAmount(amount);
+        bid.setAcceptedAmount(acceptedAmount);
+        bid.setPrice(price);
+        return bid;
+    }
+
+    private CashFlow createCashFlow(DecarbonizationAgent from, DecarbonizationAgent to, int type, double money) {
+        CashFlow cashFlow = new CashFlow();
+        cashFlow.persist();
+        cashFlow.setFrom(from);
+        cashFlow.setTo(to);
+        cashFlow.setType(type);
+        cashFlow.setMoney(money);
+        return cashFlow;
+    }
+
+}
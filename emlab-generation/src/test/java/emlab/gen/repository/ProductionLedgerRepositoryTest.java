@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import emlab.gen.domain.market.electricity.PowerPlantDispatchPlan;
+import emlab.gen.domain.market.electricity.Segment;
+import emlab.gen.domain.technology.PowerGeneratingTechnology;
+import emlab.gen.domain.technology.PowerPlant;
+import emlab.gen.domain.technology.Substance;
+import emlab.gen.domain.technology.SubstanceShareInFuelMix;
+import emlab.gen.util.ProductionLedger;
+
+/**
+ * @author ejlchappin
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({ "/emlab-gen-test-context.xml" })
+@Transactional
+public class ProductionLedgerRepositoryTest {
+
+    @Autowired
+    ProductionLedgerRepository productionLedgerRepository;
+
+    @Test
+    public void testRecordedProductionMatchesTheDispatchPlans() {
+        productionLedgerRepository.invalidate();
+        long time = 3;
+
+        Segment peak = new Segment();
+        peak.setLengthInHours(1000);
+        peak.persist();
+        Segment base = new Segment();
+        base.setLengthInHours(7760);
+        base.persist();
+
+        Substance coal = new Substance();
+        coal.setCo2Density(3);
+        coal.persist();
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology();
+        technology.setCo2CaptureEffciency(0.1);
+        technology.persist();
+
+        PowerPlant coalPlant = createPlant(technology, coal, 0.4);
+        PowerPlant otherPlant = createPlant(technology, coal, 0.5);
+        PowerPlant idlePlant = createPlant(technology, coal, 0.6);
+
+        createPlan(coalPlant, peak, time, 500, 100);
+        createPlan(coalPlant, base, time, 350, 0);
+        createPlan(otherPlant, peak, time, 200, 50);
+        createPlan(otherPlant, base, time, 0, 0);
+        // Dispatch plans of other ticks are not counted
+        createPlan(coalPlant, peak, time - 1, 1000, 0);
+        createPlan(idlePlant, base, time + 1, 1000, 0);
+
+        double[] expectedOutput = new double[3];
+        double[] expectedEmissions = new double[3];
+        PowerPlant[] plants = { coalPlant, otherPlant, idlePlant };
+        for (int i = 0; i < plants.length; i++) {
+            expectedOutput[i] = plants[i].calculateElectricityOutputAtTime(time);
+            expectedEmissions[i] = plants[i].calculateCO2EmissionsAtTime(time);
+        }
+        assertEquals(1000 * 600 + 7760 * 350, expectedOutput[0], 1e-6);
+
+        ProductionLedger ledger = productionLedgerRepository.recordProduction(time);
+        assertEquals(2, ledger.size());
+        double totalOutput = 0d;
+        for (int i = 0; i < plants.length; i++) {
+            assertEquals(expectedOutput[i], ledger.getElectricityOutput(plants[i].getNodeId()), 1e-6);
+            assertEquals(expectedEmissions[i], ledger.getEmissions(plants[i].getNodeId()), 1e-6);
+            assertEquals(expectedOutput[i], plants[i].calculateElectricityOutputAtTime(time), 1e-6);
+            assertEquals(expectedEmissions[i], plants[i].calculateCO2EmissionsAtTime(time), 1e-6);
+            totalOutput += expectedOutput[i];
+        }
+        assertEquals(totalOutput, ledger.getTotalElectricityOutput(), 1e-6);
+        assertNull(productionLedgerRepository.findElectricityOutput(coalPlant, time - 1));
+    }
+
+    @Test
+    public void testRecordedFuelUsePerSubstance() {
+        productionLedgerRepository.invalidate();
+        long time = 4;
+
+        Segment base = new Segment();
+        base.setLengthInHours(8760);
+        base.persist();
+        Substance coal = new Substance();
+        coal.setCo2Density(3);
+        coal.persist();
+        Substance biomass = new Substance();
+        biomass.persist();
+        PowerGeneratingTechnology technology = new PowerGeneratingTechnology();
+        technology.persist();
+
+        PowerPlant cofiringPlant = createPlant(technology, new Substance[] { coal, biomass }, new double[] { 0.3, 0.2 });
+        PowerPlant coalPlant = createPlant(technology, coal, 0.4);
+        createPlan(cofiringPlant, base, time, 100, 0);
+        createPlan(coalPlant, base, time, 50, 0);
+
+        assertNull(productionLedgerRepository.findFuelUse(cofiringPlant, coal, time));
+        productionLedgerRepository.recordProduction(time);
+
+        double cofiringOutput = cofiringPlant.calculateElectricityOutputAtTime(time);
+        assertEquals(8760 * 100, cofiringOutput, 1e-6);
+        assertEquals(0.3 * cofiringOutput, productionLedgerRepository.findFuelUse(cofiringPlant, coal, time), 1e-6);
+        assertEquals(0.2 * cofiringOutput, productionLedgerRepository.findFuelUse(cofiringPlant, biomass, time), 1e-6);
+        assertEquals(0.4 * 8760 * 50, productionLedgerRepository.findFuelUse(coalPlant, coal, time), 1e-6);
+        assertEquals(0, productionLedgerRepository.findFuelUse(coalPlant, biomass, time), 0);
+        assertNull(productionLedgerRepository.findFuelUse(coalPlant, coal, time + 1));
+    }
+
+    private PowerPlant createPlant(PowerGeneratingTechnology technology, Substance fuel, double share) {
+        return createPlant(technology, new Substance[] { fuel }, new double[] { share });
+    }
+
+    private PowerPlant createPlant(PowerGeneratingTechnology technology, Substance[] fuels, double[] shares) {
+        PowerPlant plant = new PowerPlant();
+        plant.persist();
+        plant.setTechnology(technology);
+        Set<SubstanceShareInFuelMix> fuelMix = new HashSet<SubstanceShareInFuelMix>();
+        for (int i = 0; i < fuels.length; i++) {
+            SubstanceShareInFuelMix fuelShare = new SubstanceShareInFuelMix();
+            fuelShare.persist();
+            fuelShare.setSubstance(fuels[i]);
+            fuelShare.setShare(shares[i]);
+            fuelMix.add(fuelShare);
+        }
+        plant.setFuelMix(fuelMix);
+        return plant;
+    }
+
+    private void createPlan(PowerPlant plant, Segment segment, long time, double acceptedAmount, double capacityLongTermContract) {
+        PowerPlantDispatchPlan plan = new PowerPlantDispatchPlan();
+        plan.persist();
+        plan.setPowerPlant(plant);
+        plan.setSegment(segment);
+        plan.setTime(time);
+        plan.setPpdpTime((int) time);
+        plan.setAcceptedAmount(acceptedAmount);
+        plan.setCapacityLongTermContract(capacityLongTermContract);
+    }
+
+}
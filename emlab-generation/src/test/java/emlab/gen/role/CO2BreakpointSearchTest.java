@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import emlab.gen.role.market.CO2BreakpointSearch;
+import emlab.gen.role.market.MeritOrderClearingEngine;
+
+public class CO2BreakpointSearchTest {
+
+    private MeritOrderClearingEngine createMeritOrder() {
+        MeritOrderClearingEngine meritOrder = new MeritOrderClearingEngine(2, 1, 4);
+        meritOrder.setInterconnectorCapacity(1000);
+        meritOrder.setValueOfLostLoad(0, 2000);
+        meritOrder.setValueOfLostLoad(1, 2000);
+        meritOrder.setLoad(0, 0, 100);
+        meritOrder.setLoad(0, 1, 100);
+        meritOrder.addPlan(0, 0, 10, 10, 1, 150, 0);
+        meritOrder.addPlan(0, 0, 10, 20, 0.5, 100, 0);
+        meritOrder.addPlan(1, 0, 10, 40, 0, 100, 0);
+        meritOrder.addPlan(1, 0, 10, 50, 0, 100, 0);
+        return meritOrder;
+    }
+
+    @Test
+    public void testPriceIsTheBreakpointWhereEmissionsDropBelowTheCap() {
+        // Emissions are 1750 below 20, 1500 up to 30, where the dirty plant
+        // is pushed out by a clean one, and 500 above.
+        CO2BreakpointSearch search = new CO2BreakpointSearch(createMeritOrder(), null, null);
+        assertEquals(30, search.findClearingPrice(1000, 0, 500), 1e-9);
+        assertEquals(500, search.getCo2Emissions(), 1e-9);
+    }
+
+    @Test
+    public void testMinimumPriceWhenCapIsNotBinding() {
+        CO2BreakpointSearch search = new CO2BreakpointSearch(createMeritOrder(), null, null);
+        assertEquals(5, search.findClearingPrice(2000, 5, 500), 0d);
+        assertEquals(1750, search.getCo2Emissions(), 1e-9);
+    }
+
+    @Test
+    public void testPenaltyWhenCapCannotBeMet() {
+        // At a penalty of 50 the clean plant and the gas-like plant still
+        // emit 500.
+        CO2BreakpointSearch search = new CO2BreakpointSearch(createMeritOrder(), null, null);
+        assertEquals(50, search.findClearingPrice(100, 0, 50), 0d);
+        assertEquals(500, search.getCo2Emissions(), 1e-9);
+    }
+
+    @Test
+    public void testNationalMinimumPriceShiftsBreakpoint() {
+        // With a national minimum of 25 in market 0 the dirty plant costs 35
+        // up to a CO2 price of 25, so it is pushed out as soon as the clean
+        // plant (40) is cheaper than 10 + p, at 30, as before, but the first
+        // breakpoint at 20 disappears.
+        MeritOrderClearingEngine meritOrder = createMeritOrder();
+        meritOrder.setNationalMinCo2Price(0, 25);
+        CO2BreakpointSearch search = new CO2BreakpointSearch(meritOrder, null, null);
+        assertEquals(30, search.findClearingPrice(1000, 0, 500), 1e-9);
+        assertEquals(0, search.findClearingPrice(1600, 0, 500), 0d);
+    }
+
+    @Test
+    public void testRandomMeritOrdersClearJustAtTheCap() {
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            long seed = random.nextLong();
+            MeritOrderClearingEngine probe = createRandomMeritOrder(seed);
+            probe.updatePricesForCO2Price(random.nextDouble() * 100);
+            double cap = probe.clear();
+
+            CO2BreakpointSearch search = new CO2BreakpointSearch(createRandomMeritOrder(seed), null, null);
+            double price = search.findClearingPrice(cap, 0, 500);
+            assertTrue("run " + run, search.getCo2Emissions() <= cap);
+
+            if (price > 0) {
+                probe.updatePricesForCO2Price(price - 1e-6);
+                assertTrue("run " + run + " price " + price, probe.clear() > cap);
+            }
+        }
+    }
+
+    private MeritOrderClearingEngine createRandomMeritOrder(long seed) {
+        Random random = new Random(seed);
+        int numberOfSegments = 5;
+        MeritOrderClearingEngine meritOrder = new MeritOrderClearingEngine(2, numberOfSegments, 0);
+        meritOrder.setInterconnectorCapacity(500);
+        for (int m = 0; m < 2; m++) {
+            meritOrder.setValueOfLostLoad(m, 2000);
+            for (int s = 0; s < numberOfSegments; s++) {
+                meritOrder.setLoad(s, m, 5000 + random.nextDouble() * 10000);
+            }
+        }
+        for (int p = 0; p < 60; p++) {
+            int m = random.nextInt(2);
+            double bid = random.nextDouble() * 80;
+            double intensity = random.nextDouble();
+            double capacity = 200 + random.nextDouble() * 800;
+            for (int s = 0; s < numberOfSegments; s++) {
+                meritOrder.addPlan(m, s, 438, bid, intensity, capacity, 0);
+            }
+        }
+        return meritOrder;
+    }
+
+}
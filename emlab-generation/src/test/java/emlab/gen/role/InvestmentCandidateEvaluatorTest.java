@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.InvestmentCandidateEvaluator;
+import emlab.gen.role.investment.InvestmentCandidateEvaluator.Candidate;
+
+public class InvestmentCandidateEvaluatorTest {
+
+    private Candidate createCandidate(double capacity, double investedCapital, double minimumRunningHours, double fuelPrice) {
+        Candidate candidate = new Candidate(capacity, investedCapital, 2, 10, 0, minimumRunningHours, new double[] { capacity, capacity,
+                capacity });
+        // 2 units of fuel per MWh, each emitting 1 ton of CO2
+        candidate.setFuels(0.5, new double[] { fuelPrice }, new double[] { fuelPrice + 10 }, new double[] { 3600 }, new double[] { 0 },
+                new double[] { 1 }, "test/" + fuelPrice);
+        return candidate;
+    }
+
+    @Test
+    public void testValuePerMWOfASingleFuelPlant() {
+        InvestmentCandidateEvaluator evaluator = new InvestmentCandidateEvaluator(new double[] { 50, 20 }, new double[] { 1000, 2000 }, 10,
+                0);
+        evaluator.addCandidate(createCandidate(100, 1000, 0, 0.1));
+        evaluator.evaluate();
+
+        // marginal cost 20.2, so only the first segment is profitable
+        assertEquals((10 * (50 - 20.2) * 1000 * 100 - 1000) / 100, evaluator.getValue(0), 1e-6);
+        assertEquals(0, evaluator.findBestCandidate());
+    }
+
+    @Test
+    public void testTooFewRunningHoursOrNoProfitGivesNoCandidate() {
+        InvestmentCandidateEvaluator evaluator = new InvestmentCandidateEvaluator(new double[] { 50, 20 }, new double[] { 1000, 2000 }, 10,
+                0);
+        evaluator.addCandidate(createCandidate(100, 1000, 1500, 0.1));
+        evaluator.addCandidate(createCandidate(100, 1e12, 0, 0.1));
+        evaluator.evaluate();
+
+        assertTrue(Double.isNaN(evaluator.getValue(0)));
+        assertTrue(Double.isNaN(evaluator.getValue(1)));
+        assertEquals(-1, evaluator.findBestCandidate());
+    }
+
+    @Test
+    public void testFirstOfEqualCandidatesIsBest() {
+        InvestmentCandidateEvaluator evaluator = new InvestmentCandidateEvaluator(new double[] { 50, 20 }, new double[] { 1000, 2000 }, 10,
+                0.05);
+        evaluator.addCandidate(createCandidate(100, 1000, 0, 5));
+        evaluator.addCandidate(createCandidate(100, 1000, 0, 0.1));
+        evaluator.addCandidate(createCandidate(100, 1000, 0, 0.1));
+        evaluator.evaluate();
+
+        assertEquals(evaluator.getValue(1), evaluator.getValue(2), 0);
+        assertEquals(1, evaluator.findBestCandidate());
+    }
+
+    @Test
+    public void testParallelEvaluationGivesSameOutcome() {
+        Random random = new Random(7);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int run = 0; run < 20; run++) {
+                InvestmentCandidateEvaluator serial = new InvestmentCandidateEvaluator(new double[] { 80, 50, 20 }, new double[] { 500,
+                        3000, 5000 }, 10, 0.08);
+                InvestmentCandidateEvaluator parallel = new InvestmentCandidateEvaluator(new double[] { 80, 50, 20 }, new double[] { 500,
+                        3000, 5000 }, 10, 0.08);
+                for (int i = 0; i < 30; i++) {
+                    double capacity = 100 + random.nextInt(10) * 100;
+                    double investedCapital = capacity * random.nextInt(3000);
+                    double fuelPrice = random.nextInt(20);
+                    serial.addCandidate(createCandidate(capacity, investedCapital, 0, fuelPrice));
+                    parallel.addCandidate(createCandidate(capacity, investedCapital, 0, fuelPrice));
+                }
+                serial.evaluate();
+                parallel.evaluate(executor);
+                for (int i = 0; i < serial.getNumberOfCandidates(); i++) {
+                    assertEquals(serial.getValue(i), parallel.getValue(i), 0);
+                }
+                assertEquals(serial.findBestCandidate(), parallel.findBestCandidate());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import emlab.gen.role.investment.InvestmentConflictResolver;
+import emlab.gen.role.investment.InvestmentConflictResolver.Project;
+
+public class InvestmentConflictResolverTest {
+
+    private Project createProject(long technology, long node) {
+        Project project = new Project(500, 1, technology, node);
+        project.setMarketLimits(10000, 1000, 0.15, 0);
+        return project;
+    }
+
+    @Test
+    public void testTechnologyShareIsSharedByAllInvestors() {
+        InvestmentConflictResolver resolver = new InvestmentConflictResolver();
+        // 1000 + 500 of 10500 is allowed, 1000 + 500 + 500 of 10500 is not
+        resolver.addProject(createProject(1, 1), 10);
+        resolver.addProject(createProject(1, 1), 20);
+        resolver.addProject(createProject(2, 1), 5);
+        boolean[] accepted = resolver.resolve();
+
+        assertFalse(accepted[0]);
+        assertTrue(accepted[1]);
+        assertTrue(accepted[2]);
+    }
+
+    @Test
+    public void testEqualValuesAreAcceptedInOrder() {
+        InvestmentConflictResolver resolver = new InvestmentConflictResolver();
+        resolver.addProject(createProject(1, 1), 10);
+        resolver.addProject(createProject(1, 1), 10);
+        boolean[] accepted = resolver.resolve();
+
+        assertTrue(accepted[0]);
+        assertFalse(accepted[1]);
+    }
+
+    @Test
+    public void testNodeLimitAndPipeline() {
+        InvestmentConflictResolver resolver = new InvestmentConflictResolver();
+        Project first = new Project(500, 1, 1, 7);
+        first.setNodeLimit(0, 800);
+        Project second = new Project(500, 1, 1, 7);
+        second.setNodeLimit(0, 800);
+        Project third = new Project(500, 1, 2, 8);
+        third.setMarketLimits(10000, 0, 1, 1200);
+        Project fourth = new Project(500, 1, 2, 8);
+        fourth.setMarketLimits(10000, 0, 1, 1200);
+        resolver.addProject(first, 4);
+        resolver.addProject(second, 3);
+        resolver.addProject(third, 2);
+        resolver.addProject(fourth, 1);
+        boolean[] accepted = resolver.resolve();
+
+        assertTrue(accepted[0]);
+        assertFalse(accepted[1]);
+        assertTrue(accepted[2]);
+        // 1200 plus the 1000 accepted before it is more than 20% of 10000
+        assertFalse(accepted[3]);
+    }
+
+}
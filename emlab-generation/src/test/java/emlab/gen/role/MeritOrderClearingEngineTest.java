@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.role.market.MeritOrderClearingEngine;
+
+public class MeritOrderClearingEngineTest {
+
+    private MeritOrderClearingEngine createTwoMarketMeritOrder(double interconnectorCapacity) {
+        MeritOrderClearingEngine meritOrder = new MeritOrderClearingEngine(2, 1, 4);
+        meritOrder.setInterconnectorCapacity(interconnectorCapacity);
+        meritOrder.setValueOfLostLoad(0, 2000);
+        meritOrder.setValueOfLostLoad(1, 2000);
+        meritOrder.setLoad(0, 0, 100);
+        meritOrder.setLoad(0, 1, 100);
+        // Cheap, dirty plant in market 0, clean expensive plants in market 1.
+        meritOrder.addPlan(0, 0, 10, 10, 1, 150, 0);
+        meritOrder.addPlan(0, 0, 10, 20, 0.5, 100, 0);
+        meritOrder.addPlan(1, 0, 10, 40, 0, 100, 0);
+        meritOrder.addPlan(1, 0, 10, 50, 0, 100, 0);
+        return meritOrder;
+    }
+
+    @Test
+    public void testUncongestedClearingHasOnePrice() {
+        MeritOrderClearingEngine meritOrder = createTwoMarketMeritOrder(1000);
+        meritOrder.updatePricesForCO2Price(0);
+        double emissions = meritOrder.clear();
+
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(1));
+        assertEquals(Bid.FAILED, meritOrder.getStatus(2));
+        assertEquals(50, meritOrder.getAcceptedAmount(1), 1e-9);
+        assertEquals(20, meritOrder.getSegmentPrice(0, 0), 1e-9);
+        assertEquals(20, meritOrder.getSegmentPrice(0, 1), 1e-9);
+        assertEquals(200, meritOrder.getSegmentSupply(0, 0), 1e-9);
+        assertEquals((150 * 1 + 50 * 0.5) * 10, emissions, 1e-9);
+    }
+
+    @Test
+    public void testCO2PriceChangesMeritOrder() {
+        MeritOrderClearingEngine meritOrder = createTwoMarketMeritOrder(1000);
+        meritOrder.updatePricesForCO2Price(40);
+        double emissions = meritOrder.clear();
+
+        // Prices are now 50, 40, 40 and 50.
+        assertEquals(Bid.ACCEPTED, meritOrder.getStatus(1));
+        assertEquals(Bid.PARTLY_ACCEPTED, meritOrder.getStatus(2));
+        assertEquals(Bid.FAILED, meritOrder.getStatus(0));
+        assertEquals(40, meritOrder.getSegmentPrice(0, 0), 1e-9);
+        assertEquals(100 * 0.5 * 10, emissions, 1e-9);
+    }
+
+    @Test
+    public void testNationalMinimumCO2PriceIsUsedWhenHigher() {
+        MeritOrderClearingEngine meritOrder = createTwoMarketMeritOrder(1000);
+        meritOrder.setNationalMinCo2Price(0, 30);
+        meritOrder.updatePricesForCO2Price(10);
+
+        assertEquals(40, meritOrder.getPrice(0), 1e-9);
+        assertEquals(35, meritOrder.getPrice(1), 1e-9);
+        assertEquals(40, meritOrder.getPrice(2), 1e-9);
+    }
+
+    @Test
+    public void testCongestedInterconnectorSplitsPrices() {
+        MeritOrderClearingEngine meritOrder = createTwoMarketMeritOrder(20);
+        meritOrder.updatePricesForCO2Price(0);
+        meritOrder.clear();
+
+        // Market 0 exports 20, so it has to produce 120 and market 1 80.
+        assertEquals(120, meritOrder.getSegmentSupply(0, 0), 1e-9);
+        assertEquals(80, meritOrder.getSegmentSupply(0, 1), 1e-9);
+        assertEquals(10, meritOrder.getSegmentPrice(0, 0), 1e-9);
+        assertEquals(40, meritOrder.getSegmentPrice(0, 1), 1e-9);
+        assertEquals(Bid.FAILED, meritOrder.getStatus(1));
+    }
+
+    @Test
+    public void testShortageGivesValueOfLostLoad() {
+        MeritOrderClearingEngine meritOrder = createTwoMarketMeritOrder(1000);
+        meritOrder.setLoad(0, 1, 500);
+        meritOrder.updatePricesForCO2Price(0);
+        meritOrder.clear();
+
+        assertEquals(2000, meritOrder.getSegmentPrice(0, 0), 1e-9);
+        assertEquals(2000, meritOrder.getSegmentPrice(0, 1), 1e-9);
+    }
+
+    private MeritOrderClearingEngine createRandomMeritOrder(long seed) {
+        Random random = new Random(seed);
+        int numberOfSegments = 20;
+        MeritOrderClearingEngine meritOrder = new MeritOrderClearingEngine(2, numberOfSegments, 0);
+        meritOrder.setInterconnectorCapacity(500);
+        for (int m = 0; m < 2; m++) {
+            meritOrder.setValueOfLostLoad(m, 2000);
+            for (int s = 0; s < numberOfSegments; s++) {
+                meritOrder.setLoad(s, m, 5000 + random.nextDouble() * 10000);
+            }
+        }
+        for (int p = 0; p < 100; p++) {
+            int m = random.nextInt(2);
+            double bid = random.nextDouble() * 80;
+            double intensity = random.nextDouble();
+            double capacity = 200 + random.nextDouble() * 800;
+            for (int s = 0; s < numberOfSegments; s++) {
+                meritOrder.addPlan(m, s, 438, bid, intensity, capacity, 0);
+            }
+        }
+        return meritOrder;
+    }
+
+    @Test
+    public void testParallelClearingEqualsSerialClearing() {
+        MeritOrderClearingEngine serial = createRandomMeritOrder(42);
+        MeritOrderClearingEngine parallel = createRandomMeritOrder(42);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (double co2Price = 0; co2Price < 100; co2Price += 12.5) {
+                serial.updatePricesForCO2Price(co2Price);
+                parallel.updatePricesForCO2Price(co2Price);
+                assertEquals(serial.clear(), parallel.clear(executor), 0d);
+                for (int i = 0; i < serial.size(); i++) {
+                    assertEquals(serial.getStatus(i), parallel.getStatus(i));
+                    assertEquals(serial.getAcceptedAmount(i), parallel.getAcceptedAmount(i), 0d);
+                }
+                for (int s = 0; s < serial.getNumberOfSegments(); s++) {
+                    for (int m = 0; m < 2; m++) {
+                        assertEquals(serial.getSegmentPrice(s, m), parallel.getSegmentPrice(s, m), 0d);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
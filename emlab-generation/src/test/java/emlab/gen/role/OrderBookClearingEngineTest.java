@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.role;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import emlab.gen.domain.market.Bid;
+import emlab.gen.role.market.OrderBookClearingEngine;
+
+public class OrderBookClearingEngineTest {
+
+    @Test
+    public void testMarginalOfferIsPartlyAccepted() {
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(3, 1);
+        orderBook.addOffer(30, 100);
+        orderBook.addOffer(10, 100);
+        orderBook.addOffer(20, 100);
+        orderBook.addDemandBid(50, 150);
+        orderBook.clear(false, 2000, 0);
+
+        assertEquals(20, orderBook.getClearingPrice(), 1e-9);
+        assertEquals(150, orderBook.getClearingVolume(), 1e-9);
+        assertEquals(Bid.ACCEPTED, orderBook.getOfferStatus(1));
+        assertEquals(100, orderBook.getOfferAcceptedAmount(1), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, orderBook.getOfferStatus(2));
+        assertEquals(50, orderBook.getOfferAcceptedAmount(2), 1e-9);
+        assertEquals(Bid.SUBMITTED, orderBook.getOfferStatus(0));
+        assertEquals(150, orderBook.getDemandBidAcceptedAmount(0), 1e-9);
+    }
+
+    @Test
+    public void testOffersAtTheMarginalPriceShareProRata() {
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(2, 1);
+        orderBook.addOffer(10, 100);
+        orderBook.addOffer(10, 300);
+        orderBook.addDemandBid(50, 200);
+        orderBook.clear(false, 2000, 0);
+
+        assertEquals(10, orderBook.getClearingPrice(), 1e-9);
+        assertEquals(200, orderBook.getClearingVolume(), 1e-9);
+        assertEquals(Bid.PARTLY_ACCEPTED, orderBook.getOfferStatus(0));
+        assertEquals(Bid.PARTLY_ACCEPTED, orderBook.getOfferStatus(1));
+        assertEquals(50, orderBook.getOfferAcceptedAmount(0), 1e-9);
+        assertEquals(150, orderBook.getOfferAcceptedAmount(1), 1e-9);
+    }
+
+    @Test
+    public void testShortageGivesShortagePrice() {
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(1, 1);
+        orderBook.addOffer(10, 100);
+        orderBook.addDemandBid(50, 150);
+        orderBook.clear(false, 2000, 0);
+
+        assertEquals(2000, orderBook.getClearingPrice(), 1e-9);
+        assertEquals(100, orderBook.getClearingVolume(), 1e-9);
+    }
+
+    @Test
+    public void testNoDemandGivesMinimumSupplyPrice() {
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(2, 1);
+        orderBook.addOffer(20, 100);
+        orderBook.addOffer(10, 100);
+        orderBook.addDemandBid(5, 150);
+        orderBook.clear(false, 2000, 0);
+
+        assertEquals(10, orderBook.getClearingPrice(), 1e-9);
+        assertEquals(0, orderBook.getClearingVolume(), 1e-9);
+    }
+
+    @Test
+    public void testDemandAtOrAbovePrice() {
+        OrderBookClearingEngine orderBook = new OrderBookClearingEngine(0, 3);
+        orderBook.addDemandBid(10, 1);
+        orderBook.addDemandBid(30, 2);
+        orderBook.addDemandBid(20, 4);
+
+        assertEquals(6, orderBook.getDemandAtOrAbovePrice(20), 1e-9);
+        assertEquals(7, orderBook.getDemandAtOrAbovePrice(0), 1e-9);
+        assertEquals(0, orderBook.getDemandAtOrAbovePrice(31), 1e-9);
+        assertEquals(7, orderBook.getTotalDemand(), 1e-9);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.trend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import org.junit.Test;
+
+public class BinaryTimeSeriesFileTest {
+
+    @Test
+    public void testParseCsv() throws IOException {
+        double[] values = BinaryTimeSeriesFile.parseCsv(new StringReader("1.5\n2,3\n\n-4e2\n"));
+        assertEquals(4, values.length);
+        assertEquals(1.5, values[0], 0);
+        assertEquals(3, values[2], 0);
+        assertEquals(-400, values[3], 0);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        double[] values = new double[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.25;
+        }
+        ByteBuffer bytes = BinaryTimeSeriesFile.toByteBuffer(values);
+        assertEquals(BinaryTimeSeriesFile.HEADER_LENGTH + 8 * values.length, bytes.remaining());
+        // little-endian
+        assertEquals(0x45, bytes.get(0));
+
+        DoubleBuffer buffer = BinaryTimeSeriesFile.toDoubleBuffer(bytes, "test");
+        assertEquals(values.length, buffer.remaining());
+        assertEquals(2499.75, buffer.get(9999), 0);
+        assertEquals(values[1234], BinaryTimeSeriesFile.toArray(buffer)[1234], 0);
+    }
+
+    @Test
+    public void testRejectsOtherFiles() {
+        boolean rejected = false;
+        try {
+            BinaryTimeSeriesFile.toDoubleBuffer(ByteBuffer.wrap("1,2,3,4,5,6,7,8,9,10".getBytes()), "csv");
+        } catch (IOException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DiscountFactorsTest {
+
+    private double sumOfDiscountedCashFlows(double cashFlow, int from, int to, double rate) {
+        double value = 0d;
+        for (int i = from; i < to; i++) {
+            value += cashFlow / Math.pow(1 + rate, i);
+        }
+        return value;
+    }
+
+    @Test
+    public void testPresentValueMatchesSumOfDiscountedCashFlows() {
+        DiscountFactors discountFactors = new DiscountFactors(0.08, 60);
+        for (int from = 0; from < 10; from++) {
+            for (int to = from; to < 70; to += 7) {
+                double expected = sumOfDiscountedCashFlows(1000, from, to, 0.08);
+                assertEquals(expected, discountFactors.presentValue(1000, from, to), 1e-8);
+                assertEquals(expected, DiscountFactors.presentValue(1000, from, to, 0.08), 1e-8);
+            }
+        }
+    }
+
+    @Test
+    public void testZeroRate() {
+        assertEquals(3000, new DiscountFactors(0, 10).presentValue(1000, 2, 5), 1e-9);
+        assertEquals(3000, DiscountFactors.presentValue(1000, 2, 5, 0), 1e-9);
+        assertEquals(100, DiscountFactors.loanAnnuity(1000, 10, 0), 1e-9);
+    }
+
+    @Test
+    public void testLoanAnnuityPaysBackTheLoan() {
+        double annuity = DiscountFactors.loanAnnuity(1000, 10, 0.05);
+        // the payments at the end of years 1 to 10 are worth the loan
+        assertEquals(1000, DiscountFactors.presentValue(annuity, 1, 11, 0.05), 1e-9);
+        assertEquals(129.50457496545661, annuity, 1e-9);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class FuelMixSolverTest {
+
+    @Test
+    public void testCheapestFuelIsUsedWhenQualityIsMet() {
+        double[] amounts = FuelMixSolver.solve(new double[] { 3, 2 }, new double[] { 10, 20 }, new double[] { 1, 2 }, 100);
+        assertEquals(0, amounts[0], 1e-9);
+        assertEquals(5, amounts[1], 1e-9);
+    }
+
+    @Test
+    public void testLowQualityFuelIsMixedToMinimumQuality() {
+        // Fuel 0 is cheap but 0.5 below, fuel 1 is 1.0 above the minimum
+        // quality, so two thirds of the energy comes from fuel 0.
+        double[] amounts = FuelMixSolver.solve(new double[] { 1, 10 }, new double[] { 10, 10 }, new double[] { -5, 10 }, 30);
+        assertEquals(2, amounts[0], 1e-9);
+        assertEquals(1, amounts[1], 1e-9);
+        assertEquals(0, amounts[0] * -5 + amounts[1] * 10, 1e-9);
+    }
+
+    @Test
+    public void testCheapestOfSeveralMixesIsChosen() {
+        double[] amounts = FuelMixSolver.solve(new double[] { 1, 10, 4, 20 }, new double[] { 10, 10, 10, 10 }, new double[] { -5, 10,
+                20, 0 }, 30);
+        // Mixing fuel 0 with fuel 2 costs 2.4 * 1 + 0.6 * 4 = 4.8, with fuel 1
+        // 2 * 1 + 1 * 10 = 12 and fuel 3 alone 60.
+        assertEquals(2.4, amounts[0], 1e-9);
+        assertEquals(0, amounts[1], 1e-9);
+        assertEquals(0.6, amounts[2], 1e-9);
+        assertEquals(0, amounts[3], 1e-9);
+    }
+
+    @Test
+    public void testNoSolutionWhenAllFuelsAreBelowMinimumQuality() {
+        assertNull(FuelMixSolver.solve(new double[] { 1, 2 }, new double[] { 10, 10 }, new double[] { -1, -2 }, 30));
+    }
+
+}
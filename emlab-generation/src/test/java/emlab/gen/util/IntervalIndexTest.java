@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntervalIndexTest {
+
+    @Test
+    public void testIntervalsAreClosed() {
+        IntervalIndex index = new IntervalIndex();
+        index.add(0, 4, 1);
+        index.add(5, 9, 2);
+        index.add(3, 6, 3);
+
+        assertEquals(Arrays.asList(1L), index.findContaining(0));
+        assertEquals(Arrays.asList(1L, 3L), index.findContaining(4));
+        assertEquals(Arrays.asList(2L, 3L), index.findContaining(5));
+        assertEquals(Arrays.asList(2L), index.findContaining(9));
+        assertTrue(index.findContaining(10).isEmpty());
+        assertTrue(index.findContaining(-1).isEmpty());
+    }
+
+    @Test
+    public void testRemovedIntervalsAreNotFound() {
+        IntervalIndex index = new IntervalIndex();
+        index.add(0, 10, 1);
+        index.add(0, 10, 2);
+        assertEquals(2, index.findContaining(5).size());
+
+        assertTrue(index.remove(1));
+        assertEquals(Arrays.asList(2L), index.findContaining(5));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRandomIntervalsMatchLinearScan() {
+        Random random = new Random(3);
+        IntervalIndex index = new IntervalIndex();
+        List<long[]> intervals = new ArrayList<long[]>();
+        for (int i = 0; i < 500; i++) {
+            long start = random.nextInt(100);
+            long finish = start + random.nextInt(20);
+            index.add(start, finish, i);
+            intervals.add(new long[] { start, finish });
+            if (i % 50 == 0) {
+                for (long tick = -1; tick <= 120; tick++) {
+                    List<Long> expected = new ArrayList<Long>();
+                    for (int j = 0; j < intervals.size(); j++) {
+                        if (intervals.get(j)[0] <= tick && intervals.get(j)[1] >= tick) {
+                            expected.add((long) j);
+                        }
+                    }
+                    assertEquals(expected, index.findContaining(tick));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LifecycleIntervalsTest {
+
+    private static boolean contains(long[] interval, long tick) {
+        return interval[0] <= tick && tick <= interval[1];
+    }
+
+    @Test
+    public void testIntervalsMatchTheGremlinPredicates() {
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            long constructionStartTime = random.nextInt(30) - 15;
+            long permittime = random.nextInt(3);
+            long leadtime = random.nextInt(5);
+            long finished = LifecycleIntervals.finishedTime(constructionStartTime, permittime, leadtime);
+            // 0 is not dismantled, 1000 is the default of the initial plants
+            long dismantleTime = random.nextInt(4) == 0 ? 0 : random.nextInt(4) == 0 ? 1000 : random.nextInt(40) - 10;
+            double expectedEndOfLife = random.nextBoolean() ? finished + random.nextInt(30) : finished + random.nextDouble() * 30;
+
+            long[] operational = LifecycleIntervals.operational(finished, dismantleTime);
+            long[] expectedOperational = LifecycleIntervals.expectedOperational(finished, expectedEndOfLife);
+            long[] inPipeline = LifecycleIntervals.inPipeline(finished, dismantleTime);
+            for (long tick = -30; tick < 60; tick++) {
+                assertEquals(dismantleTime > tick && finished <= tick, contains(operational, tick));
+                assertEquals(finished <= tick && expectedEndOfLife > tick, contains(expectedOperational, tick));
+                assertEquals(!(finished <= tick) && (dismantleTime > tick || dismantleTime == 0), contains(inPipeline, tick));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelineEndsAtDismantlingBeforeFinishing() {
+        assertTrue(contains(LifecycleIntervals.inPipeline(10, 0), 9));
+        assertFalse(contains(LifecycleIntervals.inPipeline(10, 0), 10));
+        assertTrue(contains(LifecycleIntervals.inPipeline(10, 6), 5));
+        assertFalse(contains(LifecycleIntervals.inPipeline(10, 6), 6));
+    }
+
+    @Test
+    public void testExpectedEndOfLifeIsExclusive() {
+        assertTrue(contains(LifecycleIntervals.expectedOperational(0, 20), 19));
+        assertFalse(contains(LifecycleIntervals.expectedOperational(0, 20), 20));
+        assertTrue(contains(LifecycleIntervals.expectedOperational(0, 19.5), 19));
+        assertFalse(contains(LifecycleIntervals.expectedOperational(0, 19.5), 20));
+    }
+
+    @Test
+    public void testOwnerWithFuelsPartition() {
+        List<String> withFuels = LifecycleIntervals.partitions(4, 7L, true, 9L);
+        assertTrue(withFuels.contains(LifecycleIntervals.OWNER_WITH_FUELS + 7));
+        assertTrue(withFuels.contains(LifecycleIntervals.OWNER + 7));
+        assertTrue(withFuels.contains(LifecycleIntervals.ownerAndZone(7, 9)));
+        assertTrue(withFuels.contains(LifecycleIntervals.TECHNOLOGY + 4));
+
+        List<String> withoutFuels = LifecycleIntervals.partitions(4, 7L, false, 9L);
+        assertFalse(withoutFuels.contains(LifecycleIntervals.OWNER_WITH_FUELS + 7));
+        assertTrue(withoutFuels.contains(LifecycleIntervals.OWNER + 7));
+
+        List<String> withoutOwner = LifecycleIntervals.partitions(4, null, true, 9L);
+        assertEquals(3, withoutOwner.size());
+        assertTrue(withoutOwner.contains(LifecycleIntervals.ZONE + 9));
+    }
+
+}
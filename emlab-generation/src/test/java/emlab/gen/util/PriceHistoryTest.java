@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PriceHistoryTest {
+
+    @Test
+    public void testRecordAndReplace() {
+        PriceHistory history = new PriceHistory();
+        history.record("co2", 3, 10, 100);
+        history.record("co2", 3, 12, 90);
+
+        assertTrue(history.contains("co2", 3));
+        assertFalse(history.contains("co2", 2));
+        assertFalse(history.contains("gas", 3));
+        assertEquals(12, history.getPrice("co2", 3), 0);
+        assertEquals(90, history.getVolume("co2", 3), 0);
+        assertEquals(Double.NaN, history.getPrice("co2", -1), 0);
+    }
+
+    @Test
+    public void testRangesBeyondTheInitialLength() {
+        PriceHistory history = new PriceHistory();
+        history.record("coal", 1, 2, 1);
+        history.record("coal", 2, 4, 1);
+        history.record("coal", 200, 6, 1);
+
+        double[][] prices = history.findPrices("coal", -5, 1000);
+        assertEquals(3, prices.length);
+        assertEquals(200, prices[2][0], 0);
+        assertEquals(6, prices[2][1], 0);
+        assertEquals(3, history.averagePrice("coal", 0, 100), 1e-9);
+        assertEquals(Double.NaN, history.averagePrice("coal", 3, 100), 0);
+        assertEquals(0, history.findPrices("gas", 0, 10).length);
+    }
+
+}
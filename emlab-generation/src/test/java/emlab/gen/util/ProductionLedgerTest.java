@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProductionLedgerTest {
+
+    @Test
+    public void testAddsUpPerPlant() {
+        ProductionLedger ledger = new ProductionLedger();
+        ledger.add(7, 100, 0);
+        ledger.add(3, 50, 0);
+        ledger.add(7, 20, 0);
+        ledger.add(7, 0, 96);
+
+        assertEquals(2, ledger.size());
+        assertEquals(120, ledger.getElectricityOutput(7), 0);
+        assertEquals(96, ledger.getEmissions(7), 0);
+        assertEquals(50, ledger.getElectricityOutput(3), 0);
+        assertEquals(0, ledger.getEmissions(3), 0);
+        assertEquals(170, ledger.getTotalElectricityOutput(), 0);
+    }
+
+    @Test
+    public void testPlantsWithoutProduction() {
+        ProductionLedger ledger = new ProductionLedger();
+        for (long plant = 0; plant < 100; plant++) {
+            ledger.add(plant, plant, 2 * plant);
+        }
+        assertEquals(100, ledger.size());
+        assertEquals(99, ledger.getElectricityOutput(99), 0);
+        assertEquals(0, ledger.getElectricityOutput(100), 0);
+        assertEquals(0, ledger.getEmissions(-1), 0);
+        assertEquals(9900, ledger.getTotalEmissions(), 0);
+    }
+
+    @Test
+    public void testFuelUsePerPlantAndSubstance() {
+        ProductionLedger ledger = new ProductionLedger();
+        ledger.add(7, 100, 0);
+        ledger.addFuelUse(7, 1, 30);
+        ledger.addFuelUse(7, 2, 20);
+        ledger.addFuelUse(7, 1, 5);
+        for (long plant = 100; plant < 140; plant++) {
+            ledger.addFuelUse(plant, 2, plant);
+        }
+
+        assertEquals(41, ledger.size());
+        assertEquals(35, ledger.getFuelUse(7, 1), 0);
+        assertEquals(20, ledger.getFuelUse(7, 2), 0);
+        assertEquals(0, ledger.getFuelUse(7, 3), 0);
+        assertEquals(0, ledger.getFuelUse(139, 1), 0);
+        assertEquals(139, ledger.getFuelUse(139, 2), 0);
+        assertEquals(0, ledger.getFuelUse(140, 2), 0);
+        assertEquals(100, ledger.getElectricityOutput(7), 0);
+    }
+
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+import emlab.gen.util.Settlement.Payment;
+
+public class SettlementTest {
+
+    @Test
+    public void testNetsPerPayerPayeeAndType() {
+        Settlement<String> settlement = new Settlement<String>();
+        settlement.add("producer", "government", 5, 10);
+        settlement.add("producer", "maintainer", 3, 4);
+        settlement.add("producer", "government", 5, 15);
+        settlement.add("producer", "government", 6, 1);
+        settlement.add("other", "government", 5, 2);
+
+        assertEquals(5, settlement.getNumberOfObligations());
+        assertEquals(4, settlement.getPayments().size());
+        Iterator<Payment<String>> payments = settlement.getPayments().iterator();
+        Payment<String> tax = payments.next();
+        assertEquals("producer", tax.from);
+        assertEquals("government", tax.to);
+        assertEquals(5, tax.type);
+        assertEquals(25, tax.money, 0);
+        assertEquals(2, tax.numberOfObligations);
+    }
+
+    @Test
+    public void testCashChanges() {
+        Settlement<String> settlement = new Settlement<String>();
+        settlement.add("producer", "government", 5, 10);
+        settlement.add("government", "producer", 2, 4);
+        settlement.add("producer", null, 7, 1);
+
+        Map<String, Double> changes = settlement.getCashChanges();
+        assertEquals(2, changes.size());
+        assertEquals(-7, changes.get("producer"), 0);
+        assertEquals(6, changes.get("government"), 0);
+        assertNull(changes.get(null));
+        assertEquals(3, settlement.getPayments().size());
+    }
+
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package emlab.gen.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlidingWindowRegressionTest {
+
+    @Test
+    public void testMovingWindowEqualsFreshRegression() {
+        double[] prices = { 5, 1, 1.1, 1.21, 1.331, 1.4641 };
+        SlidingWindowRegression window = new SlidingWindowRegression(true);
+        for (int time = 0; time < 4; time++) {
+            window.addData(time, prices[time]);
+        }
+        // move the window of four years two years ahead
+        window.addData(4, prices[4]);
+        window.addData(5, prices[5]);
+        window.removeDataBefore(2);
+
+        GeometricTrendRegression fresh = new GeometricTrendRegression();
+        for (int time = 2; time < 6; time++) {
+            fresh.addData(time, prices[time]);
+        }
+        assertEquals(4, window.getN());
+        assertEquals(fresh.predict(8), window.predict(8), 1e-9);
+        assertEquals(1.4641, window.getLast(), 1e-9);
+    }
+
+    @Test
+    public void testLastYearIsReplaced() {
+        SlidingWindowRegression window = new SlidingWindowRegression(false);
+        window.addData(0, 1);
+        window.addData(1, 2);
+        window.addData(2, 10);
+        window.removeDataFrom(2);
+        window.addData(2, 3);
+        window.addData(3, 4);
+
+        assertEquals(4, window.getN());
+        assertEquals(5, window.predict(4), 1e-9);
+        assertEquals(2.5, window.getAverage(), 1e-9);
+        assertEquals(4, window.getLast(), 1e-9);
+    }
+
+    @Test
+    public void testEmptyWindow() {
+        SlidingWindowRegression window = new SlidingWindowRegression(false);
+        window.addData(0, 1);
+        window.removeDataBefore(1);
+
+        assertEquals(0, window.getN());
+        assertEquals(0, window.getLast(), 0);
+        assertEquals(Double.NaN, window.getAverage(), 0);
+    }
+
+}